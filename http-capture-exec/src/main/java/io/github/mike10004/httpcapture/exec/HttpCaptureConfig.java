@@ -1,5 +1,6 @@
 package io.github.mike10004.httpcapture.exec;
 
+import io.github.mike10004.httpcapture.RotationPolicy;
 import org.apache.commons.io.FileUtils;
 
 import javax.annotation.Nullable;
@@ -34,8 +35,101 @@ class HttpCaptureConfig {
 
     public CaptureMode captureMode = CaptureMode.WRITE_HAR;
 
+    /**
+     * Flag that specifies HAR entries are to be written to the output file as they are
+     * captured, rather than held in memory until the server is stopped.
+     */
+    public boolean streamHar;
+
+    /**
+     * Policy by which HAR output is split into a series of segment files, each a standalone HAR.
+     * Entries are written as they are captured, as with {@link #streamHar}. Null means a single file.
+     */
+    @Nullable
+    public RotationPolicy segmentPolicy;
+
+    /**
+     * Compression level of gzip-compressed HAR output, from 0 to 9, or -1 for the default level.
+     * Null means the output is not compressed. Segmented output is not compressed.
+     */
+    @Nullable
+    public Integer gzipLevel;
+
+    /**
+     * Maximum number of bytes of each request and response body to keep. Null means no limit.
+     */
+    @Nullable
+    public Long maxContentBytes;
+
+    /**
+     * Directory of the body store in which response content is kept. Used when capturing
+     * and when exporting. Null means content is kept in the HAR.
+     */
+    @Nullable
+    public Path bodyStoreDir;
+
     public boolean export;
 
+    /**
+     * Number of threads that write files when exporting.
+     */
+    public int exportThreads = 1;
+
+    /**
+     * Flag that specifies export to a pack file and index instead of a directory per entry.
+     */
+    public boolean exportPack;
+
+    /**
+     * Flag that specifies an elliptic curve root key is generated instead of an RSA key.
+     */
+    public boolean ecRootKey;
+
+    /**
+     * Keystore file from which the root certificate and key are loaded, or to which a generated
+     * root is saved. Null means a new root is generated for each session.
+     */
+    @Nullable
+    public Path rootKeystoreFile;
+
+    /**
+     * Password of the root keystore file.
+     */
+    @Nullable
+    public String rootKeystorePassword;
+
+    /**
+     * File from which certificates generated for intercepted hosts are loaded, and to which
+     * they are saved when the server is stopped. Encrypted with the root keystore password.
+     */
+    @Nullable
+    public Path leafCertificateCacheFile;
+
+    /**
+     * HAR file from which to take the HTTPS hosts for which certificates are generated at startup.
+     */
+    @Nullable
+    public File prewarmHarFile;
+
+    /**
+     * Loopback port of a shared certificate service. If {@link #serveCertificates} is false,
+     * root and host certificates are obtained from the service instead of being generated
+     * by this process.
+     */
+    @Nullable
+    public Integer certificateServicePort;
+
+    /**
+     * Secret that clients of the certificate service must present.
+     */
+    @Nullable
+    public String certificateServiceSecret;
+
+    /**
+     * Flag that specifies this process runs the certificate service instead of a capture server.
+     */
+    public boolean serveCertificates;
+
     @Nullable
     public String exportInputPathname;
 
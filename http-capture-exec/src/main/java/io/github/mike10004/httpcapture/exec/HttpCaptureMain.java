@@ -1,12 +1,16 @@
 package io.github.mike10004.httpcapture.exec;
 
 import com.google.common.annotations.VisibleForTesting;
+import io.github.mike10004.httpcapture.RotationPolicy;
 import joptsimple.OptionParser;
 import joptsimple.OptionSet;
 
+import javax.annotation.Nullable;
 import java.io.File;
 import java.io.PrintStream;
+import java.time.Duration;
 import java.util.Arrays;
+import java.util.zip.Deflater;
 
 public class HttpCaptureMain {
 
@@ -16,6 +20,24 @@ public class HttpCaptureMain {
     private static final String OPT_BROWSER = "browser";
     private static final String OPT_KEEP_BROWSER_OPEN = "keep-browser-open";
     private static final String OPT_BROWSER_ARGS = "browser-args";
+    private static final String OPT_STREAM = "stream";
+    private static final String OPT_MAX_CONTENT_SIZE = "max-content-size";
+    private static final String OPT_BODY_STORE = "body-store";
+    private static final String OPT_GZIP = "gzip";
+    private static final String OPT_GZIP_LEVEL = "gzip-level";
+    private static final String OPT_SEGMENT_ENTRIES = "segment-entries";
+    private static final String OPT_SEGMENT_SIZE = "segment-size";
+    private static final String OPT_SEGMENT_MINUTES = "segment-minutes";
+    private static final String OPT_EXPORT_THREADS = "export-threads";
+    private static final String OPT_EXPORT_PACK = "export-pack";
+    private static final String OPT_EC_ROOT_KEY = "ec-root-key";
+    private static final String OPT_ROOT_KEYSTORE = "root-keystore";
+    private static final String OPT_LEAF_CERTIFICATE_CACHE = "leaf-certificate-cache";
+    private static final String OPT_PREWARM_HAR = "prewarm-har";
+    private static final String OPT_CERTIFICATE_SERVICE = "certificate-service";
+    private static final String OPT_SERVE_CERTIFICATES = "serve-certificates";
+    static final String ENV_ROOT_KEYSTORE_PASSWORD = "HTTP_CAPTURE_ROOT_KEYSTORE_PASSWORD";
+    static final String ENV_CERTIFICATE_SERVICE_SECRET = "HTTP_CAPTURE_CERTIFICATE_SERVICE_SECRET";
 
     @VisibleForTesting
     HttpCaptureMain() {
@@ -36,6 +58,33 @@ public class HttpCaptureMain {
         parser.accepts(OPT_KEEP_BROWSER_OPEN, "do not kill browser when server is stopped");
         parser.accepts(OPT_BROWSER_ARGS, "extra arguments for browser command line; use CSV syntax for multiple args")
                 .withRequiredArg().ofType(String.class).describedAs("ARGS");
+        parser.accepts(OPT_STREAM, "write HAR entries to output file as they are captured");
+        parser.accepts(OPT_MAX_CONTENT_SIZE, "keep at most this many bytes of each request and response body")
+                .withRequiredArg().ofType(Long.class).describedAs("BYTES");
+        parser.accepts(OPT_BODY_STORE, "keep each distinct response body once in a directory, referenced from the HAR by hash")
+                .withRequiredArg().ofType(String.class).describedAs("DIR");
+        parser.accepts(OPT_GZIP, "write gzip-compressed HAR output");
+        parser.accepts(OPT_GZIP_LEVEL, "compression level of gzip output, 0-9; implies --" + OPT_GZIP)
+                .withRequiredArg().ofType(Integer.class).describedAs("LEVEL");
+        parser.accepts(OPT_SEGMENT_ENTRIES, "write output in segment files of at most this many entries")
+                .withRequiredArg().ofType(Integer.class).describedAs("N");
+        parser.accepts(OPT_SEGMENT_SIZE, "start a new segment file after this many bytes")
+                .withRequiredArg().ofType(Long.class).describedAs("BYTES");
+        parser.accepts(OPT_SEGMENT_MINUTES, "start a new segment file after this many minutes")
+                .withRequiredArg().ofType(Integer.class).describedAs("MINUTES");
+        parser.accepts(OPT_EXPORT_THREADS, "number of threads that write exported files")
+                .withRequiredArg().ofType(Integer.class).describedAs("N");
+        parser.accepts(OPT_EXPORT_PACK, "export to a single indexed pack file instead of a directory per entry");
+        parser.accepts(OPT_EC_ROOT_KEY, "generate an elliptic curve root key instead of an RSA key");
+        parser.accepts(OPT_ROOT_KEYSTORE, "load root certificate from keystore file, or save generated root to it; password is read from " + ENV_ROOT_KEYSTORE_PASSWORD)
+                .withRequiredArg().ofType(String.class).describedAs("FILE");
+        parser.accepts(OPT_LEAF_CERTIFICATE_CACHE, "load host certificates from file and save them on exit; requires --" + OPT_ROOT_KEYSTORE)
+                .withRequiredArg().ofType(String.class).describedAs("FILE");
+        parser.accepts(OPT_PREWARM_HAR, "generate certificates at startup for HTTPS hosts in a HAR file")
+                .withRequiredArg().ofType(String.class).describedAs("FILE");
+        parser.accepts(OPT_CERTIFICATE_SERVICE, "get certificates from a certificate service on this loopback port; secret is read from " + ENV_CERTIFICATE_SERVICE_SECRET)
+                .withRequiredArg().ofType(Integer.class).describedAs("PORT");
+        parser.accepts(OPT_SERVE_CERTIFICATES, "run the certificate service instead of a capture server; requires --" + OPT_CERTIFICATE_SERVICE);
         OptionSet options = parser.parse(args);
         if (options.has("help")) {
             parser.printHelpOn(stdout());
@@ -51,6 +100,11 @@ public class HttpCaptureMain {
         return System.out;
     }
 
+    @Nullable
+    protected String getenv(String name) {
+        return System.getenv(name);
+    }
+
     protected HttpCaptureConfig parameterizeConfig(OptionParser parser, OptionSet options) {
         HttpCaptureConfig config = new HttpCaptureConfig();
         config.port = (Integer) options.valueOf(OPT_PORT);
@@ -62,6 +116,49 @@ public class HttpCaptureMain {
         config.browser = (Browser) options.valueOf(OPT_BROWSER);
         config.browserArgs = (String) options.valueOf(OPT_BROWSER_ARGS);
         config.keepBrowserOpen = options.has(OPT_KEEP_BROWSER_OPEN);
+        config.streamHar = options.has(OPT_STREAM);
+        config.maxContentBytes = (Long) options.valueOf(OPT_MAX_CONTENT_SIZE);
+        if (options.has(OPT_BODY_STORE)) {
+            config.bodyStoreDir = new File((String) options.valueOf(OPT_BODY_STORE)).toPath();
+        }
+        if (options.has(OPT_GZIP_LEVEL)) {
+            config.gzipLevel = (Integer) options.valueOf(OPT_GZIP_LEVEL);
+        } else if (options.has(OPT_GZIP)) {
+            config.gzipLevel = Deflater.DEFAULT_COMPRESSION;
+        }
+        if (options.has(OPT_SEGMENT_ENTRIES) || options.has(OPT_SEGMENT_SIZE) || options.has(OPT_SEGMENT_MINUTES)) {
+            RotationPolicy.Builder segmentPolicy = RotationPolicy.builder();
+            if (options.has(OPT_SEGMENT_ENTRIES)) {
+                segmentPolicy.maxEntries((Integer) options.valueOf(OPT_SEGMENT_ENTRIES));
+            }
+            if (options.has(OPT_SEGMENT_SIZE)) {
+                segmentPolicy.maxBytes((Long) options.valueOf(OPT_SEGMENT_SIZE));
+            }
+            if (options.has(OPT_SEGMENT_MINUTES)) {
+                segmentPolicy.maxAge(Duration.ofMinutes((Integer) options.valueOf(OPT_SEGMENT_MINUTES)));
+            }
+            config.segmentPolicy = segmentPolicy.build();
+        }
+        if (options.has(OPT_EXPORT_THREADS)) {
+            config.exportThreads = (Integer) options.valueOf(OPT_EXPORT_THREADS);
+        }
+        config.exportPack = options.has(OPT_EXPORT_PACK);
+        config.ecRootKey = options.has(OPT_EC_ROOT_KEY);
+        if (options.has(OPT_ROOT_KEYSTORE)) {
+            config.rootKeystoreFile = new File((String) options.valueOf(OPT_ROOT_KEYSTORE)).toPath();
+            config.rootKeystorePassword = getenv(ENV_ROOT_KEYSTORE_PASSWORD);
+        }
+        if (options.has(OPT_LEAF_CERTIFICATE_CACHE)) {
+            config.leafCertificateCacheFile = new File((String) options.valueOf(OPT_LEAF_CERTIFICATE_CACHE)).toPath();
+        }
+        if (options.has(OPT_PREWARM_HAR)) {
+            config.prewarmHarFile = new File((String) options.valueOf(OPT_PREWARM_HAR));
+        }
+        if (options.has(OPT_CERTIFICATE_SERVICE)) {
+            config.certificateServicePort = (Integer) options.valueOf(OPT_CERTIFICATE_SERVICE);
+            config.certificateServiceSecret = getenv(ENV_CERTIFICATE_SERVICE_SECRET);
+        }
+        config.serveCertificates = options.has(OPT_SERVE_CERTIFICATES);
         return config;
     }
 
@@ -4,18 +4,31 @@ import com.github.mike10004.nativehelper.subprocess.ProcessMonitor;
 import com.github.mike10004.nativehelper.subprocess.ScopedProcessTracker;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
-import com.google.common.io.CharSource;
+import com.google.common.io.ByteSource;
+import com.google.common.io.CharSink;
 import com.google.common.net.HostAndPort;
 import com.opencsv.CSVReader;
+import io.github.mike10004.httpcapture.AsyncCaptureMonitor;
 import io.github.mike10004.httpcapture.AutoCertificateAndKeySource;
 import io.github.mike10004.httpcapture.BasicCaptureServer;
+import io.github.mike10004.httpcapture.BodyStore;
+import io.github.mike10004.httpcapture.CaptureLimits;
 import io.github.mike10004.httpcapture.CaptureServer;
 import io.github.mike10004.httpcapture.CaptureServerControl;
+import io.github.mike10004.httpcapture.CertificateService;
+import io.github.mike10004.httpcapture.CertificateServiceClient;
 import io.github.mike10004.httpcapture.HarCaptureMonitor;
-import io.github.mike10004.httpcapture.ImmutableHttpRequest;
-import io.github.mike10004.httpcapture.ImmutableHttpResponse;
+import io.github.mike10004.httpcapture.HarIndex;
+import io.github.mike10004.httpcapture.HttpExchange;
+import io.github.mike10004.httpcapture.ImpersonationCertificateCache;
+import io.github.mike10004.httpcapture.ParallelGzipOutputStream;
+import io.github.mike10004.httpcapture.RotationPolicy;
+import io.github.mike10004.httpcapture.explode.ExportSummary;
 import io.github.mike10004.httpcapture.explode.HarExporter;
 import net.lightbody.bmp.core.har.Har;
+import net.lightbody.bmp.mitm.CertificateAndKeySource;
+import net.lightbody.bmp.mitm.keys.ECKeyGenerator;
+import net.lightbody.bmp.mitm.tools.DefaultSecurityProviderTool;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
 import org.slf4j.Logger;
@@ -31,6 +44,8 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
 
 import static java.util.Objects.requireNonNull;
@@ -49,20 +64,132 @@ class HttpCaptureProgram {
         if (config.export && config.exportInputPathname != null) {
             return export(config.exportInputPathname, config.outputParent);
         }
+        if (config.serveCertificates) {
+            return serveCertificates();
+        }
         return serve();
     }
 
+    /**
+     * Runs a certificate service that shares one root certificate and one cache of host
+     * certificates among capture processes, until the process is terminated.
+     * @return the exit code
+     * @throws IOException if the service cannot be started
+     * @throws InterruptedException if waiting is interrupted
+     */
+    public int serveCertificates() throws IOException, InterruptedException {
+        if (config.certificateServicePort == null) {
+            config.stderr.println("http-capture: certificate service port must be specified");
+            return 1;
+        }
+        if (config.certificateServiceSecret == null) {
+            config.stderr.println("http-capture: certificate service secret must be set in environment variable " + HttpCaptureMain.ENV_CERTIFICATE_SERVICE_SECRET);
+            return 1;
+        }
+        AutoCertificateAndKeySource certificateSource = createRootCertificateSource();
+        if (certificateSource == null) {
+            return 1;
+        }
+        CompletableFuture<Void> rootGeneration = certificateSource.generateInBackground();
+        ImpersonationCertificateCache leafCertificateCache = createLeafCertificateCache();
+        prewarm(leafCertificateCache, certificateSource, rootGeneration);
+        CertificateService service = new CertificateService(certificateSource, leafCertificateCache, config.certificateServiceSecret);
+        int port = service.start(config.certificateServicePort);
+        getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                service.close();
+            } catch (IOException e) {
+                log.warn("failed to close certificate service: {}", e.toString());
+            }
+            if (config.leafCertificateCacheFile != null) {
+                makeSaveLeafCertificatesAction(leafCertificateCache, config.leafCertificateCacheFile, requireNonNull(config.rootKeystorePassword)).run();
+            }
+        }));
+        config.stderr.format("http-capture: certificate service ready; listening on port %d%n", port);
+        waitForSignal();
+        return 0;
+    }
+
     public int serve() throws IOException, InterruptedException {
+        if (config.gzipLevel != null && !ParallelGzipOutputStream.isValidLevel(config.gzipLevel)) {
+            config.stderr.println("http-capture: gzip level must be in range 0-9");
+            return 1;
+        }
         BasicCaptureServer.Builder builder = BasicCaptureServer.builder();
+        CertificateAndKeySource certificateSource;
+        ImpersonationCertificateCache leafCertificateCache;
+        CompletableFuture<Void> rootGeneration;
+        if (config.certificateServicePort != null) {
+            if (config.certificateServiceSecret == null) {
+                config.stderr.println("http-capture: certificate service secret must be set in environment variable " + HttpCaptureMain.ENV_CERTIFICATE_SERVICE_SECRET);
+                return 1;
+            }
+            if (config.rootKeystoreFile != null || config.leafCertificateCacheFile != null) {
+                config.stderr.println("http-capture: keystore and certificate cache files are managed by the certificate service");
+                return 1;
+            }
+            CertificateServiceClient client = new CertificateServiceClient(config.certificateServicePort, config.certificateServiceSecret);
+            certificateSource = client.rootSource();
+            leafCertificateCache = client.createLeafCache();
+            rootGeneration = CompletableFuture.runAsync(certificateSource::load);
+            rootGeneration.whenComplete((ignore, e) -> {
+                if (e != null) {
+                    log.warn("failed to fetch root certificate from certificate service", e);
+                }
+            });
+        } else {
+            AutoCertificateAndKeySource autoCertificateSource = createRootCertificateSource();
+            if (autoCertificateSource == null) {
+                return 1;
+            }
+            certificateSource = autoCertificateSource;
+            leafCertificateCache = createLeafCertificateCache();
+            rootGeneration = autoCertificateSource.generateInBackground();
+        }
+        builder.collectHttps(certificateSource);
+        builder.impersonationCertificateCache(leafCertificateCache);
+        prewarm(leafCertificateCache, certificateSource, rootGeneration);
+        OutputSink outputSink = config.gzipLevel == null
+                ? OutputSink.toFileInParent(config.outputParent, config.charset)
+                : OutputSink.toGzipFileInParent(config.outputParent, config.charset, config.gzipLevel);
+        RotationPolicy segmentPolicy = config.segmentPolicy;
+        if (config.captureMode.isWriteHar() && segmentPolicy != null) {
+            if (!(outputSink instanceof OutputSink.Segmentable)) {
+                config.stderr.println("http-capture: segmented output is not supported by " + outputSink.describe());
+                return 1;
+            }
+            OutputSink.Segmentable segmentableSink = (OutputSink.Segmentable) outputSink;
+            builder.streamHar(() -> segmentableSink.openSegmented(segmentPolicy));
+        } else if (config.captureMode.isWriteHar() && config.streamHar) {
+            builder.streamHar(new CharSink() {
+                @Override
+                public Writer openStream() throws IOException {
+                    return outputSink.openStream(null);
+                }
+            });
+        }
+        if (config.maxContentBytes != null) {
+            builder.captureLimits(CaptureLimits.builder()
+                    .maxRequestContentBytes(config.maxContentBytes)
+                    .maxResponseContentBytes(config.maxContentBytes)
+                    .build());
+        }
+        if (config.bodyStoreDir != null) {
+            builder.bodyStore(BodyStore.inDirectory(config.bodyStoreDir));
+        }
         Path tempdir = java.nio.file.Files.createTempDirectory(config.tempdirParent, "http-capture-trust");
-        builder.collectHttps(new AutoCertificateAndKeySource(tempdir));
         CaptureServer server = builder.build();
         HarCaptureMonitor monitor = createMonitor();
-        CaptureServerControl ctrl = server.start(monitor, config.port);
+        // report output is written on a separate thread so that it does not hold up proxied traffic
+        AsyncCaptureMonitor asyncMonitor = new AsyncCaptureMonitor(monitor);
+        CaptureServerControl ctrl = server.start(asyncMonitor, config.port);
         serverStarted(ctrl);
-        OutputSink outputSink = OutputSink.toFileInParent(config.outputParent, config.charset);
         SigtermHook hook = new SigtermHook(ctrl, monitor, outputSink);
+        hook.addPostCompletionAction(asyncMonitor::close);
         hook.addPostCompletionAction(makeDeleteDirAction(tempdir));
+        if (config.leafCertificateCacheFile != null) {
+            hook.addPostCompletionAction(makeSaveLeafCertificatesAction(leafCertificateCache, config.leafCertificateCacheFile, requireNonNull(config.rootKeystorePassword)));
+        }
         getRuntime().addShutdownHook(new Thread(hook.asRunnable()));
         config.stderr.format("http-capture: ready; listening on port %d%n", ctrl.getPort());
         if (config.browser != null) {
@@ -110,17 +237,24 @@ class HttpCaptureProgram {
             config.stderr.println("http-capture: invalid input file pathname");
             return 1;
         }
-        HarExporter exploder = new HarExporter();
-        CharSource harSource = com.google.common.io.Files.asCharSource(inputFile, config.charset);
-        exploder.export(harSource, destination);
+        if (config.exportThreads < 1) {
+            config.stderr.println("http-capture: number of export threads must be positive");
+            return 1;
+        }
+        HarExporter exploder = new HarExporter(config.bodyStoreDir == null ? null : BodyStore.inDirectory(config.bodyStoreDir), config.exportThreads);
+        ByteSource harSource = com.google.common.io.Files.asByteSource(inputFile);
+        ExportSummary summary = config.exportPack
+                ? exploder.exportToPack(harSource, config.charset, destination)
+                : exploder.export(harSource, config.charset, destination);
+        config.stderr.format("http-capture: exported %s to %s%n", summary, destination);
         return 0;
     }
 
     private class CustomCaptureMonitor extends HarCaptureMonitor {
         @Override
-        public void responseReceived(ImmutableHttpRequest httpRequest, ImmutableHttpResponse httpResponse) {
+        public void exchangeCompleted(HttpExchange exchange) {
             if (config.interceptMode.isReport()) {
-                config.stderr.format("%d %s %s%n", httpResponse.status, httpRequest.method, httpRequest.url);
+                config.stderr.format("%d %s %s%n", exchange.getStatus(), exchange.getMethod(), exchange.getUrl());
             }
         }
     }
@@ -138,6 +272,73 @@ class HttpCaptureProgram {
         new CountDownLatch(1).await();
     }
 
+    private static String getExportDirName(File harFile) {
+        String filename = harFile.getName();
+        if ("gz".equalsIgnoreCase(FilenameUtils.getExtension(filename))) {
+            filename = FilenameUtils.removeExtension(filename);
+        }
+        return FilenameUtils.getBaseName(filename);
+    }
+
+    @Nullable
+    private AutoCertificateAndKeySource createRootCertificateSource() {
+        AutoCertificateAndKeySource.Builder certificateSourceBuilder = AutoCertificateAndKeySource.builder();
+        if (config.ecRootKey) {
+            certificateSourceBuilder.ellipticCurveKeys();
+        }
+        if (config.rootKeystoreFile != null) {
+            if (config.rootKeystorePassword == null) {
+                config.stderr.println("http-capture: root keystore password must be set in environment variable " + HttpCaptureMain.ENV_ROOT_KEYSTORE_PASSWORD);
+                return null;
+            }
+            certificateSourceBuilder.persistKeystore(config.rootKeystoreFile, config.rootKeystorePassword);
+        }
+        if (config.leafCertificateCacheFile != null && config.rootKeystoreFile == null) {
+            config.stderr.println("http-capture: leaf certificate cache requires a root keystore");
+            return null;
+        }
+        return certificateSourceBuilder.build();
+    }
+
+    private void prewarm(ImpersonationCertificateCache leafCertificateCache, CertificateAndKeySource certificateSource, CompletableFuture<Void> rootGeneration) throws IOException {
+        if (config.prewarmHarFile != null) {
+            Set<String> hosts = ImpersonationCertificateCache.findHttpsHosts(HarIndex.open(config.prewarmHarFile));
+            rootGeneration.thenRunAsync(() -> leafCertificateCache.prewarm(certificateSource, hosts))
+                    .whenComplete((ignore, e) -> {
+                        if (e != null) {
+                            log.warn("failed to prewarm leaf certificate cache: {}", e.toString());
+                        }
+                    });
+        }
+    }
+
+    private ImpersonationCertificateCache createLeafCertificateCache() {
+        ImpersonationCertificateCache cache = config.ecRootKey
+                ? new ImpersonationCertificateCache(ImpersonationCertificateCache.DEFAULT_MAX_SIZE, ImpersonationCertificateCache.DEFAULT_TIME_TO_LIVE, new ECKeyGenerator(), new DefaultSecurityProviderTool())
+                : new ImpersonationCertificateCache();
+        Path file = config.leafCertificateCacheFile;
+        if (file != null && file.toFile().isFile()) {
+            try {
+                int loaded = cache.load(file, requireNonNull(config.rootKeystorePassword));
+                log.debug("loaded {} certificates from {}", loaded, file);
+            } catch (IOException e) {
+                log.warn("failed to load certificates from {}: {}", file, e.toString());
+            }
+        }
+        return cache;
+    }
+
+    private static Runnable makeSaveLeafCertificatesAction(ImpersonationCertificateCache cache, Path file, String password) {
+        return () -> {
+            try {
+                cache.save(file, password);
+                log.debug("saved certificates to {}; {}", file, cache.getStats());
+            } catch (IOException e) {
+                log.warn("failed to save certificates to {}: {}", file, e.toString());
+            }
+        };
+    }
+
     private static Runnable makeDeleteDirAction(Path directory) {
         return () -> {
             try {
@@ -210,23 +411,27 @@ class HttpCaptureProgram {
         public void complete() {
             try {
                 if (serverControl.isStarted()) {
+                    // in streaming mode, closing the server completes the output file
                     serverControl.close();
                     if (config.captureMode.isWriteHar()) {
-                        Har har = monitor.getCapturedHar();
-                        config.stderr.format("http-capture: writing %d HTTP interactions to %s%n", har.getLog().getEntries().size(), outputSink.describe());
-                        try (Writer out = outputSink.openStream(har)) {
-                            har.writeTo(out);
+                        if (!config.streamHar && config.segmentPolicy == null) {
+                            Har har = monitor.getCapturedHar();
+                            config.stderr.format("http-capture: writing %d HTTP interactions to %s%n", har.getLog().getEntries().size(), outputSink.describe());
+                            try (Writer out = outputSink.openStream(har)) {
+                                har.writeTo(out);
+                            }
                         }
                         config.stderr.format("http-capture: wrote %s%n", outputSink.describe());
                         if (config.export) {
-                            File harFile = outputSink.mostRecentFile();
-                            if (harFile != null) {
-                                String subdirName = FilenameUtils.getBaseName(harFile.getAbsolutePath());
+                            List<File> harFiles = outputSink.harFiles();
+                            for (File harFile : harFiles) {
+                                String subdirName = getExportDirName(harFile);
                                 File exportDir = config.outputParent.resolve(subdirName).toFile();
                                 //noinspection ResultOfMethodCallIgnored
                                 exportDir.mkdirs();
                                 export(harFile.getAbsolutePath(), exportDir.toPath());
-                            } else {
+                            }
+                            if (harFiles.isEmpty()) {
                                 log.error("output sink did not create a file");
                             }
                         }
@@ -1,11 +1,17 @@
 package io.github.mike10004.httpcapture.exec;
 
+import io.github.mike10004.httpcapture.HarSegment;
+import io.github.mike10004.httpcapture.HarStreamWriter;
+import io.github.mike10004.httpcapture.ParallelGzipOutputStream;
+import io.github.mike10004.httpcapture.RollingHarWriter;
+import io.github.mike10004.httpcapture.RotationPolicy;
 import net.lightbody.bmp.core.har.Har;
 
 import javax.annotation.Nullable;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.nio.charset.Charset;
@@ -13,17 +19,36 @@ import java.nio.file.Path;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 
 public interface OutputSink {
 
-    Writer openStream(Har har) throws IOException;
+    /**
+     * Opens a stream to which a HAR is to be written.
+     * @param har the HAR to be written, or null if entries are to be streamed as they are captured
+     * @return a writer
+     * @throws IOException on I/O error
+     */
+    Writer openStream(@Nullable Har har) throws IOException;
 
     @Nullable
     default File mostRecentFile() {
         return null;
     }
 
+    /**
+     * Gets the HAR files that have been written to this sink.
+     * @return list of HAR files
+     * @throws IOException if the list of files could not be read
+     */
+    default List<File> harFiles() throws IOException {
+        File mostRecentFile = mostRecentFile();
+        return mostRecentFile == null ? Collections.emptyList() : Collections.singletonList(mostRecentFile);
+    }
+
     default String describe() {
         return toString();
     }
@@ -32,16 +57,59 @@ public interface OutputSink {
         return new FileOutputSink(parentDir, charset);
     }
 
-    class FileOutputSink implements OutputSink {
+    /**
+     * Returns a sink that writes gzip-compressed HAR files in a directory.
+     * @param parentDir the directory
+     * @param charset charset of the uncompressed content
+     * @param level compression level
+     * @return a new sink
+     */
+    static OutputSink toGzipFileInParent(Path parentDir, Charset charset, int level) {
+        return new FileOutputSink(parentDir, charset, level);
+    }
+
+    /**
+     * Interface for sinks that can also stream HAR entries in a series of segment files.
+     * Callers that need segmented output check whether a sink implements this interface.
+     */
+    interface Segmentable extends OutputSink {
+
+        /**
+         * Opens a writer to which HAR entries are streamed in a series of segment files.
+         * @param policy the policy by which output is split into segments
+         * @return a writer that has not yet been started
+         * @throws IOException on I/O error
+         */
+        HarStreamWriter openSegmented(RotationPolicy policy) throws IOException;
+
+    }
+
+    class FileOutputSink implements Segmentable {
 
         private final Path parentDir;
         private final Charset charset;
         private final DateFormat dateFormat = new SimpleDateFormat("yyyyMMdd'T'HHmmss");
         private File mostRecentFile;
+        @Nullable
+        private RollingHarWriter segmentedWriter;
+
+        @Nullable
+        private final Integer gzipLevel;
 
         public FileOutputSink(Path parentDir, Charset charset) {
+            this(parentDir, charset, null);
+        }
+
+        /**
+         * Constructs an instance.
+         * @param parentDir directory in which files are written
+         * @param charset charset of the files
+         * @param gzipLevel compression level of gzip output; null means uncompressed
+         */
+        public FileOutputSink(Path parentDir, Charset charset, @Nullable Integer gzipLevel) {
             this.parentDir = parentDir;
             this.charset = charset;
+            this.gzipLevel = gzipLevel;
         }
 
         @Nullable
@@ -51,15 +119,54 @@ public interface OutputSink {
         }
 
         @Override
-        public Writer openStream(Har har) throws IOException {
+        public Writer openStream(@Nullable Har har) throws IOException {
             File outputFile = parentDir.resolve(constructFilename(har)).toFile();
             mostRecentFile = outputFile;
             com.google.common.io.Files.createParentDirs(outputFile);
-            return new OutputStreamWriter(new FileOutputStream(outputFile), charset);
+            OutputStream out = new FileOutputStream(outputFile);
+            if (gzipLevel != null) {
+                try {
+                    out = new ParallelGzipOutputStream(out, gzipLevel);
+                } catch (RuntimeException e) {
+                    out.close();
+                    throw e;
+                }
+            }
+            return new OutputStreamWriter(out, charset);
+        }
+
+        /**
+         * Opens a writer of segment files. The most recent file is the segment index file.
+         * @param policy the policy by which output is split into segments
+         * @return the writer
+         */
+        @Override
+        public HarStreamWriter openSegmented(RotationPolicy policy) {
+            RollingHarWriter writer = new RollingHarWriter(parentDir, constructPrefix(), charset, policy);
+            segmentedWriter = writer;
+            mostRecentFile = writer.getIndexFile().toFile();
+            return writer;
+        }
+
+        @Override
+        public List<File> harFiles() throws IOException {
+            RollingHarWriter segmentedWriter = this.segmentedWriter;
+            if (segmentedWriter == null) {
+                return Segmentable.super.harFiles();
+            }
+            List<File> files = new ArrayList<>();
+            for (HarSegment segment : segmentedWriter.getCompletedSegments()) {
+                files.add(parentDir.resolve(segment.getFile()).toFile());
+            }
+            return files;
+        }
+
+        protected String constructFilename(@Nullable Har har) {
+            return constructPrefix() + (gzipLevel == null ? ".har" : ".har.gz");
         }
 
-        protected String constructFilename(Har har) {
-            return String.format("http-capture-%s.har", timestamp());
+        protected String constructPrefix() {
+            return String.format("http-capture-%s", timestamp());
         }
 
         protected String timestamp() {
@@ -68,6 +68,16 @@ public class HttpCaptureProgramTest {
         assertTrue("json contains URL", json.contains("www.microsoft.com"));
     }
 
+    @Test
+    public void execute_serve_invalidGzipLevel() throws Exception {
+        UnitTestProgram program = new UnitTestProgram();
+        program.config.gzipLevel = 15;
+        int exitCode = program.execute();
+        assertEquals("exit code", 1, exitCode);
+        assertTrue("no shutdown hooks added", program.rt.threadsAdded.isEmpty());
+        assertEquals("files in output directory", 0, java.nio.file.Files.list(program.config.outputParent).count());
+    }
+
     private static class FakeRuntime implements HttpCaptureProgram.RuntimeFacade {
 
         public List<Thread> threadsAdded = new CopyOnWriteArrayList<>();
@@ -1,10 +1,15 @@
 package io.github.mike10004.httpcapture.exec;
 
+import io.github.mike10004.httpcapture.HarStreamWriter;
+import io.github.mike10004.httpcapture.RotationPolicy;
 import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
 import org.junit.Test;
 import org.junit.experimental.runners.Enclosed;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 
+import java.io.File;
 import java.nio.charset.StandardCharsets;
 
 import static org.junit.Assert.*;
@@ -14,12 +19,26 @@ public class OutputSinkTest {
 
     public static class FileOutputSinkTest {
 
+        @Rule
+        public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
         @Test
         public void timestamp() throws Exception {
             OutputSink.FileOutputSink sink = new OutputSink.FileOutputSink(FileUtils.getUserDirectory().toPath(), StandardCharsets.UTF_8);
             String stamp = sink.timestamp();
             assertTrue("stamp in correct format", stamp.matches("\\d{8}T\\d{6}"));
         }
+
+        @Test
+        public void openSegmented() throws Exception {
+            File dir = temporaryFolder.getRoot();
+            OutputSink sink = OutputSink.toFileInParent(dir.toPath(), StandardCharsets.UTF_8);
+            assertTrue("segmentable", sink instanceof OutputSink.Segmentable);
+            HarStreamWriter writer = ((OutputSink.Segmentable) sink).openSegmented(RotationPolicy.builder().maxEntries(1).build());
+            writer.close();
+            assertNotNull("most recent file", sink.mostRecentFile());
+            assertEquals("most recent file parent", dir, sink.mostRecentFile().getParentFile());
+        }
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,329 @@
+package io.github.mike10004.httpcapture;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import net.lightbody.bmp.core.har.Har;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.net.URI;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Monitor that forwards response notifications to another monitor on a dedicated thread.
+ * Notifications are placed in a bounded queue by the proxy's I/O threads and delivered
+ * to the delegate in order by a consumer thread, so that a slow monitor does not stall
+ * proxied traffic. When the queue is full, the {@link OverflowPolicy} determines whether
+ * the caller waits or a notification is dropped. The default policy drops the new
+ * notification, because waiting would stall the proxy I/O thread that is delivering it.
+ *
+ * <p>{@link #harCaptured(Har)} waits until queued notifications have been delivered before
+ * it is forwarded, so the delegate observes the same order of calls as it would if it
+ * were used directly.
+ */
+public class AsyncCaptureMonitor implements CaptureMonitor, Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(AsyncCaptureMonitor.class);
+
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private static final ThreadFactory THREAD_FACTORY = new ThreadFactoryBuilder()
+            .setDaemon(true)
+            .setNameFormat("http-capture-monitor-%d")
+            .build();
+
+    /**
+     * Enumeration of actions to take when a notification arrives and the queue is full.
+     */
+    public enum OverflowPolicy {
+
+        /**
+         * Wait until there is space in the queue. The proxy I/O thread that delivers the
+         * notification is blocked while waiting, which stalls every connection served by
+         * that thread until the delegate catches up.
+         */
+        BLOCK,
+
+        /**
+         * Drop the oldest queued notification to make space for the new one.
+         */
+        DROP_OLDEST,
+
+        /**
+         * Drop the new notification.
+         */
+        DROP_NEWEST
+    }
+
+    /**
+     * Marker placed in the queue to tell the consumer thread that it may terminate.
+     */
+    private static final HttpExchange END_OF_QUEUE = HttpExchange.of(
+            ImmutableHttpRequest.builder(URI.create("about:blank")).build(),
+            ImmutableHttpResponse.builder(0).build());
+
+    private final CaptureMonitor delegate;
+    private final OverflowPolicy overflowPolicy;
+    private final int capacity;
+    private final BlockingQueue<HttpExchange> queue;
+    private final Thread consumer;
+
+    private transient final Object pendingLock = new Object();
+
+    /**
+     * Number of notifications that have been accepted and not yet delivered or dropped.
+     * Guarded by {@link #pendingLock}.
+     */
+    private long pending;
+
+    /**
+     * Whether notifications are no longer accepted. Guarded by {@link #pendingLock}.
+     */
+    private boolean closed;
+
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    /**
+     * Constructs an instance with the default capacity that drops new notifications when the queue is full.
+     * @param delegate the monitor to which notifications are forwarded
+     */
+    public AsyncCaptureMonitor(CaptureMonitor delegate) {
+        this(delegate, DEFAULT_CAPACITY, OverflowPolicy.DROP_NEWEST);
+    }
+
+    /**
+     * Constructs an instance and starts the consumer thread.
+     * @param delegate the monitor to which notifications are forwarded
+     * @param capacity maximum number of queued notifications
+     * @param overflowPolicy action to take when the queue is full
+     */
+    public AsyncCaptureMonitor(CaptureMonitor delegate, int capacity, OverflowPolicy overflowPolicy) {
+        checkArgument(capacity > 0, "capacity must be positive: %s", capacity);
+        this.delegate = requireNonNull(delegate, "delegate");
+        this.overflowPolicy = requireNonNull(overflowPolicy, "overflowPolicy");
+        this.capacity = capacity;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.consumer = THREAD_FACTORY.newThread(this::consume);
+        this.consumer.start();
+    }
+
+    @Override
+    public void responseReceived(ImmutableHttpRequest httpRequest, ImmutableHttpResponse httpResponse) {
+        exchangeCompleted(HttpExchange.of(httpRequest, httpResponse));
+    }
+
+    /**
+     * Queues the exchange for delivery to the delegate. If the exchange constructs its request
+     * and response lazily, they are constructed on the consumer thread, if at all. The exchange
+     * is retained until it is delivered or dropped.
+     * @param exchange the exchange
+     */
+    @Override
+    public void exchangeCompleted(HttpExchange exchange) {
+        synchronized (pendingLock) {
+            if (closed) {
+                log.debug("monitor closed; dropping notification of response to {}", exchange.getUrl());
+                dropped.incrementAndGet();
+                return;
+            }
+            pending++;
+        }
+        exchange.retain();
+        switch (overflowPolicy) {
+            case BLOCK:
+                try {
+                    queue.put(exchange);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    discard(exchange);
+                }
+                break;
+            case DROP_OLDEST:
+                while (!queue.offer(exchange)) {
+                    HttpExchange oldest = queue.poll();
+                    if (oldest != null) {
+                        discard(oldest);
+                    }
+                }
+                break;
+            case DROP_NEWEST:
+                if (!queue.offer(exchange)) {
+                    discard(exchange);
+                }
+                break;
+            default:
+                throw new IllegalStateException("unhandled policy: " + overflowPolicy);
+        }
+    }
+
+    private void discard(HttpExchange exchange) {
+        release(exchange);
+        dropped.incrementAndGet();
+        adjustPending(-1);
+    }
+
+    private static void release(HttpExchange exchange) {
+        try {
+            exchange.release();
+        } catch (RuntimeException e) {
+            log.warn("failed to release exchange {}", exchange, e);
+        }
+    }
+
+    private void adjustPending(int delta) {
+        synchronized (pendingLock) {
+            pending += delta;
+            if (pending == 0) {
+                pendingLock.notifyAll();
+                if (closed) {
+                    signalEndOfQueue();
+                }
+            }
+        }
+    }
+
+    /**
+     * Tells the consumer thread to terminate. Must be invoked only once, while holding
+     * {@link #pendingLock}, after this monitor is closed and no notifications are pending.
+     * No accepted notification remains in the queue at that point, so there is space
+     * for the marker.
+     */
+    private void signalEndOfQueue() {
+        boolean offered = queue.offer(END_OF_QUEUE);
+        if (!offered) {
+            throw new IllegalStateException("queue unexpectedly full: " + queue.size());
+        }
+    }
+
+    private void consume() {
+        while (true) {
+            HttpExchange exchange;
+            try {
+                exchange = queue.take();
+            } catch (InterruptedException e) {
+                // only the end-of-queue marker terminates the consumer
+                continue;
+            }
+            if (exchange == END_OF_QUEUE) {
+                break;
+            }
+            try {
+                delegate.exchangeCompleted(exchange);
+                delivered.incrementAndGet();
+            } catch (RuntimeException e) {
+                log.warn("monitor failed to handle response to {}", exchange.getUrl(), e);
+                failed.incrementAndGet();
+            } finally {
+                release(exchange);
+                adjustPending(-1);
+            }
+        }
+        log.debug("consumer finished: {}", this);
+    }
+
+    /**
+     * Waits until all notifications accepted so far have been delivered or dropped.
+     * @throws InterruptedException if the calling thread is interrupted while waiting
+     */
+    public void flush() throws InterruptedException {
+        synchronized (pendingLock) {
+            while (pending > 0) {
+                pendingLock.wait();
+            }
+        }
+    }
+
+    @Override
+    public void harCaptured(Har har) {
+        try {
+            flush();
+        } catch (InterruptedException e) {
+            log.info("interrupted while waiting for {} queued notifications to be delivered", queue.size());
+            Thread.currentThread().interrupt();
+        }
+        delegate.harCaptured(har);
+    }
+
+    @Override
+    public int getMaximumRequestBufferSizeInBytes() {
+        return delegate.getMaximumRequestBufferSizeInBytes();
+    }
+
+    @Override
+    public int getMaximumResponseBufferSizeInBytes() {
+        return delegate.getMaximumResponseBufferSizeInBytes();
+    }
+
+    /**
+     * Gets the number of notifications waiting to be delivered.
+     * @return the queue depth
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * Gets the number of notifications delivered to the delegate, not including those
+     * for which the delegate threw an exception.
+     * @return count of delivered notifications
+     */
+    public long getDeliveredCount() {
+        return delivered.get();
+    }
+
+    /**
+     * Gets the number of notifications dropped due to overflow or because this monitor was closed.
+     * @return count of dropped notifications
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Gets the number of notifications for which the delegate threw an exception.
+     * @return count of failed notifications
+     */
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    /**
+     * Stops accepting notifications. Notifications already accepted are delivered by
+     * the consumer thread, which then terminates. This method does not wait for delivery;
+     * use {@link #flush()} before or after closing to do that.
+     */
+    @Override
+    public void close() {
+        synchronized (pendingLock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (pending == 0) {
+                signalEndOfQueue();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("delegate", delegate)
+                .add("capacity", capacity)
+                .add("overflowPolicy", overflowPolicy)
+                .add("queueDepth", queue.size())
+                .add("delivered", delivered.get())
+                .add("dropped", dropped.get())
+                .add("failed", failed.get())
+                .toString();
+    }
+}
@@ -2,27 +2,47 @@ package io.github.mike10004.httpcapture;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.io.ByteSource;
-import com.google.common.io.Files;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import net.lightbody.bmp.mitm.CertificateAndKey;
 import net.lightbody.bmp.mitm.CertificateAndKeySource;
 import net.lightbody.bmp.mitm.RootCertificateGenerator;
-import org.apache.commons.io.FileUtils;
+import net.lightbody.bmp.mitm.keys.ECKeyGenerator;
+import net.lightbody.bmp.mitm.keys.KeyGenerator;
+import net.lightbody.bmp.mitm.keys.RSAKeyGenerator;
+import net.lightbody.bmp.mitm.util.KeyStoreUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.File;
+import javax.annotation.Nullable;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
 import java.util.Arrays;
 import java.util.Base64;
-import java.util.Objects;
 import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadFactory;
 
 import static com.google.common.base.Preconditions.checkState;
 import static java.util.Objects.requireNonNull;
 
 /**
- * Auto-generating certificate and key source.
+ * Auto-generating certificate and key source. The root certificate and key are generated
+ * on first use, or ahead of time by {@link #generateInBackground()}, and kept in memory as a keystore.
+ * If a keystore file is specified with {@link Builder#persistKeystore(Path, String)}, the root
+ * is loaded from that file if it exists, and otherwise saved to it after generation, so that
+ * a root is generated only once across sessions. An existing file that cannot be loaded, for
+ * example because the password is wrong, is an error; it is never replaced by a new root.
  */
 public class AutoCertificateAndKeySource implements CertificateAndKeySource, java.io.Closeable {
 
@@ -31,14 +51,27 @@ public class AutoCertificateAndKeySource implements CertificateAndKeySource, jav
     public static final String KEYSTORE_TYPE = "PKCS12";
     private static final String DEFAULT_KEYSTORE_PRIVATE_KEY_ALIAS = "key";
 
+    private static final ThreadFactory generationThreadFactory = new ThreadFactoryBuilder()
+            .setDaemon(true)
+            .setNameFormat("http-capture-root-certificate-%d")
+            .build();
+
     private volatile MemoryKeyStoreCertificateSource onDemandSource;
     private volatile boolean closed;
     private transient final Object generationLock = new Object();
 
-    private final Path scratchDir;
     private final Random random;
     private final String privateKeyAlias;
-
+    private final KeyGenerator keyGenerator;
+    @Nullable
+    private final Path keystoreFile;
+    @Nullable
+    private final String keystoreFilePassword;
+
+    /**
+     * Constructs an instance that generates 2048-bit RSA keys.
+     * @param scratchDir unused; keystores are created in memory
+     */
     @SuppressWarnings("unused")
     public AutoCertificateAndKeySource(Path scratchDir) {
         this(scratchDir, new Random());
@@ -54,10 +87,21 @@ public class AutoCertificateAndKeySource implements CertificateAndKeySource, jav
         this(scratchDir, privateKeyAlias, new Random());
     }
 
+    @SuppressWarnings("unused")
     protected AutoCertificateAndKeySource(Path scratchDir, String privateKeyAlias, Random random) {
-        this.scratchDir = scratchDir;
-        this.random = random;
-        this.privateKeyAlias = privateKeyAlias;
+        this(builder().privateKeyAlias(privateKeyAlias).random(random));
+    }
+
+    protected AutoCertificateAndKeySource(Builder builder) {
+        this.random = builder.random;
+        this.privateKeyAlias = builder.privateKeyAlias;
+        this.keyGenerator = builder.keyGenerator;
+        this.keystoreFile = builder.keystoreFile;
+        this.keystoreFilePassword = builder.keystoreFilePassword;
+    }
+
+    public static Builder builder() {
+        return new Builder();
     }
 
     @SuppressWarnings("RedundantThrows")
@@ -76,28 +120,131 @@ public class AutoCertificateAndKeySource implements CertificateAndKeySource, jav
         // no op
     }
 
-    private void generateIfNecessary() {
+    /**
+     * Generates or loads the keystore if not already done. The source is read while holding
+     * the generation lock, so that callers never see it cleared by a concurrent {@link #close()}.
+     * @return the source
+     */
+    private MemoryKeyStoreCertificateSource generateIfNecessary() {
         synchronized (generationLock) {
             checkState(!closed, "this source is closed");
             if (onDemandSource == null) {
                 try {
-                    byte[] bytes = new byte[32];
-                    random.nextBytes(bytes);
-                    String password = Base64.getEncoder().encodeToString(bytes);
-                    keystorePasswordGenerated(password);
-                    onDemandSource = generate(password, privateKeyAlias);
+                    onDemandSource = keystoreFile == null ? generateWithRandomPassword() : loadOrGenerate(keystoreFile, requireNonNull(keystoreFilePassword));
                 } catch (IOException e) {
                     throw new CertificateGenerationException(e);
                 }
             }
+            return onDemandSource;
+        }
+    }
+
+    private MemoryKeyStoreCertificateSource generateWithRandomPassword() throws IOException {
+        byte[] bytes = new byte[32];
+        random.nextBytes(bytes);
+        String password = Base64.getEncoder().encodeToString(bytes);
+        keystorePasswordGenerated(password);
+        return generate(password, privateKeyAlias);
+    }
+
+    private MemoryKeyStoreCertificateSource loadOrGenerate(Path keystoreFile, String password) throws IOException {
+        if (java.nio.file.Files.isRegularFile(keystoreFile)) {
+            return loadPersisted(keystoreFile, password);
+        }
+        MemoryKeyStoreCertificateSource generated = generate(password, privateKeyAlias);
+        Path tempFile = createOwnerOnlyTempFile(keystoreFile);
+        try {
+            java.nio.file.Files.write(tempFile, generated.keystoreBytes);
+            publishExclusively(tempFile, keystoreFile);
+        } catch (FileAlreadyExistsException e) {
+            log.debug("root certificate was saved to {} concurrently; discarding generated root", keystoreFile);
+            Arrays.fill(generated.keystoreBytes, (byte) 0);
+            return loadPersisted(keystoreFile, password);
+        } finally {
+            java.nio.file.Files.deleteIfExists(tempFile);
+        }
+        log.debug("saved root certificate to {}", keystoreFile);
+        return generated;
+    }
+
+    /**
+     * Publishes the temporary file as the keystore file without replacing an existing file.
+     * A hard link is created where the file system supports it, because linking fails if the
+     * target exists, unlike a rename, which silently replaces it. Otherwise the temporary file
+     * is moved into place after checking that the keystore file does not exist.
+     * @throws FileAlreadyExistsException if the keystore file exists
+     */
+    private void publishExclusively(Path tempFile, Path keystoreFile) throws IOException {
+        try {
+            createLink(keystoreFile, tempFile);
+            return;
+        } catch (FileAlreadyExistsException e) {
+            throw e;
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            log.debug("could not link {} to {}; moving instead", keystoreFile, tempFile, e);
+        }
+        if (java.nio.file.Files.exists(keystoreFile, LinkOption.NOFOLLOW_LINKS)) {
+            throw new FileAlreadyExistsException(keystoreFile.toString());
+        }
+        java.nio.file.Files.move(tempFile, keystoreFile, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Creates a hard link to an existing file. Subclasses may override this to simulate
+     * file systems that do not support hard links.
+     */
+    protected void createLink(Path link, Path existing) throws IOException {
+        java.nio.file.Files.createLink(link, existing);
+    }
+
+    private MemoryKeyStoreCertificateSource loadPersisted(Path keystoreFile, String password) throws IOException {
+        MemoryKeyStoreCertificateSource persisted = new MemoryKeyStoreCertificateSource(KEYSTORE_TYPE, java.nio.file.Files.readAllBytes(keystoreFile), privateKeyAlias, password);
+        try {
+            persisted.load();
+        } catch (RuntimeException e) {
+            throw new IOException("could not load root certificate from " + keystoreFile, e);
         }
+        log.debug("loaded root certificate from {}", keystoreFile);
+        return persisted;
+    }
 
+    /**
+     * Creates a temporary file next to the keystore file that is readable and writable only
+     * by its owner, if the file system supports POSIX permissions.
+     */
+    private static Path createOwnerOnlyTempFile(Path keystoreFile) throws IOException {
+        Path parent = keystoreFile.toAbsolutePath().getParent();
+        String prefix = keystoreFile.getFileName().toString();
+        if (parent.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            FileAttribute<Set<PosixFilePermission>> ownerOnly = PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------"));
+            return java.nio.file.Files.createTempFile(parent, prefix, ".tmp", ownerOnly);
+        }
+        return java.nio.file.Files.createTempFile(parent, prefix, ".tmp");
+    }
+
+    /**
+     * Generates the root certificate and key on a background thread, if not already generated,
+     * so that the first TLS handshake does not wait for key generation. Invoking {@link #load()}
+     * while generation is in progress waits for it to finish.
+     * @return a future that completes when the root certificate is available
+     */
+    public CompletableFuture<Void> generateInBackground() {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        generationThreadFactory.newThread(() -> {
+            try {
+                generateIfNecessary();
+                future.complete(null);
+            } catch (RuntimeException e) {
+                log.warn("root certificate generation failed", e);
+                future.completeExceptionally(e);
+            }
+        }).start();
+        return future;
     }
 
     @Override
     public CertificateAndKey load() {
-        generateIfNecessary();
-        return onDemandSource.load();
+        return generateIfNecessary().load();
     }
 
     static class CertificateGenerationException extends RuntimeException {
@@ -140,8 +287,8 @@ public class AutoCertificateAndKeySource implements CertificateAndKeySource, jav
 
     @SuppressWarnings("RedundantThrows")
     public SerializableForm createSerializableForm() throws IOException {
-        generateIfNecessary();
-        return new SerializableForm(Base64.getEncoder().encodeToString(onDemandSource.keystoreBytes), onDemandSource.keystorePassword);
+        MemoryKeyStoreCertificateSource source = generateIfNecessary();
+        return new SerializableForm(Base64.getEncoder().encodeToString(source.keystoreBytes), source.keystorePassword);
     }
 
     protected void keystoreBytesGenerated(ByteSource byteSource) {
@@ -151,32 +298,33 @@ public class AutoCertificateAndKeySource implements CertificateAndKeySource, jav
     protected MemoryKeyStoreCertificateSource generate(String keystorePassword, String privateKeyAlias) throws IOException {
         requireNonNull(privateKeyAlias, "privateKeyAlias");
         requireNonNull(keystorePassword, "keystore password");
-        File keystoreFile = File.createTempFile("dynamically-generated-certificate", ".keystore", scratchDir.toFile());
+        RootCertificateGenerator rootCertificateGenerator = RootCertificateGenerator.builder()
+                .keyGenerator(keyGenerator)
+                .build();
+        CertificateAndKey certificateAndKey = rootCertificateGenerator.load();
+        KeyStore keyStore = KeyStoreUtil.createRootCertificateKeyStore(KEYSTORE_TYPE, certificateAndKey.getCertificate(), privateKeyAlias, certificateAndKey.getPrivateKey(), keystorePassword, null);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(4096);
         try {
-            // create a dynamic CA root certificate generator using default settings (2048-bit RSA keys)
-            RootCertificateGenerator rootCertificateGenerator = RootCertificateGenerator.builder().build();
-            rootCertificateGenerator.saveRootCertificateAndKey(KEYSTORE_TYPE, keystoreFile, privateKeyAlias, keystorePassword);
-            log.debug("saved keystore to {} ({} bytes)%n", keystoreFile, keystoreFile.length());
-            byte[] keystoreBytes = Files.toByteArray(keystoreFile);
-            keystoreBytesGenerated(ByteSource.wrap(keystoreBytes));
-            return new MemoryKeyStoreCertificateSource(KEYSTORE_TYPE, keystoreBytes, privateKeyAlias, keystorePassword);
-        } finally {
-            FileUtils.forceDelete(keystoreFile);
+            keyStore.store(out, keystorePassword.toCharArray());
+        } catch (GeneralSecurityException e) {
+            throw new CertificateGenerationException(e);
         }
+        byte[] keystoreBytes = out.toByteArray();
+        log.debug("generated keystore with {} key ({} bytes)", keyGenerator, keystoreBytes.length);
+        keystoreBytesGenerated(ByteSource.wrap(keystoreBytes));
+        return new MemoryKeyStoreCertificateSource(KEYSTORE_TYPE, keystoreBytes, privateKeyAlias, keystorePassword);
     }
 
     public KeystoreInput acquireKeystoreInput() {
         return new KeystoreInput() {
             @Override
             public ByteSource getBytes() {
-                generateIfNecessary();
-                return ByteSource.wrap(onDemandSource.keystoreBytes);
+                return ByteSource.wrap(generateIfNecessary().keystoreBytes);
             }
 
             @Override
             public String getPassword() {
-                generateIfNecessary();
-                return onDemandSource.keystorePassword;
+                return generateIfNecessary().keystorePassword;
             }
 
             @Override
@@ -185,4 +333,66 @@ public class AutoCertificateAndKeySource implements CertificateAndKeySource, jav
             }
         };
     }
+
+    public static final class Builder {
+
+        private String privateKeyAlias = DEFAULT_KEYSTORE_PRIVATE_KEY_ALIAS;
+        private Random random = new Random();
+        private KeyGenerator keyGenerator = new RSAKeyGenerator();
+        private Path keystoreFile;
+        private String keystoreFilePassword;
+
+        private Builder() {
+        }
+
+        public Builder privateKeyAlias(String privateKeyAlias) {
+            this.privateKeyAlias = requireNonNull(privateKeyAlias);
+            return this;
+        }
+
+        /**
+         * Sets the source of randomness for generated keystore passwords.
+         * @param random the source of randomness
+         * @return this builder instance
+         */
+        public Builder random(Random random) {
+            this.random = requireNonNull(random);
+            return this;
+        }
+
+        /**
+         * Sets the generator of the root key pair. The default generates 2048-bit RSA keys.
+         * @param keyGenerator the key generator
+         * @return this builder instance
+         */
+        public Builder keyGenerator(KeyGenerator keyGenerator) {
+            this.keyGenerator = requireNonNull(keyGenerator);
+            return this;
+        }
+
+        /**
+         * Generates an elliptic curve root key pair, which is much faster than generating an RSA key pair.
+         * @return this builder instance
+         */
+        public Builder ellipticCurveKeys() {
+            return keyGenerator(new ECKeyGenerator());
+        }
+
+        /**
+         * Sets a keystore file from which the root certificate and key are loaded, if it exists,
+         * or to which they are saved after generation. The keystore is encrypted with the given password.
+         * @param keystoreFile the keystore file
+         * @param password the keystore password
+         * @return this builder instance
+         */
+        public Builder persistKeystore(Path keystoreFile, String password) {
+            this.keystoreFile = requireNonNull(keystoreFile);
+            this.keystoreFilePassword = requireNonNull(password);
+            return this;
+        }
+
+        public AutoCertificateAndKeySource build() {
+            return new AutoCertificateAndKeySource(this);
+        }
+    }
 }
@@ -2,22 +2,34 @@ package io.github.mike10004.httpcapture;
 
 import com.google.common.base.MoreObjects;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.io.CharSink;
 import com.google.common.net.HostAndPort;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.HttpObject;
 import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
 import net.lightbody.bmp.BrowserMobProxy;
+import net.lightbody.bmp.BrowserMobProxyServer;
 import net.lightbody.bmp.core.har.Har;
+import net.lightbody.bmp.core.har.HarEntry;
+import net.lightbody.bmp.core.har.HarLog;
 import net.lightbody.bmp.mitm.CertificateAndKeySource;
 import net.lightbody.bmp.mitm.manager.ImpersonatingMitmManager;
 import net.lightbody.bmp.proxy.CaptureType;
 import org.littleshoot.proxy.ChainedProxyType;
 import org.littleshoot.proxy.HttpFilters;
+import org.littleshoot.proxy.HttpFiltersAdapter;
 import org.littleshoot.proxy.HttpFiltersSource;
 import org.littleshoot.proxy.HttpFiltersSourceAdapter;
 import org.littleshoot.proxy.MitmManager;
 import org.littleshoot.proxy.impl.ProxyUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
+import java.io.Closeable;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.URI;
@@ -26,6 +38,10 @@ import java.util.Collection;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.Supplier;
 
 import static java.util.Objects.requireNonNull;
@@ -35,12 +51,25 @@ import static java.util.Objects.requireNonNull;
  */
 public class BasicCaptureServer implements CaptureServer {
 
+    private static final Logger log = LoggerFactory.getLogger(BasicCaptureServer.class);
+
     @Nullable
     private final CertificateAndKeySource certificateAndKeySource;
     private final ImmutableList<HttpFiltersSource> httpFiltersSources;
     private final BrowsermobConfigurator upstreamConfigurator;
     private final Supplier<? extends BrowserMobProxy> interceptingProxyInstantiator;
     private final ImmutableList<HarPostProcessor> harPostProcessors;
+    @Nullable
+    private final HarStreamWriter.Factory harStreamFactory;
+    private final ContentBufferFactory contentBufferFactory;
+    private final DecompressionPolicy decompressionPolicy;
+    private final CaptureLimits captureLimits;
+    @Nullable
+    private final BodyStore bodyStore;
+    private final CaptureFilterSettings monitorFilterSettings;
+    @Nullable
+    private final ImpersonationCertificateCache impersonationCertificateCache;
+    private final ProxyThreads proxyThreads;
 
     /**
      * Constructs an instance of the class. Should only be used by subclasses that know
@@ -59,11 +88,46 @@ public class BasicCaptureServer implements CaptureServer {
                                  Iterable<? extends HttpFiltersSource> httpFiltersSources,
                                  Supplier<? extends BrowserMobProxy> interceptingProxyInstantiator,
                                  Iterable<? extends HarPostProcessor> harPostProcessors) {
-        this.certificateAndKeySource = certificateAndKeySource;
-        this.httpFiltersSources = ImmutableList.copyOf(httpFiltersSources);
-        this.upstreamConfigurator = requireNonNull(upstreamConfigurator);
-        this.interceptingProxyInstantiator = requireNonNull(interceptingProxyInstantiator);
-        this.harPostProcessors = ImmutableList.copyOf(harPostProcessors);
+        this(legacyBuilder(certificateAndKeySource, upstreamConfigurator, httpFiltersSources, interceptingProxyInstantiator, harPostProcessors));
+    }
+
+    /**
+     * Constructs an instance of the class from the settings of a builder.
+     * @param builder the builder
+     */
+    protected BasicCaptureServer(Builder builder) {
+        this.certificateAndKeySource = builder.certificateAndKeySource;
+        this.httpFiltersSources = ImmutableList.copyOf(builder.httpFiltersSources);
+        this.upstreamConfigurator = requireNonNull(builder.upstreamConfigurator);
+        this.interceptingProxyInstantiator = requireNonNull(builder.interceptingProxyInstantiator);
+        this.harPostProcessors = ImmutableList.copyOf(builder.harPostProcessors);
+        this.harStreamFactory = builder.harStreamFactory;
+        this.contentBufferFactory = requireNonNull(builder.contentBufferFactory);
+        this.decompressionPolicy = requireNonNull(builder.decompressionPolicy);
+        this.captureLimits = requireNonNull(builder.captureLimits);
+        this.bodyStore = builder.bodyStore;
+        this.monitorFilterSettings = CaptureFilterSettings.builder()
+                .contentBufferFactory(contentBufferFactory)
+                .decompressionPolicy(decompressionPolicy)
+                .captureLimits(captureLimits)
+                .build();
+        this.impersonationCertificateCache = builder.impersonationCertificateCache;
+        this.proxyThreads = requireNonNull(builder.proxyThreads);
+    }
+
+    private static Builder legacyBuilder(@Nullable CertificateAndKeySource certificateAndKeySource,
+                                         BrowsermobConfigurator upstreamConfigurator,
+                                         Iterable<? extends HttpFiltersSource> httpFiltersSources,
+                                         Supplier<? extends BrowserMobProxy> interceptingProxyInstantiator,
+                                         Iterable<? extends HarPostProcessor> harPostProcessors) {
+        Builder builder = builder()
+                .upstreamProxy(upstreamConfigurator)
+                .interceptingProxyInstantiator(interceptingProxyInstantiator);
+        builder.certificateAndKeySource = certificateAndKeySource;
+        builder.httpFiltersSources.clear();
+        Iterables.addAll(builder.httpFiltersSources, httpFiltersSources);
+        Iterables.addAll(builder.harPostProcessors, harPostProcessors);
+        return builder;
     }
 
     protected Set<CaptureType> getCaptureTypes() {
@@ -98,24 +162,319 @@ public class BasicCaptureServer implements CaptureServer {
         configureProxy(bmp, certificateAndKeySource, monitor);
         bmp.enableHarCaptureTypes(getCaptureTypes());
         bmp.newHar();
-        if (port == null) {
-            bmp.start();
-        } else {
-            bmp.start(port);
+        @Nullable HarStreamWriter harWriter = startStreaming(bmp);
+        try {
+            if (port == null) {
+                bmp.start();
+            } else {
+                bmp.start(port);
+            }
+        } catch (RuntimeException e) {
+            closeQuietly(harWriter, e);
+            throw e;
         }
         return new BasicControl(bmp) {
             @Override
-            public void close() {
+            public void close() throws IOException {
                 bmp.stop();
                 Har har = bmp.getHar();
-                for (HarPostProcessor harPostProcessor : harPostProcessors) {
-                    harPostProcessor.process(har);
+                if (harWriter != null) {
+                    // exchanges the client aborted or that were still in flight are kept, as in a non-streaming capture
+                    HarEntrySink entrySink = ((CapturableProxyServer) bmp).getHarEntrySink();
+                    if (entrySink instanceof IncompleteEntryTracker) {
+                        ((IncompleteEntryTracker) entrySink).drainIncomplete().forEach(har.getLog()::addEntry);
+                    }
+                }
+                try {
+                    processHar(har);
+                } finally {
+                    if (harWriter != null) {
+                        // entries that were not streamed, e.g. from failed CONNECTs, are written here
+                        harWriter.finish(har.getLog());
+                    }
                 }
                 monitor.harCaptured(har);
             }
         };
     }
 
+    private static void closeQuietly(@Nullable Closeable closeable, Throwable primary) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException | RuntimeException e) {
+                primary.addSuppressed(e);
+            }
+        }
+    }
+
+    private void processHar(Har har) {
+        for (HarPostProcessor harPostProcessor : harPostProcessors) {
+            harPostProcessor.process(har);
+        }
+    }
+
+    /**
+     * Opens the HAR stream sink and configures the proxy to send entries to it, if streaming is enabled.
+     * In streaming mode, post-processors are applied to each entry individually, in the form
+     * of a HAR containing only that entry, before the entry is written.
+     * @param bmp the proxy
+     * @return the writer, or null if streaming is not enabled
+     * @throws IOException if the sink could not be opened
+     */
+    @Nullable
+    private HarStreamWriter startStreaming(BrowserMobProxy bmp) throws IOException {
+        if (harStreamFactory == null) {
+            return null;
+        }
+        if (!(bmp instanceof CapturableProxyServer)) {
+            throw new IllegalStateException("HAR streaming requires proxy instance of " + CapturableProxyServer.class);
+        }
+        HarStreamWriter harWriter = harStreamFactory.open();
+        try {
+            harWriter.start(bmp.getHar().getLog());
+        } catch (IOException | RuntimeException e) {
+            closeQuietly(harWriter, e);
+            throw e;
+        }
+        ((CapturableProxyServer) bmp).setHarEntrySink(createEntrySink(harWriter));
+        return harWriter;
+    }
+
+    private IncompleteEntryTracker createEntrySink(HarStreamWriter harWriter) {
+        if (harPostProcessors.isEmpty()) {
+            return new IncompleteEntryTracker(harWriter);
+        }
+        return new IncompleteEntryTracker(entry -> {
+            HarLog singleEntryLog = new HarLog();
+            singleEntryLog.addEntry(entry);
+            processHar(new Har(singleEntryLog));
+            harWriter.entryCompleted(entry);
+        });
+    }
+
+    /**
+     * Starts a proxy that multiplexes capture sessions on one port. The proxy, its event loops,
+     * and its MITM manager are shared; each request is attributed to a session by the resolver,
+     * and requests that do not belong to an open session are rejected. The HAR stream factory
+     * configured for this server is not used; streaming is configured for each session instead.
+     * @param sessionResolver resolver of the session to which a request belongs
+     * @param port the port, or null for any available port
+     * @return the control, with which sessions are opened
+     * @throws IOException on I/O error
+     */
+    @SuppressWarnings("RedundantThrows")
+    public MultiplexedCaptureServerControl startMultiplexed(SessionResolver sessionResolver, @Nullable Integer port) throws IOException {
+        requireNonNull(sessionResolver, "sessionResolver");
+        BrowserMobProxy bmp = instantiateProxy();
+        if (!(bmp instanceof CapturableProxyServer)) {
+            throw new IllegalStateException("session multiplexing requires proxy instance of " + CapturableProxyServer.class);
+        }
+        MultiplexedControl control = new MultiplexedControl(bmp, sessionResolver);
+        configureProxy(bmp, certificateAndKeySource, null);
+        bmp.addFirstHttpFilterFactory(control.new SessionFiltersSource());
+        bmp.enableHarCaptureTypes(getCaptureTypes());
+        bmp.newHar();
+        ((CapturableProxyServer) bmp).setHarTargetResolver(control::resolveHarTarget);
+        if (port == null) {
+            bmp.start();
+        } else {
+            bmp.start(port);
+        }
+        return control;
+    }
+
+    private class MultiplexedControl extends BasicControl implements MultiplexedCaptureServerControl {
+
+        private final BrowserMobProxy proxyServer;
+        private final SessionResolver sessionResolver;
+        private final ConcurrentMap<String, Session> sessions;
+
+        public MultiplexedControl(BrowserMobProxy proxyServer, SessionResolver sessionResolver) {
+            super(proxyServer);
+            this.proxyServer = proxyServer;
+            this.sessionResolver = sessionResolver;
+            this.sessions = new ConcurrentHashMap<>();
+        }
+
+        @Nullable
+        private Session resolveSession(HttpRequest originalRequest, ChannelHandlerContext ctx) {
+            @Nullable String sessionId = sessionResolver.resolveSession(originalRequest, ctx);
+            return sessionId == null ? null : sessions.get(sessionId);
+        }
+
+        @Nullable
+        private CapturableProxyServer.HarTarget resolveHarTarget(HttpRequest originalRequest, ChannelHandlerContext ctx) {
+            return resolveSession(originalRequest, ctx);
+        }
+
+        @Override
+        public CaptureServerControl openSession(String sessionId, CaptureMonitor monitor, @Nullable HarStreamWriter.Factory harStreamFactory) throws IOException {
+            requireNonNull(sessionId, "sessionId");
+            requireNonNull(monitor, "monitor");
+            Har har = new Har(new HarLog(proxyServer.getHar().getLog().getCreator()));
+            @Nullable HarStreamWriter harWriter = null;
+            if (harStreamFactory != null) {
+                harWriter = harStreamFactory.open();
+                try {
+                    harWriter.start(har.getLog());
+                } catch (IOException | RuntimeException e) {
+                    closeQuietly(harWriter, e);
+                    throw e;
+                }
+            }
+            Session session = new Session(sessionId, monitor, har, harWriter);
+            if (sessions.putIfAbsent(sessionId, session) != null) {
+                if (harWriter != null) {
+                    harWriter.close();
+                }
+                throw new IllegalStateException("session already open: " + sessionId);
+            }
+            return session;
+        }
+
+        @Override
+        public Set<String> getSessionIds() {
+            return ImmutableSet.copyOf(sessions.keySet());
+        }
+
+        @Override
+        public void close() throws IOException {
+            proxyServer.stop();
+            for (Session session : ImmutableList.copyOf(sessions.values())) {
+                session.close();
+            }
+        }
+
+        private class Session implements CaptureServerControl, CapturableProxyServer.HarTarget {
+
+            private final String sessionId;
+            private final CaptureMonitor monitor;
+            private final Har har;
+            @Nullable
+            private final HarStreamWriter harWriter;
+            private final IncompleteEntryTracker tracker;
+            private final HarEntrySink entrySink;
+            /**
+             * Lock held for reading while an entry is accepted and for writing while the session is closed.
+             */
+            private final ReadWriteLock closeLock;
+            private boolean closed;
+
+            public Session(String sessionId, CaptureMonitor monitor, Har har, @Nullable HarStreamWriter harWriter) {
+                this.sessionId = sessionId;
+                this.monitor = monitor;
+                this.har = har;
+                this.harWriter = harWriter;
+                this.closeLock = new ReentrantReadWriteLock();
+                this.tracker = harWriter == null ? new IncompleteEntryTracker(har.getLog()::addEntry) : createEntrySink(harWriter);
+                this.entrySink = new HarEntrySink() {
+                    @Override
+                    public void entryStarted(HarEntry entry) {
+                        tracker.entryStarted(entry);
+                    }
+
+                    @Override
+                    public void entryCompleted(HarEntry entry) {
+                        acceptEntry(tracker, entry);
+                    }
+                };
+            }
+
+            private void acceptEntry(HarEntrySink target, HarEntry entry) {
+                closeLock.readLock().lock();
+                try {
+                    if (closed) {
+                        log.debug("ignoring entry completed after session {} was closed: {}", sessionId, entry.getRequest() == null ? null : entry.getRequest().getUrl());
+                        return;
+                    }
+                    target.entryCompleted(entry);
+                } finally {
+                    closeLock.readLock().unlock();
+                }
+            }
+
+            @Override
+            public Har getHar() {
+                return har;
+            }
+
+            @Override
+            public HarEntrySink getHarEntrySink() {
+                return entrySink;
+            }
+
+            @Override
+            public int getPort() {
+                return MultiplexedControl.this.getPort();
+            }
+
+            @Override
+            public boolean isStarted() {
+                return sessions.get(sessionId) == this && MultiplexedControl.this.isStarted();
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (!sessions.remove(sessionId, this)) {
+                    return;
+                }
+                Har captured = new Har(new HarLog(har.getLog().getCreator()));
+                closeLock.writeLock().lock();
+                try {
+                    closed = true;
+                    // entries added to the session HAR after this point, e.g. by CONNECT filters, are ignored
+                    har.getLog().getEntries().forEach(captured.getLog()::addEntry);
+                    // exchanges the client aborted or that were still in flight are kept as incomplete entries
+                    tracker.drainIncomplete().forEach(captured.getLog()::addEntry);
+                } finally {
+                    closeLock.writeLock().unlock();
+                }
+                try {
+                    processHar(captured);
+                } finally {
+                    if (harWriter != null) {
+                        harWriter.finish(captured.getLog());
+                    }
+                }
+                monitor.harCaptured(captured);
+            }
+
+            @Override
+            public String toString() {
+                return MoreObjects.toStringHelper("Session")
+                        .add("sessionId", sessionId)
+                        .add("entries", har.getLog().getEntries().size())
+                        .toString();
+            }
+        }
+
+        private class SessionFiltersSource extends HttpFiltersSourceAdapter {
+
+            @Override
+            public HttpFilters filterRequest(HttpRequest originalRequest) {
+                return null;
+            }
+
+            @Override
+            public HttpFilters filterRequest(HttpRequest originalRequest, ChannelHandlerContext ctx) {
+                @Nullable Session session = resolveSession(originalRequest, ctx);
+                if (session == null) {
+                    return new HttpFiltersAdapter(originalRequest, ctx) {
+                        @Override
+                        public HttpResponse clientToProxyRequest(HttpObject httpObject) {
+                            return sessionResolver.createRejection(originalRequest);
+                        }
+                    };
+                }
+                if (!ProxyUtils.isCONNECT(originalRequest)) {
+                    return new CaptureMonitorFilter(originalRequest, ctx, session.monitor, monitorFilterSettings);
+                }
+                return null;
+            }
+        }
+    }
+
     private class MonitorFiltersSource extends HttpFiltersSourceAdapter {
 
         private final CaptureMonitor monitor;
@@ -136,7 +495,7 @@ public class BasicCaptureServer implements CaptureServer {
 
         private HttpFilters doFilterRequest(HttpRequest originalRequest, @Nullable ChannelHandlerContext ctx) {
             if (!ProxyUtils.isCONNECT(originalRequest)) {
-                return new CaptureMonitorFilter(originalRequest, ctx, monitor);
+                return new CaptureMonitorFilter(originalRequest, ctx, monitor, monitorFilterSettings);
             } else {
                 return null;
             }
@@ -154,9 +513,13 @@ public class BasicCaptureServer implements CaptureServer {
     }
 
     protected MitmManager createMitmManager(@SuppressWarnings("unused") BrowserMobProxy proxy, CertificateAndKeySource certificateAndKeySource) {
-        MitmManager mitmManager = ImpersonatingMitmManager.builder()
-                .rootCertificateSource(certificateAndKeySource)
-                .build();
+        ImpersonatingMitmManager.Builder builder = ImpersonatingMitmManager.builder()
+                .rootCertificateSource(certificateAndKeySource);
+        if (impersonationCertificateCache != null) {
+            builder.certificateTool(impersonationCertificateCache)
+                    .serverKeyGenerator(impersonationCertificateCache.getServerKeyGenerator());
+        }
+        MitmManager mitmManager = builder.build();
         return mitmManager;
     }
 
@@ -165,10 +528,19 @@ public class BasicCaptureServer implements CaptureServer {
     }
 
     protected void configureProxy(BrowserMobProxy bmp, CertificateAndKeySource certificateAndKeySource, @Nullable CaptureMonitor trafficMonitor) {
+        if (bmp instanceof BrowserMobProxyServer) {
+            ((BrowserMobProxyServer) bmp).setThreadPoolConfiguration(proxyThreads.toThreadPoolConfiguration());
+        }
         if (certificateAndKeySource != null) {
             MitmManager mitmManager = createMitmManager(bmp, certificateAndKeySource);
             bmp.setMitmManager(mitmManager);
         }
+        if (bmp instanceof CapturableProxyServer) {
+            ((CapturableProxyServer) bmp).setContentBufferFactory(contentBufferFactory);
+            ((CapturableProxyServer) bmp).setDecompressionPolicy(decompressionPolicy);
+            ((CapturableProxyServer) bmp).setCaptureLimits(captureLimits);
+            ((CapturableProxyServer) bmp).setBodyStore(bodyStore);
+        }
         if (trafficMonitor != null) {
             bmp.addLastHttpFilterFactory(new MonitorFiltersSource(trafficMonitor));
         }
@@ -186,6 +558,13 @@ public class BasicCaptureServer implements CaptureServer {
             h.add("interceptingProxyInstantiator", interceptingProxyInstantiator);
         }
         if (harPostProcessors != null) h.add("harPostProcessors.size", harPostProcessors.size());
+        if (harStreamFactory != null) h.add("harStreamFactory", harStreamFactory);
+        if (contentBufferFactory != null) h.add("contentBufferFactory", contentBufferFactory);
+        if (decompressionPolicy != null) h.add("decompressionPolicy", decompressionPolicy);
+        if (captureLimits != null) h.add("captureLimits", captureLimits);
+        if (bodyStore != null) h.add("bodyStore", bodyStore);
+        if (impersonationCertificateCache != null) h.add("impersonationCertificateCache", impersonationCertificateCache);
+        h.add("proxyThreads", proxyThreads);
         return h.toString();
     }
 
@@ -201,6 +580,13 @@ public class BasicCaptureServer implements CaptureServer {
         private BrowsermobConfigurator upstreamConfigurator = BrowsermobConfigurator.inoperative();
         private Supplier<? extends BrowserMobProxy> interceptingProxyInstantiator = CapturableProxyServer::new;
         private final List<HarPostProcessor> harPostProcessors = new ArrayList<>();
+        private HarStreamWriter.Factory harStreamFactory = null;
+        private ContentBufferFactory contentBufferFactory = ContentBufferFactory.bounded();
+        private DecompressionPolicy decompressionPolicy = DecompressionPolicy.atEnd();
+        private CaptureLimits captureLimits = CaptureLimits.unlimited();
+        private BodyStore bodyStore = null;
+        private ImpersonationCertificateCache impersonationCertificateCache = null;
+        private ProxyThreads proxyThreads = ProxyThreads.defaults();
 
         Builder() {
             httpFiltersSources.add(AnonymizingFiltersSource.getInstance());
@@ -296,11 +682,117 @@ public class BasicCaptureServer implements CaptureServer {
             return this;
         }
 
+        /**
+         * Configures the server to write HAR entries to a sink as each interaction is completed,
+         * instead of accumulating them in memory. The sink is opened when the server is started
+         * and the HAR document is completed when the server control is closed. The HAR passed
+         * to {@link CaptureMonitor#harCaptured(Har)} will not contain the streamed entries.
+         * Streaming requires the intercepting proxy to be an instance of {@link CapturableProxyServer}.
+         * @param harStreamSink the sink
+         * @return this builder instance
+         */
+        public Builder streamHar(CharSink harStreamSink) {
+            return streamHar(HarStreamWriter.toCharSink(harStreamSink));
+        }
+
+        /**
+         * Configures the server to write HAR entries as each interaction is completed to
+         * a writer opened by the given factory when the server is started. Use this method
+         * with {@link RollingHarWriter} to write a series of HAR files.
+         * @param harStreamFactory the factory
+         * @return this builder instance
+         * @see #streamHar(CharSink)
+         */
+        public Builder streamHar(HarStreamWriter.Factory harStreamFactory) {
+            this.harStreamFactory = requireNonNull(harStreamFactory);
+            return this;
+        }
+
+        /**
+         * Sets the factory of buffers in which response content is accumulated before it is
+         * captured. By default, content up to {@link ContentBufferFactory#DEFAULT_SPILL_THRESHOLD_BYTES}
+         * is held in heap buffers and larger content is moved to temporary files; use
+         * {@link ContentBufferFactory#spilling(long, java.nio.file.Path)} to choose the threshold
+         * and directory.
+         * @param contentBufferFactory the factory
+         * @return this builder instance
+         */
+        public Builder contentBufferFactory(ContentBufferFactory contentBufferFactory) {
+            this.contentBufferFactory = requireNonNull(contentBufferFactory);
+            return this;
+        }
+
+        /**
+         * Sets the policy specifying when encoded response content is decompressed. By default,
+         * content is decompressed after the whole response has been received. Use
+         * {@link DecompressionPolicy#incremental(long)} to decompress content as it arrives.
+         * @param decompressionPolicy the policy
+         * @return this builder instance
+         */
+        public Builder decompressionPolicy(DecompressionPolicy decompressionPolicy) {
+            this.decompressionPolicy = requireNonNull(decompressionPolicy);
+            return this;
+        }
+
+        /**
+         * Sets the limits on the amount of request and response content kept for each entry.
+         * By default, content is kept in full.
+         * @param captureLimits the limits
+         * @return this builder instance
+         */
+        public Builder captureLimits(CaptureLimits captureLimits) {
+            this.captureLimits = requireNonNull(captureLimits);
+            return this;
+        }
+
+        /**
+         * Sets the store in which response content is kept. Each distinct body is stored
+         * once, and HAR entries refer to it by hash in the {@code _contentHash} field of
+         * the response content, instead of containing the text.
+         * @param bodyStore the store
+         * @return this builder instance
+         */
+        public Builder bodyStore(BodyStore bodyStore) {
+            this.bodyStore = requireNonNull(bodyStore);
+            return this;
+        }
+
+        /**
+         * Sets the cache of certificates generated to impersonate intercepted hosts. The cache
+         * is used only if HTTPS traffic is collected. Share one cache among servers that use
+         * the same root certificate to avoid generating a certificate for a host more than once.
+         * @param impersonationCertificateCache the cache
+         * @return this builder instance
+         */
+        public Builder impersonationCertificateCache(ImpersonationCertificateCache impersonationCertificateCache) {
+            this.impersonationCertificateCache = requireNonNull(impersonationCertificateCache);
+            return this;
+        }
+
+        /**
+         * Sets the sizes of the proxy's thread pools. By default, the proxy library's defaults are used.
+         * @param proxyThreads the pool sizes
+         * @return this builder instance
+         */
+        public Builder proxyThreads(ProxyThreads proxyThreads) {
+            this.proxyThreads = requireNonNull(proxyThreads);
+            return this;
+        }
+
+        /**
+         * Collects HTTPS traffic using the root certificate and impersonation certificates
+         * of a shared certificate service. Certificates fetched from the service are also
+         * cached in this process.
+         * @param client the service client
+         * @return this builder instance
+         */
+        public Builder certificateService(CertificateServiceClient client) {
+            return collectHttps(client.rootSource())
+                    .impersonationCertificateCache(client.createLeafCache());
+        }
+
         public BasicCaptureServer build() {
-            return new BasicCaptureServer(
-                    certificateAndKeySource, upstreamConfigurator,
-                    httpFiltersSources, interceptingProxyInstantiator,
-                    harPostProcessors);
+            return new BasicCaptureServer(this);
         }
 
     }
@@ -0,0 +1,48 @@
+package io.github.mike10004.httpcapture;
+
+import com.google.common.io.ByteSource;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Interface for content-addressed stores of message bodies. Each distinct body is
+ * stored once, keyed by the lowercase hexadecimal SHA-256 hash of its bytes.
+ * HAR entries refer to stored bodies by hash in the {@code _contentHash} field
+ * of the response content.
+ * @see EnhancedHarContent#getContentHash()
+ */
+public interface BodyStore {
+
+    /**
+     * Stores content if content with the same hash is not already stored.
+     * @param content the content
+     * @return the hash of the content
+     * @throws IOException on I/O error
+     */
+    String put(ByteSource content) throws IOException;
+
+    /**
+     * Checks whether content with the given hash is stored.
+     * @param contentHash the hash
+     * @return true if the content is stored
+     */
+    boolean contains(String contentHash);
+
+    /**
+     * Returns a source of the content with the given hash.
+     * @param contentHash the hash
+     * @return a byte source
+     * @throws java.io.FileNotFoundException if no content with the given hash is stored
+     */
+    ByteSource get(String contentHash) throws IOException;
+
+    /**
+     * Returns a store that keeps each body in a file in a directory.
+     * @param directory the directory
+     * @return a new store
+     */
+    static BodyStore inDirectory(Path directory) {
+        return new DirectoryBodyStore(directory);
+    }
+}
@@ -1,6 +1,7 @@
 package io.github.mike10004.httpcapture;
 
 import com.google.common.base.CharMatcher;
+import com.google.common.io.ByteSource;
 import com.google.common.io.ByteStreams;
 import com.google.common.net.HttpHeaders;
 import com.google.common.net.MediaType;
@@ -37,7 +38,20 @@ public class BrotliResponseTransform {
 
     static final String HEADER_VALUE_BROTLI_ENCODED = "br";
 
+    @Nullable
+    private final BodyStore bodyStore;
+
     public BrotliResponseTransform() {
+        this(null);
+    }
+
+    /**
+     * Constructs an instance that also cleans responses whose content is kept in a body store.
+     * Decoded content of such responses is put in the store and the content hash is updated.
+     * @param bodyStore the store; null means only content in the HAR is cleaned
+     */
+    public BrotliResponseTransform(@Nullable BodyStore bodyStore) {
+        this.bodyStore = bodyStore;
     }
 
     public HarPostProcessor asPostProcessor() {
@@ -55,6 +69,9 @@ public class BrotliResponseTransform {
             HarContent content = rsp.getContent();
             String contentEncoding = getHeaderValue(rsp.getHeaders(), HttpHeaders.CONTENT_ENCODING);
             if (HEADER_VALUE_BROTLI_ENCODED.equalsIgnoreCase(contentEncoding) && content != null) {
+                if (getStoredContentHash(content) != null) {
+                    return true;
+                }
                 String text = content.getText();
                 if (text != null && base64Alphabet().matchesAllOf(text)) {
                     return true;
@@ -120,10 +137,40 @@ public class BrotliResponseTransform {
         return decompressed;
     }
 
+    /**
+     * Gets the hash of the content if the content is kept in this instance's body store
+     * and the stored content is still Brotli-encoded. Content that was decompressed when
+     * it was captured is stored decoded.
+     * @param content the content
+     * @return the hash, or null if the content is in the HAR, is not stored encoded, or no store is configured
+     */
+    @Nullable
+    private String getStoredContentHash(HarContent content) {
+        if (bodyStore != null && content instanceof EnhancedHarContent && content.getText() == null) {
+            EnhancedHarContent enhancedContent = (EnhancedHarContent) content;
+            if (HEADER_VALUE_BROTLI_ENCODED.equalsIgnoreCase(enhancedContent.getContentHashEncoding())) {
+                return enhancedContent.getContentHash();
+            }
+        }
+        return null;
+    }
+
     protected void clean(HarResponse response) throws IOException {
         HarContent content = response.getContent();
-        byte[] brotliBytes = java.util.Base64.getDecoder().decode(content.getText());
+        @Nullable String contentHash = getStoredContentHash(content);
+        byte[] brotliBytes;
+        if (contentHash != null) {
+            brotliBytes = bodyStore.get(contentHash).read();
+        } else {
+            brotliBytes = java.util.Base64.getDecoder().decode(content.getText());
+        }
         byte[] decompressed = decompressBrotli(brotliBytes);
+        if (contentHash != null) {
+            checkDecodedText(response, decompressed);
+            ((EnhancedHarContent) content).setContentHash(bodyStore.put(ByteSource.wrap(decompressed)));
+            ((EnhancedHarContent) content).setContentHashEncoding(null);
+            return;
+        }
         String text, encoding;
         if (isJavascriptContentType(content.getMimeType())) {
             text = new String(decompressed, divineCharset(response));
@@ -145,6 +192,19 @@ public class BrotliResponseTransform {
         content.setText(text);
     }
 
+    private void checkDecodedText(HarResponse response, byte[] decompressed) throws DecodedContentException {
+        HarContent content = response.getContent();
+        if (isJavascriptContentType(content.getMimeType())) {
+            if (!isValidJavascript(new String(decompressed, divineCharset(response)))) {
+                throw new DecodedContentException("not valid javascript");
+            }
+        } else if (isContentType(m -> m.is(MediaType.CSS_UTF_8.withoutParameters()), content.getMimeType())) {
+            if (!isValidCss(new String(decompressed, divineCharset(response)))) {
+                throw new DecodedContentException("not valid css");
+            }
+        }
+    }
+
     protected boolean isValidCss(String sourceCode) {
         for (ECSSVersion cssVersion : ECSSVersion.values()) {
             if (CSSReader.isValidCSS(sourceCode, cssVersion)) {
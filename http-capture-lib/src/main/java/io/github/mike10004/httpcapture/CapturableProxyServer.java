@@ -9,8 +9,11 @@ import org.littleshoot.proxy.HttpFilters;
 import org.littleshoot.proxy.HttpFiltersSourceAdapter;
 import org.littleshoot.proxy.impl.ProxyUtils;
 
+import javax.annotation.Nullable;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import static java.util.Objects.requireNonNull;
+
 public class CapturableProxyServer extends BrowserMobProxyServer  {
 
     /**
@@ -18,9 +21,183 @@ public class CapturableProxyServer extends BrowserMobProxyServer  {
      */
     private final AtomicBoolean harCaptureFilterEnabled = new AtomicBoolean(false);
 
+    /**
+     * Sink that receives completed HAR entries. If null, entries are accumulated in the HAR.
+     */
+    @Nullable
+    private volatile HarEntrySink harEntrySink;
+
+    /**
+     * Factory of buffers in which response content is accumulated.
+     */
+    private volatile ContentBufferFactory contentBufferFactory = ContentBufferFactory.bounded();
+
+    /**
+     * Policy specifying when response content is decompressed.
+     */
+    private volatile DecompressionPolicy decompressionPolicy = DecompressionPolicy.atEnd();
+
+    /**
+     * Limits on the amount of request and response content kept.
+     */
+    private volatile CaptureLimits captureLimits = CaptureLimits.unlimited();
+
+    /**
+     * Store of response content, or null if content is kept in the HAR entries.
+     */
+    @Nullable
+    private volatile BodyStore bodyStore;
+
+    /**
+     * Resolver of the HAR to which each request's entry is added, or null if entries are added to the current HAR.
+     */
+    @Nullable
+    private volatile HarTargetResolver harTargetResolver;
+
     public CapturableProxyServer() {
     }
 
+    /**
+     * HAR to which entries are added, along with an optional sink that receives them instead.
+     */
+    public interface HarTarget {
+
+        Har getHar();
+
+        @Nullable
+        default String getPageId() {
+            return null;
+        }
+
+        @Nullable
+        default HarEntrySink getHarEntrySink() {
+            return null;
+        }
+    }
+
+    /**
+     * Interface of a service that selects the HAR target of a request.
+     */
+    public interface HarTargetResolver {
+
+        /**
+         * Resolves the HAR target of a request.
+         * @param originalRequest the request
+         * @param ctx the client channel context
+         * @return the target, or null if the request's entry is not to be captured
+         */
+        @Nullable
+        HarTarget resolve(HttpRequest originalRequest, ChannelHandlerContext ctx);
+    }
+
+    /**
+     * Sets the factory of buffers in which response content is accumulated during HAR capture.
+     * @param contentBufferFactory the factory
+     */
+    public void setContentBufferFactory(ContentBufferFactory contentBufferFactory) {
+        this.contentBufferFactory = requireNonNull(contentBufferFactory);
+    }
+
+    public ContentBufferFactory getContentBufferFactory() {
+        return contentBufferFactory;
+    }
+
+    /**
+     * Sets the policy specifying when response content is decompressed during HAR capture.
+     * @param decompressionPolicy the policy
+     */
+    public void setDecompressionPolicy(DecompressionPolicy decompressionPolicy) {
+        this.decompressionPolicy = requireNonNull(decompressionPolicy);
+    }
+
+    public DecompressionPolicy getDecompressionPolicy() {
+        return decompressionPolicy;
+    }
+
+    /**
+     * Sets the limits on the amount of request and response content kept during HAR capture.
+     * @param captureLimits the limits
+     */
+    public void setCaptureLimits(CaptureLimits captureLimits) {
+        this.captureLimits = requireNonNull(captureLimits);
+    }
+
+    public CaptureLimits getCaptureLimits() {
+        return captureLimits;
+    }
+
+    /**
+     * Sets the store in which response content is kept during HAR capture.
+     * @param bodyStore the store; null means keep content in the HAR entries
+     */
+    public void setBodyStore(@Nullable BodyStore bodyStore) {
+        this.bodyStore = bodyStore;
+    }
+
+    @Nullable
+    public BodyStore getBodyStore() {
+        return bodyStore;
+    }
+
+    /**
+     * Sets the sink that receives HAR entries as interactions are completed. When a sink is set,
+     * entries for subsequent requests are sent to the sink and not added to the current HAR.
+     * @param harEntrySink the sink, or null to accumulate entries in the HAR
+     */
+    public void setHarEntrySink(@Nullable HarEntrySink harEntrySink) {
+        this.harEntrySink = harEntrySink;
+    }
+
+    @Nullable
+    public HarEntrySink getHarEntrySink() {
+        return harEntrySink;
+    }
+
+    /**
+     * Sets the resolver of the HAR to which each request's entry is added. This allows requests
+     * from different clients to be captured in different HARs. A HAR must still be created with
+     * {@link #newHar()} to enable capture.
+     * @param harTargetResolver the resolver, or null to add entries to the current HAR
+     */
+    public void setHarTargetResolver(@Nullable HarTargetResolver harTargetResolver) {
+        this.harTargetResolver = harTargetResolver;
+    }
+
+    @Nullable
+    public HarTargetResolver getHarTargetResolver() {
+        return harTargetResolver;
+    }
+
+    @Nullable
+    private HarTarget resolveHarTarget(HttpRequest originalRequest, ChannelHandlerContext ctx) {
+        Har har = getHar();
+        if (har == null) {
+            return null;
+        }
+        HarTargetResolver harTargetResolver = this.harTargetResolver;
+        if (harTargetResolver != null) {
+            return harTargetResolver.resolve(originalRequest, ctx);
+        }
+        String harPageId = getCurrentHarPage() == null ? null : getCurrentHarPage().getId();
+        HarEntrySink harEntrySink = this.harEntrySink;
+        return new HarTarget() {
+            @Override
+            public Har getHar() {
+                return har;
+            }
+
+            @Override
+            public String getPageId() {
+                return harPageId;
+            }
+
+            @Override
+            public HarEntrySink getHarEntrySink() {
+                return harEntrySink;
+            }
+        };
+    }
+
     /**
      * Enables the HAR capture filter if it has not already been enabled. The filter will be added to the end of the filter chain.
      * The HAR capture filter is relatively expensive, so this method is only called when a HAR is requested.
@@ -42,24 +219,32 @@ public class CapturableProxyServer extends BrowserMobProxyServer  {
             addHttpFilterFactory(new HttpFiltersSourceAdapter() {
                 @Override
                 public HttpFilters filterRequest(HttpRequest originalRequest, ChannelHandlerContext ctx) {
-                    Har har = getHar();
-                    if (har != null && ProxyUtils.isCONNECT(originalRequest)) {
-                        return new HttpConnectHarCaptureFilter(originalRequest, ctx, har, getCurrentHarPage() == null ? null : getCurrentHarPage().getId());
-                    } else {
-                        return null;
+                    if (ProxyUtils.isCONNECT(originalRequest)) {
+                        HarTarget target = resolveHarTarget(originalRequest, ctx);
+                        if (target != null) {
+                            return new HttpConnectHarCaptureFilter(originalRequest, ctx, target.getHar(), target.getPageId());
+                        }
                     }
+                    return null;
                 }
             });
         }
     }
 
     protected HttpFilters createHarCaptureFilter(HttpRequest originalRequest, ChannelHandlerContext ctx) {
-        Har har = getHar();
-        if (har != null && !ProxyUtils.isCONNECT(originalRequest)) {
-            String harPageId = getCurrentHarPage() == null ? null : getCurrentHarPage().getId();
-            return new EnhancedHarCaptureFilter(originalRequest, ctx, har, harPageId, getHarCaptureTypes());
-        } else {
-            return null;
+        if (!ProxyUtils.isCONNECT(originalRequest)) {
+            HarTarget target = resolveHarTarget(originalRequest, ctx);
+            if (target != null) {
+                CaptureFilterSettings settings = CaptureFilterSettings.builder()
+                        .entrySink(target.getHarEntrySink())
+                        .contentBufferFactory(contentBufferFactory)
+                        .decompressionPolicy(decompressionPolicy)
+                        .captureLimits(captureLimits)
+                        .bodyStore(bodyStore)
+                        .build();
+                return new EnhancedHarCaptureFilter(originalRequest, ctx, target.getHar(), target.getPageId(), getHarCaptureTypes(), settings);
+            }
         }
+        return null;
     }
 }
@@ -0,0 +1,164 @@
+package io.github.mike10004.httpcapture;
+
+import com.google.common.base.MoreObjects;
+
+import javax.annotation.Nullable;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Value class that specifies how capture filters buffer, decompress, limit and store
+ * content, and where HAR capture filters send completed entries.
+ * @see EnhancedHarCaptureFilter
+ * @see EnhancedServerResponseCaptureFilter
+ * @see CaptureMonitorFilter
+ */
+public final class CaptureFilterSettings {
+
+    private static final CaptureFilterSettings DEFAULTS = builder().build();
+
+    @Nullable
+    private final HarEntrySink entrySink;
+    private final ContentBufferFactory contentBufferFactory;
+    private final DecompressionPolicy decompressionPolicy;
+    private final CaptureLimits captureLimits;
+    @Nullable
+    private final BodyStore bodyStore;
+
+    private CaptureFilterSettings(Builder builder) {
+        entrySink = builder.entrySink;
+        contentBufferFactory = builder.contentBufferFactory;
+        decompressionPolicy = builder.decompressionPolicy;
+        captureLimits = builder.captureLimits;
+        bodyStore = builder.bodyStore;
+    }
+
+    /**
+     * Returns the default settings, with which entries are added to the HAR log, content is
+     * buffered as by {@link ContentBufferFactory#bounded()} and decompressed when complete,
+     * and no limits are imposed.
+     * @return the default settings
+     */
+    public static CaptureFilterSettings defaults() {
+        return DEFAULTS;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Gets the sink that receives completed entries. If null, entries are added to the HAR log
+     * when the request is received.
+     * @return the sink, or null
+     */
+    @Nullable
+    public HarEntrySink getEntrySink() {
+        return entrySink;
+    }
+
+    public ContentBufferFactory getContentBufferFactory() {
+        return contentBufferFactory;
+    }
+
+    public DecompressionPolicy getDecompressionPolicy() {
+        return decompressionPolicy;
+    }
+
+    public CaptureLimits getCaptureLimits() {
+        return captureLimits;
+    }
+
+    /**
+     * Gets the store of response content. If null, response content is kept in the entry.
+     * @return the store, or null
+     */
+    @Nullable
+    public BodyStore getBodyStore() {
+        return bodyStore;
+    }
+
+    @Override
+    public String toString() {
+        MoreObjects.ToStringHelper h = MoreObjects.toStringHelper(this);
+        if (entrySink != null) h.add("entrySink", entrySink);
+        h.add("contentBufferFactory", contentBufferFactory);
+        h.add("decompressionPolicy", decompressionPolicy);
+        h.add("captureLimits", captureLimits);
+        if (bodyStore != null) h.add("bodyStore", bodyStore);
+        return h.toString();
+    }
+
+    public static final class Builder {
+
+        private HarEntrySink entrySink;
+        private ContentBufferFactory contentBufferFactory = ContentBufferFactory.bounded();
+        private DecompressionPolicy decompressionPolicy = DecompressionPolicy.atEnd();
+        private CaptureLimits captureLimits = CaptureLimits.unlimited();
+        private BodyStore bodyStore;
+
+        private Builder() {
+        }
+
+        /**
+         * Sets the sink that receives completed entries. With a non-null sink, an entry is never
+         * added to the HAR log; it is passed to {@link HarEntrySink#entryStarted(net.lightbody.bmp.core.har.HarEntry)}
+         * when the request is received and to {@link HarEntrySink#entryCompleted(net.lightbody.bmp.core.har.HarEntry)}
+         * once the response has been received or the request has failed.
+         * @param entrySink the sink; null means add entries to the HAR log
+         * @return this builder instance
+         */
+        public Builder entrySink(@Nullable HarEntrySink entrySink) {
+            this.entrySink = entrySink;
+            return this;
+        }
+
+        /**
+         * Sets the factory of buffers in which response content is accumulated.
+         * @param contentBufferFactory the factory
+         * @return this builder instance
+         */
+        public Builder contentBufferFactory(ContentBufferFactory contentBufferFactory) {
+            this.contentBufferFactory = requireNonNull(contentBufferFactory);
+            return this;
+        }
+
+        /**
+         * Sets the policy specifying when response content is decompressed.
+         * @param decompressionPolicy the policy
+         * @return this builder instance
+         */
+        public Builder decompressionPolicy(DecompressionPolicy decompressionPolicy) {
+            this.decompressionPolicy = requireNonNull(decompressionPolicy);
+            return this;
+        }
+
+        /**
+         * Sets the limits on the amount of request and response content kept. Content past
+         * a limit is not stored; the entry reports the length of the whole content and is
+         * marked as truncated.
+         * @param captureLimits the limits
+         * @return this builder instance
+         */
+        public Builder captureLimits(CaptureLimits captureLimits) {
+            this.captureLimits = requireNonNull(captureLimits);
+            return this;
+        }
+
+        /**
+         * Sets the store of response content. With a non-null store, response content is
+         * written to the store and the entry's content refers to it by hash instead of
+         * containing the text.
+         * @param bodyStore the store; null means keep content in the entry
+         * @return this builder instance
+         */
+        public Builder bodyStore(@Nullable BodyStore bodyStore) {
+            this.bodyStore = bodyStore;
+            return this;
+        }
+
+        public CaptureFilterSettings build() {
+            return new CaptureFilterSettings(this);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package io.github.mike10004.httpcapture;
+
+import com.google.common.base.Ascii;
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableMap;
+
+import javax.annotation.Nullable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Value class that specifies the maximum number of content bytes kept for each
+ * request and response. Limits may be overridden for specific media types
+ * (for example {@code image/png}) or media type ranges (for example {@code video/*}).
+ * Content past the limit is not stored, and the captured content is marked as truncated.
+ * For encoded responses, the limit applies to both the raw and the decompressed content;
+ * content past the limit is still decoded, without being kept, so that the recorded size
+ * is the length of the whole decompressed content.
+ */
+public final class CaptureLimits {
+
+    private static final CaptureLimits UNLIMITED = builder().build();
+
+    private final long maxRequestContentBytes;
+    private final long maxResponseContentBytes;
+    private final ImmutableMap<String, Long> requestContentLimits;
+    private final ImmutableMap<String, Long> responseContentLimits;
+
+    private CaptureLimits(Builder builder) {
+        maxRequestContentBytes = builder.maxRequestContentBytes;
+        maxResponseContentBytes = builder.maxResponseContentBytes;
+        requestContentLimits = ImmutableMap.copyOf(builder.requestContentLimits);
+        responseContentLimits = ImmutableMap.copyOf(builder.responseContentLimits);
+    }
+
+    /**
+     * Returns an instance that imposes no limits.
+     * @return the limits
+     */
+    public static CaptureLimits unlimited() {
+        return UNLIMITED;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Gets the maximum number of request content bytes to keep for a request of the given content type.
+     * @param contentType value of the Content-Type header; may be null
+     * @return the limit in bytes
+     */
+    public long getRequestContentLimit(@Nullable String contentType) {
+        return lookup(requestContentLimits, contentType, maxRequestContentBytes);
+    }
+
+    /**
+     * Gets the maximum number of response content bytes to keep for a response of the given content type.
+     * @param contentType value of the Content-Type header; may be null
+     * @return the limit in bytes
+     */
+    public long getResponseContentLimit(@Nullable String contentType) {
+        return lookup(responseContentLimits, contentType, maxResponseContentBytes);
+    }
+
+    private static long lookup(Map<String, Long> limits, @Nullable String contentType, long defaultLimit) {
+        if (contentType == null || limits.isEmpty()) {
+            return defaultLimit;
+        }
+        String mediaType = normalizeMediaType(contentType);
+        Long limit = limits.get(mediaType);
+        if (limit == null) {
+            int slash = mediaType.indexOf('/');
+            if (slash > 0) {
+                limit = limits.get(mediaType.substring(0, slash) + "/*");
+            }
+        }
+        return limit == null ? defaultLimit : limit;
+    }
+
+    /**
+     * Strips parameters from a content type and converts it to lowercase.
+     * @param contentType the content type, e.g. {@code text/html; charset=UTF-8}
+     * @return the media type, e.g. {@code text/html}
+     */
+    private static String normalizeMediaType(String contentType) {
+        int semicolon = contentType.indexOf(';');
+        if (semicolon >= 0) {
+            contentType = contentType.substring(0, semicolon);
+        }
+        return Ascii.toLowerCase(contentType.trim());
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("maxRequestContentBytes", maxRequestContentBytes)
+                .add("maxResponseContentBytes", maxResponseContentBytes)
+                .add("requestContentLimits", requestContentLimits)
+                .add("responseContentLimits", responseContentLimits)
+                .toString();
+    }
+
+    public static final class Builder {
+
+        private long maxRequestContentBytes = Long.MAX_VALUE;
+        private long maxResponseContentBytes = Long.MAX_VALUE;
+        private final Map<String, Long> requestContentLimits = new LinkedHashMap<>();
+        private final Map<String, Long> responseContentLimits = new LinkedHashMap<>();
+
+        private Builder() {
+        }
+
+        /**
+         * Sets the default maximum number of request content bytes to keep.
+         * @param maxBytes the limit
+         * @return this builder instance
+         */
+        public Builder maxRequestContentBytes(long maxBytes) {
+            checkArgument(maxBytes >= 0, "limit must be nonnegative");
+            this.maxRequestContentBytes = maxBytes;
+            return this;
+        }
+
+        /**
+         * Sets the default maximum number of response content bytes to keep.
+         * @param maxBytes the limit
+         * @return this builder instance
+         */
+        public Builder maxResponseContentBytes(long maxBytes) {
+            checkArgument(maxBytes >= 0, "limit must be nonnegative");
+            this.maxResponseContentBytes = maxBytes;
+            return this;
+        }
+
+        /**
+         * Overrides the request content limit for a media type or media type range.
+         * @param mediaRange media type, e.g. {@code application/json}, or range, e.g. {@code image/*}
+         * @param maxBytes the limit
+         * @return this builder instance
+         */
+        public Builder requestContentLimit(String mediaRange, long maxBytes) {
+            checkArgument(maxBytes >= 0, "limit must be nonnegative");
+            requestContentLimits.put(normalizeMediaType(requireNonNull(mediaRange)), maxBytes);
+            return this;
+        }
+
+        /**
+         * Overrides the response content limit for a media type or media type range.
+         * @param mediaRange media type, e.g. {@code application/json}, or range, e.g. {@code image/*}
+         * @param maxBytes the limit
+         * @return this builder instance
+         */
+        public Builder responseContentLimit(String mediaRange, long maxBytes) {
+            checkArgument(maxBytes >= 0, "limit must be nonnegative");
+            responseContentLimits.put(normalizeMediaType(requireNonNull(mediaRange)), maxBytes);
+            return this;
+        }
+
+        public CaptureLimits build() {
+            return new CaptureLimits(this);
+        }
+    }
+}
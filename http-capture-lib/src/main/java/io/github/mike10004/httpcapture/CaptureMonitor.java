@@ -22,6 +22,19 @@ public interface CaptureMonitor {
 
     }
 
+    /**
+     * Callback invoked when a request/response exchange is completed. This method is invoked
+     * at the same points as {@link #responseReceived(ImmutableHttpRequest, ImmutableHttpResponse)}.
+     * The default implementation constructs the full request and response, with headers
+     * and content, and passes them to that method. Monitors that only need the method, URL,
+     * or status should override this method instead, so that the headers and content are
+     * only constructed if they are asked for.
+     * @param exchange the exchange
+     */
+    default void exchangeCompleted(HttpExchange exchange) {
+        responseReceived(exchange.getRequest(), exchange.getResponse());
+    }
+
     void harCaptured(Har har);
 
 
@@ -16,13 +16,19 @@
 package io.github.mike10004.httpcapture;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteSource;
+import io.github.mike10004.httpcapture.ImmutableHttpMessage.HttpContentSource;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.http.HttpHeaders;
 import io.netty.handler.codec.http.HttpObject;
 import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpStatusClass;
 import io.netty.handler.codec.http.LastHttpContent;
 import io.netty.handler.codec.http.QueryStringDecoder;
+import net.lightbody.bmp.core.har.HarContent;
 import net.lightbody.bmp.core.har.HarNameValuePair;
 import net.lightbody.bmp.core.har.HarPostData;
 import net.lightbody.bmp.core.har.HarPostDataParam;
@@ -32,22 +38,21 @@ import net.lightbody.bmp.exception.UnsupportedCharsetException;
 import net.lightbody.bmp.filters.ClientRequestCaptureFilter;
 import net.lightbody.bmp.filters.HttpsAwareFiltersAdapter;
 import net.lightbody.bmp.filters.ResolvedHostnameCacheFilter;
-import net.lightbody.bmp.filters.ServerResponseCaptureFilter;
 import net.lightbody.bmp.filters.util.HarCaptureUtil;
 import net.lightbody.bmp.util.BrowserMobHttpUtil;
 import org.littleshoot.proxy.impl.ProxyUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.xml.bind.DatatypeConverter;
+import javax.annotation.Nullable;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -73,6 +78,11 @@ import static com.google.common.base.Preconditions.checkNotNull;
  *        </ul>
  *     </li>
  * </ul>
+ * After a failure method is invoked, the notification waits for the error response that the
+ * proxy sends to the client, so that its content is captured, unless the channel closes first.
+ * Buffered response content is released when the channel closes before the response is complete.
+ * Otherwise, the buffer is handed to the exchange, and the content is copied out of it only
+ * if the monitor constructs the response; see {@link HttpExchange#retain()}.
  */
 public class CaptureMonitorFilter extends HttpsAwareFiltersAdapter {
 
@@ -95,7 +105,7 @@ public class CaptureMonitorFilter extends HttpsAwareFiltersAdapter {
      * Like requestCaptureFilter above, HarCaptureFilter delegates to responseCaptureFilter to capture response contents. If content capture
      * is not required for this request, the filter will not be instantiated or invoked.
      */
-    private final ServerResponseCaptureFilter responseCaptureFilter;
+    private final EnhancedServerResponseCaptureFilter responseCaptureFilter;
 
     /**
      * The "real" original request, as captured by the {@link #clientToProxyRequest(HttpObject)} method.
@@ -111,6 +121,22 @@ public class CaptureMonitorFilter extends HttpsAwareFiltersAdapter {
     @SuppressWarnings("unused")
     private String serverIpAddress;
 
+    /**
+     * Channel to the client.
+     */
+    private final Channel channel;
+
+    /**
+     * Response recorded when the proxy failed to get a response from the server; null unless that happened.
+     */
+    @Nullable
+    private volatile HarResponse failureResponse;
+
+    /**
+     * Listener that sends the failure notification if the channel closes before the proxy's error response is accumulated.
+     */
+    private final ChannelFutureListener notifyFailureOnClose = future -> notifyFailure();
+
     /**
      * Create a new instance of the HarCaptureFilter that will capture request and response information. If no har is specified in the
      * constructor, this filter will do nothing.
@@ -127,31 +153,62 @@ public class CaptureMonitorFilter extends HttpsAwareFiltersAdapter {
      * @throws IllegalArgumentException if request method is {@code CONNECT}
      */
     public CaptureMonitorFilter(HttpRequest originalRequest, ChannelHandlerContext ctx, CaptureMonitor trafficMonitor) {
+        this(originalRequest, ctx, trafficMonitor, CaptureFilterSettings.defaults());
+    }
+
+    /**
+     * Create a new instance that buffers, decompresses and limits content as the given settings specify.
+     * The entry sink and body store of the settings are not used.
+     * @param originalRequest the original HttpRequest from the HttpFiltersSource factory
+     * @param ctx channel handler context
+     * @param trafficMonitor traffic monitor (subscriber to notifications from this filter)
+     * @param settings the settings
+     * @throws IllegalArgumentException if request method is {@code CONNECT}
+     */
+    public CaptureMonitorFilter(HttpRequest originalRequest, ChannelHandlerContext ctx, CaptureMonitor trafficMonitor, CaptureFilterSettings settings) {
         super(originalRequest, ctx);
         if (ProxyUtils.isCONNECT(originalRequest)) {
             throw new IllegalArgumentException("Attempted traffic listener capture for HTTP CONNECT request");
         }
-        requestCaptureFilter = new ClientRequestCaptureFilter(originalRequest);
-        responseCaptureFilter = new EnhancedServerResponseCaptureFilter(originalRequest, true);
+        requestCaptureFilter = new EnhancedClientRequestCaptureFilter(originalRequest, settings.getCaptureLimits());
+        responseCaptureFilter = new EnhancedServerResponseCaptureFilter(originalRequest, ctx, true, settings);
         this.trafficMonitor = checkNotNull(trafficMonitor);
+        this.channel = ctx.channel();
     }
 
     private void sendResponseNotification(HarResponse harResponse) {
-        synchronized (notificationLock) {
-            if (notifiedResponse) {
-                log.warn("already sent response notification; this will be suppressed: {}", harResponse);
-                return;
+        sendResponseNotification(new LazyHttpExchange(harRequest, harResponse, HttpContentSource.empty()));
+    }
+
+    /**
+     * Sends the notification of a completed exchange and then releases the exchange,
+     * which discards its response content unless the monitor retained it.
+     * @param exchange the exchange
+     */
+    private void sendResponseNotification(HttpExchange exchange) {
+        try {
+            synchronized (notificationLock) {
+                if (notifiedResponse) {
+                    log.warn("already sent response notification; this will be suppressed: {}", exchange);
+                    return;
+                }
+                trafficMonitor.exchangeCompleted(exchange);
+                notifiedResponse = true;
             }
-            ImmutableHttpRequest frozenRequest = HarInteractions.freeze(harRequest);
-            trafficMonitor.responseReceived(frozenRequest, HarInteractions.freeze(harResponse));
-            notifiedResponse = true;
+        } finally {
+            exchange.release();
+        }
+        if (failureResponse != null) {
+            channel.closeFuture().removeListener(notifyFailureOnClose);
         }
     }
 
+    /**
+     * Creates the response that is populated when the response head is received.
+     * A notification is only sent with this response after that happens.
+     */
     private static HarResponse _createDefaultResponse() {
-        HarResponse defaultHarResponse = HarCaptureUtil.createHarResponseForFailure();
-        defaultHarResponse.setError(HarCaptureUtil.getNoResponseReceivedErrorMessage());
-        return defaultHarResponse;
+        return new EnhancedHarResponse(HarCaptureUtil.HTTP_STATUS_CODE_FOR_FAILURE, HarCaptureUtil.HTTP_REASON_PHRASE_FOR_FAILURE, HarCaptureUtil.HTTP_VERSION_STRING_FOR_FAILURE);
     }
 
     @Override
@@ -178,38 +235,102 @@ public class CaptureMonitorFilter extends HttpsAwareFiltersAdapter {
 
     @Override
     public HttpObject proxyToClientResponse(HttpObject httpObject) {
-        accumulateResponse(httpObject);
+        accumulateResponse(httpObject, ResponseSource.PROXY_TO_CLIENT);
         return super.proxyToClientResponse(httpObject);
     }
 
-    private final Set<HttpObject> responseObjectsAccumulated = new HashSet<>();
-    private transient final Object responseObjectsLock = new Object();
+    /**
+     * Filter method through which a response object was received. Each object of a response
+     * from the server passes through both methods, so only objects from the method through
+     * which the response head was first received are accumulated. Responses generated by the
+     * proxy itself, such as {@code 502 Bad Gateway}, only pass through {@link #proxyToClientResponse(HttpObject)}.
+     */
+    enum ResponseSource {
+        SERVER_TO_PROXY,
+        PROXY_TO_CLIENT
+    }
+
+    /**
+     * Source through which the response head was received; null until then.
+     */
+    private final AtomicReference<ResponseSource> responseSource = new AtomicReference<>();
+
+    /**
+     * Set to true once the last content of the final response has been accumulated.
+     */
+    private volatile boolean responseComplete;
+
+    /**
+     * Set to true while an informational (1xx) response is being accumulated.
+     */
+    private volatile boolean informationalResponse;
 
-    private void accumulateResponse(HttpObject httpObject) {
-        synchronized (responseObjectsLock) {
-            if (responseObjectsAccumulated.contains(httpObject)) {
-                return;
+    /**
+     * Determines whether a response object should be accumulated. The first response head
+     * claims the response for the method through which it was received; objects received
+     * through the other method, or after the last content of the final response, are not
+     * accumulated. No reference to the object is retained.
+     * @param httpObject the response object
+     * @param source the method through which the object was received
+     * @return true if the object should be accumulated
+     */
+    boolean acceptResponseObject(HttpObject httpObject, ResponseSource source) {
+        if (responseComplete) {
+            return false;
+        }
+        ResponseSource claimed = responseSource.get();
+        if (claimed == null && httpObject instanceof HttpResponse) {
+            if (!responseSource.compareAndSet(null, source)) {
+                return false;
             }
-            responseObjectsAccumulated.add(httpObject);
-            // if a ServerResponseCaptureFilter is configured, delegate to it to collect the server's response. if it is not
-            // configured, we still need to capture basic information (timings, HTTP status, etc.), just not content.
-            responseCaptureFilter.serverToProxyResponse(httpObject);
-            if (httpObject instanceof HttpResponse) {
-                HttpResponse httpResponse = (HttpResponse) httpObject;
-                captureResponse(httpResponse, normalHarResponse);
+        } else if (claimed != source) {
+            return false;
+        }
+        if (httpObject instanceof HttpResponse) {
+            informationalResponse = ((HttpResponse) httpObject).status().codeClass() == HttpStatusClass.INFORMATIONAL;
+        }
+        if (httpObject instanceof LastHttpContent && !informationalResponse) {
+            responseComplete = true;
+        }
+        return true;
+    }
+
+    private void accumulateResponse(HttpObject httpObject, ResponseSource source) {
+        if (!acceptResponseObject(httpObject, source) || informationalResponse) {
+            return;
+        }
+        // if a ServerResponseCaptureFilter is configured, delegate to it to collect the server's response. if it is not
+        // configured, we still need to capture basic information (timings, HTTP status, etc.), just not content.
+        responseCaptureFilter.serverToProxyResponse(httpObject);
+        if (httpObject instanceof HttpResponse) {
+            HttpResponse httpResponse = (HttpResponse) httpObject;
+            captureResponse(httpResponse, normalHarResponse);
+        }
+        if (httpObject instanceof LastHttpContent) {
+            HarResponse failure = failureResponse;
+            if (failure != null) {
+                // this is the error response the proxy sent after failing to get a response from the server
+                normalHarResponse.setError(failure.getError());
             }
-            if (httpObject instanceof LastHttpContent) {
-                captureResponseContent(responseCaptureFilter.getHttpResponse(), responseCaptureFilter.getFullResponseContents(), normalHarResponse);
-                sendResponseNotification(normalHarResponse);
+            @Nullable Function<ByteSource, HttpContentSource> contentSourceFactory = captureResponseContent(responseCaptureFilter.getHttpResponse(), responseCaptureFilter.getFullResponseContentSize(), normalHarResponse);
+            if (responseCaptureFilter.isResponseContentTruncated()) {
+                markResponseContentTruncated(responseCaptureFilter.getResponseContentLength(), normalHarResponse);
             }
-
-
+            HttpExchange exchange;
+            if (contentSourceFactory == null) {
+                responseCaptureFilter.releaseContents();
+                exchange = new LazyHttpExchange(harRequest, normalHarResponse, HttpContentSource.empty());
+            } else {
+                // the exchange takes the capture buffer and copies the content only if the response is constructed
+                exchange = new LazyHttpExchange(harRequest, normalHarResponse, responseCaptureFilter.detachFullResponseContents(), contentSourceFactory);
+            }
+            sendResponseNotification(exchange);
         }
     }
 
     @Override
     public HttpObject serverToProxyResponse(HttpObject httpObject) {
-        accumulateResponse(httpObject);
+        accumulateResponse(httpObject, ResponseSource.SERVER_TO_PROXY);
         return super.serverToProxyResponse(httpObject);
     }
 
@@ -316,7 +437,22 @@ public class CaptureMonitorFilter extends HttpsAwareFiltersAdapter {
         }
     }
 
-    protected void captureResponseContent(HttpResponse httpResponse, byte[] fullMessage, HarResponse harResponse) {
+    /**
+     * Determines how the response content is to be represented. The content itself is not
+     * read here; it is copied out of the capture buffer, and decoded as text if appropriate,
+     * if and when a monitor constructs the response.
+     * @param httpResponse the response
+     * @param fullMessageLength length of the decompressed content
+     * @param harResponse HAR response in which the content size is recorded
+     * @return a function that creates the content source from the content, or null if the content is not captured
+     */
+    @Nullable
+    protected Function<ByteSource, HttpContentSource> captureResponseContent(HttpResponse httpResponse, long fullMessageLength, HarResponse harResponse) {
+        harResponse.getContent().setSize(fullMessageLength);
+        if (fullMessageLength == 0) {
+            return null;
+        }
+
         // force binary if the content encoding is not supported
         boolean forceBinary = false;
 
@@ -335,8 +471,8 @@ public class CaptureMonitorFilter extends HttpsAwareFiltersAdapter {
         try {
             charset = BrowserMobHttpUtil.readCharsetInContentTypeHeader(contentType);
         } catch (UnsupportedCharsetException e) {
-            log.warn("Found unsupported character set in Content-Type header '{}' in HTTP response from {}. Content will not be captured in HAR.", contentType, originalRequest.getUri(), e);
-            return;
+            log.warn("Found unsupported character set in Content-Type header '{}' in HTTP response from {}. Content will not be captured.", contentType, originalRequest.getUri(), e);
+            return null;
         }
 
         if (charset == null) {
@@ -346,14 +482,24 @@ public class CaptureMonitorFilter extends HttpsAwareFiltersAdapter {
         }
 
         if (!forceBinary && BrowserMobHttpUtil.hasTextualContent(contentType)) {
-            String text = BrowserMobHttpUtil.getContentAsString(fullMessage, charset);
-            harResponse.getContent().setText(text);
+            Charset textCharset = charset;
+            return content -> HttpContentSource.fromChars(content.asCharSource(textCharset));
         } else {
-            harResponse.getContent().setText(DatatypeConverter.printBase64Binary(fullMessage));
-            harResponse.getContent().setEncoding("base64");
+            return HttpContentSource::fromBytes;
         }
+    }
 
-        harResponse.getContent().setSize(fullMessage.length);
+    /**
+     * Marks the response content as truncated and sets its size to the length of the whole content.
+     * @param contentLength length of the whole content
+     * @param harResponse HAR response whose content is marked
+     */
+    protected void markResponseContentTruncated(long contentLength, HarResponse harResponse) {
+        HarContent content = harResponse.getContent();
+        content.setSize(contentLength);
+        if (content instanceof EnhancedHarContent) {
+            ((EnhancedHarContent) content).setTruncated(true);
+        }
     }
 
     protected void captureResponse(HttpResponse httpResponse, HarResponse harResponse) {
@@ -443,25 +589,45 @@ public class CaptureMonitorFilter extends HttpsAwareFiltersAdapter {
 
     @Override
     public void proxyToServerResolutionFailed(String hostAndPort) {
-        HarResponse response = HarCaptureUtil.createHarResponseForFailure();
-        response.setError(HarCaptureUtil.getResolutionFailedErrorMessage(hostAndPort));
-        sendResponseNotification(response);
+        recordFailure(HarCaptureUtil.getResolutionFailedErrorMessage(hostAndPort));
     }
 
-
     @Override
     public void proxyToServerConnectionFailed() {
-        HarResponse response = HarCaptureUtil.createHarResponseForFailure();
-        response.setError(HarCaptureUtil.getConnectionFailedErrorMessage());
-        sendResponseNotification(response);
+        recordFailure(HarCaptureUtil.getConnectionFailedErrorMessage());
     }
 
     @Override
     public void serverToProxyResponseTimedOut() {
-        // replace any existing HarResponse that was created if the server sent a partial response
+        recordFailure(HarCaptureUtil.getResponseTimedOutErrorMessage());
+    }
+
+    /**
+     * Records a failure to receive a response from the server. If the server has not begun
+     * to respond, the proxy sends its own error response to the client, and the notification
+     * is sent when that response has been accumulated, or when the channel closes if that
+     * happens first. Otherwise, the partial response is discarded and the notification is
+     * sent immediately.
+     * @param errorMessage the error message
+     */
+    private void recordFailure(String errorMessage) {
         HarResponse response = HarCaptureUtil.createHarResponseForFailure();
-        response.setError(HarCaptureUtil.getResponseTimedOutErrorMessage());
-        sendResponseNotification(response);
+        response.setError(errorMessage);
+        if (responseSource.get() == ResponseSource.SERVER_TO_PROXY) {
+            // replace any existing HarResponse that was created if the server sent a partial response
+            responseCaptureFilter.releaseContents();
+            sendResponseNotification(response);
+            return;
+        }
+        failureResponse = response;
+        channel.closeFuture().addListener(notifyFailureOnClose);
+    }
+
+    private void notifyFailure() {
+        HarResponse response = failureResponse;
+        if (response != null) {
+            sendResponseNotification(response);
+        }
     }
 
 }
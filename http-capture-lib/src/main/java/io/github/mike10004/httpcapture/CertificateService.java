@@ -0,0 +1,276 @@
+package io.github.mike10004.httpcapture;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import net.lightbody.bmp.mitm.CertificateAndKey;
+import net.lightbody.bmp.mitm.CertificateAndKeySource;
+import net.lightbody.bmp.mitm.CertificateInfo;
+import net.lightbody.bmp.mitm.HostnameCertificateInfoGenerator;
+import net.lightbody.bmp.mitm.util.MitmConstants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.MessageDigest;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Service that shares one root certificate and one cache of impersonation certificates
+ * among capture processes on the same machine. The service listens on the loopback
+ * interface only, and clients must present a shared secret with each request, because
+ * responses include private keys. Use {@link CertificateServiceClient} to connect.
+ *
+ * <p>Each connection carries one request. A request is the secret, a command, and, for
+ * leaf certificates, the list of hostnames; a response is a status flag followed by a
+ * certificate and private key, or by an error message.
+ *
+ * <p>Requests are handled by a bounded pool of threads. A connection that arrives when
+ * the pool and its queue are full is closed without a response, and a connection whose
+ * request is not received within {@link #READ_TIMEOUT_MILLIS} is dropped.
+ */
+public class CertificateService implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(CertificateService.class);
+
+    static final String COMMAND_ROOT = "root";
+    static final String COMMAND_LEAF = "leaf";
+    static final int MAX_HOSTNAMES = 256;
+    static final int READ_TIMEOUT_MILLIS = 10000;
+    static final int MAX_HANDLER_THREADS = 8;
+    static final int MAX_QUEUED_CONNECTIONS = 64;
+
+    private final CertificateAndKeySource rootSource;
+    private final ImpersonationCertificateCache leafCache;
+    private final byte[] secret;
+    private final HostnameCertificateInfoGenerator certificateInfoGenerator;
+    private final ThreadFactory threadFactory;
+    private final ExecutorService executor;
+    private volatile ServerSocket serverSocket;
+
+    /**
+     * Constructs an instance.
+     * @param rootSource source of the root certificate shared with clients
+     * @param leafCache cache of leaf certificates shared with clients
+     * @param secret secret that clients must present
+     */
+    public CertificateService(CertificateAndKeySource rootSource, ImpersonationCertificateCache leafCache, String secret) {
+        this.rootSource = requireNonNull(rootSource, "rootSource");
+        this.leafCache = requireNonNull(leafCache, "leafCache");
+        checkArgument(!secret.isEmpty(), "secret must be nonempty");
+        this.secret = secret.getBytes(StandardCharsets.UTF_8);
+        this.certificateInfoGenerator = new HostnameCertificateInfoGenerator();
+        this.threadFactory = new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("http-capture-certificate-service-%d")
+                .build();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_HANDLER_THREADS, MAX_HANDLER_THREADS, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(MAX_QUEUED_CONNECTIONS), threadFactory);
+        executor.allowCoreThreadTimeOut(true);
+        this.executor = executor;
+    }
+
+    /**
+     * Starts listening on a loopback port.
+     * @param port the port, or 0 for any available port
+     * @return the port on which the service is listening
+     * @throws IOException if the socket cannot be bound
+     */
+    public synchronized int start(int port) throws IOException {
+        checkState(serverSocket == null, "already started");
+        ServerSocket serverSocket = new ServerSocket();
+        try {
+            serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        } catch (IOException e) {
+            serverSocket.close();
+            throw e;
+        }
+        this.serverSocket = serverSocket;
+        threadFactory.newThread(() -> acceptLoop(serverSocket)).start();
+        log.debug("listening on {}", serverSocket.getLocalSocketAddress());
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Gets the port on which the service is listening.
+     * @return the port
+     */
+    public int getPort() {
+        ServerSocket serverSocket = this.serverSocket;
+        checkState(serverSocket != null, "not started");
+        return serverSocket.getLocalPort();
+    }
+
+    private void acceptLoop(ServerSocket serverSocket) {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                try {
+                    executor.execute(() -> handle(socket));
+                } catch (RejectedExecutionException e) {
+                    log.warn("rejecting connection from {}; too many requests in progress", socket.getRemoteSocketAddress());
+                    closeQuietly(socket);
+                }
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    log.warn("failed to accept connection: {}", e.toString());
+                }
+            }
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            log.debug("failed to close socket: {}", e.toString());
+        }
+    }
+
+    private void handle(Socket socket) {
+        try {
+            socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+        } catch (SocketException e) {
+            closeQuietly(socket);
+            return;
+        }
+        try (Socket ignore = socket;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+            byte[] presented = in.readUTF().getBytes(StandardCharsets.UTF_8);
+            if (!MessageDigest.isEqual(secret, presented)) {
+                log.warn("rejecting request from {} with incorrect secret", socket.getRemoteSocketAddress());
+                return;
+            }
+            String command = in.readUTF();
+            CertificateAndKey response;
+            try {
+                response = respond(command, in);
+            } catch (RuntimeException e) {
+                log.warn("failed to respond to {} request: {}", command, e.toString());
+                out.writeBoolean(false);
+                out.writeUTF(String.valueOf(e.getMessage()));
+                return;
+            }
+            out.writeBoolean(true);
+            writeCertificateAndKey(response, out);
+        } catch (SocketException ignore) {
+            // client went away or service is closing
+        } catch (SocketTimeoutException e) {
+            log.warn("dropping connection from {}; request not received within {} ms", socket.getRemoteSocketAddress(), READ_TIMEOUT_MILLIS);
+        } catch (IOException e) {
+            log.warn("failed to handle request: {}", e.toString());
+        }
+    }
+
+    private CertificateAndKey respond(String command, DataInputStream in) throws IOException {
+        CertificateAndKey root = rootSource.load();
+        switch (command) {
+            case COMMAND_ROOT:
+                return root;
+            case COMMAND_LEAF:
+                List<String> hostnames = readHostnames(in);
+                CertificateInfo certificateInfo = certificateInfoGenerator.generate(hostnames, null);
+                return leafCache.createServerCertificate(certificateInfo, root.getCertificate(), root.getPrivateKey(), leafCache.getServerKeyGenerator().generate(), MitmConstants.DEFAULT_MESSAGE_DIGEST);
+            default:
+                throw new IllegalArgumentException("unknown command: " + command);
+        }
+    }
+
+    private static List<String> readHostnames(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        checkArgument(count > 0 && count <= MAX_HOSTNAMES, "hostname count %s", count);
+        List<String> hostnames = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            hostnames.add(in.readUTF());
+        }
+        return hostnames;
+    }
+
+    static void writeCertificateAndKey(CertificateAndKey certificateAndKey, DataOutputStream out) throws IOException {
+        try {
+            writeBytes(certificateAndKey.getCertificate().getEncoded(), out);
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e);
+        }
+        out.writeUTF(certificateAndKey.getPrivateKey().getAlgorithm());
+        writeBytes(certificateAndKey.getPrivateKey().getEncoded(), out);
+    }
+
+    static CertificateAndKey readCertificateAndKey(DataInputStream in) throws IOException {
+        byte[] certificateBytes = readBytes(in);
+        String keyAlgorithm = in.readUTF();
+        byte[] keyBytes = readBytes(in);
+        try {
+            X509Certificate certificate = (X509Certificate) CertificateFactory.getInstance("X.509")
+                    .generateCertificate(new ByteArrayInputStream(certificateBytes));
+            return new CertificateAndKey(certificate, KeyFactory.getInstance(keyAlgorithm).generatePrivate(new PKCS8EncodedKeySpec(keyBytes)));
+        } catch (GeneralSecurityException e) {
+            throw new IOException("failed to decode certificate and key", e);
+        }
+    }
+
+    private static void writeBytes(byte[] bytes, DataOutputStream out) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > 1024 * 1024) {
+            throw new IOException("invalid length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * Stops listening. Requests in progress are abandoned.
+     * @throws IOException if closing the socket fails
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        executor.shutdownNow();
+        if (serverSocket != null) {
+            serverSocket.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        ServerSocket serverSocket = this.serverSocket;
+        return MoreObjects.toStringHelper(this)
+                .add("address", serverSocket == null ? null : serverSocket.getLocalSocketAddress())
+                .add("leafCache", leafCache)
+                .toString();
+    }
+}
@@ -0,0 +1,183 @@
+package io.github.mike10004.httpcapture;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Suppliers;
+import net.lightbody.bmp.mitm.CertificateAndKey;
+import net.lightbody.bmp.mitm.CertificateAndKeySource;
+import net.lightbody.bmp.mitm.CertificateInfo;
+import net.lightbody.bmp.mitm.exception.CertificateSourceException;
+import net.lightbody.bmp.mitm.keys.ECKeyGenerator;
+import net.lightbody.bmp.mitm.tools.DefaultSecurityProviderTool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.security.KeyPair;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Supplier;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Client of a {@link CertificateService} running on the same machine. Use
+ * {@link #rootSource()} as the capture server's certificate source and
+ * {@link #createLeafCache()} as its impersonation certificate cache, so that the
+ * root and leaf certificates are shared with other processes using the same service.
+ */
+public class CertificateServiceClient {
+
+    private static final Logger log = LoggerFactory.getLogger(CertificateServiceClient.class);
+
+    public static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(30);
+
+    private final InetSocketAddress address;
+    private final String secret;
+    private final int timeoutMillis;
+    private final Supplier<CertificateAndKey> root;
+
+    /**
+     * Constructs an instance with the default timeout.
+     * @param port the loopback port on which the service is listening
+     * @param secret the service secret
+     */
+    public CertificateServiceClient(int port, String secret) {
+        this(port, secret, DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * Constructs an instance.
+     * @param port the loopback port on which the service is listening
+     * @param secret the service secret
+     * @param timeout connect and read timeout; the first request for a certificate may require the service to generate one
+     */
+    public CertificateServiceClient(int port, String secret, Duration timeout) {
+        checkArgument(port > 0 && port <= 65535, "port %s", port);
+        this.address = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+        this.secret = requireNonNull(secret, "secret");
+        this.timeoutMillis = Math.toIntExact(timeout.toMillis());
+        this.root = Suppliers.memoize(() -> {
+            try {
+                return fetchRoot();
+            } catch (IOException e) {
+                throw new CertificateSourceException("failed to fetch root certificate from " + address, e);
+            }
+        });
+    }
+
+    /**
+     * Fetches the root certificate and key from the service.
+     * @return the root certificate and key
+     * @throws IOException if the request fails
+     */
+    public CertificateAndKey fetchRoot() throws IOException {
+        return request(CertificateService.COMMAND_ROOT, null);
+    }
+
+    /**
+     * Fetches a leaf certificate and key from the service, signed by the root.
+     * @param hostnames the hostnames; the first is the common name
+     * @return the leaf certificate and key
+     * @throws IOException if the request fails
+     */
+    public CertificateAndKey fetchLeaf(List<String> hostnames) throws IOException {
+        checkArgument(!hostnames.isEmpty() && hostnames.size() <= CertificateService.MAX_HOSTNAMES, "hostname count %s", hostnames.size());
+        return request(CertificateService.COMMAND_LEAF, hostnames);
+    }
+
+    private CertificateAndKey request(String command, List<String> hostnames) throws IOException {
+        try (Socket socket = new Socket()) {
+            socket.connect(address, timeoutMillis);
+            socket.setSoTimeout(timeoutMillis);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.writeUTF(secret);
+            out.writeUTF(command);
+            if (hostnames != null) {
+                out.writeInt(hostnames.size());
+                for (String hostname : hostnames) {
+                    out.writeUTF(hostname);
+                }
+            }
+            out.flush();
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            if (!in.readBoolean()) {
+                throw new IOException("certificate service error: " + in.readUTF());
+            }
+            return CertificateService.readCertificateAndKey(in);
+        }
+    }
+
+    /**
+     * Gets a certificate source that supplies the service's root certificate. The root is
+     * fetched once, on first use.
+     * @return the certificate source
+     */
+    public CertificateAndKeySource rootSource() {
+        return root::get;
+    }
+
+    /**
+     * Creates a leaf certificate cache with the default size and time-to-live.
+     * @return a new cache
+     * @see #createLeafCache(long, Duration)
+     */
+    public ImpersonationCertificateCache createLeafCache() {
+        return createLeafCache(ImpersonationCertificateCache.DEFAULT_MAX_SIZE, ImpersonationCertificateCache.DEFAULT_TIME_TO_LIVE);
+    }
+
+    /**
+     * Creates an in-process cache of leaf certificates that fetches certificates from the
+     * service on cache misses. If the service is unavailable, or the root certificate is
+     * not the service's root, certificates are generated locally instead.
+     * @param maxSize maximum number of certificates to keep
+     * @param timeToLive duration for which a certificate is kept
+     * @return a new cache
+     */
+    public ImpersonationCertificateCache createLeafCache(long maxSize, Duration timeToLive) {
+        // the server key pair is only used if a certificate is generated locally, so make it cheap
+        return new ImpersonationCertificateCache(maxSize, timeToLive, new ECKeyGenerator(), new DefaultSecurityProviderTool()) {
+            @Override
+            protected CertificateAndKey generate(CertificateInfo certificateInfo, X509Certificate caRootCertificate, PrivateKey caPrivateKey, KeyPair serverKeyPair, String messageDigest) {
+                try {
+                    if (caRootCertificate.equals(root.get().getCertificate())) {
+                        return fetchLeaf(toHostnames(certificateInfo));
+                    }
+                } catch (IOException | CertificateSourceException e) {
+                    log.warn("failed to fetch certificate from service; generating locally: {}", e.toString());
+                }
+                return super.generate(certificateInfo, caRootCertificate, caPrivateKey, serverKeyPair, messageDigest);
+            }
+        };
+    }
+
+    static List<String> toHostnames(CertificateInfo certificateInfo) {
+        Set<String> hostnames = new LinkedHashSet<>();
+        if (certificateInfo.getCommonName() != null) {
+            hostnames.add(certificateInfo.getCommonName());
+        }
+        if (certificateInfo.getSubjectAlternativeNames() != null) {
+            hostnames.addAll(certificateInfo.getSubjectAlternativeNames());
+        }
+        return new ArrayList<>(hostnames);
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("address", address)
+                .toString();
+    }
+}
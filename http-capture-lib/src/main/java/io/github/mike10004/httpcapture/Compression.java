@@ -0,0 +1,69 @@
+package io.github.mike10004.httpcapture;
+
+import com.google.common.io.ByteSource;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Static utility methods relating to compressed files.
+ */
+public final class Compression {
+
+    private static final int GZIP_MAGIC_0 = 0x1f, GZIP_MAGIC_1 = 0x8b;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private Compression() {}
+
+    /**
+     * Checks whether a stream begins with the gzip magic number. The stream must support
+     * marking; its position is unchanged when this method returns.
+     * @param in the stream
+     * @return true if the stream begins with the gzip magic number
+     * @throws IOException on I/O error
+     */
+    static boolean isGzip(InputStream in) throws IOException {
+        in.mark(2);
+        try {
+            return in.read() == GZIP_MAGIC_0 && in.read() == GZIP_MAGIC_1;
+        } finally {
+            in.reset();
+        }
+    }
+
+    /**
+     * Returns a byte source that supplies the decompressed content of the given source if it
+     * is in gzip format, or the content unchanged otherwise. The format is detected by
+     * the magic number at the start of the content, not by filename.
+     * @param source the source
+     * @return a source of decompressed content
+     */
+    public static ByteSource decompressingIfGzip(ByteSource source) {
+        requireNonNull(source, "source");
+        return new ByteSource() {
+            @Override
+            public InputStream openStream() throws IOException {
+                InputStream in = new BufferedInputStream(source.openStream(), BUFFER_SIZE);
+                try {
+                    if (isGzip(in)) {
+                        return new GZIPInputStream(in, BUFFER_SIZE);
+                    }
+                    return in;
+                } catch (IOException | RuntimeException e) {
+                    in.close();
+                    throw e;
+                }
+            }
+
+            @Override
+            public String toString() {
+                return "Compression.decompressingIfGzip(" + source + ")";
+            }
+        };
+    }
+}
@@ -0,0 +1,54 @@
+package io.github.mike10004.httpcapture;
+
+import com.google.common.io.ByteSource;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Interface for classes that accumulate message content as it is received.
+ * Instances are not reusable; once closed, the content is no longer available.
+ * @see ContentBufferFactory
+ */
+public interface ContentBuffer extends Closeable {
+
+    /**
+     * Appends the readable bytes of a buffer. The reader index of the argument is not modified.
+     * @param content the content
+     * @throws IOException on I/O error or if this buffer has been closed
+     */
+    void append(ByteBuf content) throws IOException;
+
+    /**
+     * Appends bytes from an array.
+     * @param bytes the array
+     * @param offset offset in the array
+     * @param length number of bytes to append
+     * @throws IOException on I/O error or if this buffer has been closed
+     */
+    default void append(byte[] bytes, int offset, int length) throws IOException {
+        append(Unpooled.wrappedBuffer(bytes, offset, length));
+    }
+
+    /**
+     * Gets the number of bytes appended so far.
+     * @return the size in bytes
+     */
+    long size();
+
+    /**
+     * Returns a byte source that supplies the content of this buffer. The source
+     * must not be used after this buffer has been closed.
+     * @return a byte source
+     */
+    ByteSource asByteSource();
+
+    /**
+     * Releases the resources held by this buffer.
+     */
+    @Override
+    void close();
+
+}
@@ -0,0 +1,72 @@
+package io.github.mike10004.httpcapture;
+
+import io.netty.buffer.PooledByteBufAllocator;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Interface for classes that create content buffers.
+ */
+public interface ContentBufferFactory {
+
+    /**
+     * Maximum number of bytes that buffers created by {@link #bounded()} hold in memory.
+     */
+    long DEFAULT_SPILL_THRESHOLD_BYTES = 1024 * 1024;
+
+    /**
+     * Creates a new, empty buffer.
+     * @return a new buffer
+     */
+    ContentBuffer create();
+
+    /**
+     * Returns a factory that creates buffers that hold all content in pooled heap buffers,
+     * regardless of size.
+     * @return a factory
+     */
+    static ContentBufferFactory inMemory() {
+        return named(() -> new SpillingContentBuffer(PooledByteBufAllocator.DEFAULT, Long.MAX_VALUE, null), "ContentBufferFactory{inMemory}");
+    }
+
+    /**
+     * Returns a factory that creates buffers that hold at most {@link #DEFAULT_SPILL_THRESHOLD_BYTES}
+     * in pooled heap buffers and move larger content to temporary files in the directory
+     * specified by the {@code java.io.tmpdir} system property. This is the default factory.
+     * @return a factory
+     */
+    static ContentBufferFactory bounded() {
+        return spilling(DEFAULT_SPILL_THRESHOLD_BYTES, Paths.get(System.getProperty("java.io.tmpdir")));
+    }
+
+    /**
+     * Returns a factory that creates buffers that hold content in pooled heap buffers
+     * until the content size exceeds a threshold, after which the content is moved to
+     * a temporary file.
+     * @param spillThresholdBytes maximum number of bytes to hold in memory
+     * @param spillDirectory directory in which temporary files are created
+     * @return a factory
+     */
+    static ContentBufferFactory spilling(long spillThresholdBytes, Path spillDirectory) {
+        requireNonNull(spillDirectory, "spillDirectory");
+        return named(() -> new SpillingContentBuffer(PooledByteBufAllocator.DEFAULT, spillThresholdBytes, spillDirectory),
+                String.format("ContentBufferFactory{spillThreshold=%d,spillDirectory=%s}", spillThresholdBytes, spillDirectory));
+    }
+
+    static ContentBufferFactory named(ContentBufferFactory factory, String name) {
+        return new ContentBufferFactory() {
+            @Override
+            public ContentBuffer create() {
+                return factory.create();
+            }
+
+            @Override
+            public String toString() {
+                return name;
+            }
+        };
+    }
+}
@@ -0,0 +1,153 @@
+package io.github.mike10004.httpcapture;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableList;
+import net.lightbody.bmp.core.har.HarEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Cookie storage that is updated incrementally as HAR entries are received. For each
+ * domain/name/path triplet, only the winning cookie under the configured ordering is kept,
+ * so memory use is proportional to the number of distinct cookies rather than the number
+ * of cookies received. The result is the same as that of
+ * {@link CookieCollection#makeCookieList(Function)} with the same ordering applied to
+ * a collection of all cookies received.
+ *
+ * <p>Instances are safe for use by multiple threads, so a jar can be used as the
+ * {@link HarEntrySink} of a capture server.
+ */
+public class CookieJar implements HarEntrySink {
+
+    private static final Logger log = LoggerFactory.getLogger(CookieJar.class);
+
+    private final Function<HarEntry, List<DeserializableCookie>> cookieExtractor;
+    private final Function<? super CookieKey, Comparator<? super DeserializableCookie>> orderingFactory;
+    private final ConcurrentMap<CookieKey, DeserializableCookie> cookies = new ConcurrentHashMap<>();
+    private final AtomicLong received = new AtomicLong();
+
+    /**
+     * Constructs an instance that keeps the most recently created cookie for each triplet.
+     * Cookies parsed when a response was captured are used if available.
+     */
+    public CookieJar() {
+        this(HarAnalysis::makeCookiesFromEntry, anykey -> CookieCollection.orderingByCreationDate());
+    }
+
+    /**
+     * Constructs an instance that parses Set-Cookie headers with the given parser.
+     * @param cookieSpec parser of Set-Cookie header values
+     * @param orderingFactory factory providing comparators for selecting which cookie to keep for each triplet;
+     *                        the greatest cookie is kept, and the earlier cookie is kept if two are equal
+     */
+    public CookieJar(SetCookieHeaderParser cookieSpec, Function<? super CookieKey, Comparator<? super DeserializableCookie>> orderingFactory) {
+        this(entry -> HarAnalysis.makeCookiesFromEntry(cookieSpec, entry), orderingFactory);
+        requireNonNull(cookieSpec, "cookieSpec");
+    }
+
+    private CookieJar(Function<HarEntry, List<DeserializableCookie>> cookieExtractor, Function<? super CookieKey, Comparator<? super DeserializableCookie>> orderingFactory) {
+        this.cookieExtractor = requireNonNull(cookieExtractor, "cookieExtractor");
+        this.orderingFactory = requireNonNull(orderingFactory, "orderingFactory");
+    }
+
+    /**
+     * Adds a cookie, replacing the cookie with the same triplet if the new one wins.
+     * @param cookie the cookie
+     */
+    public void add(DeserializableCookie cookie) {
+        CookieKey key = CookieKey.from(cookie);
+        Comparator<? super DeserializableCookie> ordering = orderingFactory.apply(key);
+        cookies.merge(key, cookie, (current, candidate) -> ordering.compare(candidate, current) > 0 ? candidate : current);
+        received.incrementAndGet();
+    }
+
+    /**
+     * Adds the cookies set by the response of an entry.
+     * @param entry the entry
+     * @throws IllegalArgumentException if the request URL or a Set-Cookie header is malformed
+     */
+    public void add(HarEntry entry) {
+        if (HarAnalysis.hasSetCookieHeader(entry)) {
+            cookieExtractor.apply(entry).forEach(this::add);
+        }
+    }
+
+    /**
+     * Adds the cookies set by the responses of all entries in an indexed HAR file.
+     * Entries are read one at a time.
+     * @param index the index
+     * @throws IOException if an entry cannot be read
+     */
+    public void addAll(HarIndex index) throws IOException {
+        for (HarIndexEntry indexEntry : index.getEntries()) {
+            add(index.readEntry(indexEntry));
+        }
+    }
+
+    /**
+     * Adds the cookies set by the response of an entry, logging rather than throwing
+     * an exception if the entry contains malformed data.
+     * @param entry the entry
+     */
+    @Override
+    public void entryCompleted(HarEntry entry) {
+        try {
+            add(entry);
+        } catch (IllegalArgumentException e) {
+            log.info("failed to extract cookies from response to {}: {}", entry.getRequest() == null ? null : entry.getRequest().getUrl(), e.toString());
+        }
+    }
+
+    /**
+     * Gets the cookie kept for a triplet.
+     * @param key the triplet
+     * @return the cookie, or null if none has been received
+     */
+    @Nullable
+    public DeserializableCookie get(CookieKey key) {
+        return cookies.get(key);
+    }
+
+    /**
+     * Gets the number of distinct cookies kept.
+     * @return the number of cookies
+     */
+    public int size() {
+        return cookies.size();
+    }
+
+    /**
+     * Gets the number of cookies added, including those that were not kept.
+     * @return the number of cookies received
+     */
+    public long getReceivedCount() {
+        return received.get();
+    }
+
+    /**
+     * Creates a list of the cookies kept.
+     * @return a list of cookies with unique domain/name/path triplets
+     */
+    public ImmutableList<DeserializableCookie> makeCookieList() {
+        return ImmutableList.copyOf(cookies.values());
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("size", cookies.size())
+                .add("received", received.get())
+                .toString();
+    }
+}
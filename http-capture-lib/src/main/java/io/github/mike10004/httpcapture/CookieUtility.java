@@ -19,9 +19,11 @@ import org.apache.http.message.BasicHeader;
 import javax.annotation.Nullable;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.Date;
-import java.util.TimeZone;
+import java.util.Locale;
 import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.stream.Stream;
@@ -185,19 +187,45 @@ public class CookieUtility {
      * @param referenceDate the date to use for comparison (usually the current time) to the cookie's expiry date
      * @return a predicate that returns true for a cookie that is not expired by the given date
      */
-    public synchronized Predicate<Cookie> notExpiredOn(final Date referenceDate) {
+    public Predicate<Cookie> notExpiredOn(final Date referenceDate) {
         checkNotNull(referenceDate, "date");
+        return notExpiredOn(referenceDate.getTime());
+    }
+
+    /**
+     * Creates a predicate that filters expired cookies.
+     * @param referenceInstant the instant to use for comparison (usually the current time) to the cookie's expiry date
+     * @return a predicate that returns true for a cookie that is not expired at the given instant
+     */
+    public Predicate<Cookie> notExpiredOn(final Instant referenceInstant) {
+        checkNotNull(referenceInstant, "instant");
+        return notExpiredOn(referenceInstant.toEpochMilli());
+    }
+
+    private static Predicate<Cookie> notExpiredOn(final long referenceMillis) {
         return cookie -> {
             checkNotNull(cookie, "cookie");
-            Date expiry = cookie.getExpiryDate();
-            if (expiry == null) {
-                return true;
-            }
-            boolean stillValid = expiry.after(referenceDate);
-            return stillValid;
+            long expiryMillis = getExpiryMillis(cookie);
+            return expiryMillis == NO_EXPIRY || expiryMillis > referenceMillis;
         };
     }
 
+    private static final long NO_EXPIRY = Long.MIN_VALUE;
+
+    /**
+     * Gets the expiry date of a cookie as milliseconds since the epoch, without
+     * creating a {@link Date} if the cookie is a {@link DeserializableCookie}.
+     * @return the expiry, or {@link #NO_EXPIRY} if the cookie has no expiry date
+     */
+    private static long getExpiryMillis(Cookie cookie) {
+        if (cookie instanceof DeserializableCookie) {
+            @Nullable Instant expiry = ((DeserializableCookie) cookie).getExpiryInstant();
+            return expiry == null ? NO_EXPIRY : expiry.toEpochMilli();
+        }
+        @Nullable Date expiry = cookie.getExpiryDate();
+        return expiry == null ? NO_EXPIRY : expiry.getTime();
+    }
+
     /**
      * Gets the port of the URL.
      * This functionality is implemented here as protected method to allow subclass to change it
@@ -306,16 +334,18 @@ public class CookieUtility {
     private static CharMatcher legalNameChars = CharMatcher.noneOf("=");
     private static CharMatcher legalOtherChars = CharMatcher.noneOf(";");
 
-    private static final SimpleDateFormat dateFormat;
-    static {
-        // Thu, 29-Nov-2018 19:22:24 GMT
-        dateFormat = new SimpleDateFormat("EEE, dd-MMM-yyyy HH:mm:ss zzz");
-        dateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
-    }
+    // Thu, 29-Nov-2018 19:22:24 GMT
+    private static final DateTimeFormatter headerDateFormatter = DateTimeFormatter.ofPattern("EEE, dd-MMM-yyyy HH:mm:ss zzz", Locale.US)
+            .withZone(ZoneId.of("GMT"));
 
     protected static String formatDateForHeader(Date date) {
         checkNotNull(date, "date");
-        return dateFormat.format(date);
+        return formatDateForHeader(date.toInstant());
+    }
+
+    protected static String formatDateForHeader(Instant instant) {
+        checkNotNull(instant, "instant");
+        return headerDateFormatter.format(instant);
     }
 
     protected static @Nullable String getDomain(org.apache.http.cookie.Cookie c) {
@@ -334,8 +364,9 @@ public class CookieUtility {
         b.append(checkOnlyContains(c.getName(), legalNameChars));
         b.append('=');
         b.append(checkOnlyContains(c.getValue(), legalOtherChars));
-        if (c.getExpiryDate() != null) {
-            b.append("; Expires=").append(formatDateForHeader(c.getExpiryDate()));
+        @Nullable Instant expiry = c.getExpiryInstant();
+        if (expiry != null) {
+            b.append("; Expires=").append(formatDateForHeader(expiry));
         }
         @Nullable String domain = getDomain(c);
         if (domain != null) {
@@ -0,0 +1,68 @@
+package io.github.mike10004.httpcapture;
+
+import com.google.common.base.MoreObjects;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Value class that specifies when encoded response content is decompressed.
+ * By default, content is decompressed after the last chunk of the response
+ * has been received. In incremental mode, the decompressor is driven as each
+ * chunk arrives, and decoding stops once a maximum decompressed size is reached.
+ */
+public final class DecompressionPolicy {
+
+    private static final DecompressionPolicy AT_END = new DecompressionPolicy(false, Long.MAX_VALUE);
+
+    private final boolean incremental;
+    private final long maxDecompressedBytes;
+
+    private DecompressionPolicy(boolean incremental, long maxDecompressedBytes) {
+        this.incremental = incremental;
+        this.maxDecompressedBytes = maxDecompressedBytes;
+    }
+
+    /**
+     * Returns a policy specifying that content is decompressed after the whole response has been received.
+     * @return the policy
+     */
+    public static DecompressionPolicy atEnd() {
+        return AT_END;
+    }
+
+    /**
+     * Returns a policy specifying that content is decompressed as it is received, without a size limit.
+     * @return the policy
+     */
+    public static DecompressionPolicy incremental() {
+        return incremental(Long.MAX_VALUE);
+    }
+
+    /**
+     * Returns a policy specifying that content is decompressed as it is received,
+     * until the given number of decompressed bytes is reached. Decompressed content
+     * is truncated at that size.
+     * @param maxDecompressedBytes maximum decompressed content size
+     * @return the policy
+     */
+    public static DecompressionPolicy incremental(long maxDecompressedBytes) {
+        checkArgument(maxDecompressedBytes >= 0, "maxDecompressedBytes must be nonnegative");
+        return new DecompressionPolicy(true, maxDecompressedBytes);
+    }
+
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+    public long getMaxDecompressedBytes() {
+        return maxDecompressedBytes;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("incremental", incremental)
+                .add("maxDecompressedBytes", maxDecompressedBytes)
+                .toString();
+    }
+}
@@ -88,6 +88,25 @@ public class DeserializableCookie implements ClientCookie {
         return new Builder(name, value);
     }
 
+    /**
+     * Creates a builder initialized with the properties of this cookie.
+     * @return a new builder
+     */
+    public Builder toBuilder() {
+        Builder b = new Builder(name, value);
+        b.attribs.putAll(attribs);
+        b.cookieComment = cookieComment;
+        b.cookieDomain = cookieDomain;
+        b.cookieExpiryDate = cookieExpiryDate;
+        b.cookiePath = cookiePath;
+        b.isSecure = isSecure;
+        b.cookieVersion = cookieVersion;
+        b.creationDate = creationDate;
+        b.lastAccessed = lastAccessed;
+        b.httpOnly = httpOnly;
+        return b;
+    }
+
     /**
      * Gets the attribute value that corresponds to the given key case-insensitively.
      * @param name the key
@@ -0,0 +1,84 @@
+package io.github.mike10004.httpcapture;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.base.MoreObjects;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteSource;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Body store that keeps each body in a file named by its hash. Files are grouped
+ * in subdirectories named by the first two characters of the hash, so that the body
+ * with hash {@code 2cf24d...} is stored at {@code 2c/2cf24d...}. Files are written
+ * to a temporary name first and then moved into place, so concurrent writers of
+ * the same body never expose a partially written file.
+ */
+class DirectoryBodyStore implements BodyStore {
+
+    private static final CharMatcher HEX_DIGITS = CharMatcher.inRange('0', '9').or(CharMatcher.inRange('a', 'f'));
+    private static final int HASH_LENGTH = 64;
+
+    private final Path directory;
+
+    public DirectoryBodyStore(Path directory) {
+        this.directory = requireNonNull(directory);
+    }
+
+    @Override
+    public String put(ByteSource content) throws IOException {
+        String contentHash = content.hash(Hashing.sha256()).toString();
+        Path target = resolve(contentHash);
+        if (Files.isRegularFile(target)) {
+            return contentHash;
+        }
+        Files.createDirectories(target.getParent());
+        File tempFile = File.createTempFile(contentHash, ".tmp", target.getParent().toFile());
+        try {
+            content.copyTo(com.google.common.io.Files.asByteSink(tempFile));
+            try {
+                Files.move(tempFile.toPath(), target, StandardCopyOption.ATOMIC_MOVE);
+            } catch (FileAlreadyExistsException ignore) {
+                // another writer stored the same content
+            }
+        } finally {
+            Files.deleteIfExists(tempFile.toPath());
+        }
+        return contentHash;
+    }
+
+    @Override
+    public boolean contains(String contentHash) {
+        return Files.isRegularFile(resolve(contentHash));
+    }
+
+    @Override
+    public ByteSource get(String contentHash) throws IOException {
+        Path file = resolve(contentHash);
+        if (!Files.isRegularFile(file)) {
+            throw new FileNotFoundException("no content with hash " + contentHash + " in " + directory);
+        }
+        return com.google.common.io.Files.asByteSource(file.toFile());
+    }
+
+    private Path resolve(String contentHash) {
+        checkArgument(contentHash.length() == HASH_LENGTH && HEX_DIGITS.matchesAllOf(contentHash), "not a lowercase hex SHA-256 hash: %s", contentHash);
+        return directory.resolve(contentHash.substring(0, 2)).resolve(contentHash);
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("directory", directory)
+                .toString();
+    }
+}
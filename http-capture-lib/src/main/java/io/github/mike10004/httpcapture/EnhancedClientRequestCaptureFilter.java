@@ -0,0 +1,73 @@
+package io.github.mike10004.httpcapture;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpRequest;
+import net.lightbody.bmp.filters.ClientRequestCaptureFilter;
+
+import java.io.ByteArrayOutputStream;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Client request capture filter that keeps request content only up to a limit
+ * that depends on the content type of the request. The total length of the content
+ * is tracked regardless of the limit.
+ */
+public class EnhancedClientRequestCaptureFilter extends ClientRequestCaptureFilter {
+
+    private final CaptureLimits captureLimits;
+
+    private final ByteArrayOutputStream requestContents = new ByteArrayOutputStream();
+
+    private volatile long requestContentLength;
+
+    public EnhancedClientRequestCaptureFilter(HttpRequest originalRequest, CaptureLimits captureLimits) {
+        super(originalRequest);
+        this.captureLimits = requireNonNull(captureLimits);
+    }
+
+    @Override
+    protected void storeRequestContent(HttpContent httpContent) {
+        ByteBuf bufferedContent = httpContent.content();
+        int length = bufferedContent.readableBytes();
+        HttpRequest httpRequest = getHttpRequest();
+        String contentType = httpRequest == null ? null : httpRequest.headers().get(HttpHeaderNames.CONTENT_TYPE);
+        long limit = captureLimits.getRequestContentLimit(contentType);
+        synchronized (requestContents) {
+            long remaining = limit - requestContents.size();
+            if (remaining > 0) {
+                byte[] content = new byte[(int) Math.min(length, remaining)];
+                bufferedContent.getBytes(bufferedContent.readerIndex(), content);
+                requestContents.write(content, 0, content.length);
+            }
+        }
+        requestContentLength += length;
+    }
+
+    @Override
+    public byte[] getFullRequestContents() {
+        synchronized (requestContents) {
+            return requestContents.toByteArray();
+        }
+    }
+
+    /**
+     * Gets the total length of the request content, including content that was not kept.
+     * @return the length in bytes
+     */
+    public long getRequestContentLength() {
+        return requestContentLength;
+    }
+
+    /**
+     * Checks whether some of the request content was not kept because the limit was reached.
+     * @return true if the content returned by {@link #getFullRequestContents()} is truncated
+     */
+    public boolean isRequestContentTruncated() {
+        synchronized (requestContents) {
+            return requestContentLength > requestContents.size();
+        }
+    }
+}
@@ -2,6 +2,8 @@ package io.github.mike10004.httpcapture;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.io.BaseEncoding;
+import com.google.common.io.ByteSource;
+import com.google.common.io.CharStreams;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.http.HttpContent;
@@ -17,6 +19,7 @@ import io.netty.handler.codec.http.cookie.ClientCookieDecoder;
 import io.netty.handler.codec.http.cookie.Cookie;
 import io.netty.handler.codec.http.cookie.ServerCookieDecoder;
 import net.lightbody.bmp.core.har.Har;
+import net.lightbody.bmp.core.har.HarContent;
 import net.lightbody.bmp.core.har.HarCookie;
 import net.lightbody.bmp.core.har.HarEntry;
 import net.lightbody.bmp.core.har.HarNameValuePair;
@@ -25,7 +28,6 @@ import net.lightbody.bmp.core.har.HarPostDataParam;
 import net.lightbody.bmp.core.har.HarRequest;
 import net.lightbody.bmp.core.har.HarResponse;
 import net.lightbody.bmp.exception.UnsupportedCharsetException;
-import net.lightbody.bmp.filters.ClientRequestCaptureFilter;
 import net.lightbody.bmp.filters.HttpConnectHarCaptureFilter;
 import net.lightbody.bmp.filters.HttpsAwareFiltersAdapter;
 import net.lightbody.bmp.filters.ResolvedHostnameCacheFilter;
@@ -33,14 +35,22 @@ import net.lightbody.bmp.filters.support.HttpConnectTiming;
 import net.lightbody.bmp.filters.util.HarCaptureUtil;
 import net.lightbody.bmp.proxy.CaptureType;
 import net.lightbody.bmp.util.BrowserMobHttpUtil;
+import org.apache.http.cookie.MalformedCookieException;
 import org.littleshoot.proxy.impl.ProxyUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.EnumSet;
@@ -48,6 +58,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -76,7 +87,7 @@ public class EnhancedHarCaptureFilter extends HttpsAwareFiltersAdapter {
      * delegates to it when the clientToProxyRequest() callback is invoked. If this request does not need content capture, the
      * ClientRequestCaptureFilter filter will not be instantiated and will not capture content.
      */
-    private final ClientRequestCaptureFilter requestCaptureFilter;
+    private final EnhancedClientRequestCaptureFilter requestCaptureFilter;
 
     /**
      * Like requestCaptureFilter above, HarCaptureFilter delegates to responseCaptureFilter to capture response contents. If content capture
@@ -130,6 +141,24 @@ public class EnhancedHarCaptureFilter extends HttpsAwareFiltersAdapter {
      */
     private volatile boolean addressResolved = false;
 
+    /**
+     * Sink that receives the entry when the interaction is completed. If null, the entry is added to
+     * the HAR log when the request is received, as in the original implementation.
+     */
+    @Nullable
+    private final HarEntrySink entrySink;
+
+    /**
+     * Store of response content. If null, response content is kept in the text field of the entry.
+     */
+    @Nullable
+    private final BodyStore bodyStore;
+
+    /**
+     * Set to true once the entry has been sent to the entry sink.
+     */
+    private final AtomicBoolean entryCompleted = new AtomicBoolean(false);
+
     /**
      * Create a new instance of the HarCaptureFilter that will capture request and response information. If no har is specified in the
      * constructor, this filter will do nothing.
@@ -148,6 +177,19 @@ public class EnhancedHarCaptureFilter extends HttpsAwareFiltersAdapter {
      *                      captured (see {@link net.lightbody.bmp.proxy.CaptureType} for information on data collected for each CaptureType)
      */
     public EnhancedHarCaptureFilter(HttpRequest originalRequest, ChannelHandlerContext ctx, Har har, String currentPageRef, Set<CaptureType> dataToCapture) {
+        this(originalRequest, ctx, har, currentPageRef, dataToCapture, CaptureFilterSettings.defaults());
+    }
+
+    /**
+     * Create a new instance of the filter that sends entries to a sink, buffers, decompresses,
+     * limits and stores content as the given settings specify.
+     * @param originalRequest the original HttpRequest from the HttpFiltersSource factory
+     * @param har a reference to the ProxyServer's current HAR file at the time this request is received
+     * @param currentPageRef the ProxyServer's currentPageRef at the time this request is received from the client
+     * @param dataToCapture the data types to capture for this request
+     * @param settings the settings
+     */
+    public EnhancedHarCaptureFilter(HttpRequest originalRequest, ChannelHandlerContext ctx, Har har, String currentPageRef, Set<CaptureType> dataToCapture, CaptureFilterSettings settings) {
         super(originalRequest, ctx);
 
         if (har == null) {
@@ -170,20 +212,32 @@ public class EnhancedHarCaptureFilter extends HttpsAwareFiltersAdapter {
         // the corresponding filter methods are invoked. to save time and memory, only set up the capturing filters when
         // we actually need to capture the data.
         if (this.dataToCapture.contains(CaptureType.REQUEST_CONTENT) || this.dataToCapture.contains(CaptureType.REQUEST_BINARY_CONTENT)) {
-            requestCaptureFilter = new ClientRequestCaptureFilter(originalRequest);
+            requestCaptureFilter = new EnhancedClientRequestCaptureFilter(originalRequest, settings.getCaptureLimits());
         } else {
             requestCaptureFilter = null;
         }
 
         if (this.dataToCapture.contains(CaptureType.RESPONSE_CONTENT) || this.dataToCapture.contains(CaptureType.RESPONSE_BINARY_CONTENT)) {
-            responseCaptureFilter = new EnhancedServerResponseCaptureFilter(originalRequest, true);
+            responseCaptureFilter = new EnhancedServerResponseCaptureFilter(originalRequest, ctx, true, settings);
         } else {
             responseCaptureFilter = null;
         }
 
         this.har = har;
+        this.bodyStore = settings.getBodyStore();
 
         this.harEntry = new HarEntry(currentPageRef);
+        this.entrySink = settings.getEntrySink();
+    }
+
+    /**
+     * Sends the entry to the sink, if this filter has a sink and the entry has not already been sent.
+     * Entries for requests that were never received from the client are not sent.
+     */
+    protected void completeEntry() {
+        if (entrySink != null && capturedOriginalRequest != null && entryCompleted.compareAndSet(false, true)) {
+            entrySink.entryCompleted(harEntry);
+        }
     }
 
     @Override
@@ -198,7 +252,11 @@ public class EnhancedHarCaptureFilter extends HttpsAwareFiltersAdapter {
             // link the object up now, before we make the request, so that if we get cut off (ie: favicon.ico request and browser shuts down)
             // we still have the attempt associated, even if we never got a response
             harEntry.setStartedDateTime(new Date());
-            har.getLog().addEntry(harEntry);
+            if (entrySink == null) {
+                har.getLog().addEntry(harEntry);
+            } else {
+                entrySink.entryStarted(harEntry);
+            }
 
             HttpRequest httpRequest = (HttpRequest) httpObject;
             this.capturedOriginalRequest = httpRequest;
@@ -247,6 +305,9 @@ public class EnhancedHarCaptureFilter extends HttpsAwareFiltersAdapter {
 
             if (dataToCapture.contains(CaptureType.REQUEST_CONTENT)) {
                 captureRequestContent(requestCaptureFilter.getHttpRequest(), requestCaptureFilter.getFullRequestContents());
+                if (requestCaptureFilter.isRequestContentTruncated()) {
+                    markRequestContentTruncated(requestCaptureFilter.getHttpRequest());
+                }
             }
 
             harEntry.getRequest().setBodySize(requestBodySize.get());
@@ -277,8 +338,12 @@ public class EnhancedHarCaptureFilter extends HttpsAwareFiltersAdapter {
 
         if (httpObject instanceof LastHttpContent) {
             if (dataToCapture.contains(CaptureType.RESPONSE_CONTENT)) {
-                captureResponseContent(responseCaptureFilter.getHttpResponse(), responseCaptureFilter.getFullResponseContents());
+                captureResponseContent(responseCaptureFilter.getHttpResponse(), responseCaptureFilter.getFullResponseContentSource(), responseCaptureFilter.getFullResponseContentSize());
+                if (responseCaptureFilter.isResponseContentTruncated()) {
+                    markResponseContentTruncated(responseCaptureFilter.getResponseContentLength());
+                }
             }
+            releaseResponseContents();
 
             harEntry.getResponse().setBodySize(responseBodySize.get());
         }
@@ -286,8 +351,19 @@ public class EnhancedHarCaptureFilter extends HttpsAwareFiltersAdapter {
         return super.serverToProxyResponse(httpObject);
     }
 
+    /**
+     * Releases buffered response content, if any.
+     */
+    protected void releaseResponseContents() {
+        if (responseCaptureFilter != null) {
+            responseCaptureFilter.releaseContents();
+        }
+    }
+
     @Override
     public void serverToProxyResponseTimedOut() {
+        releaseResponseContents();
+
         // replace any existing HarResponse that was created if the server sent a partial response
         HarResponse response = HarCaptureUtil.createHarResponseForFailure();
         harEntry.setResponse(response);
@@ -310,6 +386,8 @@ public class EnhancedHarCaptureFilter extends HttpsAwareFiltersAdapter {
         else if (responseReceiveStartedNanos > 0L) {
             harEntry.getTimings().setReceive(timeoutTimestampNanos - responseReceiveStartedNanos, TimeUnit.NANOSECONDS);
         }
+
+        completeEntry();
     }
 
     /**
@@ -401,13 +479,13 @@ public class EnhancedHarCaptureFilter extends HttpsAwareFiltersAdapter {
             return;
         }
 
-        String contentType = HttpHeaders.getHeader(httpRequest, HttpHeaderNames.CONTENT_TYPE);
+        String contentType = httpRequest.headers().get(HttpHeaderNames.CONTENT_TYPE);
         if (contentType == null) {
             log.warn("No content type specified in request to {}. Content will be treated as {}", httpRequest.uri(), BrowserMobHttpUtil.UNKNOWN_CONTENT_TYPE);
             contentType = BrowserMobHttpUtil.UNKNOWN_CONTENT_TYPE;
         }
 
-        HarPostData postData = new HarPostData();
+        HarPostData postData = new EnhancedHarPostData();
         harEntry.getRequest().setPostData(postData);
 
         postData.setMimeType(contentType);
@@ -456,7 +534,40 @@ public class EnhancedHarCaptureFilter extends HttpsAwareFiltersAdapter {
         }
     }
 
+    /**
+     * Marks the post data of the entry as truncated, creating the post data if no content was kept.
+     * @param httpRequest the request
+     */
+    protected void markRequestContentTruncated(HttpRequest httpRequest) {
+        HarPostData postData = harEntry.getRequest().getPostData();
+        if (postData == null) {
+            postData = new EnhancedHarPostData();
+            String contentType = httpRequest.headers().get(HttpHeaderNames.CONTENT_TYPE);
+            postData.setMimeType(contentType == null ? BrowserMobHttpUtil.UNKNOWN_CONTENT_TYPE : contentType);
+            harEntry.getRequest().setPostData(postData);
+        }
+        if (postData instanceof EnhancedHarPostData) {
+            ((EnhancedHarPostData) postData).setTruncated(true);
+        }
+    }
+
+    /**
+     * Marks the response content of the entry as truncated and sets its size to the length of the whole content.
+     * @param contentLength length of the whole content
+     */
+    protected void markResponseContentTruncated(long contentLength) {
+        HarContent content = harEntry.getResponse().getContent();
+        content.setSize(contentLength);
+        if (content instanceof EnhancedHarContent) {
+            ((EnhancedHarContent) content).setTruncated(true);
+        }
+    }
+
     protected void captureResponseContent(HttpResponse httpResponse, byte[] fullMessage) {
+        captureResponseContent(httpResponse, ByteSource.wrap(fullMessage), fullMessage.length);
+    }
+
+    protected void captureResponseContent(HttpResponse httpResponse, ByteSource fullMessage, long fullMessageLength) {
         // force binary if the content encoding is not supported
         boolean forceBinary = false;
 
@@ -486,19 +597,48 @@ public class EnhancedHarCaptureFilter extends HttpsAwareFiltersAdapter {
             log.debug("No charset specified; using charset {} to decode contents from {}", charset, originalRequest.uri());
         }
 
-        if (!forceBinary && BrowserMobHttpUtil.hasTextualContent(contentType)) {
-            String text = BrowserMobHttpUtil.getContentAsString(fullMessage, charset);
-            harEntry.getResponse().getContent().setText(text);
-        } else if (dataToCapture.contains(CaptureType.RESPONSE_BINARY_CONTENT)) {
-            harEntry.getResponse().getContent().setText(BaseEncoding.base64().encode(fullMessage));
-            harEntry.getResponse().getContent().setEncoding("base64");
+        try {
+            boolean textual = !forceBinary && BrowserMobHttpUtil.hasTextualContent(contentType);
+            HarContent content = harEntry.getResponse().getContent();
+            if (bodyStore != null && content instanceof EnhancedHarContent) {
+                if (textual || dataToCapture.contains(CaptureType.RESPONSE_BINARY_CONTENT)) {
+                    ((EnhancedHarContent) content).setContentHash(bodyStore.put(fullMessage));
+                    if (forceBinary) {
+                        // the stored content is the raw content
+                        ((EnhancedHarContent) content).setContentHashEncoding(responseCaptureFilter.getContentEncoding());
+                    }
+                }
+            } else if (textual) {
+                String text = fullMessage.asCharSource(charset).read();
+                harEntry.getResponse().getContent().setText(text);
+            } else if (dataToCapture.contains(CaptureType.RESPONSE_BINARY_CONTENT)) {
+                harEntry.getResponse().getContent().setText(encodeBase64(fullMessage, fullMessageLength));
+                harEntry.getResponse().getContent().setEncoding("base64");
+            }
+        } catch (IOException e) {
+            log.warn("Failed to read buffered content of HTTP response from {}. Content will not be captured in HAR.", originalRequest.uri(), e);
         }
 
-        harEntry.getResponse().getContent().setSize(fullMessage.length);
+        harEntry.getResponse().getContent().setSize(fullMessageLength);
+    }
+
+    /**
+     * Encodes content as base64 without first copying the content into an array.
+     * @param content the content
+     * @param contentLength the content length
+     * @return the base64-encoded content
+     * @throws IOException on I/O error
+     */
+    static String encodeBase64(ByteSource content, long contentLength) throws IOException {
+        StringBuilder encoded = new StringBuilder((int) Math.min(Integer.MAX_VALUE - 8, (contentLength + 2) / 3 * 4));
+        try (OutputStream out = BaseEncoding.base64().encodingStream(CharStreams.asWriter(encoded))) {
+            content.copyTo(out);
+        }
+        return encoded.toString();
     }
 
     protected void captureResponse(HttpResponse httpResponse) {
-        HarResponse response = new HarResponse(httpResponse.status().code(), httpResponse.status().reasonPhrase(), httpResponse.protocolVersion().text());
+        HarResponse response = new EnhancedHarResponse(httpResponse.status().code(), httpResponse.status().reasonPhrase(), httpResponse.protocolVersion().text());
         harEntry.setResponse(response);
 
         captureResponseHeaderSize(httpResponse);
@@ -532,6 +672,15 @@ public class EnhancedHarCaptureFilter extends HttpsAwareFiltersAdapter {
             return;
         }
 
+        @Nullable List<DeserializableCookie> setCookies = captureResponseSetCookies(setCookieHeaders);
+        if (setCookies != null) {
+            // build the HAR cookies from the parsed headers instead of decoding each header again
+            for (DeserializableCookie setCookie : setCookies) {
+                harEntry.getResponse().getCookies().add(toHarCookie(setCookie));
+            }
+            return;
+        }
+
         for (String setCookieHeader : setCookieHeaders) {
             Cookie cookie = ClientCookieDecoder.LAX.decode(setCookieHeader);
             if (cookie == null) {
@@ -564,6 +713,58 @@ public class EnhancedHarCaptureFilter extends HttpsAwareFiltersAdapter {
         }
     }
 
+    /**
+     * Creates a HAR cookie from a parsed Set-Cookie header. As with cookies decoded by Netty,
+     * the domain and path are those of the attributes, if any, and the expiry is set only
+     * if it is in the future.
+     * @param setCookie the parsed cookie
+     * @return the HAR cookie
+     */
+    protected static HarCookie toHarCookie(DeserializableCookie setCookie) {
+        HarCookie harCookie = new HarCookie();
+        harCookie.setName(setCookie.getName());
+        harCookie.setValue(setCookie.getValue());
+        harCookie.setDomain(setCookie.getDomainAttribute());
+        harCookie.setHttpOnly(setCookie.isHttpOnly());
+        harCookie.setPath(setCookie.getAttribute(org.apache.http.cookie.ClientCookie.PATH_ATTR));
+        harCookie.setSecure(setCookie.isSecure());
+        @Nullable Instant expiry = setCookie.getExpiryInstant();
+        if (expiry != null && expiry.isAfter(Instant.now())) {
+            harCookie.setExpires(Date.from(expiry));
+        }
+        return harCookie;
+    }
+
+    /**
+     * Parses Set-Cookie header values as {@link HarAnalysis} does and attaches the result
+     * to the response, so that the values need not be parsed again during analysis.
+     * If any value cannot be parsed, nothing is attached, and the analysis parses the
+     * headers itself and reports the error.
+     * @param setCookieHeaders the header values
+     * @return the parsed cookies, or null if the values were not parsed or could not be parsed
+     */
+    @Nullable
+    protected List<DeserializableCookie> captureResponseSetCookies(List<String> setCookieHeaders) {
+        HarResponse response = harEntry.getResponse();
+        if (!(response instanceof EnhancedHarResponse) || harEntry.getRequest() == null) {
+            return null;
+        }
+        List<DeserializableCookie> setCookies = new ArrayList<>(setCookieHeaders.size());
+        try {
+            URL requestUrl = new URL(harEntry.getRequest().getUrl());
+            for (String setCookieHeader : setCookieHeaders) {
+                for (org.apache.http.cookie.Cookie cookie : HarAnalysis.DEFAULT_COOKIE_SPEC.parse(setCookieHeader, requestUrl, null)) {
+                    setCookies.add((DeserializableCookie) cookie);
+                }
+            }
+        } catch (MalformedURLException | MalformedCookieException | RuntimeException e) {
+            log.debug("failed to parse Set-Cookie headers of response to {}: {}", harEntry.getRequest().getUrl(), e.toString());
+            return null;
+        }
+        ((EnhancedHarResponse) response).setSetCookies(setCookies);
+        return setCookies;
+    }
+
     protected void captureResponseHeaderSize(HttpResponse httpResponse) {
         String statusLine = httpResponse.protocolVersion().toString() + ' ' + httpResponse.status().toString();
         // +2 => CRLF after status line, +4 => header/data separation
@@ -661,6 +862,8 @@ public class EnhancedHarCaptureFilter extends HttpsAwareFiltersAdapter {
 
     @Override
     public void proxyToServerResolutionFailed(String hostAndPort) {
+        releaseResponseContents();
+
         HarResponse response = HarCaptureUtil.createHarResponseForFailure();
         harEntry.setResponse(response);
 
@@ -670,6 +873,8 @@ public class EnhancedHarCaptureFilter extends HttpsAwareFiltersAdapter {
         if (dnsResolutionStartedNanos > 0L) {
             harEntry.getTimings().setDns(System.nanoTime() - dnsResolutionStartedNanos, TimeUnit.NANOSECONDS);
         }
+
+        completeEntry();
     }
 
     @Override
@@ -703,6 +908,8 @@ public class EnhancedHarCaptureFilter extends HttpsAwareFiltersAdapter {
 
     @Override
     public void proxyToServerConnectionFailed() {
+        releaseResponseContents();
+
         HarResponse response = HarCaptureUtil.createHarResponseForFailure();
         harEntry.setResponse(response);
 
@@ -712,6 +919,8 @@ public class EnhancedHarCaptureFilter extends HttpsAwareFiltersAdapter {
         if (connectionStartedNanos > 0L) {
             harEntry.getTimings().setConnect(System.nanoTime() - connectionStartedNanos, TimeUnit.NANOSECONDS);
         }
+
+        completeEntry();
     }
 
     @Override
@@ -774,5 +983,8 @@ public class EnhancedHarCaptureFilter extends HttpsAwareFiltersAdapter {
         } else {
             harEntry.getTimings().setReceive(0L, TimeUnit.NANOSECONDS);
         }
+
+        // the proxy invokes this method after the last content object has passed through serverToProxyResponse()
+        completeEntry();
     }
 }
@@ -0,0 +1,61 @@
+package io.github.mike10004.httpcapture;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import net.lightbody.bmp.core.har.HarContent;
+
+/**
+ * HAR content with custom fields describing how the content was captured. The encoding
+ * is written before the text, so that a reader can decode base64 text as it is read.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@JsonPropertyOrder({"size", "compression", "mimeType", "encoding", "text"})
+public class EnhancedHarContent extends HarContent {
+
+    /**
+     * A custom field indicating that the text is truncated because the content exceeded
+     * a capture limit. The size field still reports the length of the whole content.
+     */
+    @JsonProperty("_truncated")
+    private volatile Boolean truncated;
+
+    /**
+     * A custom field containing the SHA-256 hash of the content, if the content is kept
+     * in a {@link BodyStore} instead of in the text field.
+     */
+    @JsonProperty("_contentHash")
+    private volatile String contentHash;
+
+    /**
+     * A custom field containing the content encoding of the content kept in a {@link BodyStore},
+     * if the stored content is still encoded because it could not be decompressed when it was
+     * captured. Absent if the stored content is decoded.
+     */
+    @JsonProperty("_contentHashEncoding")
+    private volatile String contentHashEncoding;
+
+    public Boolean getTruncated() {
+        return truncated;
+    }
+
+    public void setTruncated(Boolean truncated) {
+        this.truncated = truncated;
+    }
+
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    public String getContentHashEncoding() {
+        return contentHashEncoding;
+    }
+
+    public void setContentHashEncoding(String contentHashEncoding) {
+        this.contentHashEncoding = contentHashEncoding;
+    }
+}
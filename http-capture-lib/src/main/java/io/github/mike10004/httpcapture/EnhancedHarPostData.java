@@ -0,0 +1,27 @@
+package io.github.mike10004.httpcapture;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import net.lightbody.bmp.core.har.HarPostData;
+
+/**
+ * HAR post data with custom fields describing how the content was captured.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class EnhancedHarPostData extends HarPostData {
+
+    /**
+     * A custom field indicating that the text or params are truncated because the content
+     * exceeded a capture limit. The request body size still reports the length of the whole content.
+     */
+    @JsonProperty("_truncated")
+    private volatile Boolean truncated;
+
+    public Boolean getTruncated() {
+        return truncated;
+    }
+
+    public void setTruncated(Boolean truncated) {
+        this.truncated = truncated;
+    }
+}
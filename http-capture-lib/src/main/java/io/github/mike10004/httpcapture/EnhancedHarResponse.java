@@ -0,0 +1,92 @@
+package io.github.mike10004.httpcapture;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.google.common.collect.ImmutableList;
+import com.google.gson.Gson;
+import net.lightbody.bmp.core.har.HarResponse;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * HAR response whose content object is an {@link EnhancedHarContent}.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class EnhancedHarResponse extends HarResponse {
+
+    private static final Gson GSON = new Gson();
+
+    private final EnhancedHarContent content = new EnhancedHarContent();
+
+    @Nullable
+    private volatile ImmutableList<DeserializableCookie> setCookies;
+
+    public EnhancedHarResponse() {
+    }
+
+    public EnhancedHarResponse(int status, String statusText, String httpVersion) {
+        super(status, statusText, httpVersion);
+    }
+
+    @Override
+    public EnhancedHarContent getContent() {
+        return content;
+    }
+
+    /**
+     * Gets the cookies parsed from the Set-Cookie headers when the response was captured.
+     * The cookies have no creation date. They are serialized in the {@code _cookies} field,
+     * so that an analysis of a HAR read from a file need not parse the headers again.
+     * @return the cookies, or null if the headers were not parsed or could not be parsed
+     */
+    @JsonProperty("_cookies")
+    @JsonSerialize(using = CookieListSerializer.class)
+    @Nullable
+    public ImmutableList<DeserializableCookie> getSetCookies() {
+        return setCookies;
+    }
+
+    /**
+     * Sets the cookies parsed from the Set-Cookie headers.
+     * @param setCookies the cookies, or null if not available
+     */
+    @JsonProperty("_cookies")
+    @JsonDeserialize(using = CookieListDeserializer.class)
+    public void setSetCookies(@Nullable List<DeserializableCookie> setCookies) {
+        this.setCookies = setCookies == null ? null : ImmutableList.copyOf(setCookies);
+    }
+
+    /**
+     * Serializer that writes cookies in the form that {@link DeserializableCookie} is designed
+     * to be read from, which is produced by Gson.
+     */
+    static class CookieListSerializer extends JsonSerializer<List<DeserializableCookie>> {
+
+        @Override
+        public void serialize(List<DeserializableCookie> value, JsonGenerator gen, SerializerProvider serializers) throws IOException {
+            gen.writeRawValue(GSON.toJson(value.toArray(new DeserializableCookie[0])));
+        }
+    }
+
+    /**
+     * Deserializer that reads cookies written by {@link CookieListSerializer}.
+     */
+    static class CookieListDeserializer extends JsonDeserializer<List<DeserializableCookie>> {
+
+        @Override
+        public List<DeserializableCookie> deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+            String json = p.readValueAsTree().toString();
+            return ImmutableList.copyOf(GSON.fromJson(json, DeserializableCookie[].class));
+        }
+    }
+}
@@ -1,29 +1,34 @@
 package io.github.mike10004.httpcapture;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteSource;
 import com.google.common.io.ByteStreams;
 import com.jcraft.jzlib.GZIPInputStream;
 import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
 import io.netty.handler.codec.http.HttpHeaders;
 import io.netty.handler.codec.http.HttpObject;
 import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.HttpResponse;
 import io.netty.handler.codec.http.LastHttpContent;
 import net.lightbody.bmp.filters.ServerResponseCaptureFilter;
-import net.lightbody.bmp.util.BrowserMobHttpUtil;
 import org.apache.commons.lang3.StringUtils;
 import org.brotli.dec.BrotliInputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -40,6 +45,8 @@ public class EnhancedServerResponseCaptureFilter extends ServerResponseCaptureFi
 
     public static final String HEADER_VALUE_BROTLI_ENCODING = "br";
 
+    private static final int DECOMPRESSION_CHUNK_SIZE = 16 * 1024;
+
     private static final Logger log = LoggerFactory.getLogger(EnhancedServerResponseCaptureFilter.class);
 
     /**
@@ -47,17 +54,23 @@ public class EnhancedServerResponseCaptureFilter extends ServerResponseCaptureFi
      */
     private volatile HttpResponse httpResponse;
 
+    /**
+     * Factory of buffers for raw and decompressed content.
+     */
+    private final ContentBufferFactory contentBufferFactory;
+
     /**
      * Populated by serverToProxyResponse() as it receives HttpContent responses. If the response is chunked, it will
      * be populated across multiple calls to proxyToServerResponse().
      */
-    private final ByteArrayOutputStream rawResponseContents = new ByteArrayOutputStream();
+    private final ContentBuffer rawResponseContents;
 
     /**
-     * Populated when processing the LastHttpContent. If the response is compressed and decompression is requested,
-     * this contains the entire decompressed response. Otherwise it contains the raw response.
+     * Populated when processing the LastHttpContent if the response is compressed and decompression is requested
+     * and successful. If null, the full response contents are the raw response contents.
      */
-    private volatile byte[] fullResponseContents;
+    @Nullable
+    private volatile ContentBuffer decompressedResponseContents;
 
     /**
      * Populated by serverToProxyResponse() when it processes the LastHttpContent object.
@@ -84,14 +97,114 @@ public class EnhancedServerResponseCaptureFilter extends ServerResponseCaptureFi
      */
     private final boolean decompressEncodedContent;
 
+    /**
+     * Policy that specifies when compressed content is decompressed.
+     */
+    private final DecompressionPolicy decompressionPolicy;
+
+    /**
+     * Decompressor fed as content is received, if incremental decompression is in effect
+     * or content is decoded in count-only mode after the capture limit was reached.
+     */
+    @Nullable
+    private volatile IncrementalDecompressor incrementalDecompressor;
+
+    /**
+     * Raw content past the capture limit, for encodings without a push-style decoder. It is kept
+     * only until it is decoded to count the decompressed length when the response is complete.
+     */
+    @Nullable
+    private volatile ContentBuffer overflowResponseContents;
+
+    /**
+     * Set to true when the raw content first reaches the capture limit.
+     */
+    private volatile boolean responseContentLimitReached;
+
+    /**
+     * Set to true when the decompressed content was truncated at the maximum size specified by the policy
+     * or at the capture limit.
+     */
+    private volatile boolean decompressedContentTruncated;
+
+    /**
+     * Number of bytes decompressed, including bytes past the capture limit.
+     */
+    private volatile long decompressedContentLength;
+
+    /**
+     * Limits on the amount of content kept.
+     */
+    private final CaptureLimits captureLimits;
+
+    /**
+     * Maximum number of content bytes kept for this response. Determined when processing the HttpResponse object.
+     */
+    private volatile long responseContentLimit = Long.MAX_VALUE;
+
+    /**
+     * Number of raw content bytes received, including bytes past the capture limit.
+     */
+    private volatile long rawResponseContentLength;
+
+    /**
+     * Set to true when the content buffers are released.
+     */
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    /**
+     * Channel whose closing releases the content buffers, if the filter was constructed with a context.
+     */
+    @Nullable
+    private final Channel channel;
+
+    /**
+     * Listener that releases the content buffers if the channel closes before they are released otherwise.
+     */
+    private final ChannelFutureListener releaseOnClose = future -> releaseContents();
+
     public EnhancedServerResponseCaptureFilter(HttpRequest originalRequest, boolean decompressEncodedContent) {
+        this(originalRequest, decompressEncodedContent, CaptureFilterSettings.defaults());
+    }
+
+    /**
+     * Constructs an instance that buffers, decompresses and limits content as the given settings specify.
+     * @param originalRequest the original request
+     * @param decompressEncodedContent true if compressed content is to be decompressed
+     * @param settings the settings
+     */
+    public EnhancedServerResponseCaptureFilter(HttpRequest originalRequest, boolean decompressEncodedContent, CaptureFilterSettings settings) {
         super(originalRequest, decompressEncodedContent);
         this.decompressEncodedContent = decompressEncodedContent;
+        this.contentBufferFactory = settings.getContentBufferFactory();
+        this.decompressionPolicy = settings.getDecompressionPolicy();
+        this.captureLimits = settings.getCaptureLimits();
+        this.rawResponseContents = contentBufferFactory.create();
+        this.channel = null;
     }
 
     public EnhancedServerResponseCaptureFilter(HttpRequest originalRequest, ChannelHandlerContext ctx, boolean decompressEncodedContent) {
+        this(originalRequest, ctx, decompressEncodedContent, CaptureFilterSettings.defaults());
+    }
+
+    /**
+     * Constructs an instance that buffers, decompresses and limits content as the given settings
+     * specify, and releases its buffers when the channel closes.
+     * @param originalRequest the original request
+     * @param ctx channel handler context
+     * @param decompressEncodedContent true if compressed content is to be decompressed
+     * @param settings the settings
+     */
+    public EnhancedServerResponseCaptureFilter(HttpRequest originalRequest, ChannelHandlerContext ctx, boolean decompressEncodedContent, CaptureFilterSettings settings) {
         super(originalRequest, ctx, decompressEncodedContent);
         this.decompressEncodedContent = decompressEncodedContent;
+        this.contentBufferFactory = settings.getContentBufferFactory();
+        this.decompressionPolicy = settings.getDecompressionPolicy();
+        this.captureLimits = settings.getCaptureLimits();
+        this.rawResponseContents = contentBufferFactory.create();
+        this.channel = ctx.channel();
+        // the response may never complete, as when the client disconnects, so the buffers are also released when the channel closes
+        channel.closeFuture().addListener(releaseOnClose);
     }
 
     @Override
@@ -99,6 +212,8 @@ public class EnhancedServerResponseCaptureFilter extends ServerResponseCaptureFi
         if (httpObject instanceof HttpResponse) {
             httpResponse = (HttpResponse) httpObject;
             captureContentEncoding(httpResponse);
+            responseContentLimit = captureLimits.getResponseContentLimit(httpResponse.headers().get(HttpHeaderNames.CONTENT_TYPE));
+            maybeStartIncrementalDecompression();
         }
 
         if (httpObject instanceof HttpContent) {
@@ -123,9 +238,11 @@ public class EnhancedServerResponseCaptureFilter extends ServerResponseCaptureFi
 
     @Override
     protected void captureFullResponseContents() {
-        // start by setting fullResponseContent to the raw, (possibly) compressed byte stream. replace it
-        // with the decompressed bytes if decompression is successful.
-        fullResponseContents = getRawResponseContents();
+        if (released.get()) {
+            return;
+        }
+        // the full response content is the raw, (possibly) compressed content unless
+        // decompression is successful, in which case decompressedResponseContents is populated
 
         // if the content is compressed, we need to decompress it. but don't use
         // the netty HttpContentCompressor/Decompressor in the pipeline because we don't actually want it to
@@ -205,6 +322,133 @@ public class EnhancedServerResponseCaptureFilter extends ServerResponseCaptureFi
         return decompressed;
     }
 
+    /**
+     * Decompresses the raw content after the response is complete. Decompressed content past the
+     * capture limit is counted but not kept, and decoding stops at the decompression limit of the
+     * policy. If the raw content was truncated at the capture limit, the content that was kept is
+     * decoded as far as the decoder allows and the decompressed length is the number of bytes decoded.
+     * @param decompressor the decompressor
+     * @param raw the raw content
+     * @param rawTruncated true if the raw content is missing content past the capture limit
+     * @throws IOException if decoding fails
+     */
+    private void decompressContents(DecompressionFilter decompressor, ByteSource raw, boolean rawTruncated) throws IOException {
+        long maxDecompressedBytes = decompressionPolicy.getMaxDecompressedBytes();
+        ContentBuffer decompressed = contentBufferFactory.create();
+        long total = 0;
+        boolean stoppedEarly = false;
+        try (InputStream in = decompressor.openStream(raw.openStream())) {
+            byte[] chunk = new byte[DECOMPRESSION_CHUNK_SIZE];
+            int n;
+            while (total < maxDecompressedBytes && (n = in.read(chunk, 0, (int) Math.min(chunk.length, maxDecompressedBytes - total))) != -1) {
+                long capturable = responseContentLimit - total;
+                if (capturable > 0) {
+                    decompressed.append(chunk, 0, (int) Math.min(n, capturable));
+                }
+                total += n;
+            }
+            stoppedEarly = total >= maxDecompressedBytes && in.read() != -1;
+        } catch (IOException | RuntimeException e) {
+            if (!rawTruncated) {
+                decompressed.close();
+                throw e;
+            }
+            // the end of the kept content is not the end of the encoded stream
+            log.debug("decoded {} bytes of truncated content of response from {}", total, originalRequest.uri());
+        }
+        decompressedResponseContents = decompressed;
+        decompressedContentLength = total;
+        decompressedContentTruncated = rawTruncated || stoppedEarly || total > responseContentLimit;
+    }
+
+    /**
+     * Decompresses raw content that was truncated at the capture limit, after the response is complete.
+     * Encodings that have a push-style decoder are decoded up to the end of the content that was kept;
+     * other encodings are decoded as far as the decoder allows.
+     * @param contentEncodings the content encodings
+     * @throws IOException if decoding fails
+     */
+    private void decompressTruncatedContents(List<String> contentEncodings) throws IOException {
+        List<String> singleEncodings = contentEncodings.stream().flatMap(this::explodeContentEncoding).collect(Collectors.toList());
+        if (singleEncodings.stream().allMatch(HttpHeaderValues.IDENTITY::contentEqualsIgnoreCase)) {
+            // the raw content is the content
+            return;
+        }
+        @Nullable IncrementalDecompressor decoder = IncrementalDecompressor.create(singleEncodings, contentBufferFactory.create(), responseContentLimit, decompressionPolicy.getMaxDecompressedBytes());
+        if (decoder == null) {
+            decompressContents(createDecompressor(contentEncodings), rawResponseContents.asByteSource(), true);
+            return;
+        }
+        try (InputStream in = rawResponseContents.asByteSource().openStream()) {
+            byte[] chunk = new byte[DECOMPRESSION_CHUNK_SIZE];
+            int n;
+            while ((n = in.read(chunk)) != -1) {
+                decoder.feed(chunk, 0, n);
+            }
+        } catch (IOException | RuntimeException e) {
+            decoder.abort();
+            throw e;
+        }
+        decompressedResponseContents = decoder.finish(false);
+        decompressedContentTruncated = true;
+        decompressedContentLength = decoder.getDecompressedSize();
+    }
+
+    /**
+     * Decompresses the raw content that was kept together with the content past the capture limit
+     * that was held in the overflow buffer, and releases the overflow buffer.
+     * @param contentEncodings the content encodings
+     * @param overflow the overflow buffer
+     * @throws IOException if decoding fails
+     */
+    private void decompressOverflowedContents(List<String> contentEncodings, ContentBuffer overflow) throws IOException {
+        try {
+            decompressContents(createDecompressor(contentEncodings), ByteSource.concat(rawResponseContents.asByteSource(), overflow.asByteSource()), false);
+        } finally {
+            releaseOverflow();
+        }
+    }
+
+    private void releaseOverflow() {
+        ContentBuffer overflow = overflowResponseContents;
+        if (overflow != null) {
+            overflowResponseContents = null;
+            overflow.close();
+        }
+    }
+
+    /**
+     * Starts decoding in count-only mode when the raw content first reaches the capture limit,
+     * so that the decompressed length is exact although raw content past the limit is not kept.
+     * Encodings that have a push-style decoder are decoded as content arrives, starting with the
+     * content kept so far, and decoded content past the limit is discarded. For other encodings,
+     * such as {@code br}, raw content past the limit is held in an overflow buffer until the
+     * response is complete.
+     * @throws IOException if the content kept so far cannot be read
+     */
+    private void startCountOnlyDecompression() throws IOException {
+        if (!decompressEncodedContent || !isContentEncodingSpecified() || incrementalDecompressor != null) {
+            return;
+        }
+        List<String> singleEncodings = contentEncodings.stream().flatMap(this::explodeContentEncoding).collect(Collectors.toList());
+        @Nullable IncrementalDecompressor decoder = IncrementalDecompressor.create(singleEncodings, contentBufferFactory.create(), responseContentLimit, decompressionPolicy.getMaxDecompressedBytes());
+        if (decoder == null) {
+            overflowResponseContents = contentBufferFactory.create();
+            return;
+        }
+        try (InputStream in = rawResponseContents.asByteSource().openStream()) {
+            byte[] chunk = new byte[DECOMPRESSION_CHUNK_SIZE];
+            int n;
+            while ((n = in.read(chunk)) != -1) {
+                decoder.feed(chunk, 0, n);
+            }
+        } catch (IOException | RuntimeException e) {
+            decoder.abort();
+            throw e;
+        }
+        incrementalDecompressor = decoder;
+    }
+
     /**
      * Explodes a content-encoding value into one or more individual token values.
      * This means that {@code gzip,br} is broken into a list {@code [gzip, br]}.
@@ -243,13 +487,54 @@ public class EnhancedServerResponseCaptureFilter extends ServerResponseCaptureFi
         return DecompressionFilter.concatenate(stages);
     }
 
+    /**
+     * Starts feeding content to a decompressor as it arrives, if the response content is encoded
+     * and the policy specifies incremental decompression. Content is decoded on the thread that
+     * receives it; encodings without a push-style decoder, such as {@code br}, are decoded when
+     * the response is complete.
+     */
+    private void maybeStartIncrementalDecompression() {
+        if (!decompressEncodedContent || !decompressionPolicy.isIncremental()
+                || !isContentEncodingSpecified() || incrementalDecompressor != null) {
+            return;
+        }
+        List<String> singleEncodings = contentEncodings.stream().flatMap(this::explodeContentEncoding).collect(Collectors.toList());
+        if (!singleEncodings.stream().allMatch(IncrementalDecompressor::isSupported)) {
+            // no push-style decoder for this encoding; decompressContents() decodes the content when the response is complete
+            return;
+        }
+        incrementalDecompressor = IncrementalDecompressor.create(singleEncodings, contentBufferFactory.create(), responseContentLimit, decompressionPolicy.getMaxDecompressedBytes());
+    }
+
+    /**
+     * Stops the incremental decompressor, if any, and discards its output.
+     */
+    private void abortIncrementalDecompression() {
+        IncrementalDecompressor decompressor = incrementalDecompressor;
+        if (decompressor != null) {
+            incrementalDecompressor = null;
+            decompressor.abort();
+        }
+    }
+
     @Override
     protected void decompressContents() {
         ImmutableList<String> contentEncodings = ImmutableList.copyOf(this.contentEncodings);
         if (!contentEncodings.isEmpty()) {
             try {
-                DecompressionFilter decompressor = createDecompressor(contentEncodings);
-                fullResponseContents = decompressContents(getRawResponseContents(), decompressor);
+                @Nullable IncrementalDecompressor incremental = incrementalDecompressor;
+                if (incremental != null) {
+                    incrementalDecompressor = null;
+                    decompressedResponseContents = incremental.finish();
+                    decompressedContentTruncated = incremental.isTruncated();
+                    decompressedContentLength = incremental.getDecompressedSize();
+                } else if (overflowResponseContents != null) {
+                    decompressOverflowedContents(contentEncodings, overflowResponseContents);
+                } else if (isRawContentTruncated()) {
+                    decompressTruncatedContents(contentEncodings);
+                } else {
+                    decompressContents(createDecompressor(contentEncodings), rawResponseContents.asByteSource(), false);
+                }
                 decompressionSuccessful = true;
             } catch (RuntimeException | IOException e) {
                 if (Boolean.parseBoolean(System.getProperty(SYSPROP_PRINT_DECODER_ERROR_STACKTRACE))) {
@@ -262,6 +547,11 @@ public class EnhancedServerResponseCaptureFilter extends ServerResponseCaptureFi
         } else {
             log.warn("Cannot decode unsupported content encoding type {}", contentEncodings);
         }
+        ContentBuffer decompressed = decompressedResponseContents;
+        if (decompressed != null && released.get()) {
+            // released while decompressing, as when the channel closed
+            decompressed.close();
+        }
     }
 
     @Override
@@ -271,7 +561,7 @@ public class EnhancedServerResponseCaptureFilter extends ServerResponseCaptureFi
         //                 proxyToClientResponse. So now we check that the encodings list is not
         //                 already populated.
         if (contentEncodings.isEmpty()) {
-            String value = HttpHeaders.getHeader(httpResponse, HttpHeaders.Names.CONTENT_ENCODING);
+            String value = httpResponse.headers().get(HttpHeaderNames.CONTENT_ENCODING);
             if (value != null) {
                 contentEncodings.add(value);
             }
@@ -284,9 +574,12 @@ public class EnhancedServerResponseCaptureFilter extends ServerResponseCaptureFi
 
         // technically, the Content-Encoding header can be in a trailing header, although this is excruciatingly uncommon
         if (trailingHeaders != null) {
-            String trailingContentEncoding = trailingHeaders.get(HttpHeaders.Names.CONTENT_ENCODING);
+            String trailingContentEncoding = trailingHeaders.get(HttpHeaderNames.CONTENT_ENCODING);
             if (trailingContentEncoding != null) {
                 contentEncodings.add(trailingContentEncoding);
+                // the incremental decompressor and the overflow buffer were created for a different set of encodings
+                abortIncrementalDecompression();
+                releaseOverflow();
             }
         }
 
@@ -295,12 +588,38 @@ public class EnhancedServerResponseCaptureFilter extends ServerResponseCaptureFi
     @Override
     protected void storeResponseContent(HttpContent httpContent) {
         ByteBuf bufferedContent = httpContent.content();
-        byte[] content = BrowserMobHttpUtil.extractReadableBytes(bufferedContent);
-
+        int length = bufferedContent.readableBytes();
+        rawResponseContentLength += length;
+        if (released.get()) {
+            return;
+        }
         try {
-            rawResponseContents.write(content);
-        } catch (IOException e) {
-            // can't happen
+            long remaining = responseContentLimit - rawResponseContents.size();
+            if (remaining < length && !responseContentLimitReached) {
+                responseContentLimitReached = true;
+                startCountOnlyDecompression();
+            }
+            if (remaining >= length) {
+                rawResponseContents.append(bufferedContent);
+            } else {
+                int kept = (int) Math.max(remaining, 0);
+                if (kept > 0) {
+                    rawResponseContents.append(bufferedContent.slice(bufferedContent.readerIndex(), kept));
+                }
+                ContentBuffer overflow = overflowResponseContents;
+                if (overflow != null) {
+                    overflow.append(bufferedContent.slice(bufferedContent.readerIndex() + kept, length - kept));
+                }
+            }
+            IncrementalDecompressor decompressor = incrementalDecompressor;
+            if (decompressor != null) {
+                decompressor.feed(bufferedContent);
+            }
+        } catch (IOException | RuntimeException e) {
+            // e.g. allocation failure; the response is still passed to the client
+            if (!released.get()) {
+                log.warn("failed to store response content from {} due to {}", originalRequest.uri(), e.toString());
+            }
         }
     }
 
@@ -311,13 +630,57 @@ public class EnhancedServerResponseCaptureFilter extends ServerResponseCaptureFi
 
     /**
      * Returns the contents of the entire response. If the contents were compressed, <code>decompressEncodedContent</code> is true, and
-     * decompression was successful, this method returns the decompressed contents.
+     * decompression was successful, this method returns the decompressed contents. This copies the content
+     * into a new array; prefer {@link #getFullResponseContentSource()}.
      *
      * @return entire response contents, decompressed if possible
      */
     @Override
     public byte[] getFullResponseContents() {
-        return fullResponseContents;
+        return readQuietly(getFullResponseContentSource());
+    }
+
+    /**
+     * Returns a source of the contents of the entire response, decompressed if possible.
+     * The source must not be used after {@link #releaseContents()} is invoked.
+     * @return a byte source
+     */
+    public ByteSource getFullResponseContentSource() {
+        ContentBuffer decompressed = decompressedResponseContents;
+        return decompressed == null ? rawResponseContents.asByteSource() : decompressed.asByteSource();
+    }
+
+    /**
+     * Gets the size of the entire response, decompressed if possible.
+     * @return size in bytes
+     */
+    public long getFullResponseContentSize() {
+        ContentBuffer decompressed = decompressedResponseContents;
+        return decompressed == null ? rawResponseContents.size() : decompressed.size();
+    }
+
+    /**
+     * Gets the length of the entire response content, decompressed if possible, including
+     * content that was not kept because of a capture limit. If decompression stopped at the
+     * limit specified by the decompression policy, this is the number of bytes decompressed,
+     * which is a lower bound.
+     * @return length in bytes
+     */
+    public long getResponseContentLength() {
+        return decompressedResponseContents == null ? rawResponseContentLength : decompressedContentLength;
+    }
+
+    /**
+     * Checks whether the content returned by {@link #getFullResponseContentSource()} is
+     * missing some of the response content.
+     * @return true if the content is truncated
+     */
+    public boolean isResponseContentTruncated() {
+        return decompressedResponseContents == null ? isRawContentTruncated() : decompressedContentTruncated;
+    }
+
+    private boolean isRawContentTruncated() {
+        return rawResponseContentLength > rawResponseContents.size();
     }
 
     /**
@@ -327,7 +690,70 @@ public class EnhancedServerResponseCaptureFilter extends ServerResponseCaptureFi
      */
     @Override
     public byte[] getRawResponseContents() {
-        return rawResponseContents.toByteArray();
+        return readQuietly(rawResponseContents.asByteSource());
+    }
+
+    private byte[] readQuietly(ByteSource source) {
+        try {
+            return source.read();
+        } catch (IOException e) {
+            log.warn("failed to read buffered content from {} due to {}", originalRequest.uri(), e.toString());
+            return new byte[0];
+        }
+    }
+
+    /**
+     * Releases the buffers that hold the raw and decompressed content. Content is unavailable
+     * after this method is invoked, and content received afterwards is counted but not stored.
+     * If the filter was constructed with a context, this method is also invoked when the channel
+     * closes; invocations after the first have no effect.
+     */
+    public void releaseContents() {
+        if (released.compareAndSet(false, true)) {
+            closeBuffersExcept(null);
+        }
+    }
+
+    /**
+     * Transfers ownership of the buffer that holds the content returned by
+     * {@link #getFullResponseContentSource()} to the caller, who becomes responsible for
+     * closing it. The other buffers are released as by {@link #releaseContents()}, so this
+     * filter no longer provides content afterwards.
+     * @return the buffer, or null if the contents have already been released
+     */
+    @Nullable
+    public ContentBuffer detachFullResponseContents() {
+        if (!released.compareAndSet(false, true)) {
+            return null;
+        }
+        ContentBuffer decompressed = decompressedResponseContents;
+        ContentBuffer full = decompressed == null ? rawResponseContents : decompressed;
+        closeBuffersExcept(full);
+        return full;
+    }
+
+    private void closeBuffersExcept(@Nullable ContentBuffer retained) {
+        if (channel != null) {
+            channel.closeFuture().removeListener(releaseOnClose);
+        }
+        abortIncrementalDecompression();
+        releaseOverflow();
+        if (rawResponseContents != retained) {
+            rawResponseContents.close();
+        }
+        ContentBuffer decompressed = decompressedResponseContents;
+        if (decompressed != null && decompressed != retained) {
+            decompressed.close();
+        }
+    }
+
+    /**
+     * Checks whether the decompressed content was truncated because it reached the maximum
+     * size specified by the decompression policy.
+     * @return true if the decompressed content is truncated
+     */
+    public boolean isDecompressedContentTruncated() {
+        return decompressedContentTruncated;
     }
 
     @Override
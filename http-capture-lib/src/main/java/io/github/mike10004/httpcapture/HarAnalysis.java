@@ -19,13 +19,22 @@ import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.function.Function;
 import java.util.function.Predicate;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
 public class HarAnalysis {
 
+    /**
+     * Set-Cookie header parser used by {@link #findCookies()}. Response capture uses the
+     * same parser, so {@link #findCookies()} uses cookies parsed at capture time instead
+     * of parsing again.
+     */
+    static final SetCookieHeaderParser DEFAULT_COOKIE_SPEC = SetCookieHeaderParser.create();
+
     private final Har har;
 
     protected HarAnalysis(Har har) {
@@ -36,20 +45,74 @@ public class HarAnalysis {
         return new HarAnalysis(har);
     }
 
+    /**
+     * Finds the cookies set by responses. Cookies parsed when a response was captured
+     * are used if available; otherwise the headers are parsed with the default parser.
+     * @return a cookie collection
+     */
     public CookieCollection findCookies() {
-        return findCookies(SetCookieHeaderParser.create());
+        return findCookies(HarAnalysis::makeCookiesFromEntry);
     }
 
+    /**
+     * Finds the cookies set by responses, parsing the headers with the given parser.
+     * Cookies parsed when a response was captured are not used.
+     * @param cookieSpec the parser
+     * @return a cookie collection
+     */
     @VisibleForTesting
     public CookieCollection findCookies(final SetCookieHeaderParser cookieSpec) {
+        return findCookies(entry -> makeCookiesFromEntry(cookieSpec, entry));
+    }
+
+    private CookieCollection findCookies(Function<HarEntry, List<DeserializableCookie>> cookieExtractor) {
         Stream<HarEntry> headerValues = findEntriesWithSetCookieHeaders();
         List<DeserializableCookie> cookies = new ArrayList<>();
         headerValues.forEach(entry -> {
-            cookies.addAll(makeCookiesFromEntry(cookieSpec, entry));
+            cookies.addAll(cookieExtractor.apply(entry));
         });
         return MultimapCookieCollection.build(cookies);
     }
 
+    /**
+     * Finds cookies like {@link #findCookies()}, but extracts the cookies of entries
+     * concurrently in the common fork-join pool. The result is the same, because
+     * cookies are collected in the order of the entries.
+     * @return a cookie collection
+     */
+    public CookieCollection findCookiesInParallel() {
+        return findCookiesInParallel(HarAnalysis::makeCookiesFromEntry);
+    }
+
+    /**
+     * Finds cookies like {@link #findCookies(SetCookieHeaderParser)}, but extracts the cookies
+     * of entries concurrently in the common fork-join pool.
+     * @param cookieSpec the parser, which must be safe for use by multiple threads
+     * @return a cookie collection
+     */
+    public CookieCollection findCookiesInParallel(final SetCookieHeaderParser cookieSpec) {
+        return findCookiesInParallel(entry -> makeCookiesFromEntry(cookieSpec, entry));
+    }
+
+    private CookieCollection findCookiesInParallel(Function<HarEntry, List<DeserializableCookie>> cookieExtractor) {
+        List<DeserializableCookie> cookies = findEntriesWithSetCookieHeaders()
+                .parallel()
+                .flatMap(entry -> cookieExtractor.apply(entry).stream())
+                .collect(Collectors.toList());
+        return MultimapCookieCollection.build(cookies);
+    }
+
+    /**
+     * Builds a cookie jar from the entries, one entry at a time. Unlike {@link #findCookies()},
+     * this keeps only the most recent cookie for each domain/name/path triplet.
+     * @return a cookie jar
+     */
+    public CookieJar buildCookieJar() {
+        CookieJar jar = new CookieJar();
+        har.getLog().getEntries().forEach(jar::add);
+        return jar;
+    }
+
     private Stream<HarEntry> findEntriesWithSetCookieHeaders() {
         Stream<HarEntry> entriesWithCookieHeaders = har.getLog().getEntries().stream()
                 .filter(ENTRY_HAS_SET_COOKIE_HEADER_IN_RESPONSE);
@@ -59,14 +122,18 @@ public class HarAnalysis {
     private static final Predicate<HarEntry> ENTRY_HAS_SET_COOKIE_HEADER_IN_RESPONSE = new Predicate<HarEntry>() {
         @Override
         public boolean test(HarEntry entry) {
-            HarResponse input = null;
-            if (entry != null) {
-                input = entry.getResponse();
-            }
-            return input != null && input.getHeaders().stream().anyMatch(header -> HttpHeaders.SET_COOKIE.equalsIgnoreCase(header.getName()));
+            return hasSetCookieHeader(entry);
         }
     };
 
+    static boolean hasSetCookieHeader(@Nullable HarEntry entry) {
+        HarResponse input = null;
+        if (entry != null) {
+            input = entry.getResponse();
+        }
+        return input != null && input.getHeaders().stream().anyMatch(header -> HttpHeaders.SET_COOKIE.equalsIgnoreCase(header.getName()));
+    }
+
     public static String describe(HarRequest request) {
         if (request == null) {
             return "null";
@@ -116,6 +183,29 @@ public class HarAnalysis {
         return responseInstant;
     }
 
+    /**
+     * Makes the cookies set by the response of an entry. If cookies were parsed when the
+     * response was captured, they are stamped with the response time as their creation date.
+     * Otherwise, the headers are parsed with {@link #DEFAULT_COOKIE_SPEC}.
+     * @param entry the entry
+     * @return the cookies
+     */
+    @VisibleForTesting
+    static List<DeserializableCookie> makeCookiesFromEntry(final HarEntry entry) {
+        if (entry.getResponse() instanceof EnhancedHarResponse) {
+            @Nullable List<DeserializableCookie> setCookies = ((EnhancedHarResponse) entry.getResponse()).getSetCookies();
+            if (setCookies != null) {
+                Instant creationDate = getResponseMoment(entry);
+                List<DeserializableCookie> cookies = new ArrayList<>(setCookies.size());
+                for (DeserializableCookie cookie : setCookies) {
+                    cookies.add(cookie.toBuilder().creationDate(creationDate).build());
+                }
+                return cookies;
+            }
+        }
+        return makeCookiesFromEntry(DEFAULT_COOKIE_SPEC, entry);
+    }
+
     @VisibleForTesting
     static List<DeserializableCookie> makeCookiesFromEntry(final SetCookieHeaderParser cookieSpec, final HarEntry entry) {
         URL originUrl;
@@ -0,0 +1,29 @@
+package io.github.mike10004.httpcapture;
+
+import net.lightbody.bmp.core.har.HarEntry;
+
+/**
+ * Interface for classes that accept HAR entries as soon as the corresponding
+ * request/response interaction is completed. Implementations may be invoked
+ * concurrently from multiple proxy threads.
+ */
+public interface HarEntrySink {
+
+    /**
+     * Notifies this sink that the request of an entry has been received. The entry
+     * is still being modified by the capture filter; it is passed to
+     * {@link #entryCompleted(HarEntry)} once the interaction is completed, unless
+     * the client aborts or the proxy stops first. This implementation does nothing.
+     * @param entry the entry
+     */
+    default void entryStarted(HarEntry entry) {
+    }
+
+    /**
+     * Accepts a completed entry. The entry will not be modified by the capture
+     * filter after this method is invoked.
+     * @param entry the entry
+     */
+    void entryCompleted(HarEntry entry);
+
+}
@@ -0,0 +1,420 @@
+package io.github.mike10004.httpcapture;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableList;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import net.lightbody.bmp.core.har.HarEntry;
+import net.lightbody.bmp.core.har.HarNameValuePair;
+import net.lightbody.bmp.core.har.HarResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Index of the entries in a HAR file. The index records the position of each entry in
+ * the file along with a few key fields, so that entries can be selected without parsing
+ * the whole file, and each selected entry can be read by itself.
+ *
+ * <p>The index is built by scanning the file once, and may be kept in a sidecar file
+ * alongside the HAR file. The HAR file must be uncompressed and encoded in UTF-8.
+ */
+public class HarIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(HarIndex.class);
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+            .addMixIn(HarNameValuePair.class, HarNameValuePairMixIn.class)
+            .addMixIn(HarResponse.class, HarResponseMixIn.class);
+
+    /**
+     * Mix-in that tells Jackson how to construct name-value pairs, which have no default constructor.
+     */
+    private static abstract class HarNameValuePairMixIn {
+        @JsonCreator
+        HarNameValuePairMixIn(@JsonProperty("name") String name, @JsonProperty("value") String value) {
+        }
+    }
+
+    /**
+     * Mix-in that tells Jackson to read responses as {@link EnhancedHarResponse}, so that
+     * fields written by the capture filter, such as the parsed cookies, are kept.
+     */
+    @JsonDeserialize(as = EnhancedHarResponse.class)
+    private static abstract class HarResponseMixIn {
+    }
+
+    static final String SIDECAR_SUFFIX = ".index.json";
+
+    private final File harFile;
+    private final long harLength;
+    private final long harLastModified;
+    private final List<HarIndexEntry> entries;
+
+    private HarIndex(File harFile, long harLength, long harLastModified, List<HarIndexEntry> entries) {
+        this.harFile = requireNonNull(harFile, "harFile");
+        this.harLength = harLength;
+        this.harLastModified = harLastModified;
+        this.entries = ImmutableList.copyOf(entries);
+    }
+
+    /**
+     * Gets the pathname of the sidecar file for a HAR file.
+     * @param harFile the HAR file
+     * @return the sidecar file pathname
+     */
+    public static File getSidecarFile(File harFile) {
+        return new File(harFile.getPath() + SIDECAR_SUFFIX);
+    }
+
+    /**
+     * Gets the index of a HAR file. The index is read from the sidecar file if it exists and
+     * was built from the current version of the HAR file; otherwise the index is built and
+     * the sidecar file is written. Failure to write the sidecar file, for example because
+     * the directory is not writable, is logged and does not prevent the index from being returned.
+     * @param harFile the HAR file
+     * @return the index
+     * @throws IOException on I/O error reading the HAR file
+     */
+    public static HarIndex open(File harFile) throws IOException {
+        File sidecarFile = getSidecarFile(harFile);
+        if (sidecarFile.isFile()) {
+            try {
+                @Nullable HarIndex index = read(harFile, sidecarFile);
+                if (index != null) {
+                    return index;
+                }
+                log.debug("sidecar file {} is out of date", sidecarFile);
+            } catch (IOException e) {
+                log.info("failed to read sidecar file {}; rebuilding index", sidecarFile, e);
+            }
+        }
+        HarIndex index = build(harFile);
+        try {
+            index.write(sidecarFile);
+        } catch (IOException e) {
+            log.warn("failed to write sidecar file {}; index will be rebuilt next time", sidecarFile, e);
+        }
+        return index;
+    }
+
+    /**
+     * Builds the index of a HAR file by scanning it.
+     * @param harFile the HAR file
+     * @return the index
+     * @throws IOException on I/O error or if the file is malformed or compressed
+     */
+    public static HarIndex build(File harFile) throws IOException {
+        long length = harFile.length(), lastModified = harFile.lastModified();
+        List<HarIndexEntry> entries;
+        try (InputStream in = new BufferedInputStream(new FileInputStream(harFile), 64 * 1024)) {
+            if (Compression.isGzip(in)) {
+                throw new IOException("compressed HAR file must be decompressed before it is indexed: " + harFile);
+            }
+            entries = new EntryScanner(in).scan();
+        }
+        return new HarIndex(harFile, length, lastModified, entries);
+    }
+
+    @Nullable
+    private static HarIndex read(File harFile, File sidecarFile) throws IOException {
+        JsonNode root = OBJECT_MAPPER.readTree(sidecarFile);
+        long length = root.path("harLength").asLong(-1), lastModified = root.path("harLastModified").asLong(-1);
+        if (length != harFile.length() || lastModified != harFile.lastModified()) {
+            return null;
+        }
+        HarIndexEntry[] entries = OBJECT_MAPPER.treeToValue(root.path("entries"), HarIndexEntry[].class);
+        return new HarIndex(harFile, length, lastModified, Arrays.asList(entries));
+    }
+
+    /**
+     * Writes this index to a sidecar file. The file is replaced atomically.
+     * @param sidecarFile the sidecar file
+     * @throws IOException on I/O error
+     */
+    public void write(File sidecarFile) throws IOException {
+        Path directory = sidecarFile.getAbsoluteFile().toPath().getParent();
+        Path tempFile = Files.createTempFile(directory, sidecarFile.getName(), ".tmp");
+        try {
+            Map<String, Object> sidecar = new LinkedHashMap<>();
+            sidecar.put("harLength", harLength);
+            sidecar.put("harLastModified", harLastModified);
+            sidecar.put("entries", entries);
+            try (OutputStream out = Files.newOutputStream(tempFile)) {
+                OBJECT_MAPPER.writeValue(out, sidecar);
+            }
+            Files.move(tempFile, sidecarFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * Gets the indexed entries, in the order in which they appear in the log.
+     * @return list of entries
+     */
+    public List<HarIndexEntry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Finds the entries that satisfy a predicate.
+     * @param predicate the predicate
+     * @return list of matching entries, in log order
+     */
+    public List<HarIndexEntry> find(Predicate<? super HarIndexEntry> predicate) {
+        return entries.stream().filter(predicate).collect(Collectors.toList());
+    }
+
+    /**
+     * Reads the bytes of an entry from the HAR file.
+     * @param entry the indexed entry
+     * @return the JSON text of the entry, encoded in UTF-8
+     * @throws IOException on I/O error
+     */
+    public byte[] readEntryBytes(HarIndexEntry entry) throws IOException {
+        if (entry.getLength() > Integer.MAX_VALUE) {
+            throw new IOException("entry too large: " + entry.getLength() + " bytes");
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) entry.getLength());
+        try (FileChannel channel = FileChannel.open(harFile.toPath(), StandardOpenOption.READ)) {
+            long position = entry.getOffset();
+            while (buffer.hasRemaining()) {
+                int count = channel.read(buffer, position);
+                if (count < 0) {
+                    throw new IOException("HAR file ends before entry " + entry.getIndex());
+                }
+                position += count;
+            }
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Reads and parses an entry from the HAR file. Only the bytes of this entry are read.
+     * @param entry the indexed entry
+     * @return the parsed entry
+     * @throws IOException on I/O error or if the entry cannot be parsed
+     */
+    public HarEntry readEntry(HarIndexEntry entry) throws IOException {
+        return OBJECT_MAPPER.readValue(readEntryBytes(entry), HarEntry.class);
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("harFile", harFile)
+                .add("entries.size", entries.size())
+                .toString();
+    }
+
+    /**
+     * Scanner that tracks the structure of a JSON document byte by byte, without decoding
+     * values other than the names of the fields that lead to {@code log.entries}. The bytes
+     * of each element of the entries array are collected and parsed to get the key fields.
+     * Because the document is UTF-8, structural characters cannot occur within multibyte
+     * sequences.
+     */
+    private static class EntryScanner {
+
+        private static final int ENTRIES_DEPTH = 3;
+        private static final int MAX_KEY_LENGTH = 16;
+
+        private final InputStream in;
+        private final List<HarIndexEntry> entries = new ArrayList<>();
+        private final JsonParser jsonParser = new JsonParser();
+
+        private byte[] containers = new byte[16];
+        private final String[] keys = new String[ENTRIES_DEPTH];
+        private int depth;
+        private boolean inString;
+        private boolean escaped;
+        private boolean expectKey;
+        private final StringBuilder key = new StringBuilder(MAX_KEY_LENGTH);
+        private boolean inEntries;
+        private long entryOffset = -1;
+        private final ByteArrayOutputStream entryBytes = new ByteArrayOutputStream();
+
+        public EntryScanner(InputStream in) {
+            this.in = in;
+        }
+
+        public List<HarIndexEntry> scan() throws IOException {
+            long position = 0;
+            int b;
+            while ((b = in.read()) != -1) {
+                if (entryOffset >= 0) {
+                    entryBytes.write(b);
+                }
+                if (inString) {
+                    scanStringByte(b);
+                } else {
+                    scanStructuralByte(b, position);
+                }
+                position++;
+            }
+            if (depth != 0 || inString) {
+                throw new IOException("HAR file ends unexpectedly at byte " + position);
+            }
+            return entries;
+        }
+
+        private void scanStringByte(int b) {
+            if (escaped) {
+                escaped = false;
+            } else if (b == '\\') {
+                escaped = true;
+            } else if (b == '"') {
+                inString = false;
+                if (expectKey) {
+                    if (depth < ENTRIES_DEPTH) {
+                        keys[depth] = key.toString();
+                    }
+                    expectKey = false;
+                }
+                return;
+            }
+            if (expectKey && depth < ENTRIES_DEPTH && key.length() < MAX_KEY_LENGTH) {
+                key.append((char) b);
+            }
+        }
+
+        private void scanStructuralByte(int b, long position) throws IOException {
+            switch (b) {
+                case '"':
+                    inString = true;
+                    key.setLength(0);
+                    break;
+                case '{':
+                case '[':
+                    if (inEntries && depth == ENTRIES_DEPTH && b == '{') {
+                        entryOffset = position;
+                        entryBytes.reset();
+                        entryBytes.write(b);
+                    }
+                    push((byte) b);
+                    if (depth == ENTRIES_DEPTH && b == '[' && isEntriesPath()) {
+                        inEntries = true;
+                    }
+                    expectKey = b == '{';
+                    break;
+                case '}':
+                case ']':
+                    pop(b == '}' ? '{' : '[');
+                    if (depth < ENTRIES_DEPTH) {
+                        inEntries = false;
+                    }
+                    if (entryOffset >= 0 && depth == ENTRIES_DEPTH) {
+                        entries.add(createEntry(entries.size(), entryOffset, position + 1 - entryOffset));
+                        entryOffset = -1;
+                    }
+                    expectKey = false;
+                    break;
+                case ',':
+                    expectKey = depth > 0 && containers[depth - 1] == '{';
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private boolean isEntriesPath() {
+            return containers[0] == '{' && containers[1] == '{' && containers[2] == '['
+                    && "log".equals(keys[1]) && "entries".equals(keys[2]);
+        }
+
+        private void push(byte container) {
+            if (depth == containers.length) {
+                containers = Arrays.copyOf(containers, depth * 2);
+            }
+            containers[depth++] = container;
+        }
+
+        private void pop(char expected) throws IOException {
+            if (depth == 0 || containers[depth - 1] != expected) {
+                throw new IOException("malformed HAR: unbalanced " + (expected == '{' ? "object" : "array"));
+            }
+            depth--;
+        }
+
+        private HarIndexEntry createEntry(int index, long offset, long length) throws IOException {
+            JsonElement element;
+            try (InputStreamReader reader = new InputStreamReader(new ByteArrayInputStream(entryBytes.toByteArray()), StandardCharsets.UTF_8)) {
+                element = jsonParser.parse(reader);
+            } catch (RuntimeException e) {
+                throw new IOException("failed to parse entry " + index + " at byte " + offset, e);
+            }
+            entryBytes.reset();
+            JsonObject entry = element.getAsJsonObject();
+            JsonObject request = getObject(entry, "request"), response = getObject(entry, "response");
+            JsonObject content = response == null ? null : getObject(response, "content");
+            String method = stringOrNull(request == null ? null : request.get("method"));
+            String url = stringOrNull(request == null ? null : request.get("url"));
+            String status = stringOrNull(response == null ? null : response.get("status"));
+            return new HarIndexEntry(index, offset, length,
+                    method == null ? "" : method,
+                    url == null ? "" : url,
+                    status == null ? 0 : parseStatus(status),
+                    stringOrNull(content == null ? null : content.get("mimeType")),
+                    stringOrNull(entry.get("startedDateTime")));
+        }
+
+        @Nullable
+        private static JsonObject getObject(JsonObject parent, String name) {
+            JsonElement element = parent.get(name);
+            return element != null && element.isJsonObject() ? element.getAsJsonObject() : null;
+        }
+
+        @Nullable
+        private static String stringOrNull(@Nullable JsonElement element) {
+            if (element == null || !element.isJsonPrimitive()) {
+                return null;
+            }
+            JsonPrimitive primitive = element.getAsJsonPrimitive();
+            return primitive.getAsString();
+        }
+
+        private static int parseStatus(String status) {
+            try {
+                return Integer.parseInt(status);
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package io.github.mike10004.httpcapture;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.MoreObjects;
+
+import javax.annotation.Nullable;
+import java.net.URI;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Value class that describes the location and key fields of an entry in a HAR file.
+ * Instances are listed in the sidecar file of a {@link HarIndex}.
+ */
+public final class HarIndexEntry {
+
+    private final int index;
+    private final long offset;
+    private final long length;
+    private final String method;
+    private final String url;
+    private final int status;
+    @Nullable
+    private final String mimeType;
+    @Nullable
+    private final String startedDateTime;
+
+    /**
+     * Constructs an instance.
+     * @param index position of the entry in the log
+     * @param offset position of the first byte of the entry in the file
+     * @param length number of bytes of the entry in the file
+     * @param method request method
+     * @param url request URL
+     * @param status response status, or 0 if the entry has no response
+     * @param mimeType MIME type of the response content, or null if not specified
+     * @param startedDateTime start time of the entry, as it appears in the file, or null if not specified
+     */
+    @JsonCreator
+    public HarIndexEntry(@JsonProperty("index") int index,
+                         @JsonProperty("offset") long offset,
+                         @JsonProperty("length") long length,
+                         @JsonProperty("method") String method,
+                         @JsonProperty("url") String url,
+                         @JsonProperty("status") int status,
+                         @JsonProperty("mimeType") @Nullable String mimeType,
+                         @JsonProperty("startedDateTime") @Nullable String startedDateTime) {
+        this.index = index;
+        this.offset = offset;
+        this.length = length;
+        this.method = requireNonNull(method, "method");
+        this.url = requireNonNull(url, "url");
+        this.status = status;
+        this.mimeType = mimeType;
+        this.startedDateTime = startedDateTime;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    @Nullable
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    @Nullable
+    public String getStartedDateTime() {
+        return startedDateTime;
+    }
+
+    /**
+     * Gets the host of the request URL.
+     * @return the host, or null if the URL is malformed or has no host
+     */
+    @JsonIgnore
+    @Nullable
+    public String getHost() {
+        try {
+            return URI.create(url).getHost();
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("index", index)
+                .add("offset", offset)
+                .add("length", length)
+                .add("method", method)
+                .add("url", url)
+                .add("status", status)
+                .add("mimeType", mimeType)
+                .add("startedDateTime", startedDateTime)
+                .toString();
+    }
+}
@@ -104,9 +104,20 @@ public final class HarInteractions {
     }
 
     public static ImmutableHttpResponse freeze(HarResponse harResponse) {
+        return freeze(harResponse, toContentSource(harResponse.getContent()));
+    }
+
+    /**
+     * Creates an immutable response with the status and headers of a HAR response
+     * and the given content. The content of the HAR response is ignored.
+     * @param harResponse the HAR response
+     * @param content the response content
+     * @return the response
+     */
+    public static ImmutableHttpResponse freeze(HarResponse harResponse, HttpContentSource content) {
         return ImmutableHttpResponse.builder(harResponse.getStatus())
                 .addHeaders(harResponse.getHeaders().stream().map(pair -> new SimpleImmutableEntry<>(pair.getName(), pair.getValue())))
-                .content(toContentSource(harResponse.getContent()))
+                .content(content)
                 .build();
     }
 
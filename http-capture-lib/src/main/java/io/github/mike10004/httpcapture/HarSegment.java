@@ -0,0 +1,78 @@
+package io.github.mike10004.httpcapture;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.MoreObjects;
+
+import javax.annotation.Nullable;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Value class that describes a completed segment written by a {@link RollingHarWriter}.
+ * Instances are listed in the segment index file.
+ */
+public final class HarSegment {
+
+    private final String file;
+    private final int entries;
+    private final long bytes;
+    @Nullable
+    private final String startedDateTime;
+    @Nullable
+    private final String endedDateTime;
+
+    /**
+     * Constructs an instance.
+     * @param file name of the segment file, relative to the index file
+     * @param entries number of entries in the segment
+     * @param bytes size of the segment file
+     * @param startedDateTime start time of the earliest entry, in ISO-8601 format, or null if the segment has no entries
+     * @param endedDateTime end time of the latest entry, in ISO-8601 format, or null if the segment has no entries
+     */
+    @JsonCreator
+    public HarSegment(@JsonProperty("file") String file,
+                      @JsonProperty("entries") int entries,
+                      @JsonProperty("bytes") long bytes,
+                      @JsonProperty("startedDateTime") @Nullable String startedDateTime,
+                      @JsonProperty("endedDateTime") @Nullable String endedDateTime) {
+        this.file = requireNonNull(file, "file");
+        this.entries = entries;
+        this.bytes = bytes;
+        this.startedDateTime = startedDateTime;
+        this.endedDateTime = endedDateTime;
+    }
+
+    public String getFile() {
+        return file;
+    }
+
+    public int getEntries() {
+        return entries;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    @Nullable
+    public String getStartedDateTime() {
+        return startedDateTime;
+    }
+
+    @Nullable
+    public String getEndedDateTime() {
+        return endedDateTime;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("file", file)
+                .add("entries", entries)
+                .add("bytes", bytes)
+                .add("startedDateTime", startedDateTime)
+                .add("endedDateTime", endedDateTime)
+                .toString();
+    }
+}
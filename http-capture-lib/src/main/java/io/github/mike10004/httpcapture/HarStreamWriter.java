@@ -0,0 +1,73 @@
+package io.github.mike10004.httpcapture;
+
+import com.google.common.io.CharSink;
+import net.lightbody.bmp.core.har.HarLog;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Interface for HAR entry sinks that write entries to persistent output as they arrive.
+ * The output is started before the first entry is accepted and finished when the
+ * capture session ends.
+ * @see StreamingHarWriter
+ * @see RollingHarWriter
+ */
+public interface HarStreamWriter extends HarEntrySink, Closeable {
+
+    /**
+     * Prepares the output to accept entries.
+     * @param harLog log from which version, creator, and browser fields are taken
+     * @throws IOException on I/O error
+     */
+    void start(HarLog harLog) throws IOException;
+
+    /**
+     * Writes entries that the argument log contains and completes the output.
+     * @param harLog the log from which remaining entries and the pages are taken
+     * @throws IOException on I/O error
+     */
+    void finish(HarLog harLog) throws IOException;
+
+    /**
+     * Gets the number of entries written so far.
+     * @return the count of entries
+     */
+    int getEntryCount();
+
+    /**
+     * Interface for classes that open a HAR stream writer when a capture session starts.
+     */
+    interface Factory {
+
+        /**
+         * Opens a writer. The writer has not yet been started.
+         * @return a new writer
+         * @throws IOException on I/O error
+         */
+        HarStreamWriter open() throws IOException;
+
+    }
+
+    /**
+     * Returns a factory of writers that write a single HAR document to a stream opened from a sink.
+     * @param sink the sink
+     * @return a factory
+     */
+    static Factory toCharSink(CharSink sink) {
+        requireNonNull(sink, "sink");
+        return new Factory() {
+            @Override
+            public HarStreamWriter open() throws IOException {
+                return new StreamingHarWriter(sink.openStream());
+            }
+
+            @Override
+            public String toString() {
+                return "HarStreamWriter.Factory{" + sink + "}";
+            }
+        };
+    }
+}
@@ -0,0 +1,135 @@
+package io.github.mike10004.httpcapture;
+
+import javax.annotation.Nullable;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * View of a completed request/response exchange. The request method and URL and the
+ * response status are available cheaply. Implementations may defer construction of the
+ * full request and response representations, including headers and content, until
+ * {@link #getRequest()} or {@link #getResponse()} is invoked.
+ * @see CaptureMonitor#exchangeCompleted(HttpExchange)
+ */
+public interface HttpExchange {
+
+    /**
+     * Gets the request method.
+     * @return the method
+     */
+    String getMethod();
+
+    /**
+     * Gets the absolute request URL.
+     * @return the URL
+     */
+    String getUrl();
+
+    /**
+     * Gets the response status. If no response was received, as when the remote server
+     * could not be reached, the status is zero and {@link #getError()} returns a description.
+     * @return the status
+     */
+    int getStatus();
+
+    /**
+     * Gets the description of the error that prevented a response from being received.
+     * @return the error message, or null if there was no error
+     */
+    @Nullable
+    String getError();
+
+    /**
+     * Gets the full representation of the request.
+     * @return the request
+     */
+    ImmutableHttpRequest getRequest();
+
+    /**
+     * Gets the full representation of the response. Implementations that defer construction
+     * may read the response content from the proxy's capture buffer on the first invocation,
+     * which must then happen before the exchange is released.
+     * @return the response
+     * @throws IllegalStateException if the response content has already been released
+     * @see #retain()
+     */
+    ImmutableHttpResponse getResponse();
+
+    /**
+     * Checks whether the content of the response returned by {@link #getResponse()} is
+     * missing some of the response content because the content exceeded a capture limit.
+     * @return true if the response content is truncated
+     */
+    default boolean isResponseContentTruncated() {
+        return false;
+    }
+
+    /**
+     * Keeps the response content of this exchange available after
+     * {@link CaptureMonitor#exchangeCompleted(HttpExchange)} returns. The proxy releases the
+     * content when that method returns, so a monitor that invokes {@link #getResponse()} later,
+     * as from another thread, must retain the exchange first and release it when done.
+     * Each invocation must be balanced by an invocation of {@link #release()}. The default
+     * implementation does nothing.
+     * @return this exchange
+     */
+    default HttpExchange retain() {
+        return this;
+    }
+
+    /**
+     * Releases a reference to the response content of this exchange. The content is discarded
+     * when every reference has been released, unless the response has already been constructed.
+     * The default implementation does nothing.
+     */
+    default void release() {
+    }
+
+    /**
+     * Creates an exchange view of a request and response that have already been constructed.
+     * @param request the request
+     * @param response the response
+     * @return an exchange
+     */
+    static HttpExchange of(ImmutableHttpRequest request, ImmutableHttpResponse response) {
+        requireNonNull(request, "request");
+        requireNonNull(response, "response");
+        return new HttpExchange() {
+            @Override
+            public String getMethod() {
+                return request.method;
+            }
+
+            @Override
+            public String getUrl() {
+                return request.url.toString();
+            }
+
+            @Override
+            public int getStatus() {
+                return response.status;
+            }
+
+            @Nullable
+            @Override
+            public String getError() {
+                return null;
+            }
+
+            @Override
+            public ImmutableHttpRequest getRequest() {
+                return request;
+            }
+
+            @Override
+            public ImmutableHttpResponse getResponse() {
+                return response;
+            }
+
+            @Override
+            public String toString() {
+                return String.format("HttpExchange{%s %s -> %d}", request.method, request.url, response.status);
+            }
+        };
+    }
+}
@@ -0,0 +1,363 @@
+package io.github.mike10004.httpcapture;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Suppliers;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import net.lightbody.bmp.mitm.CertificateAndKey;
+import net.lightbody.bmp.mitm.CertificateAndKeySource;
+import net.lightbody.bmp.mitm.CertificateInfo;
+import net.lightbody.bmp.mitm.CertificateInfoGenerator;
+import net.lightbody.bmp.mitm.HostnameCertificateInfoGenerator;
+import net.lightbody.bmp.mitm.exception.CertificateCreationException;
+import net.lightbody.bmp.mitm.keys.KeyGenerator;
+import net.lightbody.bmp.mitm.keys.RSAKeyGenerator;
+import net.lightbody.bmp.mitm.tools.DefaultSecurityProviderTool;
+import net.lightbody.bmp.mitm.tools.SecurityProviderTool;
+import net.lightbody.bmp.mitm.util.MitmConstants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.net.ssl.KeyManager;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyPair;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Cache of the leaf certificates generated to impersonate hosts to which HTTPS connections
+ * are intercepted. An instance serves as the certificate tool of an
+ * {@link net.lightbody.bmp.mitm.manager.ImpersonatingMitmManager}: a certificate is generated
+ * on the first handshake for a host, and the cached certificate and key are returned thereafter.
+ * Certificates are cached per root certificate, so a cache may outlive a root.
+ *
+ * <p>The cache holds at most a fixed number of certificates, evicting the least recently used,
+ * and each certificate is kept for a fixed time after it is generated or loaded. The cache may be
+ * pre-warmed with a list of hosts, and it may be saved to and loaded from a password-protected
+ * PKCS12 file, so that repeat sessions with the same root do not generate leaf certificates.
+ *
+ * <p>Because the manager generates a server key pair before asking for a certificate, the
+ * manager should also use {@link #getServerKeyGenerator()}, which generates one key pair and
+ * returns it for every certificate; otherwise a key pair is generated even on a cache hit.
+ */
+public class ImpersonationCertificateCache implements SecurityProviderTool {
+
+    private static final Logger log = LoggerFactory.getLogger(ImpersonationCertificateCache.class);
+
+    public static final long DEFAULT_MAX_SIZE = 1024;
+    public static final Duration DEFAULT_TIME_TO_LIVE = Duration.ofDays(1);
+
+    private static final String KEYSTORE_TYPE = "PKCS12";
+
+    private final SecurityProviderTool delegate;
+    private final KeyGenerator serverKeyGenerator;
+    private final CertificateInfoGenerator certificateInfoGenerator;
+    private final Cache<String, CertificateAndKey> cache;
+
+    /**
+     * Constructs an instance with default size and time-to-live that generates 2048-bit RSA server keys.
+     */
+    public ImpersonationCertificateCache() {
+        this(DEFAULT_MAX_SIZE, DEFAULT_TIME_TO_LIVE);
+    }
+
+    /**
+     * Constructs an instance that generates 2048-bit RSA server keys.
+     * @param maxSize maximum number of certificates to keep
+     * @param timeToLive duration for which a certificate is kept after it is generated or loaded
+     */
+    public ImpersonationCertificateCache(long maxSize, Duration timeToLive) {
+        this(maxSize, timeToLive, new RSAKeyGenerator(), new DefaultSecurityProviderTool());
+    }
+
+    /**
+     * Constructs an instance.
+     * @param maxSize maximum number of certificates to keep
+     * @param timeToLive duration for which a certificate is kept after it is generated or loaded
+     * @param serverKeyGenerator generator of the server key pair shared by the certificates
+     * @param delegate the tool that generates certificates on cache misses and performs other operations
+     */
+    public ImpersonationCertificateCache(long maxSize, Duration timeToLive, KeyGenerator serverKeyGenerator, SecurityProviderTool delegate) {
+        checkArgument(maxSize > 0, "max size must be positive: %s", maxSize);
+        checkArgument(!timeToLive.isNegative() && !timeToLive.isZero(), "time to live must be positive: %s", timeToLive);
+        this.delegate = requireNonNull(delegate, "delegate");
+        this.serverKeyGenerator = Suppliers.memoize(requireNonNull(serverKeyGenerator, "serverKeyGenerator")::generate)::get;
+        this.certificateInfoGenerator = new HostnameCertificateInfoGenerator();
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(timeToLive.toMillis(), TimeUnit.MILLISECONDS)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Gets the server key generator that the MITM manager should use with this cache.
+     * The generator generates a key pair once and returns it on every invocation.
+     * @return the key generator
+     */
+    public KeyGenerator getServerKeyGenerator() {
+        return serverKeyGenerator;
+    }
+
+    /**
+     * Gets the key under which a certificate is cached. The key is made of the SHA-256
+     * fingerprint of the root certificate and the host names, so that certificates signed
+     * by different roots with the same serial number are not confused.
+     */
+    static String cacheKey(X509Certificate rootCertificate, CertificateInfo certificateInfo) {
+        Set<String> names = new TreeSet<>();
+        if (certificateInfo.getCommonName() != null) {
+            names.add(certificateInfo.getCommonName().toLowerCase(Locale.ROOT));
+        }
+        if (certificateInfo.getSubjectAlternativeNames() != null) {
+            certificateInfo.getSubjectAlternativeNames().forEach(name -> names.add(name.toLowerCase(Locale.ROOT)));
+        }
+        return fingerprint(rootCertificate) + "/" + String.join(",", names);
+    }
+
+    static String fingerprint(X509Certificate certificate) {
+        try {
+            return Hashing.sha256().hashBytes(certificate.getEncoded()).toString();
+        } catch (CertificateEncodingException e) {
+            throw new CertificateCreationException("failed to encode root certificate", e);
+        }
+    }
+
+    @Override
+    public CertificateAndKey createServerCertificate(CertificateInfo certificateInfo, X509Certificate caRootCertificate, PrivateKey caPrivateKey, KeyPair serverKeyPair, String messageDigest) {
+        String key = cacheKey(caRootCertificate, certificateInfo);
+        try {
+            return cache.get(key, () -> {
+                log.debug("generating certificate {}", key);
+                return generate(certificateInfo, caRootCertificate, caPrivateKey, serverKeyPair, messageDigest);
+            });
+        } catch (ExecutionException e) {
+            throw new CertificateCreationException("failed to create certificate " + key, e.getCause());
+        } catch (UncheckedExecutionException e) {
+            Throwables.throwIfUnchecked(e.getCause());
+            throw e;
+        }
+    }
+
+    /**
+     * Generates a certificate on a cache miss. This implementation invokes the delegate tool.
+     * Subclasses may obtain the certificate elsewhere, in which case the server key pair
+     * may be ignored.
+     * @param certificateInfo the certificate info
+     * @param caRootCertificate the root certificate
+     * @param caPrivateKey the root private key
+     * @param serverKeyPair the server key pair
+     * @param messageDigest the message digest algorithm
+     * @return the certificate and key
+     */
+    protected CertificateAndKey generate(CertificateInfo certificateInfo, X509Certificate caRootCertificate, PrivateKey caPrivateKey, KeyPair serverKeyPair, String messageDigest) {
+        return delegate.createServerCertificate(certificateInfo, caRootCertificate, caPrivateKey, serverKeyPair, messageDigest);
+    }
+
+    /**
+     * Generates certificates for hosts that are not already cached.
+     * @param rootSource source of the root certificate and key
+     * @param hostnames the hosts
+     * @return the number of certificates generated
+     */
+    public int prewarm(CertificateAndKeySource rootSource, Iterable<String> hostnames) {
+        CertificateAndKey root = rootSource.load();
+        int generated = 0;
+        for (String hostname : hostnames) {
+            CertificateInfo certificateInfo = certificateInfoGenerator.generate(Collections.singletonList(hostname), null);
+            if (!cache.asMap().containsKey(cacheKey(root.getCertificate(), certificateInfo))) {
+                createServerCertificate(certificateInfo, root.getCertificate(), root.getPrivateKey(), serverKeyGenerator.generate(), MitmConstants.DEFAULT_MESSAGE_DIGEST);
+                generated++;
+            }
+        }
+        log.debug("prewarmed cache with {} certificates", generated);
+        return generated;
+    }
+
+    /**
+     * Finds the hosts of HTTPS requests in an indexed HAR file, for use with {@link #prewarm(CertificateAndKeySource, Iterable)}.
+     * @param index the index
+     * @return the hosts, in order of first appearance
+     */
+    public static Set<String> findHttpsHosts(HarIndex index) {
+        Set<String> hosts = new LinkedHashSet<>();
+        for (HarIndexEntry entry : index.getEntries()) {
+            if (entry.getUrl().regionMatches(true, 0, "https:", 0, 6)) {
+                @Nullable String host = entry.getHost();
+                if (host != null) {
+                    hosts.add(host.toLowerCase(Locale.ROOT));
+                }
+            }
+        }
+        return hosts;
+    }
+
+    /**
+     * Saves the cached certificates and keys to a PKCS12 file, replacing it atomically.
+     * @param file the file
+     * @param password the password with which the file and keys are encrypted
+     * @throws IOException on I/O error
+     */
+    public void save(Path file, String password) throws IOException {
+        char[] passwordChars = password.toCharArray();
+        Path tempFile = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            KeyStore keyStore = KeyStore.getInstance(KEYSTORE_TYPE);
+            keyStore.load(null, passwordChars);
+            for (Map.Entry<String, CertificateAndKey> entry : cache.asMap().entrySet()) {
+                CertificateAndKey value = entry.getValue();
+                keyStore.setKeyEntry(entry.getKey(), value.getPrivateKey(), passwordChars, new Certificate[]{value.getCertificate()});
+            }
+            try (OutputStream out = Files.newOutputStream(tempFile)) {
+                keyStore.store(out, passwordChars);
+            }
+            Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("failed to save certificates to " + file, e);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * Loads certificates and keys saved by {@link #save(Path, String)}. Certificates that are
+     * not currently valid are skipped.
+     * @param file the file
+     * @param password the password with which the file and keys are encrypted
+     * @return the number of certificates loaded
+     * @throws IOException on I/O error or if the file cannot be decrypted
+     */
+    public int load(Path file, String password) throws IOException {
+        char[] passwordChars = password.toCharArray();
+        int loaded = 0;
+        try (InputStream in = Files.newInputStream(file)) {
+            KeyStore keyStore = KeyStore.getInstance(KEYSTORE_TYPE);
+            keyStore.load(in, passwordChars);
+            Enumeration<String> aliases = keyStore.aliases();
+            while (aliases.hasMoreElements()) {
+                String alias = aliases.nextElement();
+                Key key = keyStore.getKey(alias, passwordChars);
+                Certificate certificate = keyStore.getCertificate(alias);
+                if (!(key instanceof PrivateKey) || !(certificate instanceof X509Certificate)) {
+                    continue;
+                }
+                try {
+                    ((X509Certificate) certificate).checkValidity();
+                } catch (GeneralSecurityException e) {
+                    log.debug("skipping certificate {}: {}", alias, e.toString());
+                    continue;
+                }
+                cache.put(alias, new CertificateAndKey((X509Certificate) certificate, (PrivateKey) key));
+                loaded++;
+            }
+        } catch (GeneralSecurityException e) {
+            throw new IOException("failed to load certificates from " + file, e);
+        }
+        return loaded;
+    }
+
+    /**
+     * Gets the hit and miss statistics of the cache. Certificates generated by
+     * {@link #prewarm(CertificateAndKeySource, Iterable)} count as misses.
+     * @return the statistics
+     */
+    public CacheStats getStats() {
+        return cache.stats();
+    }
+
+    /**
+     * Gets the number of cached certificates.
+     * @return the number of certificates
+     */
+    public long size() {
+        return cache.size();
+    }
+
+    @Override
+    public CertificateAndKey createCARootCertificate(CertificateInfo certificateInfo, KeyPair keyPair, String messageDigest) {
+        return delegate.createCARootCertificate(certificateInfo, keyPair, messageDigest);
+    }
+
+    @Override
+    public KeyStore createServerKeyStore(String keyStoreType, CertificateAndKey serverCertificateAndKey, X509Certificate rootCertificate, String privateKeyAlias, String password) {
+        return delegate.createServerKeyStore(keyStoreType, serverCertificateAndKey, rootCertificate, privateKeyAlias, password);
+    }
+
+    @Override
+    public KeyStore createRootCertificateKeyStore(String keyStoreType, CertificateAndKey rootCertificateAndKey, String privateKeyAlias, String password) {
+        return delegate.createRootCertificateKeyStore(keyStoreType, rootCertificateAndKey, privateKeyAlias, password);
+    }
+
+    @Override
+    public String encodePrivateKeyAsPem(PrivateKey privateKey, String passwordForPrivateKey, String encryptionAlgorithm) {
+        return delegate.encodePrivateKeyAsPem(privateKey, passwordForPrivateKey, encryptionAlgorithm);
+    }
+
+    @Override
+    public String encodeCertificateAsPem(Certificate certificate) {
+        return delegate.encodeCertificateAsPem(certificate);
+    }
+
+    @Override
+    public PrivateKey decodePemEncodedPrivateKey(Reader privateKeyReader, String password) {
+        return delegate.decodePemEncodedPrivateKey(privateKeyReader, password);
+    }
+
+    @Override
+    public X509Certificate decodePemEncodedCertificate(Reader certificateReader) {
+        return delegate.decodePemEncodedCertificate(certificateReader);
+    }
+
+    @Override
+    public KeyStore loadKeyStore(File file, String keyStoreType, String password) {
+        return delegate.loadKeyStore(file, keyStoreType, password);
+    }
+
+    @Override
+    public void saveKeyStore(File file, KeyStore keyStore, String keystorePassword) {
+        delegate.saveKeyStore(file, keyStore, keystorePassword);
+    }
+
+    @Override
+    public KeyManager[] getKeyManagers(KeyStore keyStore, String keyStorePassword) {
+        return delegate.getKeyManagers(keyStore, keyStorePassword);
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("size", cache.size())
+                .add("stats", cache.stats())
+                .toString();
+    }
+}
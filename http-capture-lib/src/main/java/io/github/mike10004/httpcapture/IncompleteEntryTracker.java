@@ -0,0 +1,77 @@
+package io.github.mike10004.httpcapture;
+
+import com.google.common.collect.ImmutableList;
+import net.lightbody.bmp.core.har.HarEntry;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Sink that keeps track of entries that have been started but not completed and passes
+ * completed entries to another sink. When capture stops, the entries that are still
+ * incomplete, such as those of exchanges the client aborted, are drained so that they
+ * can be written with the rest of the HAR instead of being lost.
+ */
+final class IncompleteEntryTracker implements HarEntrySink {
+
+    /**
+     * Comment set on entries drained from the tracker.
+     */
+    static final String INCOMPLETE_ENTRY_COMMENT = "incomplete: capture stopped before the exchange completed";
+
+    private final HarEntrySink delegate;
+    private final Object lock = new Object();
+    private final Set<HarEntry> started = Collections.newSetFromMap(new IdentityHashMap<>());
+    private boolean drained;
+
+    public IncompleteEntryTracker(HarEntrySink delegate) {
+        this.delegate = requireNonNull(delegate, "delegate");
+    }
+
+    @Override
+    public void entryStarted(HarEntry entry) {
+        synchronized (lock) {
+            if (!drained) {
+                started.add(entry);
+            }
+        }
+        delegate.entryStarted(entry);
+    }
+
+    /**
+     * Passes a completed entry to the delegate sink, unless the entry has already
+     * been drained as incomplete.
+     * @param entry the entry
+     */
+    @Override
+    public void entryCompleted(HarEntry entry) {
+        synchronized (lock) {
+            if (drained) {
+                return;
+            }
+            started.remove(entry);
+        }
+        delegate.entryCompleted(entry);
+    }
+
+    /**
+     * Removes and returns the entries that have been started but not completed, marking each
+     * with {@link #INCOMPLETE_ENTRY_COMMENT}. Entries started or completed afterwards are
+     * not passed to the delegate.
+     * @return the incomplete entries
+     */
+    public List<HarEntry> drainIncomplete() {
+        List<HarEntry> incomplete;
+        synchronized (lock) {
+            drained = true;
+            incomplete = ImmutableList.copyOf(started);
+            started.clear();
+        }
+        incomplete.forEach(entry -> entry.setComment(INCOMPLETE_ENTRY_COMMENT));
+        return incomplete;
+    }
+}
@@ -0,0 +1,396 @@
+package io.github.mike10004.httpcapture;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Decompressor that is fed compressed content chunk by chunk. Each chunk is decoded
+ * on the calling thread as it is fed, so the decompressed content accumulates while the
+ * response is still being received and no content is queued. Only encodings that have a
+ * push-style decoder are supported; see {@link #create(List, ContentBuffer, long, long)}.
+ * The decompressor may be aborted from a thread other than the one that feeds it.
+ */
+class IncrementalDecompressor {
+
+    private static final Logger log = LoggerFactory.getLogger(IncrementalDecompressor.class);
+
+    private static final int CHUNK_SIZE = 16 * 1024;
+
+    private final Stage input;
+    private final List<GzipStage> gzipStages;
+    private final ContentBuffer output;
+    private final long maxCapturedBytes;
+    private final long maxDecompressedBytes;
+    private final byte[] scratch;
+    private volatile boolean truncated;
+    private volatile boolean stoppedEarly;
+    private volatile long decompressedSize;
+    private boolean done;
+    @Nullable
+    private IOException failure;
+
+    private IncrementalDecompressor(List<String> singleEncodings, ContentBuffer output, long maxCapturedBytes, long maxDecompressedBytes) {
+        this.output = requireNonNull(output);
+        this.maxCapturedBytes = maxCapturedBytes;
+        this.maxDecompressedBytes = maxDecompressedBytes;
+        this.scratch = new byte[CHUNK_SIZE];
+        gzipStages = new ArrayList<>(singleEncodings.size());
+        Stage stage = this::emit;
+        // the last encoding applied is the first one decoded
+        for (String encoding : singleEncodings) {
+            if (HttpHeaderValues.GZIP.contentEqualsIgnoreCase(encoding)) {
+                GzipStage gzipStage = new GzipStage(stage);
+                gzipStages.add(gzipStage);
+                stage = gzipStage;
+            }
+        }
+        input = stage;
+    }
+
+    /**
+     * Creates a decompressor for a list of content encodings, if every encoding is supported.
+     * Supported encodings are {@code gzip} and {@code identity}.
+     * @param singleEncodings the content encodings, in the order in which they were applied
+     * @param output buffer to which decompressed content is appended
+     * @param maxCapturedBytes maximum number of decompressed bytes to append to the output buffer
+     * @param maxDecompressedBytes maximum number of bytes to decompress
+     * @return a new decompressor, or null if some encoding is not supported
+     */
+    @Nullable
+    public static IncrementalDecompressor create(List<String> singleEncodings, ContentBuffer output, long maxCapturedBytes, long maxDecompressedBytes) {
+        for (String encoding : singleEncodings) {
+            if (!isSupported(encoding)) {
+                return null;
+            }
+        }
+        return new IncrementalDecompressor(singleEncodings, output, maxCapturedBytes, maxDecompressedBytes);
+    }
+
+    static boolean isSupported(String singleEncoding) {
+        return HttpHeaderValues.GZIP.contentEqualsIgnoreCase(singleEncoding)
+                || HttpHeaderValues.IDENTITY.contentEqualsIgnoreCase(singleEncoding);
+    }
+
+    /**
+     * Feeds the readable bytes of a buffer to the decompressor. The reader index of the argument is not modified.
+     * Decoding errors are reported by {@link #finish()}.
+     * @param content compressed content
+     */
+    public synchronized void feed(ByteBuf content) {
+        int offset = content.readerIndex(), end = content.writerIndex();
+        if (content.hasArray()) {
+            feed(content.array(), content.arrayOffset() + offset, end - offset);
+            return;
+        }
+        while (!done && offset < end) {
+            int n = Math.min(scratch.length, end - offset);
+            content.getBytes(offset, scratch, 0, n);
+            feed(scratch, 0, n);
+            offset += n;
+        }
+    }
+
+    /**
+     * Feeds bytes from an array to the decompressor.
+     * Decoding errors are reported by {@link #finish()}.
+     * @param b the array
+     * @param off offset of the compressed content in the array
+     * @param len length of the compressed content
+     */
+    public synchronized void feed(byte[] b, int off, int len) {
+        try {
+            if (!done) {
+                input.accept(b, off, len);
+            }
+        } catch (IOException e) {
+            failure = e;
+            done = true;
+        }
+    }
+
+    private void emit(byte[] b, int off, int len) throws IOException {
+        long total = decompressedSize;
+        long decodable = maxDecompressedBytes - total;
+        if (len > decodable) {
+            stoppedEarly = true;
+            done = true;
+            len = (int) decodable;
+            log.debug("decompression stopped at {} bytes", maxDecompressedBytes);
+        }
+        long capturable = maxCapturedBytes - total;
+        if (capturable > 0) {
+            output.append(b, off, (int) Math.min(len, capturable));
+        }
+        decompressedSize = total + len;
+    }
+
+    /**
+     * Signals the end of the compressed content.
+     * @return the buffer containing the decompressed content
+     * @throws IOException if decoding failed or the compressed content ended prematurely
+     */
+    public ContentBuffer finish() throws IOException {
+        return finish(true);
+    }
+
+    /**
+     * Signals the end of the compressed content that was fed. If the content that was fed is
+     * incomplete, as when it was truncated at a capture limit, the decompressed content is the
+     * content decoded so far, and it is marked as truncated.
+     * @param complete true if the content that was fed is the whole compressed content
+     * @return the buffer containing the decompressed content
+     * @throws IOException if decoding failed or the compressed content ended prematurely
+     */
+    public synchronized ContentBuffer finish(boolean complete) throws IOException {
+        try {
+            if (failure != null) {
+                throw failure;
+            }
+            if (complete && !done) {
+                for (GzipStage stage : gzipStages) {
+                    stage.checkComplete();
+                }
+            }
+        } catch (IOException e) {
+            output.close();
+            throw e;
+        } finally {
+            end();
+        }
+        truncated = !complete || stoppedEarly || decompressedSize > maxCapturedBytes;
+        return output;
+    }
+
+    /**
+     * Stops decoding and releases the output buffer.
+     */
+    public synchronized void abort() {
+        end();
+        output.close();
+    }
+
+    private void end() {
+        done = true;
+        gzipStages.forEach(GzipStage::end);
+    }
+
+    /**
+     * Checks whether the output is missing some of the decompressed content, either because
+     * the capture limit was reached or because decoding stopped at the decompression limit.
+     * Only meaningful after {@link #finish()} returns.
+     * @return true if the decompressed content is truncated
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    /**
+     * Checks whether decoding stopped before the end of the content because the decompression
+     * limit was reached. If so, {@link #getDecompressedSize()} is a lower bound.
+     * @return true if decoding stopped early
+     */
+    public boolean isStoppedEarly() {
+        return stoppedEarly;
+    }
+
+    /**
+     * Gets the number of bytes decompressed, including bytes that were not appended to the output.
+     * @return the decompressed size
+     */
+    public long getDecompressedSize() {
+        return decompressedSize;
+    }
+
+    private interface Stage {
+        void accept(byte[] b, int off, int len) throws IOException;
+    }
+
+    /**
+     * Stage that decodes gzip members with an {@link Inflater}, passing the inflated
+     * content downstream. The member header and trailer are parsed as bytes arrive.
+     */
+    private class GzipStage implements Stage {
+
+        private static final int FHCRC = 2, FEXTRA = 4, FNAME = 8, FCOMMENT = 16;
+        private static final int HEADER_SIZE = 10, TRAILER_SIZE = 8;
+
+        private final Stage downstream;
+        private final Inflater inflater = new Inflater(true);
+        private final CRC32 crc = new CRC32();
+        private final byte[] fields = new byte[HEADER_SIZE];
+        private final byte[] inflated = new byte[CHUNK_SIZE];
+        private State state = State.HEADER;
+        private int fieldPosition;
+        private int flags;
+        private int extraRemaining;
+        private boolean memberDecoded;
+
+        GzipStage(Stage downstream) {
+            this.downstream = downstream;
+        }
+
+        @Override
+        public void accept(byte[] b, int off, int len) throws IOException {
+            int end = off + len;
+            while (off < end && !done) {
+                switch (state) {
+                    case HEADER:
+                        off = fillFields(b, off, end, HEADER_SIZE);
+                        if (fieldPosition == HEADER_SIZE) {
+                            if ((fields[0] & 0xFF) != 0x1f || (fields[1] & 0xFF) != 0x8b) {
+                                throw new ZipException("not in gzip format");
+                            }
+                            if (fields[2] != 8) {
+                                throw new ZipException("unsupported compression method");
+                            }
+                            flags = fields[3] & 0xFF;
+                            fieldPosition = 0;
+                            state = (flags & FEXTRA) != 0 ? State.EXTRA_LENGTH : State.NAME;
+                        }
+                        break;
+                    case EXTRA_LENGTH:
+                        off = fillFields(b, off, end, 2);
+                        if (fieldPosition == 2) {
+                            extraRemaining = (fields[0] & 0xFF) | ((fields[1] & 0xFF) << 8);
+                            fieldPosition = 0;
+                            state = State.EXTRA;
+                        }
+                        break;
+                    case EXTRA:
+                        int skipped = Math.min(extraRemaining, end - off);
+                        off += skipped;
+                        extraRemaining -= skipped;
+                        if (extraRemaining == 0) {
+                            state = State.NAME;
+                        }
+                        break;
+                    case NAME:
+                        off = (flags & FNAME) != 0 ? skipZeroTerminated(b, off, end, State.COMMENT) : transition(off, State.COMMENT);
+                        break;
+                    case COMMENT:
+                        off = (flags & FCOMMENT) != 0 ? skipZeroTerminated(b, off, end, State.HEADER_CRC) : transition(off, State.HEADER_CRC);
+                        break;
+                    case HEADER_CRC:
+                        if ((flags & FHCRC) != 0) {
+                            off = fillFields(b, off, end, 2);
+                            if (fieldPosition == 2) {
+                                fieldPosition = 0;
+                                state = State.DATA;
+                            }
+                        } else {
+                            state = State.DATA;
+                        }
+                        break;
+                    case DATA:
+                        off = inflate(b, off, end);
+                        break;
+                    case TRAILER:
+                        off = fillFields(b, off, end, TRAILER_SIZE);
+                        if (fieldPosition == TRAILER_SIZE) {
+                            checkTrailer();
+                        }
+                        break;
+                    default:
+                        throw new IllegalStateException(state.name());
+                }
+            }
+        }
+
+        private int transition(int off, State next) {
+            state = next;
+            return off;
+        }
+
+        private int fillFields(byte[] b, int off, int end, int size) {
+            int n = Math.min(size - fieldPosition, end - off);
+            System.arraycopy(b, off, fields, fieldPosition, n);
+            fieldPosition += n;
+            return off + n;
+        }
+
+        private int skipZeroTerminated(byte[] b, int off, int end, State next) {
+            while (off < end) {
+                if (b[off++] == 0) {
+                    state = next;
+                    break;
+                }
+            }
+            return off;
+        }
+
+        private int inflate(byte[] b, int off, int end) throws IOException {
+            inflater.setInput(b, off, end - off);
+            try {
+                while (!done) {
+                    int n = inflater.inflate(inflated);
+                    if (n > 0) {
+                        crc.update(inflated, 0, n);
+                        downstream.accept(inflated, 0, n);
+                    } else if (inflater.finished()) {
+                        fieldPosition = 0;
+                        state = State.TRAILER;
+                        break;
+                    } else if (inflater.needsInput()) {
+                        break;
+                    } else if (inflater.needsDictionary()) {
+                        throw new ZipException("preset dictionary not supported");
+                    }
+                }
+            } catch (DataFormatException e) {
+                throw new ZipException(e.getMessage());
+            }
+            return end - inflater.getRemaining();
+        }
+
+        private void checkTrailer() throws ZipException {
+            long expectedCrc = readUInt32(0), expectedSize = readUInt32(4);
+            if (expectedCrc != crc.getValue()) {
+                throw new ZipException("corrupt gzip trailer (crc)");
+            }
+            if (expectedSize != (inflater.getBytesWritten() & 0xFFFFFFFFL)) {
+                throw new ZipException("corrupt gzip trailer (size)");
+            }
+            // another member may follow
+            inflater.reset();
+            crc.reset();
+            fieldPosition = 0;
+            memberDecoded = true;
+            state = State.HEADER;
+        }
+
+        private long readUInt32(int offset) {
+            return (fields[offset] & 0xFFL)
+                    | ((fields[offset + 1] & 0xFFL) << 8)
+                    | ((fields[offset + 2] & 0xFFL) << 16)
+                    | ((fields[offset + 3] & 0xFFL) << 24);
+        }
+
+        void checkComplete() throws EOFException {
+            if (state != State.HEADER || fieldPosition != 0 || !memberDecoded) {
+                throw new EOFException("unexpected end of gzip stream");
+            }
+        }
+
+        void end() {
+            inflater.end();
+        }
+    }
+
+    private enum State {
+        HEADER, EXTRA_LENGTH, EXTRA, NAME, COMMENT, HEADER_CRC, DATA, TRAILER
+    }
+}
@@ -0,0 +1,110 @@
+package io.github.mike10004.httpcapture;
+
+import com.google.common.collect.ImmutableList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.Certificate;
+import java.util.Base64;
+import java.util.Collections;
+
+/**
+ * Keystore file creator implementation that uses the JDK keystore API, so that no
+ * external programs are required. The output is equivalent to that of
+ * {@link OpensslKeystoreFileCreator}: the PKCS12 file contains all entries of the input
+ * keystore, protected by the same password, and the PEM file contains the certificates
+ * and unencrypted private keys.
+ */
+public class JavaKeystoreFileCreator implements KeystoreFileCreator {
+
+    private static final Logger log = LoggerFactory.getLogger(JavaKeystoreFileCreator.class);
+
+    private static final String KEYSTORE_TYPE_PKCS12 = "PKCS12";
+    private static final ImmutableList<String> INPUT_KEYSTORE_TYPES = ImmutableList.of(KEYSTORE_TYPE_PKCS12, "JKS");
+    private static final int PEM_LINE_LENGTH = 64;
+
+    @Override
+    public void createPKCS12File(KeystoreInput keystore, File p12File) throws IOException {
+        char[] password = keystore.getPassword().toCharArray();
+        KeyStore source = loadKeyStore(keystore, password);
+        try {
+            KeyStore destination = KeyStore.getInstance(KEYSTORE_TYPE_PKCS12);
+            destination.load(null, password);
+            for (String alias : Collections.list(source.aliases())) {
+                if (source.isKeyEntry(alias)) {
+                    Key key = source.getKey(alias, password);
+                    destination.setKeyEntry(alias, key, password, source.getCertificateChain(alias));
+                } else {
+                    destination.setCertificateEntry(alias, source.getCertificate(alias));
+                }
+            }
+            try (OutputStream out = Files.newOutputStream(p12File.toPath())) {
+                destination.store(out, password);
+            }
+        } catch (GeneralSecurityException e) {
+            throw new AutoCertificateAndKeySource.CertificateGenerationException(e);
+        }
+        log.debug("pkcs12: {} ({} bytes)", p12File, p12File.length());
+    }
+
+    private static KeyStore loadKeyStore(KeystoreInput keystore, char[] password) throws IOException {
+        IOException failure = null;
+        for (String keystoreType : INPUT_KEYSTORE_TYPES) {
+            try (InputStream in = keystore.getBytes().openStream()) {
+                KeyStore keyStore = KeyStore.getInstance(keystoreType);
+                keyStore.load(in, password);
+                return keyStore;
+            } catch (IOException e) {
+                failure = e;
+            } catch (GeneralSecurityException e) {
+                failure = new IOException(e);
+            }
+        }
+        throw failure;
+    }
+
+    @Override
+    public void createPemFile(File pkcs12File, String keystorePassword, File pemFile) throws IOException {
+        char[] password = keystorePassword.toCharArray();
+        try (InputStream in = Files.newInputStream(pkcs12File.toPath());
+             Writer out = Files.newBufferedWriter(pemFile.toPath(), StandardCharsets.US_ASCII)) {
+            KeyStore keyStore = KeyStore.getInstance(KEYSTORE_TYPE_PKCS12);
+            keyStore.load(in, password);
+            for (String alias : Collections.list(keyStore.aliases())) {
+                if (keyStore.isKeyEntry(alias)) {
+                    for (Certificate certificate : keyStore.getCertificateChain(alias)) {
+                        writePem(out, "CERTIFICATE", certificate.getEncoded());
+                    }
+                    Key key = keyStore.getKey(alias, password);
+                    if (key instanceof PrivateKey) {
+                        // PKCS#8, as written by openssl with -nodes
+                        writePem(out, "PRIVATE KEY", key.getEncoded());
+                    }
+                } else {
+                    writePem(out, "CERTIFICATE", keyStore.getCertificate(alias).getEncoded());
+                }
+            }
+        } catch (GeneralSecurityException e) {
+            throw new AutoCertificateAndKeySource.CertificateGenerationException(e);
+        }
+        log.debug("pem: {} ({} bytes)", pemFile, pemFile.length());
+    }
+
+    static void writePem(Writer out, String label, byte[] der) throws IOException {
+        Base64.Encoder encoder = Base64.getMimeEncoder(PEM_LINE_LENGTH, new byte[]{'\n'});
+        out.write("-----BEGIN " + label + "-----\n");
+        out.write(encoder.encodeToString(der));
+        out.write("\n-----END " + label + "-----\n");
+    }
+}
@@ -0,0 +1,174 @@
+package io.github.mike10004.httpcapture;
+
+import com.google.common.base.Suppliers;
+import com.google.common.io.ByteSource;
+import io.github.mike10004.httpcapture.ImmutableHttpMessage.HttpContentSource;
+import net.lightbody.bmp.core.har.HarContent;
+import net.lightbody.bmp.core.har.HarRequest;
+import net.lightbody.bmp.core.har.HarResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Exchange view backed by the HAR request and response accumulated by a {@link CaptureMonitorFilter}.
+ * The immutable request and response are constructed on first access. The HAR objects must
+ * not be modified after an instance is constructed.
+ *
+ * <p>The response content may be held in a capture buffer owned by the exchange. The content
+ * is copied out of the buffer when the response is constructed, and the buffer is closed
+ * then or when the last reference to the exchange is released, whichever comes first.
+ * An instance starts with one reference, which belongs to the caller of the constructor.
+ */
+class LazyHttpExchange implements HttpExchange {
+
+    private static final Logger log = LoggerFactory.getLogger(LazyHttpExchange.class);
+
+    private final HarRequest harRequest;
+    private final HarResponse harResponse;
+    private final Supplier<ImmutableHttpRequest> request;
+    private final Supplier<ImmutableHttpResponse> response;
+    private final Function<ByteSource, HttpContentSource> contentSourceFactory;
+    private final AtomicInteger refCnt = new AtomicInteger(1);
+
+    /**
+     * Buffer holding the response content. Null if the exchange was constructed without one
+     * or after the buffer is closed. Guarded by this instance's monitor.
+     */
+    @Nullable
+    private ContentBuffer responseContentBuffer;
+
+    /**
+     * Set when the buffer was closed before the response was constructed. Guarded by this instance's monitor.
+     */
+    private boolean responseContentDiscarded;
+
+    /**
+     * Constructs an instance.
+     * @param harRequest the request
+     * @param harResponse the response
+     * @param responseContent the response content
+     */
+    public LazyHttpExchange(HarRequest harRequest, HarResponse harResponse, HttpContentSource responseContent) {
+        this(harRequest, harResponse, null, bytes -> responseContent);
+        requireNonNull(responseContent, "responseContent");
+    }
+
+    /**
+     * Constructs an instance that takes ownership of a buffer holding the response content.
+     * @param harRequest the request
+     * @param harResponse the response
+     * @param responseContentBuffer buffer holding the response content; null if there is no content
+     * @param contentSourceFactory function that creates the content source of the response from a copy of the buffered content
+     */
+    public LazyHttpExchange(HarRequest harRequest, HarResponse harResponse, @Nullable ContentBuffer responseContentBuffer, Function<ByteSource, HttpContentSource> contentSourceFactory) {
+        this.harRequest = requireNonNull(harRequest, "harRequest");
+        this.harResponse = requireNonNull(harResponse, "harResponse");
+        this.responseContentBuffer = responseContentBuffer;
+        this.contentSourceFactory = requireNonNull(contentSourceFactory, "contentSourceFactory");
+        request = Suppliers.memoize(() -> HarInteractions.freeze(harRequest));
+        response = Suppliers.memoize(() -> HarInteractions.freeze(harResponse, copyResponseContent()));
+    }
+
+    private synchronized HttpContentSource copyResponseContent() {
+        if (responseContentDiscarded) {
+            throw new IllegalStateException("response content already released: " + this);
+        }
+        ContentBuffer buffer = responseContentBuffer;
+        if (buffer == null) {
+            return contentSourceFactory.apply(ByteSource.empty());
+        }
+        try {
+            return contentSourceFactory.apply(ByteSource.wrap(buffer.asByteSource().read()));
+        } catch (IOException e) {
+            log.warn("Failed to read buffered content of HTTP response from {}. Content will not be captured.", getUrl(), e);
+            return HttpContentSource.empty();
+        } finally {
+            // the constructed response holds the copy
+            buffer.close();
+            responseContentBuffer = null;
+        }
+    }
+
+    private synchronized void discardResponseContent() {
+        ContentBuffer buffer = responseContentBuffer;
+        if (buffer != null) {
+            buffer.close();
+            responseContentBuffer = null;
+            responseContentDiscarded = true;
+        }
+    }
+
+    @Override
+    public HttpExchange retain() {
+        int count;
+        do {
+            count = refCnt.get();
+            if (count <= 0) {
+                throw new IllegalStateException("exchange already released: " + this);
+            }
+        } while (!refCnt.compareAndSet(count, count + 1));
+        return this;
+    }
+
+    @Override
+    public void release() {
+        int count = refCnt.decrementAndGet();
+        if (count == 0) {
+            discardResponseContent();
+        } else if (count < 0) {
+            refCnt.incrementAndGet();
+            throw new IllegalStateException("exchange already released: " + this);
+        }
+    }
+
+    @Override
+    public String getMethod() {
+        return Optional.ofNullable(harRequest.getMethod()).orElse("GET");
+    }
+
+    @Override
+    public String getUrl() {
+        return harRequest.getUrl();
+    }
+
+    @Override
+    public int getStatus() {
+        return harResponse.getStatus();
+    }
+
+    @Nullable
+    @Override
+    public String getError() {
+        return harResponse.getError();
+    }
+
+    @Override
+    public ImmutableHttpRequest getRequest() {
+        return request.get();
+    }
+
+    @Override
+    public ImmutableHttpResponse getResponse() {
+        return response.get();
+    }
+
+    @Override
+    public boolean isResponseContentTruncated() {
+        HarContent content = harResponse.getContent();
+        return content instanceof EnhancedHarContent && Boolean.TRUE.equals(((EnhancedHarContent) content).getTruncated());
+    }
+
+    @Override
+    public String toString() {
+        return String.format("LazyHttpExchange{%s %s -> %d}", getMethod(), getUrl(), getStatus());
+    }
+}
@@ -0,0 +1,47 @@
+package io.github.mike10004.httpcapture;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.Set;
+
+/**
+ * Control of a capture server that multiplexes capture sessions on one proxy port.
+ * The proxy, its event loops, and its MITM manager are shared by all sessions; each
+ * session has its own monitor and HAR. Closing this control stops the proxy and
+ * closes the sessions that remain open.
+ *
+ * <p>Entries of a session are added to its HAR, or streamed, as each exchange is completed.
+ * Exchanges that complete after the session is closed are not captured.
+ * @see BasicCaptureServer#startMultiplexed(SessionResolver, Integer)
+ */
+public interface MultiplexedCaptureServerControl extends CaptureServerControl {
+
+    /**
+     * Opens a session whose HAR entries are accumulated in memory.
+     * @param sessionId the session ID
+     * @param monitor the session's monitor
+     * @return the session control; closing it completes the session's HAR and passes it to the monitor
+     * @throws IOException on I/O error
+     */
+    default CaptureServerControl openSession(String sessionId, CaptureMonitor monitor) throws IOException {
+        return openSession(sessionId, monitor, null);
+    }
+
+    /**
+     * Opens a session.
+     * @param sessionId the session ID
+     * @param monitor the session's monitor
+     * @param harStreamFactory factory of the writer to which the session's HAR entries are streamed; null means accumulate in memory
+     * @return the session control; closing it completes the session's HAR and passes it to the monitor
+     * @throws IOException if the HAR stream cannot be opened
+     * @throws IllegalStateException if a session with the same ID is open
+     */
+    CaptureServerControl openSession(String sessionId, CaptureMonitor monitor, @Nullable HarStreamWriter.Factory harStreamFactory) throws IOException;
+
+    /**
+     * Gets the IDs of the open sessions.
+     * @return the session IDs
+     */
+    Set<String> getSessionIds();
+
+}
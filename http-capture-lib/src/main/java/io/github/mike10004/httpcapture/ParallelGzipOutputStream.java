@@ -0,0 +1,194 @@
+package io.github.mike10004.httpcapture;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Output stream that writes data in gzip format, compressing fixed-size blocks of input
+ * concurrently. Each block is written as a separate gzip member; a sequence of members is
+ * a valid gzip file, and is read as a single stream by {@link java.util.zip.GZIPInputStream}
+ * and by command-line tools. Blocks are compressed independently, so the compression ratio
+ * is slightly lower than that of a single-member stream.
+ *
+ * <p>Flushing this stream writes completed blocks to the underlying stream, but does not
+ * end the current block, because small blocks compress poorly. Data in a partial block is
+ * written when the block is full or the stream is closed.
+ *
+ * <p>Instances are not thread-safe.
+ */
+public class ParallelGzipOutputStream extends FilterOutputStream {
+
+    public static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+
+    private final int level;
+    private final ExecutorService executor;
+    private final int maxBlocksInFlight;
+    private final Deque<Future<byte[]>> blocksInFlight;
+    private byte[] block;
+    private int blockLength;
+    private boolean anyBlockWritten;
+    private boolean closed;
+
+    /**
+     * Constructs an instance with the default block size that uses as many threads as there are processors.
+     * @param out the underlying stream
+     * @param level compression level, from 0 to 9, or {@link Deflater#DEFAULT_COMPRESSION}
+     */
+    public ParallelGzipOutputStream(OutputStream out, int level) {
+        this(out, level, DEFAULT_BLOCK_SIZE, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructs an instance.
+     * @param out the underlying stream
+     * @param level compression level, from 0 to 9, or {@link Deflater#DEFAULT_COMPRESSION}
+     * @param blockSize number of uncompressed bytes in each block
+     * @param numThreads number of compression threads
+     */
+    public ParallelGzipOutputStream(OutputStream out, int level, int blockSize, int numThreads) {
+        super(requireNonNull(out, "out"));
+        checkArgument(isValidLevel(level), "invalid compression level: %s", level);
+        checkArgument(blockSize > 0, "block size must be positive: %s", blockSize);
+        checkArgument(numThreads > 0, "number of threads must be positive: %s", numThreads);
+        this.level = level;
+        this.block = new byte[blockSize];
+        this.maxBlocksInFlight = numThreads * 2;
+        this.blocksInFlight = new ArrayDeque<>(maxBlocksInFlight);
+        this.executor = Executors.newFixedThreadPool(numThreads, new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("http-capture-gzip-%d")
+                .build());
+    }
+
+    /**
+     * Checks whether a compression level is accepted by this class.
+     * @param level the compression level
+     * @return true if the level is from 0 to 9 or is {@link Deflater#DEFAULT_COMPRESSION}
+     */
+    public static boolean isValidLevel(int level) {
+        return level == Deflater.DEFAULT_COMPRESSION || (level >= Deflater.NO_COMPRESSION && level <= Deflater.BEST_COMPRESSION);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        block[blockLength++] = (byte) b;
+        if (blockLength == block.length) {
+            submitBlock();
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        while (len > 0) {
+            int n = Math.min(len, block.length - blockLength);
+            System.arraycopy(b, off, block, blockLength, n);
+            blockLength += n;
+            off += n;
+            len -= n;
+            if (blockLength == block.length) {
+                submitBlock();
+            }
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("stream closed");
+        }
+    }
+
+    private void submitBlock() throws IOException {
+        while (blocksInFlight.size() >= maxBlocksInFlight) {
+            writeCompressed(blocksInFlight.removeFirst());
+        }
+        byte[] input = block;
+        int inputLength = blockLength;
+        blocksInFlight.addLast(executor.submit(() -> compress(input, inputLength, level)));
+        block = new byte[input.length];
+        blockLength = 0;
+        anyBlockWritten = true;
+    }
+
+    private void writeCompressed(Future<byte[]> compressed) throws IOException {
+        try {
+            out.write(compressed.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while compressing");
+        } catch (ExecutionException e) {
+            throw new IOException("compression failed", e.getCause());
+        }
+    }
+
+    private void drain() throws IOException {
+        while (!blocksInFlight.isEmpty()) {
+            writeCompressed(blocksInFlight.removeFirst());
+        }
+    }
+
+    static byte[] compress(byte[] input, int length, int level) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(Math.max(64, length / 2));
+        try (GZIPOutputStream gzip = new GZIPOutputStream(buffer) {
+            {
+                def.setLevel(level);
+            }
+        }) {
+            gzip.write(input, 0, length);
+        }
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Writes blocks whose compression has completed to the underlying stream and flushes it.
+     * @throws IOException on I/O error
+     */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        while (!blocksInFlight.isEmpty() && blocksInFlight.peekFirst().isDone()) {
+            writeCompressed(blocksInFlight.removeFirst());
+        }
+        out.flush();
+    }
+
+    /**
+     * Compresses the partial block, waits for all blocks to be written, and closes the underlying stream.
+     * @throws IOException on I/O error
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try (OutputStream ignore = out) {
+            // an empty gzip file is not valid, so at least one member is written
+            if (blockLength > 0 || !anyBlockWritten) {
+                submitBlock();
+            }
+            drain();
+            out.flush();
+        } finally {
+            executor.shutdownNow();
+            block = null;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package io.github.mike10004.httpcapture;
+
+import com.google.common.base.MoreObjects;
+import org.littleshoot.proxy.impl.ServerGroup;
+import org.littleshoot.proxy.impl.ThreadPoolConfiguration;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Value class that specifies the sizes of the event loop thread pools of the capture proxy:
+ * the threads that accept client connections, the workers that handle client connections,
+ * and the workers that handle connections to remote servers. Each capture server start
+ * creates its own pools; to share one set of pools among many capture sessions, use
+ * {@link BasicCaptureServer#startMultiplexed(SessionResolver, Integer)}.
+ */
+public final class ProxyThreads {
+
+    private static final ProxyThreads DEFAULTS = builder().build();
+
+    private final int acceptorThreads;
+    private final int clientToProxyWorkerThreads;
+    private final int proxyToServerWorkerThreads;
+
+    private ProxyThreads(Builder builder) {
+        acceptorThreads = builder.acceptorThreads;
+        clientToProxyWorkerThreads = builder.clientToProxyWorkerThreads;
+        proxyToServerWorkerThreads = builder.proxyToServerWorkerThreads;
+    }
+
+    /**
+     * Returns an instance that specifies the proxy library's default pool sizes.
+     * @return the default sizes
+     */
+    public static ProxyThreads defaults() {
+        return DEFAULTS;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public int getAcceptorThreads() {
+        return acceptorThreads;
+    }
+
+    public int getClientToProxyWorkerThreads() {
+        return clientToProxyWorkerThreads;
+    }
+
+    public int getProxyToServerWorkerThreads() {
+        return proxyToServerWorkerThreads;
+    }
+
+    ThreadPoolConfiguration toThreadPoolConfiguration() {
+        return new ThreadPoolConfiguration()
+                .withAcceptorThreads(acceptorThreads)
+                .withClientToProxyWorkerThreads(clientToProxyWorkerThreads)
+                .withProxyToServerWorkerThreads(proxyToServerWorkerThreads);
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("acceptorThreads", acceptorThreads)
+                .add("clientToProxyWorkerThreads", clientToProxyWorkerThreads)
+                .add("proxyToServerWorkerThreads", proxyToServerWorkerThreads)
+                .toString();
+    }
+
+    public static final class Builder {
+
+        private int acceptorThreads = ServerGroup.DEFAULT_INCOMING_ACCEPTOR_THREADS;
+        private int clientToProxyWorkerThreads = ServerGroup.DEFAULT_INCOMING_WORKER_THREADS;
+        private int proxyToServerWorkerThreads = ServerGroup.DEFAULT_OUTGOING_WORKER_THREADS;
+
+        private Builder() {
+        }
+
+        /**
+         * Sets the number of threads that accept client connections.
+         * @param threads the number of threads
+         * @return this builder instance
+         */
+        public Builder acceptorThreads(int threads) {
+            checkArgument(threads > 0, "number of threads must be positive");
+            this.acceptorThreads = threads;
+            return this;
+        }
+
+        /**
+         * Sets the number of threads that handle client connections.
+         * @param threads the number of threads
+         * @return this builder instance
+         */
+        public Builder clientToProxyWorkerThreads(int threads) {
+            checkArgument(threads > 0, "number of threads must be positive");
+            this.clientToProxyWorkerThreads = threads;
+            return this;
+        }
+
+        /**
+         * Sets the number of threads that handle connections to remote servers.
+         * @param threads the number of threads
+         * @return this builder instance
+         */
+        public Builder proxyToServerWorkerThreads(int threads) {
+            checkArgument(threads > 0, "number of threads must be positive");
+            this.proxyToServerWorkerThreads = threads;
+            return this;
+        }
+
+        /**
+         * Sets the number of client-to-proxy and proxy-to-server worker threads to a
+         * multiple of the number of available processors.
+         * @param threadsPerProcessor the multiplier
+         * @return this builder instance
+         */
+        public Builder workerThreadsPerProcessor(int threadsPerProcessor) {
+            checkArgument(threadsPerProcessor > 0, "number of threads must be positive");
+            int threads = threadsPerProcessor * Runtime.getRuntime().availableProcessors();
+            return clientToProxyWorkerThreads(threads).proxyToServerWorkerThreads(threads);
+        }
+
+        public ProxyThreads build() {
+            return new ProxyThreads(this);
+        }
+    }
+}
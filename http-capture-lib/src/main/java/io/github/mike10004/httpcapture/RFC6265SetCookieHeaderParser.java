@@ -36,6 +36,7 @@ class RFC6265SetCookieHeaderParser implements SetCookieHeaderParser {
     // These private static variables must be treated as immutable and never exposed outside this class
     private static final BitSet TOKEN_DELIMS = TokenParser.INIT_BITSET(EQUAL_CHAR, PARAM_DELIMITER);
     private static final BitSet VALUE_DELIMS = TokenParser.INIT_BITSET(PARAM_DELIMITER);
+    private static final String HTTP_ONLY_ATTR = "httponly";
 
     private final ImmutableMap<String, CookieAttributeHandler> attribHandlerMap_;
     private final TokenParser tokenParser = TokenParser.INSTANCE;
@@ -75,6 +76,10 @@ class RFC6265SetCookieHeaderParser implements SetCookieHeaderParser {
             if (s == null) {
                 throw new MalformedCookieException("Header value is null");
             }
+            @Nullable List<Cookie> cookies = parseSimple(s, origin, creationDate);
+            if (cookies != null) {
+                return cookies;
+            }
             buffer = new CharArrayBuffer(s.length());
             buffer.append(s);
             cursor = new ParserCursor(0, buffer.length());
@@ -114,11 +119,118 @@ class RFC6265SetCookieHeaderParser implements SetCookieHeaderParser {
             }
             attribMap.put(paramName, paramValue);
         }
+        return Collections.singletonList(applyAttributes(cookie, attribMap));
+    }
+
+    /**
+     * Parses a header value without copying it to a buffer first. The value is
+     * scanned once, and the common case is handled without the token parser.
+     */
+    @Override
+    public List<Cookie> parse(String setCookieHeaderValue, CookieOrigin origin, @Nullable Instant creationDate) throws MalformedCookieException {
+        requireNonNull(setCookieHeaderValue, "Header value");
+        requireNonNull(origin, "Cookie origin");
+        @Nullable List<Cookie> cookies = parseSimple(setCookieHeaderValue, origin, creationDate);
+        if (cookies != null) {
+            return cookies;
+        }
+        return SetCookieHeaderParser.super.parse(setCookieHeaderValue, origin, creationDate);
+    }
+
+    /**
+     * Parses a header value in a single pass, taking the name, value, and attributes
+     * directly from the character sequence. The result is the same as that of the
+     * token parser, but this method gives up on input the token parser would
+     * transform or reject: a quoted cookie value, whitespace other than single spaces
+     * within a token, or a cookie name without a value.
+     * @return the cookies, or null if the value must be parsed by the token parser
+     */
+    @Nullable
+    List<Cookie> parseSimple(CharSequence s, CookieOrigin origin, @Nullable Instant creationDate) throws MalformedCookieException {
+        final int length = s.length();
+        final int nameEnd = indexOfDelimiter(s, 0, length, true);
+        final String name = simpleToken(s, 0, nameEnd, true);
+        if (name == null) {
+            return null;
+        }
+        if (name.isEmpty() || nameEnd == length) {
+            return Collections.emptyList();
+        }
+        if (s.charAt(nameEnd) != EQUAL_CHAR) {
+            return null;
+        }
+        final int valueEnd = indexOfDelimiter(s, nameEnd + 1, length, false);
+        final String value = simpleToken(s, nameEnd + 1, valueEnd, false);
+        if (value == null) {
+            return null;
+        }
+        final Map<String, String> attribMap = new LinkedHashMap<>();
+        int pos = valueEnd + 1;
+        while (pos < length) {
+            final int paramNameEnd = indexOfDelimiter(s, pos, length, true);
+            final String paramName = simpleToken(s, pos, paramNameEnd, true);
+            if (paramName == null) {
+                return null;
+            }
+            String paramValue = null;
+            pos = paramNameEnd + 1;
+            if (paramNameEnd < length && s.charAt(paramNameEnd) == EQUAL_CHAR) {
+                final int paramValueEnd = indexOfDelimiter(s, pos, length, false);
+                paramValue = simpleToken(s, pos, paramValueEnd, true);
+                if (paramValue == null) {
+                    return null;
+                }
+                pos = paramValueEnd + 1;
+            }
+            attribMap.put(paramName.toLowerCase(Locale.ROOT), paramValue);
+        }
+        final DeserializableCookie.Builder cookie = buildCookie(origin, name, value, creationDate);
+        return Collections.singletonList(applyAttributes(cookie, attribMap));
+    }
+
+    private static int indexOfDelimiter(CharSequence s, int from, int to, boolean equalsIsDelimiter) {
+        for (int i = from; i < to; i++) {
+            char ch = s.charAt(i);
+            if (ch == PARAM_DELIMITER || (equalsIsDelimiter && ch == EQUAL_CHAR)) {
+                return i;
+            }
+        }
+        return to;
+    }
+
+    /**
+     * Gets the token between two positions with surrounding whitespace removed.
+     * @return the token, or null if the token parser would produce something other than the verbatim text
+     */
+    @Nullable
+    private static String simpleToken(CharSequence s, int from, int to, boolean quotesAllowed) {
+        while (from < to && TokenParser.isWhitespace(s.charAt(from))) {
+            from++;
+        }
+        while (to > from && TokenParser.isWhitespace(s.charAt(to - 1))) {
+            to--;
+        }
+        char previous = 0;
+        for (int i = from; i < to; i++) {
+            char ch = s.charAt(i);
+            if ((ch == '"' && !quotesAllowed) || (TokenParser.isWhitespace(ch) && (ch != TokenParser.SP || previous == TokenParser.SP))) {
+                return null;
+            }
+            previous = ch;
+        }
+        return s.subSequence(from, to).toString();
+    }
+
+    private DeserializableCookie applyAttributes(DeserializableCookie.Builder cookie, Map<String, String> attribMap) throws MalformedCookieException {
         // Ignore 'Expires' if 'Max-Age' is present
         if (attribMap.containsKey(ClientCookie.MAX_AGE_ATTR)) {
             attribMap.remove(ClientCookie.EXPIRES_ATTR);
         }
         cookie.attributes(attribMap);
+        // HttpOnly has no value, so it is not kept among the attributes
+        if (attribMap.containsKey(HTTP_ONLY_ATTR)) {
+            cookie.httpOnly(true);
+        }
         for (final Map.Entry<String, String> entry: attribMap.entrySet()) {
             final String paramName = entry.getKey().toLowerCase(Locale.ROOT);
             final String paramValue = entry.getValue();
@@ -127,8 +239,7 @@ class RFC6265SetCookieHeaderParser implements SetCookieHeaderParser {
                 handler.parse(cookie, paramValue);
             }
         }
-
-        return Collections.singletonList(cookie.build());
+        return cookie.build();
     }
 
     static String getDefaultPath(final CookieOrigin origin) {
@@ -0,0 +1,394 @@
+package io.github.mike10004.httpcapture;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.CountingOutputStream;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import net.lightbody.bmp.core.har.HarEntry;
+import net.lightbody.bmp.core.har.HarLog;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkState;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * HAR stream writer that writes entries to a series of segment files in a directory.
+ * Each segment is a standalone HAR document. A segment is completed and a new one is
+ * started when a limit of the {@link RotationPolicy} is reached. Completed segments are
+ * finished, flushed to the storage device, and added to an index file on a background
+ * thread, so that the proxy threads are not held up. The index file lists the segments
+ * and the time range of the entries in each.
+ *
+ * <p>Segment files are named {@code <prefix>-00001.har}, {@code <prefix>-00002.har},
+ * and so on, and the index file is named {@code <prefix>-index.json}. A segment file
+ * is not created until the first entry for it arrives.
+ */
+public class RollingHarWriter implements HarStreamWriter {
+
+    private static final Logger log = LoggerFactory.getLogger(RollingHarWriter.class);
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private static final long MIN_AGE_CHECK_INTERVAL_MILLIS = 100;
+
+    private final Path directory;
+    private final String prefix;
+    private final Charset charset;
+    private final RotationPolicy policy;
+    private final ScheduledExecutorService executor;
+
+    private transient final Object lock = new Object();
+    private HarLog headerLog;
+    private boolean started;
+    private boolean finished;
+    private int entryCount;
+    private int segmentCount;
+    @Nullable
+    private Segment current;
+    private final List<Future<?>> completions = new ArrayList<>();
+
+    /**
+     * Segments completed so far, in order; accessed only on the executor thread.
+     */
+    private final List<HarSegment> completed = new ArrayList<>();
+
+    /**
+     * Constructs an instance.
+     * @param directory directory in which segment files and the index are written
+     * @param prefix prefix of segment and index filenames
+     * @param charset charset of the files
+     * @param policy rotation policy
+     */
+    public RollingHarWriter(Path directory, String prefix, Charset charset, RotationPolicy policy) {
+        this.directory = requireNonNull(directory, "directory");
+        this.prefix = requireNonNull(prefix, "prefix");
+        this.charset = requireNonNull(charset, "charset");
+        this.policy = requireNonNull(policy, "policy");
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("http-capture-segments-" + prefix + "-%d")
+                .build());
+    }
+
+    /**
+     * Segment that is open for writing.
+     */
+    private class Segment {
+
+        public final File file;
+        public final CountingOutputStream byteCounter;
+        public final StreamingHarWriter writer;
+        public final Instant opened;
+        @Nullable
+        private Instant earliestStart;
+        @Nullable
+        private Instant latestEnd;
+
+        public Segment(File file) throws IOException {
+            this.file = file;
+            byteCounter = new CountingOutputStream(new SyncOnCloseOutputStream(new FileOutputStream(file)));
+            writer = new StreamingHarWriter(new OutputStreamWriter(byteCounter, charset));
+            opened = Instant.now();
+        }
+
+        public void append(HarEntry entry) throws IOException {
+            writer.append(entry);
+            Date startedDateTime = entry.getStartedDateTime();
+            if (startedDateTime != null) {
+                Instant start = startedDateTime.toInstant();
+                Instant end = start.plusMillis(Math.max(0, entry.getTime()));
+                if (earliestStart == null || start.isBefore(earliestStart)) {
+                    earliestStart = start;
+                }
+                if (latestEnd == null || end.isAfter(latestEnd)) {
+                    latestEnd = end;
+                }
+            }
+        }
+
+        public boolean isFull(Instant now) {
+            if (writer.getEntryCount() == 0) {
+                return false;
+            }
+            if (writer.getEntryCount() >= policy.getMaxEntries() || byteCounter.getCount() >= policy.getMaxBytes()) {
+                return true;
+            }
+            Duration maxAge = policy.getMaxAge();
+            return maxAge != null && !opened.plus(maxAge).isAfter(now);
+        }
+
+        public HarSegment finish() throws IOException {
+            writer.finish(new HarLog());
+            return new HarSegment(file.getName(), writer.getEntryCount(), byteCounter.getCount(),
+                    earliestStart == null ? null : earliestStart.toString(),
+                    latestEnd == null ? null : latestEnd.toString());
+        }
+    }
+
+    /**
+     * Output stream that forces written content to the storage device before it is closed.
+     */
+    private static class SyncOnCloseOutputStream extends FilterOutputStream {
+
+        private final FileOutputStream fileOut;
+        private boolean closed;
+
+        public SyncOnCloseOutputStream(FileOutputStream fileOut) {
+            super(fileOut);
+            this.fileOut = fileOut;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            fileOut.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                fileOut.flush();
+                fileOut.getFD().sync();
+            } finally {
+                fileOut.close();
+            }
+        }
+    }
+
+    @Override
+    public void start(HarLog harLog) throws IOException {
+        synchronized (lock) {
+            checkState(!started, "already started");
+            Files.createDirectories(directory);
+            headerLog = new HarLog();
+            headerLog.setCreator(harLog.getCreator());
+            headerLog.setBrowser(harLog.getBrowser());
+            started = true;
+        }
+        Duration maxAge = policy.getMaxAge();
+        if (maxAge != null) {
+            long interval = Math.max(MIN_AGE_CHECK_INTERVAL_MILLIS, maxAge.toMillis() / 10);
+            executor.scheduleWithFixedDelay(this::rotateIfFull, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Writes an entry to the current segment, opening a new segment if necessary.
+     * @param entry the entry
+     * @throws IOException on I/O error
+     */
+    public void append(HarEntry entry) throws IOException {
+        synchronized (lock) {
+            checkState(started, "not yet started");
+            checkState(!finished, "already finished");
+            if (current == null) {
+                current = openSegment();
+            }
+            current.append(entry);
+            entryCount++;
+            if (current.isFull(Instant.now())) {
+                rotate();
+            }
+        }
+    }
+
+    @Override
+    public void entryCompleted(HarEntry entry) {
+        try {
+            append(entry);
+        } catch (IOException | RuntimeException e) {
+            log.warn("failed to write entry for " + (entry.getRequest() == null ? null : entry.getRequest().getUrl()), e);
+        }
+    }
+
+    private Segment openSegment() throws IOException {
+        segmentCount++;
+        File file = directory.resolve(String.format("%s-%05d.har", prefix, segmentCount)).toFile();
+        Segment segment = new Segment(file);
+        segment.writer.start(headerLog);
+        log.debug("opened segment {}", file);
+        return segment;
+    }
+
+    private void rotateIfFull() {
+        synchronized (lock) {
+            if (!finished && current != null && current.isFull(Instant.now())) {
+                rotate();
+            }
+        }
+    }
+
+    /**
+     * Schedules completion of the current segment. Must be invoked while holding the lock.
+     */
+    private void rotate() {
+        Segment segment = requireNonNull(current);
+        current = null;
+        completions.add(executor.submit(() -> {
+            complete(segment);
+            return null;
+        }));
+    }
+
+    private void complete(Segment segment) throws IOException {
+        HarSegment info = segment.finish();
+        completed.add(info);
+        writeIndex(ImmutableList.copyOf(completed));
+        log.debug("completed {}", info);
+    }
+
+    private void writeIndex(List<HarSegment> segments) throws IOException {
+        Path indexFile = getIndexFile();
+        Path tempFile = Files.createTempFile(directory, prefix, ".tmp");
+        try {
+            Map<String, Object> index = new LinkedHashMap<>();
+            index.put("segments", segments);
+            try (OutputStream out = new SyncOnCloseOutputStream(new FileOutputStream(tempFile.toFile()))) {
+                OBJECT_MAPPER.writerWithDefaultPrettyPrinter().writeValue(out, index);
+            }
+            Files.move(tempFile, indexFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * Gets the pathname of the index file.
+     * @return the index file pathname
+     */
+    public Path getIndexFile() {
+        return directory.resolve(prefix + "-index.json");
+    }
+
+    /**
+     * Writes remaining entries to the current segment, completes it, and waits
+     * until all segments have been completed and the index has been written.
+     * @param harLog the log from which remaining entries are taken; pages are not written
+     * @throws IOException if completing any segment failed
+     */
+    @Override
+    public void finish(HarLog harLog) throws IOException {
+        List<Future<?>> pending;
+        synchronized (lock) {
+            if (finished) {
+                return;
+            }
+            if (!started) {
+                start(harLog);
+            }
+            try {
+                if (current == null && (segmentCount == 0 || !harLog.getEntries().isEmpty())) {
+                    current = openSegment();
+                }
+                for (HarEntry entry : harLog.getEntries()) {
+                    current.append(entry);
+                    entryCount++;
+                }
+            } finally {
+                finished = true;
+                if (current != null) {
+                    rotate();
+                }
+            }
+            pending = new ArrayList<>(completions);
+        }
+        try {
+            IOException failure = null;
+            for (Future<?> completion : pending) {
+                try {
+                    completion.get();
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = new IOException("failed to complete segment", e.getCause());
+                    } else {
+                        failure.addSuppressed(e.getCause());
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while waiting for segments to be completed", e);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Gets the segments completed so far. Segments are completed asynchronously,
+     * so this list may lag behind rotation until {@link #finish(HarLog)} returns.
+     * @return list of completed segments
+     * @throws IOException if the index could not be read
+     */
+    public List<HarSegment> getCompletedSegments() throws IOException {
+        File indexFile = getIndexFile().toFile();
+        if (!indexFile.isFile()) {
+            return Collections.emptyList();
+        }
+        return readIndex(indexFile);
+    }
+
+    /**
+     * Reads the segments listed in an index file.
+     * @param indexFile the index file
+     * @return the list of segments
+     * @throws IOException on I/O error
+     */
+    public static List<HarSegment> readIndex(File indexFile) throws IOException {
+        HarSegment[] segments = OBJECT_MAPPER.treeToValue(OBJECT_MAPPER.readTree(indexFile).path("segments"), HarSegment[].class);
+        return ImmutableList.copyOf(segments);
+    }
+
+    @Override
+    public int getEntryCount() {
+        synchronized (lock) {
+            return entryCount;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        finish(new HarLog());
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("directory", directory)
+                .add("prefix", prefix)
+                .add("policy", policy)
+                .toString();
+    }
+}
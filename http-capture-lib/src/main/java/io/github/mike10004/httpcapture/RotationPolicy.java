@@ -0,0 +1,116 @@
+package io.github.mike10004.httpcapture;
+
+import com.google.common.base.MoreObjects;
+
+import javax.annotation.Nullable;
+import java.time.Duration;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Value class that specifies when a {@link RollingHarWriter} completes the current
+ * segment and starts a new one. A segment is completed when any of the limits
+ * is reached. A segment is never completed before it contains at least one entry.
+ */
+public final class RotationPolicy {
+
+    private final int maxEntries;
+    private final long maxBytes;
+    @Nullable
+    private final Duration maxAge;
+
+    private RotationPolicy(Builder builder) {
+        maxEntries = builder.maxEntries;
+        maxBytes = builder.maxBytes;
+        maxAge = builder.maxAge;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Gets the maximum number of entries in a segment.
+     * @return the entry limit
+     */
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * Gets the size in bytes after which a segment is completed. Because entries are
+     * not split across segments, a segment may exceed this size by up to the size of one entry.
+     * @return the size limit
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Gets the maximum time between the opening of a segment and its completion.
+     * @return the age limit, or null if segments are not completed on the basis of age
+     */
+    @Nullable
+    public Duration getMaxAge() {
+        return maxAge;
+    }
+
+    @Override
+    public String toString() {
+        MoreObjects.ToStringHelper h = MoreObjects.toStringHelper(this);
+        if (maxEntries != Integer.MAX_VALUE) h.add("maxEntries", maxEntries);
+        if (maxBytes != Long.MAX_VALUE) h.add("maxBytes", maxBytes);
+        if (maxAge != null) h.add("maxAge", maxAge);
+        return h.toString();
+    }
+
+    public static final class Builder {
+
+        private int maxEntries = Integer.MAX_VALUE;
+        private long maxBytes = Long.MAX_VALUE;
+        @Nullable
+        private Duration maxAge;
+
+        private Builder() {
+        }
+
+        /**
+         * Sets the maximum number of entries in a segment.
+         * @param maxEntries the limit
+         * @return this builder instance
+         */
+        public Builder maxEntries(int maxEntries) {
+            checkArgument(maxEntries > 0, "maxEntries must be positive: %s", maxEntries);
+            this.maxEntries = maxEntries;
+            return this;
+        }
+
+        /**
+         * Sets the size in bytes after which a segment is completed.
+         * @param maxBytes the limit
+         * @return this builder instance
+         */
+        public Builder maxBytes(long maxBytes) {
+            checkArgument(maxBytes > 0, "maxBytes must be positive: %s", maxBytes);
+            this.maxBytes = maxBytes;
+            return this;
+        }
+
+        /**
+         * Sets the maximum time a segment remains open.
+         * @param maxAge the limit
+         * @return this builder instance
+         */
+        public Builder maxAge(Duration maxAge) {
+            requireNonNull(maxAge, "maxAge");
+            checkArgument(!maxAge.isNegative() && !maxAge.isZero(), "maxAge must be positive: %s", maxAge);
+            this.maxAge = maxAge;
+            return this;
+        }
+
+        public RotationPolicy build() {
+            return new RotationPolicy(this);
+        }
+    }
+}
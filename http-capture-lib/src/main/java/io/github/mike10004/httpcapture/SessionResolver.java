@@ -0,0 +1,128 @@
+package io.github.mike10004.httpcapture;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.util.AttributeKey;
+
+import javax.annotation.Nullable;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.function.Function;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Interface of a service that determines the capture session to which a request belongs,
+ * for use with a server that multiplexes sessions on one proxy port.
+ * @see BasicCaptureServer#startMultiplexed(SessionResolver, Integer)
+ */
+public interface SessionResolver {
+
+    /**
+     * Resolves the session of a request. Requests sent through an HTTPS tunnel arrive on the
+     * same client channel as the CONNECT request that opened the tunnel, so implementations
+     * may remember the session of a channel.
+     * @param originalRequest the request
+     * @param ctx the client channel context
+     * @return the session ID, or null if the session cannot be determined
+     */
+    @Nullable
+    String resolveSession(HttpRequest originalRequest, ChannelHandlerContext ctx);
+
+    /**
+     * Creates the response sent to a client whose request does not belong to an open session.
+     * The default implementation creates a 403 response.
+     * @param originalRequest the request
+     * @return the response
+     */
+    default FullHttpResponse createRejection(HttpRequest originalRequest) {
+        FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.FORBIDDEN);
+        HttpUtil.setContentLength(response, 0);
+        return response;
+    }
+
+    /**
+     * Returns a resolver that takes the session ID from the username of proxy credentials
+     * sent with the {@code Proxy-Authorization} header using the Basic scheme. The password
+     * is ignored. Requests without credentials are answered with a 407 response, prompting
+     * the client to send them.
+     * @return the resolver
+     */
+    static SessionResolver proxyCredentials() {
+        return ProxyCredentialsSessionResolver.INSTANCE;
+    }
+
+    /**
+     * Returns a resolver that maps the client's address to a session ID. This is useful when
+     * each session's client connects from a distinct loopback address or a known set of local ports.
+     * @param mapping function that returns the session ID of a client address, or null if it is unknown
+     * @return the resolver
+     */
+    static SessionResolver byClientAddress(Function<? super InetSocketAddress, String> mapping) {
+        requireNonNull(mapping, "mapping");
+        return (originalRequest, ctx) -> {
+            SocketAddress address = ctx.channel().remoteAddress();
+            return address instanceof InetSocketAddress ? mapping.apply((InetSocketAddress) address) : null;
+        };
+    }
+
+}
+
+class ProxyCredentialsSessionResolver implements SessionResolver {
+
+    public static final ProxyCredentialsSessionResolver INSTANCE = new ProxyCredentialsSessionResolver();
+
+    private static final AttributeKey<String> SESSION_ID_ATTRIBUTE = AttributeKey.valueOf(ProxyCredentialsSessionResolver.class.getName() + ".sessionId");
+    private static final String SCHEME = "Basic ";
+
+    private ProxyCredentialsSessionResolver() {
+    }
+
+    @Nullable
+    @Override
+    public String resolveSession(HttpRequest originalRequest, ChannelHandlerContext ctx) {
+        @Nullable String sessionId = parseUsername(originalRequest.headers().get(HttpHeaderNames.PROXY_AUTHORIZATION));
+        if (sessionId != null) {
+            ctx.channel().attr(SESSION_ID_ATTRIBUTE).set(sessionId);
+            return sessionId;
+        }
+        return ctx.channel().attr(SESSION_ID_ATTRIBUTE).get();
+    }
+
+    @Nullable
+    static String parseUsername(@Nullable String headerValue) {
+        if (headerValue == null || !headerValue.regionMatches(true, 0, SCHEME, 0, SCHEME.length())) {
+            return null;
+        }
+        String credentials;
+        try {
+            credentials = new String(Base64.getDecoder().decode(headerValue.substring(SCHEME.length()).trim()), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        int colon = credentials.indexOf(':');
+        String username = colon < 0 ? credentials : credentials.substring(0, colon);
+        return username.isEmpty() ? null : username;
+    }
+
+    @Override
+    public FullHttpResponse createRejection(HttpRequest originalRequest) {
+        FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.PROXY_AUTHENTICATION_REQUIRED);
+        response.headers().set(HttpHeaderNames.PROXY_AUTHENTICATE, "Basic realm=\"http-capture\"");
+        HttpUtil.setContentLength(response, 0);
+        return response;
+    }
+
+    @Override
+    public String toString() {
+        return "SessionResolver{proxyCredentials}";
+    }
+}
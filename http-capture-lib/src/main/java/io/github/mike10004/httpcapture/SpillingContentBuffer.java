@@ -0,0 +1,222 @@
+package io.github.mike10004.httpcapture;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Optional;
+import com.google.common.io.ByteSource;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Content buffer that holds content in a heap buffer obtained from a Netty allocator
+ * until the size exceeds a threshold, and then moves the content to a temporary file.
+ * Subsequent content is appended to the file. The file is deleted when the buffer is closed.
+ */
+public class SpillingContentBuffer implements ContentBuffer {
+
+    private static final Logger log = LoggerFactory.getLogger(SpillingContentBuffer.class);
+
+    private static final int INITIAL_CAPACITY = 8 * 1024;
+
+    private final ByteBufAllocator allocator;
+    private final long spillThresholdBytes;
+    @Nullable
+    private final Path spillDirectory;
+
+    private transient final Object lock = new Object();
+
+    /**
+     * Memory-resident content. Null until content is appended and after the content is spilled.
+     */
+    @Nullable
+    private ByteBuf memory;
+
+    @Nullable
+    private File spillFile;
+
+    @Nullable
+    private FileChannel spillChannel;
+
+    private long size;
+    private boolean closed;
+
+    /**
+     * Constructs an instance.
+     * @param allocator allocator from which the memory buffer is obtained
+     * @param spillThresholdBytes maximum number of bytes to hold in memory
+     * @param spillDirectory directory in which to create the temporary file; may be null only if content is never to be spilled
+     */
+    public SpillingContentBuffer(ByteBufAllocator allocator, long spillThresholdBytes, @Nullable Path spillDirectory) {
+        this.allocator = requireNonNull(allocator);
+        this.spillThresholdBytes = spillThresholdBytes;
+        this.spillDirectory = spillDirectory;
+    }
+
+    @Override
+    public void append(ByteBuf content) throws IOException {
+        int length = content.readableBytes();
+        if (length == 0) {
+            return;
+        }
+        synchronized (lock) {
+            if (closed) {
+                throw new IOException("buffer already closed");
+            }
+            if (spillChannel == null && spillDirectory != null && size + length > spillThresholdBytes) {
+                spill();
+            }
+            if (spillChannel != null) {
+                ByteBuffer nioBuffer = content.nioBuffer(content.readerIndex(), length);
+                while (nioBuffer.hasRemaining()) {
+                    spillChannel.write(nioBuffer);
+                }
+            } else {
+                if (memory == null) {
+                    memory = allocator.heapBuffer(Math.max(INITIAL_CAPACITY, length));
+                }
+                memory.writeBytes(content, content.readerIndex(), length);
+            }
+            size += length;
+        }
+    }
+
+    private void spill() throws IOException {
+        requireNonNull(spillDirectory);
+        File file = File.createTempFile("http-capture-content", ".tmp", spillDirectory.toFile());
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+        } catch (IOException | RuntimeException e) {
+            deleteQuietly(file);
+            throw e;
+        }
+        spillFile = file;
+        spillChannel = channel;
+        if (memory != null) {
+            try {
+                while (memory.isReadable()) {
+                    memory.readBytes(channel, memory.readableBytes());
+                }
+            } finally {
+                memory.release();
+                memory = null;
+            }
+        }
+        log.debug("spilled {} bytes to {}", size, file);
+    }
+
+    @Override
+    public long size() {
+        synchronized (lock) {
+            return size;
+        }
+    }
+
+    /**
+     * Checks whether the content has been moved to a file.
+     * @return true if the content is in a file
+     */
+    public boolean isSpilled() {
+        synchronized (lock) {
+            return spillFile != null;
+        }
+    }
+
+    @Override
+    public ByteSource asByteSource() {
+        return new ByteSource() {
+            @Override
+            public InputStream openStream() throws IOException {
+                synchronized (lock) {
+                    if (closed) {
+                        throw new IOException("buffer already closed");
+                    }
+                    if (spillFile != null) {
+                        return Files.newInputStream(spillFile.toPath());
+                    }
+                    if (memory == null) {
+                        return ByteSource.empty().openStream();
+                    }
+                    return new ByteBufInputStream(memory.duplicate());
+                }
+            }
+
+            @Override
+            public Optional<Long> sizeIfKnown() {
+                return Optional.of(SpillingContentBuffer.this.size());
+            }
+
+            @Override
+            public byte[] read() throws IOException {
+                synchronized (lock) {
+                    if (!closed && spillFile == null) {
+                        if (memory == null) {
+                            return new byte[0];
+                        }
+                        byte[] bytes = new byte[memory.readableBytes()];
+                        memory.getBytes(memory.readerIndex(), bytes);
+                        return bytes;
+                    }
+                }
+                return super.read();
+            }
+        };
+    }
+
+    @Override
+    public void close() {
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (memory != null) {
+                memory.release();
+                memory = null;
+            }
+            if (spillChannel != null) {
+                try {
+                    spillChannel.close();
+                } catch (IOException e) {
+                    log.info("failed to close channel to {}: {}", spillFile, e.toString());
+                }
+                spillChannel = null;
+            }
+            if (spillFile != null) {
+                deleteQuietly(spillFile);
+            }
+        }
+    }
+
+    private static void deleteQuietly(File file) {
+        if (!file.delete() && file.exists()) {
+            log.warn("failed to delete {}", file);
+        }
+    }
+
+    @Override
+    public String toString() {
+        synchronized (lock) {
+            return MoreObjects.toStringHelper(this)
+                    .add("size", size)
+                    .add("spillThresholdBytes", spillThresholdBytes)
+                    .add("spillFile", spillFile)
+                    .add("closed", closed)
+                    .toString();
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package io.github.mike10004.httpcapture;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import net.lightbody.bmp.core.har.HarEntry;
+import net.lightbody.bmp.core.har.HarLog;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * HAR entry sink that writes entries to a character stream as they arrive,
+ * instead of keeping them in memory until the capture session ends. The
+ * document written is a valid HAR once {@link #finish(HarLog)} or {@link #close()}
+ * has been invoked. Because entries are written in order of completion, the
+ * {@code pages} and {@code comment} fields of the log are written after the entries.
+ */
+public class StreamingHarWriter implements HarStreamWriter {
+
+    private static final Logger log = LoggerFactory.getLogger(StreamingHarWriter.class);
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private final JsonGenerator generator;
+    private transient final Object lock = new Object();
+    private boolean started;
+    private boolean finished;
+    private int entryCount;
+
+    public StreamingHarWriter(Writer out) throws IOException {
+        generator = OBJECT_MAPPER.getFactory().createGenerator(out);
+    }
+
+    /**
+     * Writes the beginning of the HAR document, up to and including the start of the entries array.
+     * @param harLog log from which version, creator, and browser fields are taken
+     * @throws IOException on I/O error
+     */
+    @Override
+    public void start(HarLog harLog) throws IOException {
+        synchronized (lock) {
+            checkState(!started, "already started");
+            generator.writeStartObject();
+            generator.writeFieldName("log");
+            generator.writeStartObject();
+            generator.writeStringField("version", harLog.getVersion());
+            if (harLog.getCreator() != null) {
+                generator.writeObjectField("creator", harLog.getCreator());
+            }
+            if (harLog.getBrowser() != null) {
+                generator.writeObjectField("browser", harLog.getBrowser());
+            }
+            generator.writeArrayFieldStart("entries");
+            generator.flush();
+            started = true;
+        }
+    }
+
+    /**
+     * Writes an entry and flushes the underlying stream.
+     * @param entry the entry
+     * @throws IOException on I/O error
+     */
+    public void append(HarEntry entry) throws IOException {
+        synchronized (lock) {
+            checkState(started, "not yet started");
+            checkState(!finished, "already finished");
+            generator.writeObject(entry);
+            generator.flush();
+            entryCount++;
+        }
+    }
+
+    @Override
+    public void entryCompleted(HarEntry entry) {
+        try {
+            append(entry);
+        } catch (IOException | RuntimeException e) {
+            log.warn("failed to write entry for " + (entry.getRequest() == null ? null : entry.getRequest().getUrl()), e);
+        }
+    }
+
+    /**
+     * Writes the remainder of the HAR document and closes the underlying stream.
+     * Entries that the argument log contains are written before the entries array
+     * is closed; normally these are only the entries that were not streamed, such as
+     * those created for failed {@code CONNECT} requests.
+     * @param harLog the log from which remaining entries and the pages are taken
+     * @throws IOException on I/O error
+     */
+    @Override
+    public void finish(HarLog harLog) throws IOException {
+        synchronized (lock) {
+            if (finished) {
+                return;
+            }
+            if (!started) {
+                start(harLog);
+            }
+            try {
+                for (HarEntry entry : harLog.getEntries()) {
+                    append(entry);
+                }
+                generator.writeEndArray();
+                generator.writeObjectField("pages", harLog.getPages());
+                if (harLog.getComment() != null) {
+                    generator.writeStringField("comment", harLog.getComment());
+                }
+                generator.writeEndObject();
+                generator.writeEndObject();
+            } finally {
+                finished = true;
+                generator.close();
+            }
+        }
+    }
+
+    /**
+     * Gets the number of entries written so far.
+     * @return the count of entries
+     */
+    @Override
+    public int getEntryCount() {
+        synchronized (lock) {
+            return entryCount;
+        }
+    }
+
+    /**
+     * Finishes the document with an empty log, if it has not been finished already.
+     * @throws IOException on I/O error
+     */
+    @Override
+    public void close() throws IOException {
+        finish(new HarLog());
+    }
+}
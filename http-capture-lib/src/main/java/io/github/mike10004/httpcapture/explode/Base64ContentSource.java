@@ -0,0 +1,129 @@
+package io.github.mike10004.httpcapture.explode;
+
+import com.google.common.base.Optional;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.ByteSource;
+import com.google.common.io.CharSource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Base64;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Byte source that supplies the decoded content of a base64-encoded string. In addition
+ * to the stream interface, the content can be decoded in large blocks straight into a
+ * channel, which avoids the several layers of small buffers between a decoding stream
+ * and a file.
+ */
+class Base64ContentSource extends ByteSource {
+
+    /**
+     * Default number of encoded characters decoded at a time. Must be a multiple of 4.
+     */
+    static final int DEFAULT_BLOCK_CHARS = 256 * 1024;
+
+    private final String text;
+    private final int blockChars;
+
+    public Base64ContentSource(String text) {
+        this(text, DEFAULT_BLOCK_CHARS);
+    }
+
+    Base64ContentSource(String text, int blockChars) {
+        checkArgument(blockChars > 0 && blockChars % 4 == 0, "block size must be a positive multiple of 4: %s", blockChars);
+        this.text = requireNonNull(text, "text");
+        this.blockChars = blockChars;
+    }
+
+    @Override
+    public InputStream openStream() throws IOException {
+        return BaseEncoding.base64().decodingSource(CharSource.wrap(text)).openStream();
+    }
+
+    /**
+     * Computes the length of the decoded content from the length and padding of the text,
+     * without decoding it. The size is absent if the text length is not valid for base64.
+     * @return the decoded size
+     */
+    @Override
+    public Optional<Long> sizeIfKnown() {
+        int length = text.length();
+        long size = length / 4 * 3L;
+        switch (length % 4) {
+            case 0:
+                if (length > 0 && text.charAt(length - 1) == '=') {
+                    size -= text.charAt(length - 2) == '=' ? 2 : 1;
+                }
+                break;
+            case 2:
+                size += 1;
+                break;
+            case 3:
+                size += 2;
+                break;
+            default:
+                return Optional.absent();
+        }
+        return Optional.of(size);
+    }
+
+    /**
+     * Decodes the content into a file, replacing the file if it exists.
+     * @param file the file
+     * @return number of bytes written
+     * @throws IOException on I/O error or if the text is not valid base64
+     */
+    public long writeTo(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            return writeTo(channel);
+        }
+    }
+
+    /**
+     * Decodes the content into a channel. Each block of the text is converted to bytes
+     * and decoded into a reusable buffer, which is written to the channel directly.
+     * @param channel the channel
+     * @return number of bytes written
+     * @throws IOException on I/O error or if the text is not valid base64
+     */
+    public long writeTo(WritableByteChannel channel) throws IOException {
+        Base64.Decoder decoder = Base64.getDecoder();
+        int length = text.length();
+        byte[] encoded = new byte[Math.min(blockChars, length)];
+        byte[] decoded = new byte[encoded.length / 4 * 3 + 3];
+        long total = 0;
+        for (int start = 0; start < length; start += blockChars) {
+            int end = Math.min(length, start + blockChars);
+            if (end - start != encoded.length) {
+                encoded = new byte[end - start];
+            }
+            for (int i = start; i < end; i++) {
+                char ch = text.charAt(i);
+                if (ch > 0x7f) {
+                    throw new IOException("invalid base64 character at position " + i);
+                }
+                encoded[i - start] = (byte) ch;
+            }
+            int count;
+            try {
+                count = decoder.decode(encoded, decoded);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("invalid base64 content in block at position " + start, e);
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(decoded, 0, count);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            total += count;
+        }
+        return total;
+    }
+}
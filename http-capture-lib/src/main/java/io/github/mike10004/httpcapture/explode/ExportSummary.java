@@ -0,0 +1,79 @@
+package io.github.mike10004.httpcapture.explode;
+
+import java.time.Duration;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Value class that describes the outcome of an export performed by a {@link HarExporter}.
+ */
+public final class ExportSummary {
+
+    private static final double BYTES_PER_MEGABYTE = 1024 * 1024;
+
+    private final int entryCount;
+    private final long byteCount;
+    private final Duration elapsed;
+
+    /**
+     * Constructs an instance.
+     * @param entryCount number of entries exported
+     * @param byteCount number of response content bytes written
+     * @param elapsed duration of the export
+     */
+    public ExportSummary(int entryCount, long byteCount, Duration elapsed) {
+        this.entryCount = entryCount;
+        this.byteCount = byteCount;
+        this.elapsed = requireNonNull(elapsed, "elapsed");
+    }
+
+    /**
+     * Gets the number of entries for which files were written.
+     * @return the entry count
+     */
+    public int getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * Gets the number of bytes of response content written.
+     * @return the byte count
+     */
+    public long getByteCount() {
+        return byteCount;
+    }
+
+    /**
+     * Gets the time taken by the export, including reading the HAR.
+     * @return the elapsed time
+     */
+    public Duration getElapsed() {
+        return elapsed;
+    }
+
+    private double getElapsedSeconds() {
+        return Math.max(1L, elapsed.toNanos()) / 1e9;
+    }
+
+    /**
+     * Gets the rate at which entries were exported.
+     * @return entries per second
+     */
+    public double getEntriesPerSecond() {
+        return entryCount / getElapsedSeconds();
+    }
+
+    /**
+     * Gets the rate at which response content was written, in units of 2<sup>20</sup> bytes.
+     * @return megabytes per second
+     */
+    public double getMegabytesPerSecond() {
+        return byteCount / BYTES_PER_MEGABYTE / getElapsedSeconds();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d entries, %d bytes in %d ms (%.1f entries/s, %.2f MB/s)",
+                entryCount, byteCount, elapsed.toMillis(), getEntriesPerSecond(), getMegabytesPerSecond());
+    }
+}
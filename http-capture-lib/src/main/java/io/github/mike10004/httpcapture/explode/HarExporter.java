@@ -1,30 +1,48 @@
 package io.github.mike10004.httpcapture.explode;
 
+import com.fasterxml.jackson.core.Base64Variant;
+import com.fasterxml.jackson.core.Base64Variants;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.google.common.base.CharMatcher;
+import com.google.common.base.Stopwatch;
 import com.google.common.base.Strings;
-import com.google.common.io.BaseEncoding;
 import com.google.common.io.ByteSource;
 import com.google.common.io.CharSource;
 import com.google.common.io.Files;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
 import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
 import com.google.gson.JsonPrimitive;
+import io.github.mike10004.httpcapture.BodyStore;
+import io.github.mike10004.httpcapture.Compression;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
-import java.io.Reader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.net.URI;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static java.util.Objects.requireNonNull;
 
 /*
@@ -56,64 +74,474 @@ import static java.util.Objects.requireNonNull;
  */
 public class HarExporter {
 
-    public void export(CharSource harSource, Path outputRoot) throws IOException {
-        try (Reader reader = harSource.openStream()) {
-            export(new JsonParser().parse(reader), outputRoot);
-        }
+    /**
+     * Name of the custom field in a response content object that contains the hash of
+     * content kept in a body store.
+     */
+    static final String FIELD_CONTENT_HASH = "_contentHash";
+
+    /**
+     * Factory of parsers that accept the same relaxed syntax as a lenient Gson reader.
+     */
+    private static final JsonFactory JSON_FACTORY = new JsonFactory()
+            .enable(JsonParser.Feature.ALLOW_COMMENTS)
+            .enable(JsonParser.Feature.ALLOW_YAML_COMMENTS)
+            .enable(JsonParser.Feature.ALLOW_SINGLE_QUOTES)
+            .enable(JsonParser.Feature.ALLOW_UNQUOTED_FIELD_NAMES)
+            .enable(JsonParser.Feature.ALLOW_NON_NUMERIC_NUMBERS);
+
+    /**
+     * Variant used to decode base64 content text as it is read. Padding is optional, as it is
+     * for the decoder used by {@link Base64ContentSource}.
+     */
+    private static final Base64Variant CONTENT_BASE64 = new Base64Variant(Base64Variants.MIME_NO_LINEFEEDS, "content", false, '=', Integer.MAX_VALUE);
+
+    @Nullable
+    private final BodyStore bodyStore;
+
+    private final int threads;
+
+    public HarExporter() {
+        this(null);
     }
 
-    protected void export(JsonElement harObject, Path outputRoot) throws IOException {
-        //noinspection ResultOfMethodCallIgnored
-        outputRoot.toFile().mkdirs();
-        if (!outputRoot.toFile().isDirectory()) {
-            throw new IOException("failed to create output root " + outputRoot);
+    /**
+     * Constructs an instance that resolves content references against a body store.
+     * @param bodyStore store of response content referred to by hash; null if content is only in the HAR
+     */
+    public HarExporter(@Nullable BodyStore bodyStore) {
+        this(bodyStore, 1);
+    }
+
+    /**
+     * Constructs an instance that writes entry files on a pool of threads. Entries are
+     * still read in order, and the directory name of each entry is based on its position
+     * in the log, so the output is the same regardless of the number of threads.
+     * @param bodyStore store of response content referred to by hash; null if content is only in the HAR
+     * @param threads number of threads that write entry files; 1 means files are written on the calling thread
+     */
+    public HarExporter(@Nullable BodyStore bodyStore, int threads) {
+        checkArgument(threads > 0, "threads must be positive: %s", threads);
+        this.bodyStore = bodyStore;
+        this.threads = threads;
+    }
+
+    /**
+     * Exports the content of a HAR file, which may be gzip-compressed. Compression is
+     * detected from the content, so the filename need not end with {@code .gz}.
+     * @param harSource source of the file content
+     * @param charset charset of the uncompressed content
+     * @param outputRoot directory into which the content is exported
+     * @return a summary of the export
+     * @throws IOException on I/O error
+     */
+    public ExportSummary export(ByteSource harSource, Charset charset, Path outputRoot) throws IOException {
+        return export(Compression.decompressingIfGzip(harSource).asCharSource(charset), outputRoot);
+    }
+
+    /**
+     * Exports the content of a HAR. The HAR is read incrementally and each entry is
+     * written as soon as it has been read, so only a few entries are held in memory at a time.
+     * @param harSource source of the HAR text
+     * @param outputRoot directory into which the content is exported
+     * @return a summary of the export
+     * @throws IOException on I/O error
+     */
+    public ExportSummary export(CharSource harSource, Path outputRoot) throws IOException {
+        Path entriesRoot = createEntriesRoot(outputRoot);
+        return export(harSource, outputRoot, directoryTarget(entriesRoot));
+    }
+
+    /**
+     * Exports the content of a HAR file, which may be gzip-compressed, to a pack.
+     * @param harSource source of the file content
+     * @param charset charset of the uncompressed content
+     * @param outputRoot directory in which the pack files are created
+     * @return a summary of the export
+     * @throws IOException on I/O error
+     * @see #exportToPack(CharSource, Path)
+     */
+    public ExportSummary exportToPack(ByteSource harSource, Charset charset, Path outputRoot) throws IOException {
+        return exportToPack(Compression.decompressingIfGzip(harSource).asCharSource(charset), outputRoot);
+    }
+
+    /**
+     * Exports the content of a HAR to a pack, which is a single data file containing the
+     * URL and response content of every entry and an index file with a fixed-size record
+     * for each entry. This avoids creating a directory per entry, which is slow and uses
+     * many inodes when a log has many entries. Use {@link PackReader} to read the pack.
+     * @param harSource source of the HAR text
+     * @param outputRoot directory in which the pack files are created
+     * @return a summary of the export
+     * @throws IOException on I/O error
+     */
+    public ExportSummary exportToPack(CharSource harSource, Path outputRoot) throws IOException {
+        createOutputRoot(outputRoot);
+        try (PackWriter pack = new PackWriter(outputRoot)) {
+            return export(harSource, outputRoot, packTarget(pack));
         }
+    }
+
+    private ExportSummary export(CharSource harSource, Path outputRoot, EntryTarget target) throws IOException {
+        Stopwatch stopwatch = Stopwatch.createStarted();
         Path scratchDir = java.nio.file.Files.createTempDirectory(outputRoot, ".scratch-directory");
-        try {
-            IntermediateRep intermediateRep = createIntermediateRep(harObject, scratchDir);
-            export(intermediateRep, outputRoot);
+        try (JsonParser parser = JSON_FACTORY.createParser(harSource.openStream());
+             EntryWriter writer = new EntryWriter(target, scratchDir)) {
+            exportEntries(new EntryReader(parser, scratchDir), writer);
+            return writer.finish(stopwatch);
         } finally {
             FileUtils.deleteDirectory(scratchDir.toFile());
         }
     }
 
-    protected IntermediateRep createIntermediateRep(JsonElement harObject, Path scratchDir) throws IOException {
-        List<CachedEntry> cachedEntries = new ArrayList<>();
-        if (harObject.isJsonObject()) {
-            JsonObject logObject = harObject.getAsJsonObject().getAsJsonObject("log");
-            if (logObject != null) {
-                JsonArray entriesArray = logObject.getAsJsonArray("entries");
-                for (JsonElement entry : entriesArray) {
-                    if (entry.isJsonObject()) {
-                        JsonObject requestObject = entry.getAsJsonObject().getAsJsonObject("request");
-                        JsonObject responseObject = entry.getAsJsonObject().getAsJsonObject("response");
-                        @Nullable CachedEntry cachedEntry = CachedEntry.create(requestObject, responseObject, scratchDir);
-                        cachedEntries.add(cachedEntry);
+    protected ExportSummary export(JsonElement harObject, Path outputRoot) throws IOException {
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        Path entriesRoot = createEntriesRoot(outputRoot);
+        Path scratchDir = java.nio.file.Files.createTempDirectory(outputRoot, ".scratch-directory");
+        try (EntryWriter writer = new EntryWriter(directoryTarget(entriesRoot), scratchDir)) {
+            if (harObject.isJsonObject()) {
+                JsonObject logObject = harObject.getAsJsonObject().getAsJsonObject("log");
+                if (logObject != null) {
+                    JsonArray entriesArray = logObject.getAsJsonArray("entries");
+                    int index = 0;
+                    for (JsonElement entry : entriesArray) {
+                        if (entry.isJsonObject()) {
+                            writer.submit(index++, entry.getAsJsonObject());
+                        }
                     }
                 }
             }
+            return writer.finish(stopwatch);
+        } finally {
+            FileUtils.deleteDirectory(scratchDir.toFile());
+        }
+    }
+
+    private static void createOutputRoot(Path outputRoot) throws IOException {
+        //noinspection ResultOfMethodCallIgnored
+        outputRoot.toFile().mkdirs();
+        if (!outputRoot.toFile().isDirectory()) {
+            throw new IOException("failed to create output root " + outputRoot);
         }
-        return new IntermediateRep(cachedEntries);
     }
 
-    protected void export(IntermediateRep intermediateRep, Path outputRoot) throws IOException {
+    private static Path createEntriesRoot(Path outputRoot) throws IOException {
+        createOutputRoot(outputRoot);
         Path entriesRoot = outputRoot.resolve("log").resolve("entries");
         //noinspection ResultOfMethodCallIgnored
         entriesRoot.toFile().mkdirs();
         if (!entriesRoot.toFile().isDirectory()) {
             throw new IOException("failed to create directory " + entriesRoot);
         }
-        for (int i = 0; i < intermediateRep.entries.size(); i++) {
-            @Nullable CachedEntry entry = intermediateRep.entries.get(i);
-            if (entry != null) {
-                @Nullable String responseDirName = entry.constructDirectoryName(i);
-                if (responseDirName != null) {
-                    Path responseDir = entriesRoot.resolve(responseDirName);
-                    //noinspection ResultOfMethodCallIgnored
-                    responseDir.toFile().mkdirs();
-                    entry.writeResponseFilesInDirectory(responseDir);
+        return entriesRoot;
+    }
+
+    /**
+     * Reads a HAR document from a stream and submits each entry to a writer as it is read.
+     * Fields other than {@code log.entries} are skipped.
+     * @param reader the entry reader, positioned at the start of the document
+     * @param writer the entry writer
+     * @return the number of entries read
+     * @throws IOException on I/O error or if the document is malformed
+     */
+    private int exportEntries(EntryReader reader, EntryWriter writer) throws IOException {
+        JsonParser parser = reader.parser;
+        int index = 0;
+        if (nextToken(parser) != JsonToken.START_OBJECT) {
+            return index;
+        }
+        while (nextToken(parser) == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            if (nextToken(parser) == JsonToken.START_OBJECT && "log".equals(name)) {
+                while (nextToken(parser) == JsonToken.FIELD_NAME) {
+                    String logName = parser.getCurrentName();
+                    if (nextToken(parser) == JsonToken.START_ARRAY && "entries".equals(logName)) {
+                        while (nextToken(parser) != JsonToken.END_ARRAY) {
+                            if (parser.getCurrentToken() == JsonToken.START_OBJECT) {
+                                JsonObject entry = reader.readEntry();
+                                writer.submit(index++, entry, reader.decodedContentFile);
+                            } else {
+                                parser.skipChildren();
+                            }
+                        }
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return index;
+    }
+
+    private static JsonToken nextToken(JsonParser parser) throws IOException {
+        @Nullable JsonToken token = parser.nextToken();
+        if (token == null) {
+            throw new EOFException("unexpected end of HAR");
+        }
+        return token;
+    }
+
+    /**
+     * Reader of entries from a parser into trees. Response content text that is base64-encoded,
+     * as indicated by an encoding field that precedes the text, is decoded straight into a file
+     * in the scratch directory instead of being held as a string. The text is kept as a string
+     * if the encoding field follows it.
+     */
+    private static class EntryReader {
+
+        private static final String CONTENT_TEXT_PATH = "response.content.text";
+
+        private final JsonParser parser;
+        private final Path scratchDir;
+        @Nullable
+        private Path decodedContentFile;
+
+        public EntryReader(JsonParser parser, Path scratchDir) {
+            this.parser = requireNonNull(parser);
+            this.scratchDir = requireNonNull(scratchDir);
+        }
+
+        /**
+         * Reads an entry object. Afterwards, {@link #decodedContentFile} is the file containing
+         * the decoded response content, or null if the content was not decoded while reading.
+         * @return the entry, without the content text if it was decoded
+         * @throws IOException on I/O error or if the document is malformed
+         */
+        public JsonObject readEntry() throws IOException {
+            decodedContentFile = null;
+            return readObject("");
+        }
+
+        private JsonObject readObject(String path) throws IOException {
+            JsonObject object = new JsonObject();
+            while (nextToken(parser) == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                String childPath = path.isEmpty() ? name : path + "." + name;
+                if (nextToken(parser) == JsonToken.VALUE_STRING && CONTENT_TEXT_PATH.equals(childPath) && isBase64Encoded(object)) {
+                    decodedContentFile = java.nio.file.Files.createTempFile(scratchDir, "content", ".tmp");
+                    try (OutputStream out = java.nio.file.Files.newOutputStream(decodedContentFile)) {
+                        parser.readBinaryValue(CONTENT_BASE64, out);
+                    }
+                } else {
+                    object.add(name, readValue(childPath));
+                }
+            }
+            return object;
+        }
+
+        private JsonElement readValue(String path) throws IOException {
+            switch (parser.getCurrentToken()) {
+                case START_OBJECT:
+                    return readObject(path);
+                case START_ARRAY:
+                    JsonArray array = new JsonArray();
+                    while (nextToken(parser) != JsonToken.END_ARRAY) {
+                        array.add(readValue(path + "[]"));
+                    }
+                    return array;
+                case VALUE_STRING:
+                    return new JsonPrimitive(parser.getText());
+                case VALUE_NUMBER_INT:
+                case VALUE_NUMBER_FLOAT:
+                    return new JsonPrimitive(parser.getNumberValue());
+                case VALUE_TRUE:
+                case VALUE_FALSE:
+                    return new JsonPrimitive(parser.getBooleanValue());
+                default:
+                    return JsonNull.INSTANCE;
+            }
+        }
+
+        private static boolean isBase64Encoded(JsonObject content) {
+            JsonElement encoding = content.get("encoding");
+            return encoding != null && encoding.isJsonPrimitive() && "base64".equalsIgnoreCase(encoding.getAsString());
+        }
+    }
+
+    /**
+     * Destination of exported entries.
+     */
+    private interface EntryTarget {
+
+        /**
+         * Writes an entry.
+         * @param index position of the entry in the log
+         * @param entry the entry
+         * @return number of response content bytes written
+         * @throws IOException on I/O error
+         */
+        long write(int index, CachedEntry entry) throws IOException;
+
+        /**
+         * Completes the output after all entries have been written.
+         * @param entryCount number of entries in the log
+         * @throws IOException on I/O error
+         */
+        default void finish(int entryCount) throws IOException {
+        }
+    }
+
+    private static EntryTarget directoryTarget(Path entriesRoot) {
+        return (index, entry) -> writeEntryDirectory(index, entry, entriesRoot);
+    }
+
+    private static EntryTarget packTarget(PackWriter pack) {
+        return new EntryTarget() {
+            @Override
+            public long write(int index, CachedEntry entry) throws IOException {
+                return pack.write(index, entry.method, entry.url, entry.status, entry.responseContent);
+            }
+
+            @Override
+            public void finish(int entryCount) throws IOException {
+                pack.finish(entryCount);
+            }
+        };
+    }
+
+    /**
+     * Writes the files for one entry in a directory named for the entry.
+     * @param index position of the entry in the log
+     * @param entry the entry
+     * @param entriesRoot directory in which the entry directory is created
+     * @return number of response content bytes written
+     * @throws IOException on I/O error
+     */
+    protected static long writeEntryDirectory(int index, CachedEntry entry, Path entriesRoot) throws IOException {
+        @Nullable String responseDirName = entry.constructDirectoryName(index);
+        if (responseDirName == null) {
+            return 0;
+        }
+        Path responseDir = entriesRoot.resolve(responseDirName);
+        //noinspection ResultOfMethodCallIgnored
+        responseDir.toFile().mkdirs();
+        return entry.writeResponseFilesInDirectory(responseDir);
+    }
+
+    /**
+     * Writer of entry files that runs on the calling thread or on a pool of threads,
+     * depending on the exporter's thread count. When using a pool, the number of entries
+     * submitted and not yet written is bounded, so that reading the HAR does not get far
+     * ahead of writing.
+     */
+    private class EntryWriter implements Closeable {
+
+        private final EntryTarget target;
+        private final Path scratchDir;
+        @Nullable
+        private final ExecutorService executor;
+        private final Semaphore permits;
+        private final AtomicInteger entryCount = new AtomicInteger();
+        private final AtomicLong byteCount = new AtomicLong();
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+        private int submitted;
+
+        public EntryWriter(EntryTarget target, Path scratchDir) {
+            this.target = target;
+            this.scratchDir = scratchDir;
+            if (threads > 1) {
+                executor = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder()
+                        .setDaemon(true)
+                        .setNameFormat("http-capture-export-%d")
+                        .build());
+            } else {
+                executor = null;
+            }
+            permits = new Semaphore(threads * 2);
+        }
+
+        public void submit(int index, JsonObject entry) throws IOException {
+            submit(index, entry, null);
+        }
+
+        /**
+         * Submits an entry to be written.
+         * @param index position of the entry in the log
+         * @param entry the entry
+         * @param decodedContentFile file containing the decoded response content, which is
+         *                           deleted after the entry is written; null if the content is in the entry
+         * @throws IOException if writing an earlier entry failed
+         */
+        public void submit(int index, JsonObject entry, @Nullable Path decodedContentFile) throws IOException {
+            checkFailure();
+            submitted = Math.max(submitted, index + 1);
+            if (executor == null) {
+                write(index, entry, decodedContentFile);
+                return;
+            }
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while waiting to submit entry " + index);
+            }
+            executor.execute(() -> {
+                try {
+                    write(index, entry, decodedContentFile);
+                } catch (IOException | RuntimeException e) {
+                    failure.compareAndSet(null, e);
+                } finally {
+                    permits.release();
+                }
+            });
+        }
+
+        private void write(int index, JsonObject entry, @Nullable Path decodedContentFile) throws IOException {
+            try {
+                JsonObject requestObject = entry.getAsJsonObject("request");
+                JsonObject responseObject = entry.getAsJsonObject("response");
+                if (requestObject == null) {
+                    return;
+                }
+                @Nullable CachedEntry cachedEntry = CachedEntry.create(requestObject, responseObject, scratchDir, bodyStore, decodedContentFile);
+                if (cachedEntry != null) {
+                    byteCount.addAndGet(target.write(index, cachedEntry));
+                    entryCount.incrementAndGet();
+                }
+            } finally {
+                if (decodedContentFile != null) {
+                    java.nio.file.Files.deleteIfExists(decodedContentFile);
+                }
+            }
+        }
+
+        private void checkFailure() throws IOException {
+            Throwable t = failure.get();
+            if (t != null) {
+                throw new IOException("failed to export entry", t);
+            }
+        }
+
+        /**
+         * Waits for submitted entries to be written.
+         * @param stopwatch stopwatch started at the beginning of the export
+         * @return a summary of the export
+         * @throws IOException if writing any entry failed
+         */
+        public ExportSummary finish(Stopwatch stopwatch) throws IOException {
+            if (executor != null) {
+                executor.shutdown();
+                try {
+                    executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("interrupted while waiting for entries to be written");
                 }
             }
+            checkFailure();
+            target.finish(submitted);
+            ExportSummary summary = new ExportSummary(entryCount.get(), byteCount.get(), stopwatch.elapsed());
+            LoggerFactory.getLogger(HarExporter.class).debug("exported {}", summary);
+            return summary;
+        }
+
+        @Override
+        public void close() {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
         }
     }
 
@@ -164,16 +592,29 @@ public class HarExporter {
             return String.format("%d-%s", status, makeSafe(statusText));
         }
 
-        public void writeResponseFilesInDirectory(Path directory) throws IOException {
+        public long writeResponseFilesInDirectory(Path directory) throws IOException {
             File urlFile = directory.resolve("url.txt").toFile();
             Files.asCharSink(urlFile, StandardCharsets.UTF_8).write(url);
             String dataFilename = constructResponseDataFilename();
             File dataFile = directory.resolve(dataFilename).toFile();
-            responseContent.copyTo(Files.asByteSink(dataFile));
+            if (responseContent instanceof Base64ContentSource) {
+                return ((Base64ContentSource) responseContent).writeTo(dataFile.toPath());
+            }
+            return responseContent.copyTo(Files.asByteSink(dataFile));
         }
 
         @Nullable
         public static CachedEntry create(JsonObject request, @Nullable JsonObject response, Path scratchDir) throws IOException {
+            return create(request, response, scratchDir, null);
+        }
+
+        @Nullable
+        public static CachedEntry create(JsonObject request, @Nullable JsonObject response, Path scratchDir, @Nullable BodyStore bodyStore) throws IOException {
+            return create(request, response, scratchDir, bodyStore, null);
+        }
+
+        @Nullable
+        static CachedEntry create(JsonObject request, @Nullable JsonObject response, Path scratchDir, @Nullable BodyStore bodyStore, @Nullable Path decodedContentFile) throws IOException {
             JsonPrimitive urlPrimitive = request.getAsJsonPrimitive("url");
             if (urlPrimitive == null) {
                 return null;
@@ -189,23 +630,36 @@ public class HarExporter {
             if (response != null) {
                 status = response.get("status").getAsInt();
                 statusText = asStringOrNull(response.getAsJsonPrimitive("statusText"));
-                responseContent = prepareContent(response.getAsJsonObject("content"), scratchDir);
+                responseContent = decodedContentFile == null
+                        ? prepareContent(response.getAsJsonObject("content"), scratchDir, bodyStore)
+                        : Files.asByteSource(decodedContentFile.toFile());
             }
             return new CachedEntry(method, url, status, statusText, responseContent);
         }
 
         protected static ByteSource prepareContent(@Nullable JsonObject content, Path scratchDir) throws IOException {
+            return prepareContent(content, scratchDir, null);
+        }
+
+        protected static ByteSource prepareContent(@Nullable JsonObject content, Path scratchDir, @Nullable BodyStore bodyStore) throws IOException {
             if (content == null) {
                 return ByteSource.empty();
             }
             @Nullable String text = asStringOrNull(content.getAsJsonPrimitive("text"));
             if (text == null) {
+                @Nullable String contentHash = asStringOrNull(content.getAsJsonPrimitive(FIELD_CONTENT_HASH));
+                if (contentHash != null) {
+                    if (bodyStore != null) {
+                        return bodyStore.get(contentHash);
+                    }
+                    LoggerFactory.getLogger(HarExporter.class).warn("content refers to body {} but no body store is configured", contentHash);
+                }
                 return ByteSource.empty();
             }
             @Nullable String encoding = asStringOrNull(content.getAsJsonPrimitive("encoding"));
             ByteSource decodedSource;
             if ("base64".equalsIgnoreCase(encoding)) {
-                decodedSource = BaseEncoding.base64().decodingSource(CharSource.wrap(text));
+                decodedSource = new Base64ContentSource(text);
             } else {
                 decodedSource = CharSource.wrap(text).asByteSource(StandardCharsets.UTF_8);
             }
@@ -221,12 +675,4 @@ public class HarExporter {
         return primitive.getAsString();
     }
 
-    protected static class IntermediateRep {
-        public final List<CachedEntry> entries;
-
-        public IntermediateRep(List<CachedEntry> entries) {
-            this.entries = entries;
-        }
-    }
-
 }
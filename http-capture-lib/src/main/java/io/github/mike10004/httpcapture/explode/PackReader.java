@@ -0,0 +1,247 @@
+package io.github.mike10004.httpcapture.explode;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.io.ByteSource;
+import com.google.common.io.Files;
+
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkElementIndex;
+
+/**
+ * Reader of a pack of entries exported by {@link HarExporter#exportToPack(com.google.common.io.CharSource, Path)}.
+ * The index file is memory-mapped, so the record of any entry is read in constant time.
+ * A table of URL hashes is built when the pack is opened, so entries are also found by
+ * URL without scanning the index. Instances are safe for use by multiple threads.
+ */
+public class PackReader implements Closeable {
+
+    /**
+     * Maximum number of entries whose records fit in a memory-mapped index.
+     */
+    static final long MAX_ENTRY_COUNT = (Integer.MAX_VALUE - PackWriter.HEADER_SIZE) / PackWriter.RECORD_SIZE;
+
+    private final File dataFile;
+    private final FileChannel dataChannel;
+    private final ByteBuffer index;
+    private final int entryCount;
+
+    /**
+     * Positions of exported entries by URL hash, in log order.
+     */
+    private final ImmutableListMultimap<Long, Integer> entriesByUrlHash;
+
+    private PackReader(File dataFile, FileChannel dataChannel, ByteBuffer index, int entryCount) {
+        this.dataFile = dataFile;
+        this.dataChannel = dataChannel;
+        this.index = index;
+        this.entryCount = entryCount;
+        ImmutableListMultimap.Builder<Long, Integer> entriesByUrlHash = ImmutableListMultimap.builder();
+        for (int i = 0; i < entryCount; i++) {
+            int base = recordPosition(i);
+            if (index.getInt(base + 8) != 0) {
+                entriesByUrlHash.put(index.getLong(base + 24), i);
+            }
+        }
+        this.entriesByUrlHash = entriesByUrlHash.build();
+    }
+
+    /**
+     * Gets the position of an entry's record in the index. The entry count is validated
+     * when the pack is opened, so the position of any entry fits in an int.
+     */
+    private static int recordPosition(int entryIndex) {
+        return Math.toIntExact(PackWriter.HEADER_SIZE + (long) entryIndex * PackWriter.RECORD_SIZE);
+    }
+
+    /**
+     * Opens the pack in a directory.
+     * @param directory the directory containing the pack files
+     * @return a new reader
+     * @throws IOException if the files cannot be read or the index is malformed
+     */
+    public static PackReader open(Path directory) throws IOException {
+        Path indexFile = directory.resolve(PackWriter.INDEX_FILENAME);
+        MappedByteBuffer index;
+        try (FileChannel indexChannel = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+            index = indexChannel.map(FileChannel.MapMode.READ_ONLY, 0, indexChannel.size());
+        }
+        index.order(ByteOrder.BIG_ENDIAN);
+        if (index.capacity() < PackWriter.HEADER_SIZE) {
+            throw new IOException("index too short: " + indexFile);
+        }
+        byte[] magic = new byte[PackWriter.MAGIC.length];
+        index.get(magic);
+        if (!Arrays.equals(magic, PackWriter.MAGIC)) {
+            throw new IOException("not a pack index: " + indexFile);
+        }
+        int version = index.getInt();
+        int recordSize = index.getInt();
+        long entryCount = index.getLong();
+        if (version != PackWriter.VERSION || recordSize != PackWriter.RECORD_SIZE) {
+            throw new IOException(String.format("unsupported pack index version %d with record size %d", version, recordSize));
+        }
+        if (entryCount < 0 || entryCount > MAX_ENTRY_COUNT) {
+            throw new IOException(String.format("invalid entry count %d in %s", entryCount, indexFile));
+        }
+        if (PackWriter.HEADER_SIZE + entryCount * recordSize > index.capacity()) {
+            throw new IOException(String.format("index of %d bytes is too short for %d entries", index.capacity(), entryCount));
+        }
+        Path dataFile = directory.resolve(PackWriter.DATA_FILENAME);
+        FileChannel dataChannel = FileChannel.open(dataFile, StandardOpenOption.READ);
+        return new PackReader(dataFile.toFile(), dataChannel, index, (int) entryCount);
+    }
+
+    /**
+     * Gets the number of entries in the log from which the pack was exported, including
+     * entries that were not exported.
+     * @return the entry count
+     */
+    public int getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * Gets an entry.
+     * @param index position of the entry in the log
+     * @return the entry, or null if the entry at that position was not exported
+     * @throws IOException if the URL cannot be read from the data file
+     */
+    @Nullable
+    public PackEntry getEntry(int index) throws IOException {
+        checkElementIndex(index, entryCount);
+        int base = recordPosition(index);
+        int urlLength = this.index.getInt(base + 8);
+        if (urlLength == 0) {
+            return null;
+        }
+        long offset = this.index.getLong(base);
+        int status = this.index.getInt(base + 12);
+        long bodyLength = this.index.getLong(base + 16);
+        byte[] methodBytes = new byte[PackWriter.METHOD_SIZE];
+        for (int i = 0; i < methodBytes.length; i++) {
+            methodBytes[i] = this.index.get(base + 32 + i);
+        }
+        int methodLength = 0;
+        while (methodLength < methodBytes.length && methodBytes[methodLength] != 0) {
+            methodLength++;
+        }
+        String method = new String(methodBytes, 0, methodLength, StandardCharsets.US_ASCII);
+        ByteBuffer urlBuffer = ByteBuffer.allocate(urlLength);
+        long position = offset;
+        while (urlBuffer.hasRemaining()) {
+            int count = dataChannel.read(urlBuffer, position);
+            if (count < 0) {
+                throw new IOException("data file ends before URL of entry " + index);
+            }
+            position += count;
+        }
+        String url = new String(urlBuffer.array(), StandardCharsets.UTF_8);
+        return new PackEntry(index, method, url, status, offset + urlLength, bodyLength);
+    }
+
+    /**
+     * Finds the first entry with a given URL. Candidates with a matching hash are looked up
+     * in the hash table, and the URL of each candidate is compared.
+     * @param url the URL
+     * @return the entry, or null if none has the URL
+     * @throws IOException on I/O error
+     */
+    @Nullable
+    public PackEntry findEntry(String url) throws IOException {
+        long hash = PackWriter.hashUrl(url.getBytes(StandardCharsets.UTF_8));
+        for (int i : entriesByUrlHash.get(hash)) {
+            PackEntry entry = getEntry(i);
+            if (entry != null && url.equals(entry.getUrl())) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        dataChannel.close();
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("dataFile", dataFile)
+                .add("entryCount", entryCount)
+                .toString();
+    }
+
+    /**
+     * Entry read from a pack.
+     */
+    public class PackEntry {
+
+        private final int index;
+        private final String method;
+        private final String url;
+        private final int status;
+        private final long bodyOffset;
+        private final long bodyLength;
+
+        private PackEntry(int index, String method, String url, int status, long bodyOffset, long bodyLength) {
+            this.index = index;
+            this.method = method;
+            this.url = url;
+            this.status = status;
+            this.bodyOffset = bodyOffset;
+            this.bodyLength = bodyLength;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public String getMethod() {
+            return method;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+
+        public long getBodyLength() {
+            return bodyLength;
+        }
+
+        /**
+         * Gets a byte source that supplies the response content from the data file.
+         * @return the response content
+         */
+        public ByteSource getBody() {
+            return Files.asByteSource(dataFile).slice(bodyOffset, bodyLength);
+        }
+
+        @Override
+        public String toString() {
+            return MoreObjects.toStringHelper(this)
+                    .add("index", index)
+                    .add("method", method)
+                    .add("url", url)
+                    .add("status", status)
+                    .add("bodyLength", bodyLength)
+                    .toString();
+        }
+    }
+}
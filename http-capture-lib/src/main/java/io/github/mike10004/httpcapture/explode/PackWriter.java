@@ -0,0 +1,239 @@
+package io.github.mike10004.httpcapture.explode;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Optional;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteSource;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Writer of a pack of exported entries. A pack is a pair of files: a data file to which the
+ * URL and response content of each entry are appended, and an index file of fixed-size
+ * records, one per entry, in the order of the entries in the log. Because records have
+ * a fixed size, the record of any entry can be located without reading the others.
+ *
+ * <p>The index file begins with a header of {@link #HEADER_SIZE} bytes:
+ * <pre>
+ *   magic        8 bytes  "HARPACK" followed by a zero byte
+ *   version      4 bytes
+ *   record size  4 bytes
+ *   entry count  8 bytes
+ * </pre>
+ * Each record is {@link #RECORD_SIZE} bytes:
+ * <pre>
+ *   offset       8 bytes  position in the data file of the URL, followed immediately by the content
+ *   url length   4 bytes  length of the UTF-8 encoded URL; zero if the entry was not exported
+ *   status       4 bytes
+ *   body length  8 bytes
+ *   url hash     8 bytes  64-bit FarmHash fingerprint of the UTF-8 encoded URL
+ *   method       8 bytes  ASCII, padded with zero bytes and truncated if longer
+ * </pre>
+ * All numbers are big-endian. Entries may be written concurrently and in any order.
+ */
+class PackWriter implements Closeable {
+
+    static final String DATA_FILENAME = "entries.pack";
+    static final String INDEX_FILENAME = "entries.idx";
+
+    static final byte[] MAGIC = {'H', 'A', 'R', 'P', 'A', 'C', 'K', 0};
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 24;
+    static final int RECORD_SIZE = 40;
+    static final int METHOD_SIZE = 8;
+
+    private final Path directory;
+    private final FileChannel dataChannel;
+    private final FileChannel indexChannel;
+    private final AtomicLong dataPosition = new AtomicLong();
+
+    /**
+     * Creates the pack files in a directory, replacing them if they exist.
+     * @param directory the directory
+     * @throws IOException on I/O error
+     */
+    public PackWriter(Path directory) throws IOException {
+        this.directory = directory;
+        dataChannel = FileChannel.open(directory.resolve(DATA_FILENAME), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            indexChannel = FileChannel.open(directory.resolve(INDEX_FILENAME), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        } catch (IOException e) {
+            dataChannel.close();
+            throw e;
+        }
+    }
+
+    static long hashUrl(byte[] urlBytes) {
+        return Hashing.farmHashFingerprint64().hashBytes(urlBytes).asLong();
+    }
+
+    /**
+     * Writes an entry. Space in the data file is reserved before the content is written,
+     * so concurrent invocations do not wait for each other.
+     * @param index position of the entry in the log
+     * @param method request method
+     * @param url request URL
+     * @param status response status
+     * @param content response content
+     * @throws IOException on I/O error
+     */
+    public void write(int index, String method, String url, int status, byte[] content) throws IOException {
+        write(index, method, url, status, ByteSource.wrap(content));
+    }
+
+    /**
+     * Writes an entry, streaming the content into the data file. The size of the content
+     * must be known in advance to reserve space for it; if the source does not report its
+     * size, the content is read into memory first. Base64-encoded content is decoded
+     * straight into the data file.
+     * @param index position of the entry in the log
+     * @param method request method
+     * @param url request URL
+     * @param status response status
+     * @param content response content
+     * @return number of content bytes written
+     * @throws IOException on I/O error or if the content does not match its reported size
+     */
+    public long write(int index, String method, String url, int status, ByteSource content) throws IOException {
+        checkArgument(index >= 0, "index must be nonnegative: %s", index);
+        Optional<Long> knownSize = content.sizeIfKnown();
+        if (!knownSize.isPresent()) {
+            content = ByteSource.wrap(content.read());
+            knownSize = content.sizeIfKnown();
+        }
+        long contentLength = knownSize.get();
+        byte[] urlBytes = url.getBytes(StandardCharsets.UTF_8);
+        long offset = dataPosition.getAndAdd(urlBytes.length + contentLength);
+        writeFully(dataChannel, ByteBuffer.wrap(urlBytes), offset);
+        long written = writeContent(content, offset + urlBytes.length, contentLength);
+        if (written != contentLength) {
+            throw new IOException(String.format("content of entry %d is %d bytes but %d were reserved", index, written, contentLength));
+        }
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE).order(ByteOrder.BIG_ENDIAN);
+        record.putLong(offset);
+        record.putInt(urlBytes.length);
+        record.putInt(status);
+        record.putLong(contentLength);
+        record.putLong(hashUrl(urlBytes));
+        byte[] methodBytes = method.getBytes(StandardCharsets.US_ASCII);
+        record.put(methodBytes, 0, Math.min(METHOD_SIZE, methodBytes.length));
+        // cast for compatibility with Java 8, where ByteBuffer does not override clear()
+        ((Buffer) record).clear();
+        writeFully(indexChannel, record, HEADER_SIZE + (long) index * RECORD_SIZE);
+        return contentLength;
+    }
+
+    private long writeContent(ByteSource content, long position, long length) throws IOException {
+        RegionChannel region = new RegionChannel(dataChannel, position, length);
+        if (content instanceof Base64ContentSource) {
+            return ((Base64ContentSource) content).writeTo(region);
+        }
+        try (OutputStream out = Channels.newOutputStream(region)) {
+            return content.copyTo(out);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    /**
+     * Writes the index header and forces both files to the storage device. Records of
+     * entries that were not written are left as zero bytes.
+     * @param entryCount number of entries in the log
+     * @throws IOException on I/O error
+     */
+    public void finish(int entryCount) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.BIG_ENDIAN);
+        header.put(MAGIC);
+        header.putInt(VERSION);
+        header.putInt(RECORD_SIZE);
+        header.putLong(entryCount);
+        ((Buffer) header).flip();
+        writeFully(indexChannel, header, 0);
+        long indexSize = HEADER_SIZE + (long) entryCount * RECORD_SIZE;
+        if (indexChannel.size() < indexSize) {
+            // extend the file so that trailing entries that were not written have zeroed records
+            writeFully(indexChannel, ByteBuffer.allocate(1), indexSize - 1);
+        }
+        dataChannel.force(true);
+        indexChannel.force(true);
+    }
+
+    /**
+     * Channel that writes to a reserved region of a file channel without using or changing
+     * the channel's position, so that regions can be written concurrently. Closing the
+     * region does not close the file channel.
+     */
+    private static class RegionChannel implements WritableByteChannel {
+
+        private final FileChannel channel;
+        private final long end;
+        private long position;
+        private boolean open = true;
+
+        public RegionChannel(FileChannel channel, long position, long length) {
+            this.channel = channel;
+            this.position = position;
+            this.end = position + length;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            if (!open) {
+                throw new ClosedChannelException();
+            }
+            if (src.remaining() > end - position) {
+                throw new IOException(String.format("write of %d bytes exceeds reserved region by %d bytes", src.remaining(), src.remaining() - (end - position)));
+            }
+            int count = src.remaining();
+            writeFully(channel, src, position);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() {
+            open = false;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            dataChannel.close();
+        } finally {
+            indexChannel.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("directory", directory)
+                .add("dataPosition", dataPosition.get())
+                .toString();
+    }
+}
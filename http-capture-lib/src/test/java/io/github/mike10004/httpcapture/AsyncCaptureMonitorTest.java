@@ -0,0 +1,159 @@
+package io.github.mike10004.httpcapture;
+
+import net.lightbody.bmp.core.har.Har;
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class AsyncCaptureMonitorTest {
+
+    private static class GatedMonitor implements CaptureMonitor {
+
+        public final CountDownLatch gate = new CountDownLatch(1);
+        public final CountDownLatch firstReceived = new CountDownLatch(1);
+        public final List<String> events = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public void responseReceived(ImmutableHttpRequest httpRequest, ImmutableHttpResponse httpResponse) {
+            firstReceived.countDown();
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            events.add(httpRequest.url.getPath());
+        }
+
+        @Override
+        public void harCaptured(Har har) {
+            events.add("har");
+        }
+    }
+
+    private static void notify(CaptureMonitor monitor, int index) {
+        ImmutableHttpRequest request = ImmutableHttpRequest.builder(URI.create("http://localhost/" + index)).build();
+        monitor.responseReceived(request, ImmutableHttpResponse.builder(200).build());
+    }
+
+    @Test
+    public void block() throws Exception {
+        GatedMonitor delegate = new GatedMonitor();
+        AsyncCaptureMonitor monitor = new AsyncCaptureMonitor(delegate, 2, AsyncCaptureMonitor.OverflowPolicy.BLOCK);
+        Thread producer = new Thread(() -> {
+            for (int i = 0; i < 5; i++) {
+                AsyncCaptureMonitorTest.notify(monitor, i);
+            }
+        });
+        producer.start();
+        assertTrue("first received", delegate.firstReceived.await(5, TimeUnit.SECONDS));
+        producer.join(250);
+        assertTrue("producer is blocked", producer.isAlive());
+        delegate.gate.countDown();
+        producer.join(5000);
+        monitor.harCaptured(new Har());
+        assertEquals("events", Arrays.asList("/0", "/1", "/2", "/3", "/4", "har"), delegate.events);
+        assertEquals("delivered", 5, monitor.getDeliveredCount());
+        assertEquals("dropped", 0, monitor.getDroppedCount());
+        monitor.close();
+    }
+
+    @Test
+    public void dropNewest() throws Exception {
+        GatedMonitor delegate = new GatedMonitor();
+        AsyncCaptureMonitor monitor = new AsyncCaptureMonitor(delegate, 2, AsyncCaptureMonitor.OverflowPolicy.DROP_NEWEST);
+        notify(monitor, 0);
+        assertTrue("first received", delegate.firstReceived.await(5, TimeUnit.SECONDS));
+        for (int i = 1; i < 5; i++) {
+            notify(monitor, i);
+        }
+        assertEquals("queue depth", 2, monitor.getQueueDepth());
+        assertEquals("dropped", 2, monitor.getDroppedCount());
+        delegate.gate.countDown();
+        monitor.harCaptured(new Har());
+        assertEquals("events", Arrays.asList("/0", "/1", "/2", "har"), delegate.events);
+        assertEquals("queue depth after flush", 0, monitor.getQueueDepth());
+        monitor.close();
+    }
+
+    @Test
+    public void dropOldest() throws Exception {
+        GatedMonitor delegate = new GatedMonitor();
+        AsyncCaptureMonitor monitor = new AsyncCaptureMonitor(delegate, 2, AsyncCaptureMonitor.OverflowPolicy.DROP_OLDEST);
+        notify(monitor, 0);
+        assertTrue("first received", delegate.firstReceived.await(5, TimeUnit.SECONDS));
+        for (int i = 1; i < 5; i++) {
+            notify(monitor, i);
+        }
+        assertEquals("dropped", 2, monitor.getDroppedCount());
+        delegate.gate.countDown();
+        monitor.harCaptured(new Har());
+        assertEquals("events", Arrays.asList("/0", "/3", "/4", "har"), delegate.events);
+        monitor.close();
+    }
+
+    @Test
+    public void closeWhileNotifying() throws Exception {
+        List<String> received = Collections.synchronizedList(new ArrayList<>());
+        CaptureMonitor delegate = new HarCaptureMonitor() {
+            @Override
+            public void responseReceived(ImmutableHttpRequest httpRequest, ImmutableHttpResponse httpResponse) {
+                received.add(httpRequest.url.getPath());
+            }
+        };
+        for (int trial = 0; trial < 50; trial++) {
+            received.clear();
+            AsyncCaptureMonitor monitor = new AsyncCaptureMonitor(delegate, 4, AsyncCaptureMonitor.OverflowPolicy.BLOCK);
+            List<Thread> producers = new ArrayList<>();
+            for (int p = 0; p < 4; p++) {
+                Thread producer = new Thread(() -> {
+                    for (int i = 0; i < 25; i++) {
+                        AsyncCaptureMonitorTest.notify(monitor, i);
+                    }
+                });
+                producer.start();
+                producers.add(producer);
+            }
+            monitor.close();
+            for (Thread producer : producers) {
+                producer.join(5000);
+            }
+            Thread flusher = new Thread(() -> monitor.harCaptured(new Har()));
+            flusher.start();
+            flusher.join(5000);
+            assertFalse("flush completes after close", flusher.isAlive());
+            assertEquals("delivered + dropped", 100, monitor.getDeliveredCount() + monitor.getDroppedCount());
+            assertEquals("received", monitor.getDeliveredCount(), received.size());
+        }
+    }
+
+    @Test
+    public void delegateThrows() throws Exception {
+        CaptureMonitor delegate = new HarCaptureMonitor() {
+            @Override
+            public void responseReceived(ImmutableHttpRequest httpRequest, ImmutableHttpResponse httpResponse) {
+                throw new IllegalStateException("purposeful");
+            }
+        };
+        AsyncCaptureMonitor monitor = new AsyncCaptureMonitor(delegate);
+        notify(monitor, 0);
+        notify(monitor, 1);
+        Har har = new Har();
+        monitor.harCaptured(har);
+        assertEquals("failed", 2, monitor.getFailedCount());
+        assertSame("har", har, ((HarCaptureMonitor) delegate).getCapturedHar());
+        monitor.close();
+        notify(monitor, 2);
+        assertEquals("dropped after close", 1, monitor.getDroppedCount());
+    }
+}
@@ -20,12 +20,20 @@ import org.junit.rules.TemporaryFolder;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.cert.X509Certificate;
 import java.util.Base64;
+import java.util.Collections;
 import java.util.Random;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class AutoCertificateAndKeySourceTest {
 
@@ -48,6 +56,136 @@ public class AutoCertificateAndKeySourceTest {
         }
     }
 
+    @Test
+    public void generateInBackground() throws Exception {
+        try (CountingAutoCertificateAndKeySource certificateAndKeySource = new CountingAutoCertificateAndKeySource(AutoCertificateAndKeySource.builder().random(random))) {
+            certificateAndKeySource.generateInBackground().get();
+            certificateAndKeySource.load();
+            assertEquals("num generate invocations", 1, certificateAndKeySource.generateInvocations.get());
+        }
+    }
+
+    @Test
+    public void persistKeystore() throws Exception {
+        Path keystoreFile = temporaryFolder.getRoot().toPath().resolve("root.p12");
+        AutoCertificateAndKeySource.Builder builder = AutoCertificateAndKeySource.builder()
+                .ellipticCurveKeys()
+                .persistKeystore(keystoreFile, "secret");
+        X509Certificate generated;
+        try (CountingAutoCertificateAndKeySource certificateAndKeySource = new CountingAutoCertificateAndKeySource(builder)) {
+            generated = certificateAndKeySource.load().getCertificate();
+            assertEquals("num generate invocations", 1, certificateAndKeySource.generateInvocations.get());
+        }
+        assertEquals("key algorithm", "EC", generated.getPublicKey().getAlgorithm());
+        assertTrue("keystore file exists", keystoreFile.toFile().isFile());
+        if (keystoreFile.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            assertEquals("permissions", "rw-------", PosixFilePermissions.toString(java.nio.file.Files.getPosixFilePermissions(keystoreFile)));
+        }
+        try (CountingAutoCertificateAndKeySource certificateAndKeySource = new CountingAutoCertificateAndKeySource(builder)) {
+            X509Certificate loaded = certificateAndKeySource.load().getCertificate();
+            assertEquals("num generate invocations", 0, certificateAndKeySource.generateInvocations.get());
+            assertEquals("certificate", generated, loaded);
+        }
+        byte[] persisted = java.nio.file.Files.readAllBytes(keystoreFile);
+        try (CountingAutoCertificateAndKeySource certificateAndKeySource = new CountingAutoCertificateAndKeySource(builder.persistKeystore(keystoreFile, "wrong"))) {
+            try {
+                certificateAndKeySource.load();
+                fail("load with wrong password should fail");
+            } catch (AutoCertificateAndKeySource.CertificateGenerationException expected) {
+            }
+            assertEquals("num generate invocations with wrong password", 0, certificateAndKeySource.generateInvocations.get());
+        }
+        assertArrayEquals("keystore file unchanged", persisted, java.nio.file.Files.readAllBytes(keystoreFile));
+    }
+
+    @Test
+    public void persistKeystore_notReplacedWhenCreatedConcurrently() throws Exception {
+        Path keystoreFile = temporaryFolder.getRoot().toPath().resolve("root.p12");
+        AutoCertificateAndKeySource.Builder builder = AutoCertificateAndKeySource.builder()
+                .ellipticCurveKeys()
+                .persistKeystore(keystoreFile, "secret");
+        Path competitorFile = temporaryFolder.getRoot().toPath().resolve("competitor.p12");
+        X509Certificate competitor;
+        try (AutoCertificateAndKeySource competitorSource = new AutoCertificateAndKeySource(AutoCertificateAndKeySource.builder().ellipticCurveKeys().persistKeystore(competitorFile, "secret"))) {
+            competitor = competitorSource.load().getCertificate();
+        }
+        byte[] competitorBytes = java.nio.file.Files.readAllBytes(competitorFile);
+        X509Certificate loaded;
+        try (CountingAutoCertificateAndKeySource certificateAndKeySource = new CountingAutoCertificateAndKeySource(builder) {
+            @Override
+            protected MemoryKeyStoreCertificateSource generate(String keystorePassword, String privateKeyAlias) throws IOException {
+                MemoryKeyStoreCertificateSource generated = super.generate(keystorePassword, privateKeyAlias);
+                // another process publishes its root after the existence check
+                java.nio.file.Files.write(keystoreFile, competitorBytes);
+                return generated;
+            }
+        }) {
+            loaded = certificateAndKeySource.load().getCertificate();
+            assertEquals("num generate invocations", 1, certificateAndKeySource.generateInvocations.get());
+        }
+        assertArrayEquals("keystore file not replaced", competitorBytes, java.nio.file.Files.readAllBytes(keystoreFile));
+        assertEquals("certificate", competitor, loaded);
+    }
+
+    @Test
+    public void persistKeystore_hardLinksUnsupported() throws Exception {
+        Path keystoreFile = temporaryFolder.getRoot().toPath().resolve("root.p12");
+        AutoCertificateAndKeySource.Builder builder = AutoCertificateAndKeySource.builder()
+                .ellipticCurveKeys()
+                .persistKeystore(keystoreFile, "secret");
+        X509Certificate generated;
+        try (AutoCertificateAndKeySource certificateAndKeySource = new NoLinksAutoCertificateAndKeySource(builder)) {
+            generated = certificateAndKeySource.load().getCertificate();
+        }
+        assertTrue("keystore file saved", java.nio.file.Files.isRegularFile(keystoreFile));
+        try (Stream<Path> files = java.nio.file.Files.list(temporaryFolder.getRoot().toPath())) {
+            assertEquals("files in directory", Collections.singletonList(keystoreFile), files.collect(Collectors.toList()));
+        }
+        try (AutoCertificateAndKeySource certificateAndKeySource = new AutoCertificateAndKeySource(builder)) {
+            assertEquals("certificate", generated, certificateAndKeySource.load().getCertificate());
+        }
+    }
+
+    @Test
+    public void persistKeystore_hardLinksUnsupported_notReplacedWhenCreatedConcurrently() throws Exception {
+        Path keystoreFile = temporaryFolder.getRoot().toPath().resolve("root.p12");
+        AutoCertificateAndKeySource.Builder builder = AutoCertificateAndKeySource.builder()
+                .ellipticCurveKeys()
+                .persistKeystore(keystoreFile, "secret");
+        Path competitorFile = temporaryFolder.getRoot().toPath().resolve("competitor.p12");
+        X509Certificate competitor;
+        try (AutoCertificateAndKeySource competitorSource = new AutoCertificateAndKeySource(AutoCertificateAndKeySource.builder().ellipticCurveKeys().persistKeystore(competitorFile, "secret"))) {
+            competitor = competitorSource.load().getCertificate();
+        }
+        byte[] competitorBytes = java.nio.file.Files.readAllBytes(competitorFile);
+        X509Certificate loaded;
+        try (AutoCertificateAndKeySource certificateAndKeySource = new NoLinksAutoCertificateAndKeySource(builder) {
+            @Override
+            protected MemoryKeyStoreCertificateSource generate(String keystorePassword, String privateKeyAlias) throws IOException {
+                MemoryKeyStoreCertificateSource generated = super.generate(keystorePassword, privateKeyAlias);
+                // another process publishes its root after the existence check
+                java.nio.file.Files.write(keystoreFile, competitorBytes);
+                return generated;
+            }
+        }) {
+            loaded = certificateAndKeySource.load().getCertificate();
+        }
+        assertArrayEquals("keystore file not replaced", competitorBytes, java.nio.file.Files.readAllBytes(keystoreFile));
+        assertEquals("certificate", competitor, loaded);
+    }
+
+    private static class NoLinksAutoCertificateAndKeySource extends AutoCertificateAndKeySource {
+
+        public NoLinksAutoCertificateAndKeySource(Builder builder) {
+            super(builder);
+        }
+
+        @Override
+        protected void createLink(Path link, Path existing) {
+            throw new UnsupportedOperationException("hard links not supported");
+        }
+    }
+
     private static Random random = new Random(AutoCertificateAndKeySourceTest.class.getName().hashCode());
 
     private File createTempPathname(Path scratchDir, String suffix) throws IOException {
@@ -69,6 +207,10 @@ public class AutoCertificateAndKeySourceTest {
             super(scratchDir, random);
         }
 
+        public CountingAutoCertificateAndKeySource(Builder builder) {
+            super(builder);
+        }
+
         @Override
         protected MemoryKeyStoreCertificateSource generate(String keystorePassword, String privateKeyAlias) throws IOException {
             generateInvocations.incrementAndGet();
@@ -1,13 +1,16 @@
 package io.github.mike10004.httpcapture;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteSource;
 import com.google.common.io.CharSource;
 import com.google.common.io.Resources;
 import com.google.common.net.HttpHeaders;
 import com.google.common.net.MediaType;
 import io.github.mike10004.httpcapture.BrotliResponseTransform;
 import net.lightbody.bmp.core.har.*;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import java.io.IOException;
 import java.util.Base64;
@@ -110,4 +113,45 @@ public class BrotliResponseTransformTest {
         new BrotliResponseTransform().clean(har);
         assertEquals("num entries after clean", 1, har.getLog().getEntries().size());
     }
-}
\ No newline at end of file
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void clean_storedContent() throws Exception {
+        BodyStore bodyStore = BodyStore.inDirectory(temporaryFolder.getRoot().toPath());
+        byte[] plainCss = loadResource("/brotli/response.css");
+        String brotliHash = bodyStore.put(ByteSource.wrap(loadResource("/brotli/response.css.br")));
+        EnhancedHarResponse response = new EnhancedHarResponse(200, "OK", null);
+        response.getContent().setMimeType("text/css");
+        response.getContent().setContentHash(brotliHash);
+        response.getContent().setContentHashEncoding(HEADER_VALUE_BROTLI_ENCODED);
+        response.getHeaders().add(buildHeader(HttpHeaders.CONTENT_ENCODING, HEADER_VALUE_BROTLI_ENCODED));
+        Har har = new Har();
+        har.setLog(new HarLog());
+        har.getLog().addEntry(buildEntry(new HarRequest(), response));
+        List<HarEntry> cleaned = new BrotliResponseTransform(bodyStore).clean(har);
+        assertEquals("num cleaned entries", 1, cleaned.size());
+        String decodedHash = response.getContent().getContentHash();
+        assertNotEquals("hash", brotliHash, decodedHash);
+        assertNull("text", response.getContent().getText());
+        assertNull("encoding of stored content", response.getContent().getContentHashEncoding());
+        assertArrayEquals("decoded content", plainCss, bodyStore.get(decodedHash).read());
+    }
+
+    @Test
+    public void clean_storedContentAlreadyDecoded() throws Exception {
+        BodyStore bodyStore = BodyStore.inDirectory(temporaryFolder.getRoot().toPath());
+        String plainHash = bodyStore.put(ByteSource.wrap(loadResource("/brotli/response.css")));
+        EnhancedHarResponse response = new EnhancedHarResponse(200, "OK", null);
+        response.getContent().setMimeType("text/css");
+        response.getContent().setContentHash(plainHash);
+        response.getHeaders().add(buildHeader(HttpHeaders.CONTENT_ENCODING, HEADER_VALUE_BROTLI_ENCODED));
+        Har har = new Har();
+        har.setLog(new HarLog());
+        har.getLog().addEntry(buildEntry(new HarRequest(), response));
+        List<HarEntry> cleaned = new BrotliResponseTransform(bodyStore).clean(har);
+        assertEquals("num cleaned entries", 0, cleaned.size());
+        assertEquals("hash", plainHash, response.getContent().getContentHash());
+    }
+}
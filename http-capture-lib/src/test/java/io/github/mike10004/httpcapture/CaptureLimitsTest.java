@@ -0,0 +1,104 @@
+package io.github.mike10004.httpcapture;
+
+import com.google.common.base.Strings;
+import com.google.common.net.HostAndPort;
+import com.google.common.net.MediaType;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import io.github.mike10004.httpcapture.testing.TestClients;
+import io.github.mike10004.nanochamp.server.NanoControl;
+import io.github.mike10004.nanochamp.server.NanoResponse;
+import io.github.mike10004.nanochamp.server.NanoServer;
+import net.lightbody.bmp.core.har.Har;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.util.EntityUtils;
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.net.URI;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class CaptureLimitsTest {
+
+    @Test
+    public void getResponseContentLimit() {
+        CaptureLimits limits = CaptureLimits.builder()
+                .maxResponseContentBytes(1000)
+                .responseContentLimit("image/*", 10)
+                .responseContentLimit("image/SVG+xml", 500)
+                .build();
+        assertEquals("default", 1000, limits.getResponseContentLimit("text/html; charset=UTF-8"));
+        assertEquals("no content type", 1000, limits.getResponseContentLimit(null));
+        assertEquals("range", 10, limits.getResponseContentLimit("image/png"));
+        assertEquals("exact", 500, limits.getResponseContentLimit("Image/svg+xml; charset=utf-8"));
+        assertEquals("request default", Long.MAX_VALUE, limits.getRequestContentLimit("image/png"));
+    }
+
+    @Test
+    public void unlimited() {
+        assertEquals(Long.MAX_VALUE, CaptureLimits.unlimited().getResponseContentLimit("text/plain"));
+        assertEquals(Long.MAX_VALUE, CaptureLimits.unlimited().getRequestContentLimit("text/plain"));
+    }
+
+    @Test(timeout = 10000L)
+    public void truncateResponseContent() throws Exception {
+        String body = Strings.repeat("0123456789", 100);
+        // the response may be gzipped; decoding it as it arrives yields the length of the whole content
+        CaptureServer captureServer = BasicCaptureServer.builder()
+                .captureLimits(CaptureLimits.builder().maxResponseContentBytes(25).build())
+                .decompressionPolicy(DecompressionPolicy.incremental())
+                .build();
+        HarCaptureMonitor monitor = new HarCaptureMonitor();
+        NanoServer server = NanoServer.builder()
+                .get(session -> NanoResponse.status(200).content(MediaType.PLAIN_TEXT_UTF_8, body.getBytes(UTF_8)).build())
+                .build();
+        String responseText;
+        try (NanoControl ctrl = server.startServer()) {
+            URI url = ctrl.baseUri();
+            try (CaptureServerControl captureCtrl = captureServer.start(monitor)) {
+                HostAndPort proxyAddress = HostAndPort.fromParts("127.0.0.1", captureCtrl.getPort());
+                responseText = TestClients.fetch(proxyAddress, new HttpGet(url), response -> EntityUtils.toString(response.getEntity()));
+            }
+        }
+        assertEquals("client receives whole response", body, responseText);
+        Har har = monitor.getCapturedHar();
+        assertNotNull("har", har);
+        StringWriter out = new StringWriter();
+        har.writeTo(out);
+        JsonObject content = new JsonParser().parse(out.toString()).getAsJsonObject()
+                .getAsJsonObject("log").getAsJsonArray("entries").get(0).getAsJsonObject()
+                .getAsJsonObject("response").getAsJsonObject("content");
+        assertEquals("text", body.substring(0, 25), content.get("text").getAsString());
+        assertEquals("size", body.length(), content.get("size").getAsLong());
+        assertTrue("truncated", content.get("_truncated").getAsBoolean());
+    }
+
+    @Test(timeout = 10000L)
+    public void doNotMarkUntruncatedContent() throws Exception {
+        CaptureServer captureServer = BasicCaptureServer.builder()
+                .captureLimits(CaptureLimits.builder().maxResponseContentBytes(25).build())
+                .build();
+        HarCaptureMonitor monitor = new HarCaptureMonitor();
+        NanoServer server = NanoServer.builder()
+                .get(session -> NanoResponse.status(200).content(MediaType.PLAIN_TEXT_UTF_8, "hello".getBytes(UTF_8)).build())
+                .build();
+        try (NanoControl ctrl = server.startServer()) {
+            try (CaptureServerControl captureCtrl = captureServer.start(monitor)) {
+                HostAndPort proxyAddress = HostAndPort.fromParts("127.0.0.1", captureCtrl.getPort());
+                TestClients.fetch(proxyAddress, new HttpGet(ctrl.baseUri()), response -> EntityUtils.toString(response.getEntity()));
+            }
+        }
+        StringWriter out = new StringWriter();
+        monitor.getCapturedHar().writeTo(out);
+        JsonObject content = new JsonParser().parse(out.toString()).getAsJsonObject()
+                .getAsJsonObject("log").getAsJsonArray("entries").get(0).getAsJsonObject()
+                .getAsJsonObject("response").getAsJsonObject("content");
+        assertEquals("text", "hello", content.get("text").getAsString());
+        assertFalse("truncated field present", content.has("_truncated"));
+    }
+}
@@ -0,0 +1,114 @@
+package io.github.mike10004.httpcapture;
+
+import com.google.common.collect.Sets;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Benchmark that compares de-duplication of response objects by the set of objects
+ * already seen, as previously done by {@link CaptureMonitorFilter}, with the current
+ * per-filter state machine. Each response object is presented through both filter
+ * methods, as the proxy does. Run the main method; this is not a unit test.
+ */
+public class CaptureMonitorFilterBenchmark {
+
+    private static final int CHUNKS_PER_RESPONSE = 10_000;
+    private static final int WARMUP_ROUNDS = 20;
+    private static final int MEASURED_ROUNDS = 200;
+
+    private interface Deduplicator {
+        boolean accept(HttpObject httpObject, CaptureMonitorFilter.ResponseSource source);
+    }
+
+    /**
+     * Copy of the previous implementation. Note that content chunks that compare equal
+     * by {@link Object#equals(Object)} are collapsed, so the set stays small; the
+     * identity-based variant retains every object.
+     */
+    private static class SetDeduplicator implements Deduplicator {
+
+        private final Set<HttpObject> responseObjectsAccumulated;
+        private final Object responseObjectsLock = new Object();
+
+        public SetDeduplicator(Set<HttpObject> responseObjectsAccumulated) {
+            this.responseObjectsAccumulated = responseObjectsAccumulated;
+        }
+
+        @Override
+        public boolean accept(HttpObject httpObject, CaptureMonitorFilter.ResponseSource source) {
+            synchronized (responseObjectsLock) {
+                return responseObjectsAccumulated.add(httpObject);
+            }
+        }
+    }
+
+    private static List<HttpObject> createResponse() {
+        List<HttpObject> objects = new ArrayList<>(CHUNKS_PER_RESPONSE + 2);
+        objects.add(new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK));
+        for (int i = 0; i < CHUNKS_PER_RESPONSE; i++) {
+            objects.add(new DefaultHttpContent(Unpooled.wrappedBuffer(new byte[]{(byte) i})));
+        }
+        objects.add(LastHttpContent.EMPTY_LAST_CONTENT);
+        return objects;
+    }
+
+    private static long run(Deduplicator deduplicator, List<HttpObject> objects) {
+        long accepted = 0;
+        for (HttpObject object : objects) {
+            if (deduplicator.accept(object, CaptureMonitorFilter.ResponseSource.SERVER_TO_PROXY)) {
+                accepted++;
+            }
+            if (deduplicator.accept(object, CaptureMonitorFilter.ResponseSource.PROXY_TO_CLIENT)) {
+                accepted++;
+            }
+        }
+        return accepted;
+    }
+
+    private static List<Deduplicator> create(Supplier<Deduplicator> factory, int count) {
+        List<Deduplicator> instances = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            instances.add(factory.get());
+        }
+        return instances;
+    }
+
+    private static double measure(String name, Supplier<Deduplicator> factory, List<HttpObject> objects) {
+        long sink = 0;
+        for (Deduplicator deduplicator : create(factory, WARMUP_ROUNDS)) {
+            sink += run(deduplicator, objects);
+        }
+        List<Deduplicator> measured = create(factory, MEASURED_ROUNDS);
+        long start = System.nanoTime();
+        for (Deduplicator deduplicator : measured) {
+            sink += run(deduplicator, objects);
+        }
+        long elapsed = System.nanoTime() - start;
+        double nanosPerObject = (double) elapsed / MEASURED_ROUNDS / (objects.size() * 2);
+        System.out.format("%-16s %8.2f ns/call (checksum %d)%n", name, nanosPerObject, sink);
+        return nanosPerObject;
+    }
+
+    public static void main(String[] args) {
+        List<HttpObject> objects = createResponse();
+        CaptureMonitor monitor = har -> {};
+        System.out.format("%d objects per response, each presented twice%n", objects.size());
+        measure("state machine", () -> {
+            CaptureMonitorFilter filter = CaptureMonitorFilterTest.createFilter(monitor);
+            return filter::acceptResponseObject;
+        }, objects);
+        measure("hash set", () -> new SetDeduplicator(new HashSet<>()), objects);
+        measure("identity set", () -> new SetDeduplicator(Sets.newIdentityHashSet()), objects);
+    }
+}
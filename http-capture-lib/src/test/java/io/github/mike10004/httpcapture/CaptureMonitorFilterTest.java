@@ -0,0 +1,250 @@
+package io.github.mike10004.httpcapture;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.DefaultLastHttpContent;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CaptureMonitorFilterTest {
+
+    private static class RecordingMonitor extends HarCaptureMonitor {
+        public final List<HttpInteraction> interactions = new ArrayList<>();
+
+        @Override
+        public void responseReceived(ImmutableHttpRequest httpRequest, ImmutableHttpResponse httpResponse) {
+            interactions.add(new HttpInteraction(httpRequest, httpResponse));
+        }
+    }
+
+    @Test
+    public void serverResponse_passesThroughBothMethods() throws Exception {
+        RecordingMonitor monitor = new RecordingMonitor();
+        CaptureMonitorFilter filter = createFilter(monitor);
+        DefaultHttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+        response.headers().set(HttpHeaderNames.CONTENT_TYPE, "text/plain; charset=UTF-8");
+        List<HttpObject> objects = Arrays.asList(response,
+                new DefaultHttpContent(Unpooled.copiedBuffer("hello, ", UTF_8)),
+                new DefaultLastHttpContent(Unpooled.copiedBuffer("world", UTF_8)));
+        for (HttpObject object : objects) {
+            filter.serverToProxyResponse(object);
+            filter.proxyToClientResponse(object);
+        }
+        assertEquals("num notifications", 1, monitor.interactions.size());
+        ImmutableHttpResponse captured = monitor.interactions.get(0).getResponse();
+        assertEquals("status", 200, captured.status);
+        assertEquals("content", "hello, world", captured.getContentAsBytes().asCharSource(UTF_8).read());
+    }
+
+    @Test
+    public void proxyGeneratedResponse() throws Exception {
+        RecordingMonitor monitor = new RecordingMonitor();
+        CaptureMonitorFilter filter = createFilter(monitor);
+        DefaultFullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.BAD_GATEWAY);
+        filter.proxyToClientResponse(response);
+        assertEquals("num notifications", 1, monitor.interactions.size());
+        assertEquals("status", 502, monitor.interactions.get(0).getResponse().status);
+    }
+
+    @Test
+    public void connectionFailed_proxyResponseCaptured() throws Exception {
+        List<HttpExchange> exchanges = new ArrayList<>();
+        CaptureMonitorFilter filter = createFilter(new HarCaptureMonitor() {
+            @Override
+            public void exchangeCompleted(HttpExchange exchange) {
+                exchanges.add(exchange.retain());
+            }
+        });
+        filter.proxyToServerConnectionFailed();
+        assertEquals("num exchanges before proxy response", 0, exchanges.size());
+        DefaultFullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.BAD_GATEWAY, Unpooled.copiedBuffer("Bad Gateway", UTF_8));
+        response.headers().set(HttpHeaderNames.CONTENT_TYPE, "text/plain; charset=UTF-8");
+        filter.proxyToClientResponse(response);
+        assertEquals("num exchanges", 1, exchanges.size());
+        HttpExchange exchange = exchanges.get(0);
+        assertEquals("status", 502, exchange.getStatus());
+        assertNotNull("error", exchange.getError());
+        assertEquals("content", "Bad Gateway", exchange.getResponse().getContentAsChars().read());
+    }
+
+    @Test
+    public void connectionFailed_channelClosed() throws Exception {
+        List<HttpExchange> exchanges = new ArrayList<>();
+        EmbeddedChannel channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+        CaptureMonitorFilter filter = createFilter(new HarCaptureMonitor() {
+            @Override
+            public void exchangeCompleted(HttpExchange exchange) {
+                exchanges.add(exchange);
+            }
+        }, CaptureLimits.unlimited(), channel);
+        filter.proxyToServerConnectionFailed();
+        channel.close().sync();
+        assertEquals("num exchanges", 1, exchanges.size());
+        assertEquals("status", 0, exchanges.get(0).getStatus());
+        assertNotNull("error", exchanges.get(0).getError());
+    }
+
+    @Test
+    public void informationalResponse() throws Exception {
+        RecordingMonitor monitor = new RecordingMonitor();
+        CaptureMonitorFilter filter = createFilter(monitor);
+        List<HttpObject> objects = Arrays.asList(
+                new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.CONTINUE),
+                LastHttpContent.EMPTY_LAST_CONTENT,
+                new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.NO_CONTENT));
+        for (HttpObject object : objects) {
+            filter.serverToProxyResponse(object);
+            filter.proxyToClientResponse(object);
+        }
+        assertEquals("num notifications", 1, monitor.interactions.size());
+        assertEquals("status", 204, monitor.interactions.get(0).getResponse().status);
+    }
+
+    @Test
+    public void exchangeCompleted() throws Exception {
+        List<HttpExchange> exchanges = new ArrayList<>();
+        CaptureMonitorFilter filter = createFilter(new HarCaptureMonitor() {
+            @Override
+            public void exchangeCompleted(HttpExchange exchange) {
+                exchanges.add(exchange.retain());
+            }
+        });
+        DefaultFullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.NOT_FOUND, Unpooled.copiedBuffer("not found", UTF_8));
+        response.headers().set(HttpHeaderNames.CONTENT_TYPE, "text/plain; charset=UTF-8");
+        filter.serverToProxyResponse(response);
+        filter.proxyToClientResponse(response);
+        assertEquals("num exchanges", 1, exchanges.size());
+        HttpExchange exchange = exchanges.get(0);
+        assertEquals("status", 404, exchange.getStatus());
+        assertEquals("method", "GET", exchange.getMethod());
+        assertEquals("url", "http://localhost:12345/blah", exchange.getUrl());
+        assertNull("error", exchange.getError());
+        ImmutableHttpResponse captured = exchange.getResponse();
+        assertSame("response constructed once", captured, exchange.getResponse());
+        assertEquals("content", "not found", captured.getContentAsChars().read());
+        assertEquals("content-type", "text/plain; charset=UTF-8", captured.getFirstHeaderValue("Content-Type"));
+        assertEquals("request url", "/blah", exchange.getRequest().url.getPath());
+    }
+
+    @Test
+    public void captureLimit() throws Exception {
+        List<HttpExchange> exchanges = new ArrayList<>();
+        CaptureLimits limits = CaptureLimits.builder().maxResponseContentBytes(5).build();
+        CaptureMonitorFilter filter = createFilter(new HarCaptureMonitor() {
+            @Override
+            public void exchangeCompleted(HttpExchange exchange) {
+                exchanges.add(exchange.retain());
+            }
+        }, limits);
+        DefaultFullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK, Unpooled.copiedBuffer("hello, world", UTF_8));
+        response.headers().set(HttpHeaderNames.CONTENT_TYPE, "text/plain; charset=UTF-8");
+        filter.serverToProxyResponse(response);
+        assertEquals("num exchanges", 1, exchanges.size());
+        HttpExchange exchange = exchanges.get(0);
+        assertTrue("truncated", exchange.isResponseContentTruncated());
+        assertEquals("content", "hello", exchange.getResponse().getContentAsChars().read());
+    }
+
+    @Test
+    public void responseContentReleasedAfterNotification() throws Exception {
+        List<HttpExchange> exchanges = new ArrayList<>();
+        CaptureMonitorFilter filter = createFilter(new HarCaptureMonitor() {
+            @Override
+            public void exchangeCompleted(HttpExchange exchange) {
+                exchanges.add(exchange);
+            }
+        });
+        DefaultFullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK, Unpooled.copiedBuffer("hello, world", UTF_8));
+        response.headers().set(HttpHeaderNames.CONTENT_TYPE, "text/plain; charset=UTF-8");
+        filter.serverToProxyResponse(response);
+        assertEquals("num exchanges", 1, exchanges.size());
+        HttpExchange exchange = exchanges.get(0);
+        assertEquals("status", 200, exchange.getStatus());
+        try {
+            exchange.getResponse();
+            fail("content should have been released");
+        } catch (IllegalStateException ignore) {
+        }
+    }
+
+    @Test
+    public void asyncMonitor() throws Exception {
+        List<String> contents = Collections.synchronizedList(new ArrayList<>());
+        AsyncCaptureMonitor monitor = new AsyncCaptureMonitor(new HarCaptureMonitor() {
+            @Override
+            public void responseReceived(ImmutableHttpRequest httpRequest, ImmutableHttpResponse httpResponse) {
+                try {
+                    contents.add(httpResponse.getContentAsChars().read());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        });
+        CaptureMonitorFilter filter = createFilter(monitor);
+        DefaultFullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK, Unpooled.copiedBuffer("hello, world", UTF_8));
+        response.headers().set(HttpHeaderNames.CONTENT_TYPE, "text/plain; charset=UTF-8");
+        filter.serverToProxyResponse(response);
+        monitor.flush();
+        monitor.close();
+        assertEquals("contents", Collections.singletonList("hello, world"), contents);
+        assertEquals("failed", 0, monitor.getFailedCount());
+    }
+
+    @Test
+    public void acceptResponseObject() {
+        CaptureMonitorFilter filter = createFilter(new RecordingMonitor());
+        DefaultHttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+        DefaultHttpContent content = new DefaultHttpContent(Unpooled.EMPTY_BUFFER);
+        assertEquals(true, filter.acceptResponseObject(response, CaptureMonitorFilter.ResponseSource.SERVER_TO_PROXY));
+        assertEquals(false, filter.acceptResponseObject(response, CaptureMonitorFilter.ResponseSource.PROXY_TO_CLIENT));
+        assertEquals(true, filter.acceptResponseObject(content, CaptureMonitorFilter.ResponseSource.SERVER_TO_PROXY));
+        assertEquals(false, filter.acceptResponseObject(content, CaptureMonitorFilter.ResponseSource.PROXY_TO_CLIENT));
+        assertEquals(true, filter.acceptResponseObject(LastHttpContent.EMPTY_LAST_CONTENT, CaptureMonitorFilter.ResponseSource.SERVER_TO_PROXY));
+        assertEquals(false, filter.acceptResponseObject(LastHttpContent.EMPTY_LAST_CONTENT, CaptureMonitorFilter.ResponseSource.PROXY_TO_CLIENT));
+        assertEquals(false, filter.acceptResponseObject(new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.GATEWAY_TIMEOUT), CaptureMonitorFilter.ResponseSource.PROXY_TO_CLIENT));
+    }
+
+    static CaptureMonitorFilter createFilter(CaptureMonitor monitor) {
+        return createFilter(monitor, CaptureLimits.unlimited());
+    }
+
+    static CaptureMonitorFilter createFilter(CaptureMonitor monitor, CaptureLimits captureLimits) {
+        return createFilter(monitor, captureLimits, new EmbeddedChannel(new ChannelInboundHandlerAdapter()));
+    }
+
+    static CaptureMonitorFilter createFilter(CaptureMonitor monitor, CaptureLimits captureLimits, EmbeddedChannel channel) {
+        HttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "http://localhost:12345/blah");
+        request.headers().set(HttpHeaderNames.HOST, "localhost:12345");
+        ChannelHandlerContext ctx = channel.pipeline().firstContext();
+        CaptureMonitorFilter filter = new CaptureMonitorFilter(request, ctx, monitor, CaptureFilterSettings.builder().captureLimits(captureLimits).build());
+        filter.clientToProxyRequest(request);
+        return filter;
+    }
+}
@@ -0,0 +1,81 @@
+package io.github.mike10004.httpcapture;
+
+import net.lightbody.bmp.mitm.CertificateAndKey;
+import net.lightbody.bmp.mitm.CertificateInfo;
+import net.lightbody.bmp.mitm.HostnameCertificateInfoGenerator;
+import net.lightbody.bmp.mitm.keys.ECKeyGenerator;
+import net.lightbody.bmp.mitm.tools.DefaultSecurityProviderTool;
+import net.lightbody.bmp.mitm.util.MitmConstants;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class CertificateServiceTest {
+
+    private static final String SECRET = "shibboleth";
+
+    private static ImpersonationCertificateCache createCache() {
+        return new ImpersonationCertificateCache(100, Duration.ofHours(1), new ECKeyGenerator(), new DefaultSecurityProviderTool());
+    }
+
+    private static CertificateAndKey impersonate(ImpersonationCertificateCache cache, CertificateAndKey root, String hostname) {
+        CertificateInfo certificateInfo = new HostnameCertificateInfoGenerator().generate(Collections.singletonList(hostname), null);
+        return cache.createServerCertificate(certificateInfo, root.getCertificate(), root.getPrivateKey(), cache.getServerKeyGenerator().generate(), MitmConstants.DEFAULT_MESSAGE_DIGEST);
+    }
+
+    @Test
+    public void shareRootAndLeaves() throws Exception {
+        ImpersonationCertificateCache serviceCache = createCache();
+        try (AutoCertificateAndKeySource rootSource = AutoCertificateAndKeySource.builder().ellipticCurveKeys().build();
+             CertificateService service = new CertificateService(rootSource, serviceCache, SECRET)) {
+            int port = service.start(0);
+            CertificateServiceClient client1 = new CertificateServiceClient(port, SECRET);
+            CertificateServiceClient client2 = new CertificateServiceClient(port, SECRET);
+            CertificateAndKey root = client1.rootSource().load();
+            assertEquals("root certificate", rootSource.load().getCertificate(), root.getCertificate());
+            assertEquals("root key", rootSource.load().getPrivateKey(), root.getPrivateKey());
+            assertEquals("root from second client", root.getCertificate(), client2.rootSource().load().getCertificate());
+            ImpersonationCertificateCache localCache1 = client1.createLeafCache();
+            ImpersonationCertificateCache localCache2 = client2.createLeafCache();
+            CertificateAndKey leaf1 = impersonate(localCache1, root, "www.example.com");
+            CertificateAndKey leaf2 = impersonate(localCache2, root, "www.example.com");
+            assertEquals("leaf certificate", leaf1.getCertificate(), leaf2.getCertificate());
+            assertEquals("leaf key", leaf1.getPrivateKey(), leaf2.getPrivateKey());
+            assertEquals("issuer", root.getCertificate().getSubjectX500Principal(), leaf1.getCertificate().getIssuerX500Principal());
+            assertEquals("generated by service", 1, serviceCache.getStats().missCount());
+            assertEquals("fetched by service", 1, serviceCache.getStats().hitCount());
+            impersonate(localCache1, root, "www.example.com");
+            assertEquals("local hits", 1, localCache1.getStats().hitCount());
+            assertEquals("service requests", 2, serviceCache.getStats().requestCount());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void wrongSecret() throws Exception {
+        try (AutoCertificateAndKeySource rootSource = AutoCertificateAndKeySource.builder().ellipticCurveKeys().build();
+             CertificateService service = new CertificateService(rootSource, createCache(), SECRET)) {
+            int port = service.start(0);
+            new CertificateServiceClient(port, "incorrect").fetchRoot();
+        }
+    }
+
+    @Test
+    public void generateLocallyIfServiceUnavailable() throws Exception {
+        CertificateAndKey root;
+        CertificateServiceClient client;
+        try (AutoCertificateAndKeySource rootSource = AutoCertificateAndKeySource.builder().ellipticCurveKeys().build();
+             CertificateService service = new CertificateService(rootSource, createCache(), SECRET)) {
+            client = new CertificateServiceClient(service.start(0), SECRET, Duration.ofSeconds(5));
+            root = client.rootSource().load();
+        }
+        ImpersonationCertificateCache localCache = client.createLeafCache();
+        CertificateAndKey leaf = impersonate(localCache, root, "www.example.com");
+        assertEquals("issuer", root.getCertificate().getSubjectX500Principal(), leaf.getCertificate().getIssuerX500Principal());
+        assertNotEquals("subject", root.getCertificate().getSubjectX500Principal(), leaf.getCertificate().getSubjectX500Principal());
+    }
+}
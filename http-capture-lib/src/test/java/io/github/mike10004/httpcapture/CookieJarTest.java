@@ -0,0 +1,70 @@
+package io.github.mike10004.httpcapture;
+
+import com.google.common.collect.ImmutableMap;
+import net.lightbody.bmp.core.har.Har;
+import net.lightbody.bmp.core.har.HarEntry;
+import net.lightbody.bmp.core.har.HarLog;
+import org.junit.Test;
+
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+public class CookieJarTest {
+
+    private static Har createHar() {
+        long start = 1500000000000L;
+        HarLog log = new HarLog();
+        log.addEntry(HarAnalysisTest.createHarEntry(new Date(start), 10, ImmutableMap.of("foo", "1", "bar", "1")));
+        log.addEntry(HarAnalysisTest.createHarEntry(new Date(start + 3000), 10, ImmutableMap.of("foo", "3")));
+        log.addEntry(HarAnalysisTest.createHarEntry(new Date(start + 2000), 10, ImmutableMap.of("foo", "2", "baz", "2")));
+        log.addEntry(HarAnalysisTest.createHarEntry(new Date(start + 1000), 10, ImmutableMap.of()));
+        Har har = new Har();
+        har.setLog(log);
+        return har;
+    }
+
+    private static Map<String, String> toMap(List<DeserializableCookie> cookies) {
+        return cookies.stream().collect(Collectors.toMap(DeserializableCookie::getName, DeserializableCookie::getValue));
+    }
+
+    @Test
+    public void keepsMostRecent() {
+        Har har = createHar();
+        CookieJar jar = HarAnalysis.of(har).buildCookieJar();
+        assertEquals("received", 5, jar.getReceivedCount());
+        assertEquals("size", 3, jar.size());
+        Map<String, String> expected = toMap(HarAnalysis.of(har).findCookies().makeUltimateCookieList());
+        assertEquals("cookies", expected, toMap(jar.makeCookieList()));
+        assertEquals("foo", "3", toMap(jar.makeCookieList()).get("foo"));
+    }
+
+    @Test
+    public void customOrdering() {
+        Har har = createHar();
+        Comparator<DeserializableCookie> byValue = Comparator.comparing(DeserializableCookie::getValue);
+        Function<CookieKey, Comparator<? super DeserializableCookie>> orderingFactory = key -> byValue.reversed();
+        CookieJar jar = new CookieJar(SetCookieHeaderParser.create(), orderingFactory);
+        har.getLog().getEntries().forEach(jar::entryCompleted);
+        Map<String, String> expected = toMap(HarAnalysis.of(har).findCookies().makeCookieList(orderingFactory));
+        assertEquals("cookies", expected, toMap(jar.makeCookieList()));
+        DeserializableCookie foo = jar.get(CookieKey.from(jar.makeCookieList().stream().filter(c -> "foo".equals(c.getName())).findFirst().orElseThrow(IllegalStateException::new)));
+        assertNotNull(foo);
+        assertEquals("foo with least value", "1", foo.getValue());
+    }
+
+    @Test
+    public void entryCompleted_malformed() {
+        CookieJar jar = new CookieJar();
+        HarEntry entry = HarAnalysisTest.createHarEntry(new Date(), 10, ImmutableMap.of("foo", "1"));
+        entry.getRequest().setUrl("not a url");
+        jar.entryCompleted(entry);
+        assertEquals("size", 0, jar.size());
+    }
+}
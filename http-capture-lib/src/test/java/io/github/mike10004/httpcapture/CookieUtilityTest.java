@@ -0,0 +1,39 @@
+package io.github.mike10004.httpcapture;
+
+import org.junit.Test;
+
+import java.time.Instant;
+import java.util.Date;
+import java.util.function.Predicate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CookieUtilityTest {
+
+    @Test
+    public void formatSetCookieHeader() {
+        DeserializableCookie cookie = DeserializableCookie.builder("foo", "bar")
+                .expiry(Instant.parse("2018-11-29T19:22:24Z"))
+                .domain("www.example.com")
+                .path("/")
+                .secure(true)
+                .httpOnly(true)
+                .build();
+        String header = CookieUtility.getInstance().formatSetCookieHeader(cookie);
+        assertEquals("foo=bar; Expires=Thu, 29-Nov-2018 19:22:24 GMT; Domain=www.example.com; Path=/; Secure; HttpOnly", header);
+    }
+
+    @Test
+    public void notExpiredOn() {
+        Instant expiry = Instant.parse("2018-11-29T19:22:24Z");
+        DeserializableCookie expiring = DeserializableCookie.builder("foo", "bar").expiry(expiry).build();
+        DeserializableCookie session = DeserializableCookie.builder("baz", "gaw").build();
+        Predicate<org.apache.http.cookie.Cookie> before = CookieUtility.getInstance().notExpiredOn(expiry.minusMillis(1));
+        Predicate<org.apache.http.cookie.Cookie> at = CookieUtility.getInstance().notExpiredOn(Date.from(expiry));
+        assertTrue("before expiry", before.test(expiring));
+        assertFalse("at expiry", at.test(expiring));
+        assertTrue("session cookie", at.test(session));
+    }
+}
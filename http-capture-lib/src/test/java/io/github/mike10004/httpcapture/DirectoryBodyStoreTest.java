@@ -0,0 +1,99 @@
+package io.github.mike10004.httpcapture;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteSource;
+import com.google.common.net.HostAndPort;
+import com.google.common.net.MediaType;
+import io.github.mike10004.httpcapture.testing.TestClients;
+import io.github.mike10004.nanochamp.server.NanoControl;
+import io.github.mike10004.nanochamp.server.NanoResponse;
+import io.github.mike10004.nanochamp.server.NanoServer;
+import net.lightbody.bmp.core.har.HarContent;
+import net.lightbody.bmp.core.har.HarEntry;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.util.EntityUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.FileNotFoundException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DirectoryBodyStoreTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void putAndGet() throws Exception {
+        Path root = temporaryFolder.getRoot().toPath();
+        BodyStore store = BodyStore.inDirectory(root);
+        byte[] content = "hello".getBytes(UTF_8);
+        String hash = store.put(ByteSource.wrap(content));
+        assertEquals("hash", Hashing.sha256().hashBytes(content).toString(), hash);
+        assertEquals("same hash when stored again", hash, store.put(ByteSource.wrap(content)));
+        assertTrue("contains", store.contains(hash));
+        assertArrayEquals("content", content, store.get(hash).read());
+        assertEquals("num files", 1L, Files.walk(root).filter(Files::isRegularFile).count());
+    }
+
+    @Test(expected = FileNotFoundException.class)
+    public void get_absent() throws Exception {
+        BodyStore store = BodyStore.inDirectory(temporaryFolder.getRoot().toPath());
+        String hash = Hashing.sha256().hashBytes(new byte[]{1, 2, 3}).toString();
+        assertFalse("contains", store.contains(hash));
+        store.get(hash);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void get_invalidHash() throws Exception {
+        BodyStore.inDirectory(temporaryFolder.getRoot().toPath()).get("../../etc/passwd");
+    }
+
+    @Test(timeout = 10000L)
+    public void captureDuplicateBodies() throws Exception {
+        Path root = temporaryFolder.newFolder().toPath();
+        BodyStore store = BodyStore.inDirectory(root);
+        CaptureServer captureServer = BasicCaptureServer.builder()
+                .bodyStore(store)
+                .build();
+        HarCaptureMonitor monitor = new HarCaptureMonitor();
+        byte[] body = "same every time".getBytes(UTF_8);
+        NanoServer server = NanoServer.builder()
+                .get(session -> NanoResponse.status(200).content(MediaType.PLAIN_TEXT_UTF_8, body).build())
+                .build();
+        try (NanoControl ctrl = server.startServer()) {
+            try (CaptureServerControl captureCtrl = captureServer.start(monitor)) {
+                HostAndPort proxyAddress = HostAndPort.fromParts("127.0.0.1", captureCtrl.getPort());
+                for (String path : new String[]{"/a", "/b", "/c"}) {
+                    URI url = ctrl.baseUri().resolve(path);
+                    TestClients.fetch(proxyAddress, new HttpGet(url), response -> EntityUtils.toByteArray(response.getEntity()));
+                }
+            }
+        }
+        List<HarContent> contents = monitor.getCapturedHar().getLog().getEntries().stream()
+                .map(HarEntry::getResponse)
+                .map(r -> r.getContent())
+                .collect(Collectors.toList());
+        assertEquals("num entries", 3, contents.size());
+        String expectedHash = Hashing.sha256().hashBytes(body).toString();
+        for (HarContent content : contents) {
+            assertTrue("enhanced content", content instanceof EnhancedHarContent);
+            assertEquals("hash", expectedHash, ((EnhancedHarContent) content).getContentHash());
+            assertNull("text", content.getText());
+            assertEquals("size", body.length, content.getSize());
+        }
+        assertEquals("num stored files", 1L, Files.walk(root).filter(Files::isRegularFile).count());
+    }
+}
@@ -0,0 +1,47 @@
+package io.github.mike10004.httpcapture;
+
+import io.netty.handler.codec.http.cookie.ClientCookieDecoder;
+import io.netty.handler.codec.http.cookie.Cookie;
+import net.lightbody.bmp.core.har.HarCookie;
+import org.junit.Test;
+
+import java.net.URL;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class EnhancedHarCaptureFilterTest {
+
+    @Test
+    public void toHarCookie_sameAsNettyDecoded() throws Exception {
+        String[] headers = {
+                "a=1",
+                "b=2; Domain=example.com; Path=/app; Secure; HttpOnly; Max-Age=3600",
+                "c=3; Expires=Wed, 09 Jun 2121 10:18:14 GMT",
+                "d=4; Max-Age=0",
+        };
+        URL requestUrl = new URL("https://www.example.com/app/page");
+        for (String header : headers) {
+            List<org.apache.http.cookie.Cookie> parsed = HarAnalysis.DEFAULT_COOKIE_SPEC.parse(header, requestUrl, null);
+            assertEquals("num cookies parsed from " + header, 1, parsed.size());
+            HarCookie actual = EnhancedHarCaptureFilter.toHarCookie((DeserializableCookie) parsed.get(0));
+            Cookie expected = ClientCookieDecoder.LAX.decode(header);
+            assertEquals("name", expected.name(), actual.getName());
+            assertEquals("value", expected.value(), actual.getValue());
+            assertEquals("domain", expected.domain(), actual.getDomain());
+            assertEquals("path", expected.path(), actual.getPath());
+            assertEquals("secure", expected.isSecure(), actual.getSecure());
+            assertEquals("httpOnly", expected.isHttpOnly(), actual.getHttpOnly());
+            if (expected.maxAge() > 0) {
+                assertNotNull("expires in " + header, actual.getExpires());
+                long expectedExpiry = System.currentTimeMillis() + expected.maxAge() * 1000;
+                assertTrue("expires in " + header, Math.abs(expectedExpiry - actual.getExpires().getTime()) < 5000);
+            } else {
+                assertNull("expires in " + header, actual.getExpires());
+            }
+        }
+    }
+}
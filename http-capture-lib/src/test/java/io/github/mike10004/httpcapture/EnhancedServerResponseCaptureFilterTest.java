@@ -9,32 +9,50 @@ import io.github.mike10004.nanochamp.repackaged.fi.iki.elonen.NanoHTTPD;
 import io.github.mike10004.nanochamp.server.NanoControl;
 import io.github.mike10004.nanochamp.server.NanoResponse;
 import io.github.mike10004.nanochamp.server.NanoServer;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
 import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.DefaultHttpResponse;
 import io.netty.handler.codec.http.HttpMethod;
 import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponseStatus;
 import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
 import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.util.EntityUtils;
 import org.brotli.dec.BrotliInputStream;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.zip.GZIPOutputStream;
 
 import static java.nio.charset.StandardCharsets.US_ASCII;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Test for the brotli-aware filter.
  */
 public class EnhancedServerResponseCaptureFilterTest {
 
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     private static class RecordingMonitor extends HarCaptureMonitor {
         public final List<HttpInteraction> interactions;
 
@@ -90,6 +108,160 @@ public class EnhancedServerResponseCaptureFilterTest {
 
     }
 
+    @Test(timeout = 10000L)
+    public void decompressIncrementally_gzip() throws Exception {
+        byte[] uncompressed = loadUncompressedSample();
+        byte[] gzipped = gzip(uncompressed);
+        EnhancedServerResponseCaptureFilter filter = feedInChunks(gzipped, "gzip", DecompressionPolicy.incremental());
+        assertTrue("decompression successful", filter.isDecompressionSuccessful());
+        assertFalse("truncated", filter.isDecompressedContentTruncated());
+        assertArrayEquals("decompressed", uncompressed, filter.getFullResponseContents());
+        assertArrayEquals("raw", gzipped, filter.getRawResponseContents());
+        filter.releaseContents();
+    }
+
+    @Test(timeout = 10000L)
+    public void decompressIncrementally_gzipMembers() throws Exception {
+        byte[] uncompressed = loadUncompressedSample();
+        int half = uncompressed.length / 2;
+        ByteArrayOutputStream members = new ByteArrayOutputStream();
+        members.write(gzip(Arrays.copyOf(uncompressed, half)));
+        members.write(gzip(Arrays.copyOfRange(uncompressed, half, uncompressed.length)));
+        EnhancedServerResponseCaptureFilter filter = feedInChunks(members.toByteArray(), "gzip", DecompressionPolicy.incremental());
+        assertTrue("decompression successful", filter.isDecompressionSuccessful());
+        assertArrayEquals("decompressed", uncompressed, filter.getFullResponseContents());
+        filter.releaseContents();
+    }
+
+    @Test(timeout = 10000L)
+    public void decompressIncrementally_gzipCorrupt() throws Exception {
+        byte[] gzipped = gzip(loadUncompressedSample());
+        EnhancedServerResponseCaptureFilter filter = feedInChunks(Arrays.copyOf(gzipped, gzipped.length - 4), "gzip", DecompressionPolicy.incremental());
+        assertFalse("decompression successful", filter.isDecompressionSuccessful());
+        filter.releaseContents();
+    }
+
+    @Test(timeout = 10000L)
+    public void decompressIncrementally_brotli() throws Exception {
+        EnhancedServerResponseCaptureFilter filter = feedInChunks(loadBrotliCompressedSample(), "br", DecompressionPolicy.incremental());
+        assertArrayEquals("decompressed", loadUncompressedSample(), filter.getFullResponseContents());
+        filter.releaseContents();
+    }
+
+    @Test(timeout = 10000L)
+    public void decompressIncrementally_truncated() throws Exception {
+        byte[] uncompressed = loadUncompressedSample();
+        int limit = uncompressed.length / 2;
+        EnhancedServerResponseCaptureFilter filter = feedInChunks(gzip(uncompressed), "gzip", DecompressionPolicy.incremental(limit));
+        assertTrue("truncated", filter.isDecompressedContentTruncated());
+        assertEquals("size", limit, filter.getFullResponseContentSize());
+        assertArrayEquals("decompressed", Arrays.copyOf(uncompressed, limit), filter.getFullResponseContents());
+        filter.releaseContents();
+    }
+
+    @Test(timeout = 10000L)
+    public void captureLimit_gzip() throws Exception {
+        byte[] uncompressed = loadUncompressedSample();
+        int limit = 30;
+        CaptureLimits limits = CaptureLimits.builder().maxResponseContentBytes(limit).build();
+        EnhancedServerResponseCaptureFilter filter = feedInChunks(gzip(uncompressed), "gzip", DecompressionPolicy.incremental(), limits);
+        assertTrue("decompression successful", filter.isDecompressionSuccessful());
+        assertTrue("truncated", filter.isResponseContentTruncated());
+        assertEquals("true length", uncompressed.length, filter.getResponseContentLength());
+        assertArrayEquals("decompressed", Arrays.copyOf(uncompressed, limit), filter.getFullResponseContents());
+        filter.releaseContents();
+    }
+
+    @Test(timeout = 10000L)
+    public void captureLimit_gzipAtEnd() throws Exception {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            text.append("line ").append(i).append('\n');
+        }
+        byte[] uncompressed = text.toString().getBytes(US_ASCII);
+        byte[] gzipped = gzip(uncompressed);
+        int limit = gzipped.length / 2;
+        CaptureLimits limits = CaptureLimits.builder().maxResponseContentBytes(limit).build();
+        EnhancedServerResponseCaptureFilter filter = feedInChunks(gzipped, "gzip", DecompressionPolicy.atEnd(), limits);
+        assertTrue("decompression successful", filter.isDecompressionSuccessful());
+        assertTrue("truncated", filter.isResponseContentTruncated());
+        assertArrayEquals("raw", Arrays.copyOf(gzipped, limit), filter.getRawResponseContents());
+        assertArrayEquals("decompressed", Arrays.copyOf(uncompressed, limit), filter.getFullResponseContents());
+        assertEquals("true length", uncompressed.length, filter.getResponseContentLength());
+        filter.releaseContents();
+    }
+
+    @Test(timeout = 10000L)
+    public void captureLimit_brotliAtEnd() throws Exception {
+        byte[] uncompressed = loadUncompressedSample();
+        byte[] compressed = loadBrotliCompressedSample();
+        int limit = compressed.length / 2;
+        CaptureLimits limits = CaptureLimits.builder().maxResponseContentBytes(limit).build();
+        EnhancedServerResponseCaptureFilter filter = feedInChunks(compressed, "br", DecompressionPolicy.atEnd(), limits);
+        assertTrue("decompression successful", filter.isDecompressionSuccessful());
+        assertTrue("truncated", filter.isResponseContentTruncated());
+        assertArrayEquals("raw", Arrays.copyOf(compressed, limit), filter.getRawResponseContents());
+        assertArrayEquals("decompressed", Arrays.copyOf(uncompressed, limit), filter.getFullResponseContents());
+        assertEquals("true length", uncompressed.length, filter.getResponseContentLength());
+        filter.releaseContents();
+    }
+
+    @Test(timeout = 10000L)
+    public void captureLimit_identity() throws Exception {
+        byte[] content = loadUncompressedSample();
+        int limit = 30;
+        CaptureLimits limits = CaptureLimits.builder().maxResponseContentBytes(limit).build();
+        EnhancedServerResponseCaptureFilter filter = feedInChunks(content, "identity", DecompressionPolicy.atEnd(), limits);
+        assertTrue("truncated", filter.isResponseContentTruncated());
+        assertEquals("true length", content.length, filter.getResponseContentLength());
+        assertArrayEquals("raw", Arrays.copyOf(content, limit), filter.getRawResponseContents());
+        filter.releaseContents();
+    }
+
+    @Test
+    public void releaseContentsOnChannelClose() throws Exception {
+        File spillDir = temporaryFolder.newFolder();
+        EmbeddedChannel channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+        HttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "http://localhost:12345/blah");
+        EnhancedServerResponseCaptureFilter filter = new EnhancedServerResponseCaptureFilter(request, channel.pipeline().firstContext(), true,
+                CaptureFilterSettings.builder().contentBufferFactory(ContentBufferFactory.spilling(0, spillDir.toPath())).build());
+        filter.serverToProxyResponse(new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK));
+        filter.serverToProxyResponse(new DefaultHttpContent(Unpooled.wrappedBuffer(loadUncompressedSample())));
+        assertEquals("spill files before close", 1, spillDir.list().length);
+        channel.close().sync();
+        assertEquals("spill files after close", 0, spillDir.list().length);
+        filter.serverToProxyResponse(new DefaultHttpContent(Unpooled.wrappedBuffer(loadUncompressedSample())));
+        filter.serverToProxyResponse(LastHttpContent.EMPTY_LAST_CONTENT);
+        filter.releaseContents();
+    }
+
+    private static EnhancedServerResponseCaptureFilter feedInChunks(byte[] compressed, String contentEncoding, DecompressionPolicy policy) {
+        return feedInChunks(compressed, contentEncoding, policy, CaptureLimits.unlimited());
+    }
+
+    private static EnhancedServerResponseCaptureFilter feedInChunks(byte[] compressed, String contentEncoding, DecompressionPolicy policy, CaptureLimits limits) {
+        HttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "http://localhost:12345/blah");
+        EnhancedServerResponseCaptureFilter filter = new EnhancedServerResponseCaptureFilter(request, true, CaptureFilterSettings.builder().decompressionPolicy(policy).captureLimits(limits).build());
+        DefaultHttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+        response.headers().set(HttpHeaders.CONTENT_ENCODING, contentEncoding);
+        filter.serverToProxyResponse(response);
+        int chunkSize = Math.max(1, compressed.length / 7);
+        for (int offset = 0; offset < compressed.length; offset += chunkSize) {
+            int length = Math.min(chunkSize, compressed.length - offset);
+            filter.serverToProxyResponse(new DefaultHttpContent(Unpooled.wrappedBuffer(compressed, offset, length)));
+        }
+        filter.serverToProxyResponse(LastHttpContent.EMPTY_LAST_CONTENT);
+        return filter;
+    }
+
+    private static byte[] gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzout = new GZIPOutputStream(out)) {
+            gzout.write(bytes);
+        }
+        return out.toByteArray();
+    }
+
     public static class WithoutMockServerTest {
 
         @Test
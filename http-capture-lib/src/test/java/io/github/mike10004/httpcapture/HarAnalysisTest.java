@@ -1,9 +1,14 @@
 package io.github.mike10004.httpcapture;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.io.Files;
 import com.google.common.net.HttpHeaders;
 import com.google.gson.Gson;
+import net.lightbody.bmp.core.har.Har;
 import net.lightbody.bmp.core.har.HarEntry;
+import net.lightbody.bmp.core.har.HarLog;
 import net.lightbody.bmp.core.har.HarNameValuePair;
 import net.lightbody.bmp.core.har.HarRequest;
 import net.lightbody.bmp.core.har.HarResponse;
@@ -12,6 +17,8 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
+import java.io.File;
+import java.nio.charset.StandardCharsets;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
@@ -49,6 +56,54 @@ public class HarAnalysisTest {
         assertEquals("cookies", cookie1, cookie2);
     }
 
+    @Test
+    public void makeCookiesFromEntry_parsedAtCapture() throws Exception {
+        HarEntry entry = createHarEntry(new Date(), 10, ImmutableMap.of("foo", "bar"));
+        EnhancedHarResponse response = new EnhancedHarResponse();
+        response.getHeaders().addAll(entry.getResponse().getHeaders());
+        entry.setResponse(response);
+        List<DeserializableCookie> reparsed = HarAnalysis.makeCookiesFromEntry(entry);
+        // a value that differs from the header shows that the attached cookies are used
+        response.setSetCookies(ImmutableList.of(DeserializableCookie.builder("foo", "captured").domain("www.example.com").path("/").build()));
+        List<DeserializableCookie> cookies = HarAnalysis.makeCookiesFromEntry(entry);
+        assertEquals("cookie count", 1, cookies.size());
+        assertEquals("value", "captured", cookies.get(0).getValue());
+        assertEquals("creation date", reparsed.get(0).getCreationInstant(), cookies.get(0).getCreationInstant());
+        List<DeserializableCookie> specCookies = HarAnalysis.makeCookiesFromEntry(HarAnalysis.DEFAULT_COOKIE_SPEC, entry);
+        assertEquals("value with explicit parser", "bar", specCookies.get(0).getValue());
+    }
+
+    @Test
+    public void makeCookiesFromEntry_parsedAtCaptureReadFromFile() throws Exception {
+        HarEntry entry = createHarEntry(new Date(), 10, ImmutableMap.of("foo", "bar"));
+        EnhancedHarResponse response = new EnhancedHarResponse();
+        response.getHeaders().addAll(entry.getResponse().getHeaders());
+        response.setSetCookies(ImmutableList.of(DeserializableCookie.builder("foo", "captured").domain("www.example.com").path("/").build()));
+        entry.setResponse(response);
+        File harFile = temporaryFolder.newFile("cookies.har");
+        String entryJson = new ObjectMapper().writeValueAsString(entry);
+        Files.asCharSink(harFile, StandardCharsets.UTF_8).write("{\"log\": {\"entries\": [" + entryJson + "]}}");
+        HarIndex index = HarIndex.build(harFile);
+        HarEntry parsed = index.readEntry(index.getEntries().get(0));
+        List<DeserializableCookie> cookies = HarAnalysis.makeCookiesFromEntry(parsed);
+        assertEquals("cookie count", 1, cookies.size());
+        assertEquals("value", "captured", cookies.get(0).getValue());
+        assertEquals("domain", "www.example.com", cookies.get(0).getDomain());
+    }
+
+    @Test
+    public void findCookiesInParallel() throws Exception {
+        Har har = new Har(new HarLog());
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 500; i++) {
+            har.getLog().getEntries().add(createHarEntry(new Date(start + i * 1000L), 10, ImmutableMap.of("foo", "bar" + i, "baz" + (i % 7), "gaw" + i)));
+        }
+        CookieCollection expected = HarAnalysis.of(har).findCookies();
+        CookieCollection actual = HarAnalysis.of(har).findCookiesInParallel();
+        assertEquals("ultimate cookies", expected.makeUltimateCookieList(), actual.makeUltimateCookieList());
+        assertEquals("ultimate cookie count", 8, actual.makeUltimateCookieList().size());
+    }
+
     private boolean isEqual(HarEntry entry1, HarEntry entry2) {
         Gson gson = new Gson();
         String json1 = gson.toJson(entry1);
@@ -57,7 +112,7 @@ public class HarAnalysisTest {
     }
 
     @SuppressWarnings("SameParameterValue")
-    private static HarEntry createHarEntry(Date start, long duration, Map<String, String> cookieNamesAndValues) {
+    static HarEntry createHarEntry(Date start, long duration, Map<String, String> cookieNamesAndValues) {
         checkArgument(duration >= 6, "duration must be at least 6 milliseconds");
         HarEntry entry = new HarEntry();
         entry.setStartedDateTime(start);
@@ -0,0 +1,115 @@
+package io.github.mike10004.httpcapture;
+
+import com.google.common.io.Files;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import io.github.mike10004.httpcapture.testing.HarTestCase;
+import net.lightbody.bmp.core.har.HarEntry;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HarIndexTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File copyExampleHar() throws IOException {
+        File source = new HarTestCase("/example-captured.har").getPathname(temporaryFolder.getRoot().toPath());
+        File harFile = temporaryFolder.newFile("example.har");
+        Files.copy(source, harFile);
+        return harFile;
+    }
+
+    @Test
+    public void build() throws Exception {
+        File harFile = copyExampleHar();
+        JsonArray expected = new JsonParser().parse(Files.asCharSource(harFile, StandardCharsets.UTF_8).read())
+                .getAsJsonObject().getAsJsonObject("log").getAsJsonArray("entries");
+        HarIndex index = HarIndex.build(harFile);
+        List<HarIndexEntry> entries = index.getEntries();
+        assertEquals("num entries", expected.size(), entries.size());
+        for (int i = 0; i < expected.size(); i++) {
+            JsonObject expectedEntry = expected.get(i).getAsJsonObject();
+            HarIndexEntry entry = entries.get(i);
+            assertEquals("index", i, entry.getIndex());
+            assertEquals("url", expectedEntry.getAsJsonObject("request").get("url").getAsString(), entry.getUrl());
+            assertEquals("status", expectedEntry.getAsJsonObject("response").get("status").getAsInt(), entry.getStatus());
+            assertEquals("entry " + i + " bytes", expectedEntry, new JsonParser().parse(new String(index.readEntryBytes(entry), StandardCharsets.UTF_8)));
+            HarEntry parsed = index.readEntry(entry);
+            assertEquals("parsed url", entry.getUrl(), parsed.getRequest().getUrl());
+            assertEquals("parsed method", entry.getMethod(), parsed.getRequest().getMethod());
+        }
+        List<HarIndexEntry> notFound = index.find(entry -> entry.getStatus() == 404);
+        assertEquals("num 404", 1, notFound.size());
+    }
+
+    @Test
+    public void build_skipsFieldsAroundEntries() throws Exception {
+        File harFile = temporaryFolder.newFile("weird.har");
+        String har = "{\"meta\": {\"entries\": [{\"request\": {}}]}, \"log\": {\"comment\": \"}]\\\"{\", "
+                + "\"pages\": [{\"id\": \"p\"}], \"entries\": [ {\"request\": {\"method\": \"GET\", \"url\": \"http://x.example/\"}, "
+                + "\"response\": {\"status\": 503, \"content\": {\"mimeType\": \"text/plain\", \"text\": \"{[\\\"\"}}} ], \"x\": [{}]}}";
+        Files.asCharSink(harFile, StandardCharsets.UTF_8).write(har);
+        HarIndex index = HarIndex.build(harFile);
+        assertEquals("num entries", 1, index.getEntries().size());
+        HarIndexEntry entry = index.getEntries().get(0);
+        assertEquals("status", 503, entry.getStatus());
+        assertEquals("mimeType", "text/plain", entry.getMimeType());
+        assertEquals("host", "x.example", entry.getHost());
+        assertEquals("first byte", '{', har.charAt((int) entry.getOffset()));
+        assertEquals("last byte", '}', har.charAt((int) (entry.getOffset() + entry.getLength() - 1)));
+    }
+
+    @Test
+    public void open_sidecar() throws Exception {
+        File harFile = copyExampleHar();
+        File sidecarFile = HarIndex.getSidecarFile(harFile);
+        assertFalse("sidecar exists before open", sidecarFile.exists());
+        HarIndex built = HarIndex.open(harFile);
+        assertTrue("sidecar written", sidecarFile.isFile());
+        HarIndex loaded = HarIndex.open(harFile);
+        assertEquals("num entries", built.getEntries().size(), loaded.getEntries().size());
+        assertEquals("url of last entry", built.getEntries().get(built.getEntries().size() - 1).getUrl(), loaded.getEntries().get(loaded.getEntries().size() - 1).getUrl());
+        Files.asCharSink(harFile, StandardCharsets.UTF_8).write("{\"log\": {\"entries\": []}}");
+        assertEquals("num entries after HAR changed", 0, HarIndex.open(harFile).getEntries().size());
+    }
+
+    @Test
+    public void open_directoryNotWritable() throws Exception {
+        File harFile = copyExampleHar();
+        File directory = harFile.getParentFile();
+        assertTrue("made directory read-only", directory.setWritable(false, false));
+        try {
+            Assume.assumeFalse("permissions not enforced for this user", directory.canWrite());
+            HarIndex index = HarIndex.open(harFile);
+            assertEquals("num entries", HarIndex.build(harFile).getEntries().size(), index.getEntries().size());
+            assertFalse("sidecar written", HarIndex.getSidecarFile(harFile).exists());
+        } finally {
+            directory.setWritable(true, true);
+        }
+    }
+
+    @Test
+    public void open_sidecarNotWritable() throws Exception {
+        File harFile = copyExampleHar();
+        File sidecarFile = HarIndex.getSidecarFile(harFile);
+        // a non-empty directory in place of the sidecar file cannot be replaced
+        assertTrue("created directory at sidecar path", sidecarFile.mkdir());
+        Files.touch(new File(sidecarFile, "occupant"));
+        HarIndex index = HarIndex.open(harFile);
+        assertEquals("num entries", HarIndex.build(harFile).getEntries().size(), index.getEntries().size());
+        assertTrue("sidecar path still a directory", sidecarFile.isDirectory());
+    }
+}
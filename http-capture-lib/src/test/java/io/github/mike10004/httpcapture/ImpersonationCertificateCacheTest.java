@@ -0,0 +1,122 @@
+package io.github.mike10004.httpcapture;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import net.lightbody.bmp.mitm.CertificateAndKey;
+import net.lightbody.bmp.mitm.CertificateInfo;
+import net.lightbody.bmp.mitm.HostnameCertificateInfoGenerator;
+import net.lightbody.bmp.mitm.keys.ECKeyGenerator;
+import net.lightbody.bmp.mitm.tools.DefaultSecurityProviderTool;
+import net.lightbody.bmp.mitm.util.MitmConstants;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class ImpersonationCertificateCacheTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private static AutoCertificateAndKeySource createRootSource() {
+        return AutoCertificateAndKeySource.builder().ellipticCurveKeys().build();
+    }
+
+    private static ImpersonationCertificateCache createCache(long maxSize) {
+        return new ImpersonationCertificateCache(maxSize, Duration.ofHours(1), new ECKeyGenerator(), new DefaultSecurityProviderTool());
+    }
+
+    private static CertificateAndKey impersonate(ImpersonationCertificateCache cache, CertificateAndKey root, String hostname) {
+        CertificateInfo certificateInfo = new HostnameCertificateInfoGenerator().generate(Collections.singletonList(hostname), null);
+        return cache.createServerCertificate(certificateInfo, root.getCertificate(), root.getPrivateKey(), cache.getServerKeyGenerator().generate(), MitmConstants.DEFAULT_MESSAGE_DIGEST);
+    }
+
+    @Test
+    public void prewarmAndHit() throws Exception {
+        try (AutoCertificateAndKeySource rootSource = createRootSource()) {
+            ImpersonationCertificateCache cache = createCache(100);
+            assertEquals("generated", 2, cache.prewarm(rootSource, Arrays.asList("a.example.com", "b.example.com")));
+            assertEquals("generated again", 0, cache.prewarm(rootSource, Arrays.asList("a.example.com", "B.example.com")));
+            CertificateAndKey root = rootSource.load();
+            CertificateAndKey first = impersonate(cache, root, "a.example.com");
+            CertificateAndKey second = impersonate(cache, root, "a.example.com");
+            assertEquals("certificate", first.getCertificate(), second.getCertificate());
+            assertEquals("misses", 2, cache.getStats().missCount());
+            assertEquals("hits", 2, cache.getStats().hitCount());
+            assertEquals("size", 2, cache.size());
+        }
+    }
+
+    @Test
+    public void differentRoots() throws Exception {
+        ImpersonationCertificateCache cache = createCache(100);
+        try (AutoCertificateAndKeySource rootSource1 = createRootSource();
+             AutoCertificateAndKeySource rootSource2 = createRootSource()) {
+            CertificateAndKey leaf1 = impersonate(cache, rootSource1.load(), "a.example.com");
+            CertificateAndKey leaf2 = impersonate(cache, rootSource2.load(), "a.example.com");
+            assertNotEquals("certificates from different roots", leaf1.getCertificate(), leaf2.getCertificate());
+            assertEquals("issuer", rootSource2.load().getCertificate().getSubjectX500Principal(), leaf2.getCertificate().getIssuerX500Principal());
+        }
+    }
+
+    @Test
+    public void cacheKey() throws Exception {
+        try (AutoCertificateAndKeySource rootSource = createRootSource()) {
+            X509Certificate root = rootSource.load().getCertificate();
+            CertificateInfo certificateInfo = new HostnameCertificateInfoGenerator().generate(Collections.singletonList("A.example.com"), null);
+            String fingerprint = Hashing.sha256().hashBytes(root.getEncoded()).toString();
+            assertEquals("key", fingerprint + "/a.example.com", ImpersonationCertificateCache.cacheKey(root, certificateInfo));
+        }
+    }
+
+    @Test
+    public void maxSize() throws Exception {
+        try (AutoCertificateAndKeySource rootSource = createRootSource()) {
+            ImpersonationCertificateCache cache = createCache(1);
+            cache.prewarm(rootSource, Arrays.asList("a.example.com", "b.example.com", "c.example.com"));
+            assertEquals("size", 1, cache.size());
+        }
+    }
+
+    @Test
+    public void saveAndLoad() throws Exception {
+        Path file = temporaryFolder.getRoot().toPath().resolve("leaves.p12");
+        try (AutoCertificateAndKeySource rootSource = createRootSource()) {
+            ImpersonationCertificateCache cache = createCache(100);
+            cache.prewarm(rootSource, Arrays.asList("a.example.com", "b.example.com"));
+            CertificateAndKey root = rootSource.load();
+            CertificateAndKey saved = impersonate(cache, root, "a.example.com");
+            cache.save(file, "secret");
+            ImpersonationCertificateCache loadedCache = createCache(100);
+            assertEquals("loaded", 2, loadedCache.load(file, "secret"));
+            CertificateAndKey loaded = impersonate(loadedCache, root, "a.example.com");
+            assertEquals("certificate", saved.getCertificate(), loaded.getCertificate());
+            assertEquals("private key", saved.getPrivateKey(), loaded.getPrivateKey());
+            assertEquals("misses", 0, loadedCache.getStats().missCount());
+        }
+    }
+
+    @Test
+    public void findHttpsHosts() throws Exception {
+        File harFile = temporaryFolder.newFile("hosts.har");
+        String har = "{\"log\": {\"entries\": [" +
+                "{\"request\": {\"method\": \"GET\", \"url\": \"https://www.example.com/\"}, \"response\": {\"status\": 200}}, " +
+                "{\"request\": {\"method\": \"GET\", \"url\": \"http://plain.example.com/\"}, \"response\": {\"status\": 200}}, " +
+                "{\"request\": {\"method\": \"GET\", \"url\": \"https://CDN.example.com/a.js\"}, \"response\": {\"status\": 200}}, " +
+                "{\"request\": {\"method\": \"GET\", \"url\": \"https://www.example.com/b\"}, \"response\": {\"status\": 200}}" +
+                "]}}";
+        Files.asCharSink(harFile, StandardCharsets.UTF_8).write(har);
+        HarIndex index = HarIndex.build(harFile);
+        assertEquals("hosts", Arrays.asList("www.example.com", "cdn.example.com"), new java.util.ArrayList<>(ImpersonationCertificateCache.findHttpsHosts(index)));
+    }
+}
@@ -0,0 +1,44 @@
+package io.github.mike10004.httpcapture;
+
+import net.lightbody.bmp.core.har.HarEntry;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+
+public class IncompleteEntryTrackerTest {
+
+    @Test
+    public void drainIncomplete() {
+        List<HarEntry> completed = new ArrayList<>();
+        IncompleteEntryTracker tracker = new IncompleteEntryTracker(completed::add);
+        HarEntry finished = StreamingHarWriterTest.buildEntry("http://example.com/finished", 200);
+        HarEntry aborted = StreamingHarWriterTest.buildEntry("http://example.com/aborted", 200);
+        tracker.entryStarted(finished);
+        tracker.entryStarted(aborted);
+        tracker.entryCompleted(finished);
+        assertEquals("completed", Collections.singletonList(finished), completed);
+        assertNotEquals("comment on completed entry", IncompleteEntryTracker.INCOMPLETE_ENTRY_COMMENT, finished.getComment());
+        List<HarEntry> incomplete = tracker.drainIncomplete();
+        assertEquals("num incomplete", 1, incomplete.size());
+        assertSame("incomplete entry", aborted, incomplete.get(0));
+        assertEquals("comment", IncompleteEntryTracker.INCOMPLETE_ENTRY_COMMENT, aborted.getComment());
+    }
+
+    @Test
+    public void entryCompletedAfterDrain_notPassedToDelegate() {
+        List<HarEntry> completed = new ArrayList<>();
+        IncompleteEntryTracker tracker = new IncompleteEntryTracker(completed::add);
+        HarEntry entry = StreamingHarWriterTest.buildEntry("http://example.com/", 200);
+        tracker.entryStarted(entry);
+        assertEquals("num incomplete", 1, tracker.drainIncomplete().size());
+        tracker.entryCompleted(entry);
+        assertEquals("completed", Collections.emptyList(), completed);
+        assertEquals("drained again", Collections.emptyList(), tracker.drainIncomplete());
+    }
+}
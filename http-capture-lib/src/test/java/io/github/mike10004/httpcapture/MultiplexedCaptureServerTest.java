@@ -0,0 +1,140 @@
+package io.github.mike10004.httpcapture;
+
+import com.google.common.net.HostAndPort;
+import com.google.common.net.HttpHeaders;
+import com.google.common.net.MediaType;
+import com.google.common.util.concurrent.Uninterruptibles;
+import io.github.mike10004.httpcapture.testing.TestClients;
+import io.github.mike10004.nanochamp.server.NanoControl;
+import io.github.mike10004.nanochamp.server.NanoResponse;
+import io.github.mike10004.nanochamp.server.NanoServer;
+import net.lightbody.bmp.core.har.Har;
+import net.lightbody.bmp.core.har.HarEntry;
+import org.apache.http.client.methods.HttpGet;
+import org.junit.Test;
+
+import javax.annotation.Nullable;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class MultiplexedCaptureServerTest {
+
+    private static String basicCredentials(String username) {
+        return "Basic " + Base64.getEncoder().encodeToString((username + ":x").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static int fetchStatus(HostAndPort proxyAddress, String url, @Nullable String sessionId) throws Exception {
+        HttpGet request = new HttpGet(url);
+        if (sessionId != null) {
+            request.setHeader(HttpHeaders.PROXY_AUTHORIZATION, basicCredentials(sessionId));
+        }
+        return TestClients.fetch(proxyAddress, request, response -> response.getStatusLine().getStatusCode());
+    }
+
+    @Test(timeout = 15000L)
+    public void sessionsByProxyCredentials() throws Exception {
+        NanoServer server = NanoServer.builder()
+                .get(session -> NanoResponse.status(200).content(MediaType.PLAIN_TEXT_UTF_8, "hello".getBytes(StandardCharsets.UTF_8)).build())
+                .build();
+        HarCaptureMonitor monitor1 = new HarCaptureMonitor(), monitor2 = new HarCaptureMonitor();
+        try (NanoControl nano = server.startServer();
+             MultiplexedCaptureServerControl ctrl = BasicCaptureServer.builder().build().startMultiplexed(SessionResolver.proxyCredentials(), null)) {
+            String baseUrl = nano.baseUri().toString();
+            HostAndPort proxyAddress = HostAndPort.fromParts("127.0.0.1", ctrl.getPort());
+            CaptureServerControl session1 = ctrl.openSession("one", monitor1);
+            CaptureServerControl session2 = ctrl.openSession("two", monitor2);
+            assertEquals("port", ctrl.getPort(), session1.getPort());
+            assertEquals("status", 200, fetchStatus(proxyAddress, baseUrl + "a", "one"));
+            assertEquals("status", 200, fetchStatus(proxyAddress, baseUrl + "b", "two"));
+            assertEquals("status", 200, fetchStatus(proxyAddress, baseUrl + "c", "two"));
+            assertEquals("status without credentials", 407, fetchStatus(proxyAddress, baseUrl + "d", null));
+            assertEquals("status of unknown session", 407, fetchStatus(proxyAddress, baseUrl + "e", "three"));
+            session1.close();
+            assertFalse("session closed", session1.isStarted());
+            assertEquals("status of closed session", 407, fetchStatus(proxyAddress, baseUrl + "f", "one"));
+            assertEquals("open sessions", Collections.singleton("two"), ctrl.getSessionIds());
+            session2.close();
+        }
+        assertEquals("session one", Collections.singletonList("a"), paths(monitor1.getCapturedHar()));
+        assertEquals("session two", Arrays.asList("b", "c"), paths(monitor2.getCapturedHar()));
+    }
+
+    @Test(timeout = 15000L)
+    public void sessionsByClientAddress() throws Exception {
+        NanoServer server = NanoServer.builder()
+                .get(session -> NanoResponse.status(200).content(MediaType.PLAIN_TEXT_UTF_8, "hello".getBytes(StandardCharsets.UTF_8)).build())
+                .build();
+        HarCaptureMonitor monitor = new HarCaptureMonitor();
+        try (NanoControl nano = server.startServer();
+             MultiplexedCaptureServerControl ctrl = BasicCaptureServer.builder().build().startMultiplexed(SessionResolver.byClientAddress(address -> "local"), null)) {
+            HostAndPort proxyAddress = HostAndPort.fromParts("127.0.0.1", ctrl.getPort());
+            assertEquals("status before session opened", 403, fetchStatus(proxyAddress, nano.baseUri() + "a", null));
+            ctrl.openSession("local", monitor);
+            assertEquals("status", 200, fetchStatus(proxyAddress, nano.baseUri() + "b", null));
+        }
+        assertEquals("entries", Collections.singletonList("b"), paths(monitor.getCapturedHar()));
+    }
+
+    @Test(timeout = 15000L)
+    public void exchangeCompletedAfterSessionClosed() throws Exception {
+        CountDownLatch slowRequestReceived = new CountDownLatch(1), slowResponseAllowed = new CountDownLatch(1);
+        NanoServer server = NanoServer.builder()
+                .get(request -> {
+                    if (request.uri.getPath().endsWith("slow")) {
+                        slowRequestReceived.countDown();
+                        Uninterruptibles.awaitUninterruptibly(slowResponseAllowed);
+                    }
+                    return NanoResponse.status(200).content(MediaType.PLAIN_TEXT_UTF_8, "hello".getBytes(StandardCharsets.UTF_8)).build();
+                })
+                .build();
+        HarCaptureMonitor monitor = new HarCaptureMonitor();
+        try (NanoControl nano = server.startServer();
+             MultiplexedCaptureServerControl ctrl = BasicCaptureServer.builder().build().startMultiplexed(SessionResolver.proxyCredentials(), null)) {
+            HostAndPort proxyAddress = HostAndPort.fromParts("127.0.0.1", ctrl.getPort());
+            CaptureServerControl session = ctrl.openSession("one", monitor);
+            assertEquals("status", 200, fetchStatus(proxyAddress, nano.baseUri() + "a", "one"));
+            CompletableFuture<Integer> slowStatus = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return fetchStatus(proxyAddress, nano.baseUri() + "slow", "one");
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                }
+            });
+            slowRequestReceived.await();
+            session.close();
+            slowResponseAllowed.countDown();
+            assertEquals("status of exchange completed after close", 200, slowStatus.get().intValue());
+        }
+        Har captured = monitor.getCapturedHar();
+        assertEquals("entries", Arrays.asList("a", "slow"), paths(captured));
+        assertEquals("comment on entry in flight when session closed", IncompleteEntryTracker.INCOMPLETE_ENTRY_COMMENT, captured.getLog().getEntries().get(1).getComment());
+    }
+
+    @Test
+    public void parseUsername() {
+        assertEquals("one", ProxyCredentialsSessionResolver.parseUsername(basicCredentials("one")));
+        assertEquals("one", ProxyCredentialsSessionResolver.parseUsername("basic " + Base64.getEncoder().encodeToString("one".getBytes(StandardCharsets.UTF_8))));
+        assertNull(ProxyCredentialsSessionResolver.parseUsername("Bearer abc"));
+        assertNull(ProxyCredentialsSessionResolver.parseUsername("Basic !!!"));
+        assertNull(ProxyCredentialsSessionResolver.parseUsername(basicCredentials("")));
+        assertNull(ProxyCredentialsSessionResolver.parseUsername(null));
+    }
+
+    private static List<String> paths(Har har) {
+        return har.getLog().getEntries().stream()
+                .map(HarEntry::getRequest)
+                .map(request -> request.getUrl().replaceAll("^.*/", ""))
+                .collect(Collectors.toList());
+    }
+}
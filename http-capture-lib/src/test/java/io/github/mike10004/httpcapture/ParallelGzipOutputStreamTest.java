@@ -0,0 +1,63 @@
+package io.github.mike10004.httpcapture;
+
+import com.google.common.io.ByteSource;
+import com.google.common.io.ByteStreams;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ParallelGzipOutputStreamTest {
+
+    @Test
+    public void multipleBlocks() throws Exception {
+        byte[] data = new byte[100_000];
+        Random random = new Random(0x9e3779b9L);
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) ('a' + random.nextInt(4));
+        }
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (ParallelGzipOutputStream out = new ParallelGzipOutputStream(compressed, Deflater.BEST_SPEED, 4096, 3)) {
+            out.write(data, 0, 10);
+            out.write(data[10]);
+            out.flush();
+            out.write(data, 11, data.length - 11);
+        }
+        assertTrue("compressed", compressed.size() < data.length / 2);
+        assertArrayEquals("decompressed", data, gunzip(compressed.toByteArray()));
+    }
+
+    @Test
+    public void empty() throws Exception {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        new ParallelGzipOutputStream(compressed, Deflater.DEFAULT_COMPRESSION).close();
+        assertEquals("decompressed length", 0, gunzip(compressed.toByteArray()).length);
+    }
+
+    @Test
+    public void decompressingIfGzip() throws Exception {
+        byte[] text = "{\"log\": {}}".getBytes(UTF_8);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (ParallelGzipOutputStream out = new ParallelGzipOutputStream(compressed, Deflater.DEFAULT_COMPRESSION)) {
+            out.write(text);
+        }
+        assertArrayEquals("gzip", text, Compression.decompressingIfGzip(ByteSource.wrap(compressed.toByteArray())).read());
+        assertArrayEquals("plain", text, Compression.decompressingIfGzip(ByteSource.wrap(text)).read());
+        assertArrayEquals("empty", new byte[0], Compression.decompressingIfGzip(ByteSource.empty()).read());
+    }
+
+    private static byte[] gunzip(byte[] compressed) throws Exception {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            return ByteStreams.toByteArray(in);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package io.github.mike10004.httpcapture;
+
+import com.google.common.net.MediaType;
+import io.github.mike10004.nanochamp.server.NanoControl;
+import io.github.mike10004.nanochamp.server.NanoResponse;
+import io.github.mike10004.nanochamp.server.NanoServer;
+import org.apache.http.HttpHost;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark that measures the number of requests per second that the capture proxy
+ * handles with different thread pool sizes. Requests are sent by concurrent clients
+ * to a local web server through the proxy. Run the main method, optionally with the
+ * number of concurrent clients and the number of seconds per measurement as arguments;
+ * this is not a unit test.
+ */
+public class ProxyThroughputBenchmark {
+
+    private static final int WARMUP_SECONDS = 3;
+
+    private static void measure(String name, ProxyThreads proxyThreads, String url, int clients, int seconds) throws Exception {
+        CaptureServer server = BasicCaptureServer.builder()
+                .proxyThreads(proxyThreads)
+                .build();
+        try (CaptureServerControl ctrl = server.start(new HarCaptureMonitor());
+             CloseableHttpClient client = HttpClients.custom()
+                     .setProxy(new HttpHost("127.0.0.1", ctrl.getPort()))
+                     .setMaxConnTotal(clients)
+                     .setMaxConnPerRoute(clients)
+                     .build()) {
+            run(client, url, clients, WARMUP_SECONDS);
+            long requests = run(client, url, clients, seconds);
+            System.out.format("%-24s %8.0f requests/s (%s)%n", name, (double) requests / seconds, proxyThreads);
+        }
+    }
+
+    private static long run(CloseableHttpClient client, String url, int clients, int seconds) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        ExecutorService executor = Executors.newFixedThreadPool(clients);
+        try {
+            List<Future<Long>> futures = new ArrayList<>();
+            for (int i = 0; i < clients; i++) {
+                futures.add(executor.submit(() -> {
+                    long count = 0;
+                    while (System.nanoTime() < deadline) {
+                        try (CloseableHttpResponse response = client.execute(new HttpGet(url))) {
+                            EntityUtils.consume(response.getEntity());
+                        }
+                        count++;
+                    }
+                    return count;
+                }));
+            }
+            long total = 0;
+            for (Future<Long> future : futures) {
+                total += future.get();
+            }
+            return total;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        byte[] body = new byte[16 * 1024];
+        Arrays.fill(body, (byte) 'a');
+        NanoServer server = NanoServer.builder()
+                .get(session -> NanoResponse.status(200).content(MediaType.PLAIN_TEXT_UTF_8, body).build())
+                .build();
+        try (NanoControl nano = server.startServer()) {
+            String url = nano.baseUri().resolve("/page").toString();
+            System.out.format("%d clients, %d seconds per measurement, %d processors%n", clients, seconds, Runtime.getRuntime().availableProcessors());
+            measure("single worker", ProxyThreads.builder().clientToProxyWorkerThreads(1).proxyToServerWorkerThreads(1).build(), url, clients, seconds);
+            measure("defaults", ProxyThreads.defaults(), url, clients, seconds);
+            measure("2 per processor", ProxyThreads.builder().workerThreadsPerProcessor(2).build(), url, clients, seconds);
+        }
+    }
+}
@@ -8,8 +8,13 @@ import io.github.mike10004.httpcapture.RFC6265SetCookieHeaderParser;
 import org.apache.http.cookie.Cookie;
 import org.apache.http.cookie.CookieOrigin;
 import org.apache.http.message.BasicHeader;
+import org.apache.http.message.BufferedHeader;
+import org.apache.http.util.CharArrayBuffer;
 import org.junit.Test;
 
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
 import java.util.List;
 
 import static org.junit.Assert.*;
@@ -32,4 +37,73 @@ public class RFC6265SetCookieHeaderParserTest {
         assertNotNull("expiry null", c.getExpiryDate());
     }
 
-}
\ No newline at end of file
+    @Test
+    public void parse_simpleSameAsTokenParser() throws Exception {
+        RFC6265SetCookieHeaderParser parser = new RFC6265SetCookieHeaderParser(CookieAttributeHandlers.getDefaultAttributeHandlers());
+        CookieOrigin origin = CookieUtility.getInstance().buildCookieOrigin(new java.net.URL("https://www.example.com/a/b")).getLeft();
+        Instant creationDate = Instant.parse("2018-01-02T03:04:05Z");
+        List<String> headerValues = Arrays.asList(
+                "foo=bar",
+                "foo=bar;",
+                "foo=bar; ",
+                "  foo  =  bar baz  ; Path=/x ; Secure",
+                "foo=; Max-Age=60; Expires=Fri, 02-Jun-2017 21:54:46 GMT",
+                "foo=bar; Domain=.example.com; HttpOnly; ; Comment=\"hello\"",
+                "foo=a=b=c; path",
+                "foo",
+                "=bar",
+                "",
+                "foo=\"quoted value\"; Path=/",
+                "foo=bar\tbaz",
+                "foo=bar  baz",
+                "foo;bar=baz");
+        for (String headerValue : headerValues) {
+            CharArrayBuffer buffer = new CharArrayBuffer(headerValue.length() + 12);
+            buffer.append(HttpHeaders.SET_COOKIE + ": " + headerValue);
+            List<Cookie> expected, actual;
+            try {
+                expected = parser.parse(new BufferedHeader(buffer), origin, creationDate);
+            } catch (org.apache.http.cookie.MalformedCookieException e) {
+                try {
+                    parser.parse(headerValue, origin, creationDate);
+                    fail("expected exception parsing " + headerValue);
+                } catch (org.apache.http.cookie.MalformedCookieException ignore) {
+                }
+                continue;
+            }
+            actual = parser.parse(headerValue, origin, creationDate);
+            assertEquals(headerValue + " size", expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                DeserializableCookie expectedCookie = (DeserializableCookie) expected.get(i);
+                DeserializableCookie actualCookie = (DeserializableCookie) actual.get(i);
+                // Max-Age expiry is computed from the clock at each parse
+                assertEquals(headerValue, withoutExpiry(expectedCookie), withoutExpiry(actualCookie));
+                assertExpiryClose(headerValue, expectedCookie.getExpiryInstant(), actualCookie.getExpiryInstant());
+            }
+        }
+    }
+
+    private static DeserializableCookie withoutExpiry(DeserializableCookie cookie) {
+        return cookie.toBuilder().expiry((Instant) null).build();
+    }
+
+    private static void assertExpiryClose(String message, Instant expected, Instant actual) {
+        if (expected == null || actual == null) {
+            assertEquals(message + " expiry", expected, actual);
+            return;
+        }
+        long differenceMillis = Math.abs(Duration.between(expected, actual).toMillis());
+        assertTrue(message + " expiry " + actual + " not close to " + expected, differenceMillis <= Duration.ofSeconds(5).toMillis());
+    }
+
+    @Test
+    public void parseSimple_givesUpOnQuotedValue() throws Exception {
+        RFC6265SetCookieHeaderParser parser = new RFC6265SetCookieHeaderParser(CookieAttributeHandlers.getDefaultAttributeHandlers());
+        CookieOrigin origin = CookieUtility.getInstance().buildCookieOrigin(new java.net.URL("https://www.example.com/")).getLeft();
+        String headerValue = "foo=\"bar\"";
+        assertNull(parser.parseSimple(headerValue, origin, null));
+        List<Cookie> cookies = parser.parse(headerValue, origin, null);
+        assertEquals("value", "bar", cookies.get(0).getValue());
+    }
+
+}
@@ -0,0 +1,116 @@
+package io.github.mike10004.httpcapture;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import net.lightbody.bmp.core.har.HarEntry;
+import net.lightbody.bmp.core.har.HarLog;
+import net.lightbody.bmp.core.har.HarNameVersion;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RollingHarWriterTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void rotateByEntryCount() throws Exception {
+        Path dir = temporaryFolder.getRoot().toPath();
+        RollingHarWriter writer = new RollingHarWriter(dir, "capture", UTF_8, RotationPolicy.builder().maxEntries(2).build());
+        writer.start(new HarLog(new HarNameVersion("test", "1.0")));
+        for (int i = 0; i < 4; i++) {
+            writer.append(buildEntry(i));
+        }
+        HarLog finalLog = new HarLog();
+        finalLog.addEntry(buildEntry(4));
+        writer.finish(finalLog);
+        assertEquals("entry count", 5, writer.getEntryCount());
+        List<HarSegment> segments = RollingHarWriter.readIndex(writer.getIndexFile().toFile());
+        assertEquals("num segments", 3, segments.size());
+        int[] expectedCounts = {2, 2, 1};
+        for (int i = 0; i < segments.size(); i++) {
+            HarSegment segment = segments.get(i);
+            assertEquals("filename", String.format("capture-%05d.har", i + 1), segment.getFile());
+            File segmentFile = dir.resolve(segment.getFile()).toFile();
+            assertEquals("bytes", segmentFile.length(), segment.getBytes());
+            JsonObject log = parseLog(segmentFile);
+            assertEquals("creator", "test", log.getAsJsonObject("creator").get("name").getAsString());
+            JsonArray entries = log.getAsJsonArray("entries");
+            assertEquals("entries in " + segment, expectedCounts[i], entries.size());
+            assertEquals("index entry count", expectedCounts[i], segment.getEntries());
+        }
+        assertEquals("start of first segment", entryStart(0).toString(), segments.get(0).getStartedDateTime());
+        assertEquals("end of first segment", entryStart(1).plusMillis(buildEntry(1).getTime()).toString(), segments.get(0).getEndedDateTime());
+    }
+
+    @Test
+    public void rotateBySize() throws Exception {
+        Path dir = temporaryFolder.getRoot().toPath();
+        RollingHarWriter writer = new RollingHarWriter(dir, "capture", UTF_8, RotationPolicy.builder().maxBytes(1).build());
+        writer.start(new HarLog());
+        writer.append(buildEntry(0));
+        writer.append(buildEntry(1));
+        writer.finish(new HarLog());
+        List<HarSegment> segments = writer.getCompletedSegments();
+        assertEquals("num segments", 2, segments.size());
+        assertFalse("no empty trailing segment", dir.resolve("capture-00003.har").toFile().exists());
+    }
+
+    @Test(timeout = 10000L)
+    public void rotateByAge() throws Exception {
+        Path dir = temporaryFolder.getRoot().toPath();
+        RollingHarWriter writer = new RollingHarWriter(dir, "capture", UTF_8, RotationPolicy.builder().maxAge(Duration.ofMillis(200)).build());
+        writer.start(new HarLog());
+        writer.append(buildEntry(0));
+        File indexFile = writer.getIndexFile().toFile();
+        while (!indexFile.exists()) {
+            Thread.sleep(50);
+        }
+        parseLog(dir.resolve("capture-00001.har").toFile());
+        writer.append(buildEntry(1));
+        writer.finish(new HarLog());
+        assertEquals("num segments", 2, writer.getCompletedSegments().size());
+    }
+
+    @Test
+    public void finish_noEntries() throws Exception {
+        Path dir = temporaryFolder.getRoot().toPath();
+        RollingHarWriter writer = new RollingHarWriter(dir, "capture", UTF_8, RotationPolicy.builder().maxEntries(10).build());
+        writer.close();
+        List<HarSegment> segments = writer.getCompletedSegments();
+        assertEquals("num segments", 1, segments.size());
+        assertTrue("empty log", parseLog(dir.resolve(segments.get(0).getFile()).toFile()).getAsJsonArray("entries").size() == 0);
+    }
+
+    private static JsonObject parseLog(File harFile) throws IOException {
+        String json = com.google.common.io.Files.asCharSource(harFile, UTF_8).read();
+        return new JsonParser().parse(json).getAsJsonObject().getAsJsonObject("log");
+    }
+
+    private static Instant entryStart(int index) {
+        return Instant.parse("2019-01-01T00:00:00Z").plusSeconds(index);
+    }
+
+    private static HarEntry buildEntry(int index) {
+        HarEntry entry = StreamingHarWriterTest.buildEntry("http://example.com/" + index, 200);
+        entry.setStartedDateTime(Date.from(entryStart(index)));
+        entry.getTimings().setWait(100, TimeUnit.MILLISECONDS);
+        return entry;
+    }
+}
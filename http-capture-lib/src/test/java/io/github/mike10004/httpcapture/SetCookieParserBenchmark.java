@@ -0,0 +1,68 @@
+package io.github.mike10004.httpcapture;
+
+import com.google.common.net.HttpHeaders;
+import org.apache.http.cookie.Cookie;
+import org.apache.http.cookie.CookieOrigin;
+import org.apache.http.cookie.MalformedCookieException;
+import org.apache.http.message.BufferedHeader;
+import org.apache.http.util.CharArrayBuffer;
+
+import java.net.URL;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Benchmark that compares the single-pass parsing of Set-Cookie header values by
+ * {@link RFC6265SetCookieHeaderParser#parse(String, CookieOrigin, Instant)} with parsing
+ * by the token parser, as previously done for all values. Run the main method, optionally
+ * with the number of millions of values to parse as the argument; this is not a unit test.
+ */
+public class SetCookieParserBenchmark {
+
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int MEASURED_ROUNDS = 5;
+
+    private static final String[] HEADER_VALUES = {
+            "NID=91=oI2ExtvFoN4kD-2WpEnUakCOCF8v7hYBdstNvNjpytHSdD4J0Xe4HhQaCZrEfK_n1fBV4g-XVupMh-rOqu9iEObzBgTaSxThq3XINSgRFMo7a2a3npe9VBn4wBOFJsskdF1eTvYyADyjr3k; expires=Fri, 02-Jun-2017 21:54:46 GMT; path=/; domain=.google.com; HttpOnly",
+            "session_id=8f14e45fceea167a5a36dedd4bea2543; Path=/; Secure; HttpOnly",
+            "_ga=GA1.2.1234567890.1514764800; Max-Age=63072000; Domain=.example.com; Path=/",
+            "theme=dark",
+    };
+
+    private interface Parser {
+        List<Cookie> parse(String headerValue) throws MalformedCookieException;
+    }
+
+    private static void measure(String name, Parser parser, int count) throws MalformedCookieException {
+        long sink = 0;
+        for (int round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; round++) {
+            if (round == WARMUP_ROUNDS) {
+                sink = 0;
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                sink += parser.parse(HEADER_VALUES[i % HEADER_VALUES.length]).size();
+            }
+            long elapsed = System.nanoTime() - start;
+            if (round >= WARMUP_ROUNDS) {
+                System.out.format("%-14s round %d: %6.0f ns/value%n", name, round - WARMUP_ROUNDS + 1, (double) elapsed / count);
+            }
+        }
+        System.out.format("%-14s checksum %d%n", name, sink);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int count = (args.length > 0 ? Integer.parseInt(args[0]) : 1) * 1000 * 1000;
+        RFC6265SetCookieHeaderParser parser = new RFC6265SetCookieHeaderParser(CookieAttributeHandlers.getDefaultAttributeHandlers());
+        CookieOrigin origin = CookieUtility.getInstance().buildCookieOrigin(new URL("https://www.example.com/")).getLeft();
+        Instant creationDate = Instant.now();
+        measure("single pass", value -> parser.parse(value, origin, creationDate), count);
+        measure("token parser", value -> {
+            CharArrayBuffer buffer = new CharArrayBuffer(HttpHeaders.SET_COOKIE.length() + 2 + value.length());
+            buffer.append(HttpHeaders.SET_COOKIE);
+            buffer.append(": ");
+            buffer.append(value);
+            return parser.parse(new BufferedHeader(buffer), origin, creationDate);
+        }, count);
+    }
+}
@@ -0,0 +1,123 @@
+package io.github.mike10004.httpcapture;
+
+import com.google.common.io.ByteStreams;
+import io.netty.buffer.AbstractByteBufAllocator;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SpillingContentBufferTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void inMemory() throws Exception {
+        byte[] content = randomBytes(100 * 1024);
+        File dir = temporaryFolder.getRoot();
+        try (SpillingContentBuffer buffer = new SpillingContentBuffer(PooledByteBufAllocator.DEFAULT, content.length, dir.toPath())) {
+            appendInChunks(buffer, content, 1000);
+            assertFalse("spilled", buffer.isSpilled());
+            assertEquals("size", content.length, buffer.size());
+            assertArrayEquals("content", content, buffer.asByteSource().read());
+            assertArrayEquals("content via stream", content, ByteStreams.toByteArray(buffer.asByteSource().openStream()));
+        }
+        assertEquals("files in spill dir", 0, dir.list().length);
+    }
+
+    @Test
+    public void spilled() throws Exception {
+        byte[] content = randomBytes(100 * 1024);
+        File dir = temporaryFolder.getRoot();
+        SpillingContentBuffer buffer = new SpillingContentBuffer(PooledByteBufAllocator.DEFAULT, 10 * 1024, dir.toPath());
+        try {
+            appendInChunks(buffer, content, 1000);
+            assertTrue("spilled", buffer.isSpilled());
+            assertEquals("files in spill dir", 1, dir.list().length);
+            assertEquals("size", content.length, buffer.size());
+            assertArrayEquals("content", content, buffer.asByteSource().read());
+        } finally {
+            buffer.close();
+        }
+        assertEquals("files in spill dir after close", 0, dir.list().length);
+    }
+
+    @Test
+    public void append_doesNotModifyReaderIndex() throws Exception {
+        ByteBuf buf = Unpooled.wrappedBuffer(new byte[]{1, 2, 3});
+        try (ContentBuffer buffer = ContentBufferFactory.inMemory().create()) {
+            buffer.append(buf);
+            assertEquals("reader index", 0, buf.readerIndex());
+            assertEquals("size", 3, buffer.size());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void append_afterClose() throws Exception {
+        ContentBuffer buffer = ContentBufferFactory.inMemory().create();
+        buffer.close();
+        buffer.append(new byte[]{1}, 0, 1);
+    }
+
+    @Test
+    public void memoryIsOnHeap() throws Exception {
+        AtomicInteger directAllocations = new AtomicInteger();
+        ByteBufAllocator allocator = new AbstractByteBufAllocator(true) {
+            @Override
+            protected ByteBuf newHeapBuffer(int initialCapacity, int maxCapacity) {
+                return Unpooled.buffer(initialCapacity, maxCapacity);
+            }
+
+            @Override
+            protected ByteBuf newDirectBuffer(int initialCapacity, int maxCapacity) {
+                directAllocations.incrementAndGet();
+                return Unpooled.directBuffer(initialCapacity, maxCapacity);
+            }
+
+            @Override
+            public boolean isDirectBufferPooled() {
+                return false;
+            }
+        };
+        try (SpillingContentBuffer buffer = new SpillingContentBuffer(allocator, Long.MAX_VALUE, null)) {
+            appendInChunks(buffer, randomBytes(10 * 1024), 1000);
+        }
+        assertEquals("direct allocations", 0, directAllocations.get());
+    }
+
+    @Test
+    public void bounded_spillsPastDefaultThreshold() throws Exception {
+        byte[] content = randomBytes((int) ContentBufferFactory.DEFAULT_SPILL_THRESHOLD_BYTES + 1);
+        try (SpillingContentBuffer buffer = (SpillingContentBuffer) ContentBufferFactory.bounded().create()) {
+            appendInChunks(buffer, content, 64 * 1024);
+            assertTrue("spilled", buffer.isSpilled());
+            assertEquals("size", content.length, buffer.size());
+        }
+    }
+
+    private static void appendInChunks(ContentBuffer buffer, byte[] content, int chunkSize) throws IOException {
+        for (int offset = 0; offset < content.length; offset += chunkSize) {
+            buffer.append(content, offset, Math.min(chunkSize, content.length - offset));
+        }
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+}
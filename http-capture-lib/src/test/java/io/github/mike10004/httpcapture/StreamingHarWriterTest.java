@@ -0,0 +1,217 @@
+package io.github.mike10004.httpcapture;
+
+import com.google.common.io.CharSink;
+import com.google.common.net.HostAndPort;
+import com.google.common.net.MediaType;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import io.github.mike10004.httpcapture.testing.TestClients;
+import io.github.mike10004.nanochamp.server.NanoControl;
+import io.github.mike10004.nanochamp.server.NanoResponse;
+import io.github.mike10004.nanochamp.server.NanoServer;
+import net.lightbody.bmp.core.har.HarEntry;
+import net.lightbody.bmp.core.har.HarLog;
+import net.lightbody.bmp.core.har.HarNameVersion;
+import net.lightbody.bmp.core.har.HarPage;
+import net.lightbody.bmp.core.har.HarRequest;
+import net.lightbody.bmp.core.har.HarResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class StreamingHarWriterTest {
+
+    @Test
+    public void writeEntries() throws Exception {
+        StringWriter out = new StringWriter();
+        HarLog headerLog = new HarLog(new HarNameVersion("test", "1.0"));
+        try (StreamingHarWriter writer = new StreamingHarWriter(out)) {
+            writer.start(headerLog);
+            writer.append(buildEntry("http://example.com/one", 200));
+            writer.append(buildEntry("http://example.com/two", 404));
+            HarLog finalLog = new HarLog();
+            finalLog.addPage(new HarPage("Page 0"));
+            finalLog.addEntry(buildEntry("http://example.com/three", 500));
+            writer.finish(finalLog);
+            assertEquals("entry count", 3, writer.getEntryCount());
+        }
+        JsonObject log = new JsonParser().parse(out.toString()).getAsJsonObject().getAsJsonObject("log");
+        assertEquals("version", "1.2", log.get("version").getAsString());
+        assertEquals("creator", "test", log.getAsJsonObject("creator").get("name").getAsString());
+        JsonArray entries = log.getAsJsonArray("entries");
+        assertEquals("num entries", 3, entries.size());
+        assertEquals("second url", "http://example.com/two", entries.get(1).getAsJsonObject().getAsJsonObject("request").get("url").getAsString());
+        assertEquals("num pages", 1, log.getAsJsonArray("pages").size());
+    }
+
+    @Test
+    public void close_withoutStart() throws Exception {
+        StringWriter out = new StringWriter();
+        new StreamingHarWriter(out).close();
+        JsonObject log = new JsonParser().parse(out.toString()).getAsJsonObject().getAsJsonObject("log");
+        assertEquals("num entries", 0, log.getAsJsonArray("entries").size());
+    }
+
+    @Test(timeout = 10000L)
+    public void streamingCaptureServer() throws Exception {
+        StringWriter out = new StringWriter();
+        CaptureServer captureServer = BasicCaptureServer.builder()
+                .streamHar(new CharSink() {
+                    @Override
+                    public Writer openStream() {
+                        return out;
+                    }
+                }).build();
+        HarCaptureMonitor monitor = new HarCaptureMonitor();
+        NanoServer server = NanoServer.builder()
+                .get(session -> NanoResponse.status(200).content(MediaType.PLAIN_TEXT_UTF_8, "hello".getBytes(UTF_8)).build())
+                .build();
+        String url;
+        try (NanoControl ctrl = server.startServer()) {
+            url = ctrl.baseUri().toString();
+            try (CaptureServerControl captureCtrl = captureServer.start(monitor)) {
+                HostAndPort proxyAddress = HostAndPort.fromParts("127.0.0.1", captureCtrl.getPort());
+                TestClients.fetch(proxyAddress, new HttpGet(URI.create(url)), response -> response.getStatusLine().getStatusCode());
+            }
+        }
+        assertNotNull("har captured", monitor.getCapturedHar());
+        assertEquals("entries held in memory", 0, monitor.getCapturedHar().getLog().getEntries().size());
+        JsonObject log = new JsonParser().parse(out.toString()).getAsJsonObject().getAsJsonObject("log");
+        JsonArray entries = log.getAsJsonArray("entries");
+        assertEquals("num entries", 1, entries.size());
+        JsonObject entry = entries.get(0).getAsJsonObject();
+        assertEquals("url", url, entry.getAsJsonObject("request").get("url").getAsString());
+        assertEquals("text", "hello", entry.getAsJsonObject("response").getAsJsonObject("content").get("text").getAsString());
+    }
+
+    @Test(timeout = 10000L)
+    public void streamingCaptureServer_postProcessorThrows() throws Exception {
+        StringWriter out = new StringWriter();
+        CaptureServer captureServer = BasicCaptureServer.builder()
+                .harPostProcessor(har -> {
+                    throw new IllegalStateException("purposeful");
+                })
+                .streamHar(new CharSink() {
+                    @Override
+                    public Writer openStream() {
+                        return out;
+                    }
+                }).build();
+        CaptureServerControl captureCtrl = captureServer.start(new HarCaptureMonitor());
+        try {
+            captureCtrl.close();
+            fail("close should throw");
+        } catch (IllegalStateException expected) {
+        }
+        JsonObject log = new JsonParser().parse(out.toString()).getAsJsonObject().getAsJsonObject("log");
+        assertEquals("num entries", 0, log.getAsJsonArray("entries").size());
+    }
+
+    @Test(timeout = 10000L)
+    public void streamingCaptureServer_portInUse() throws Exception {
+        StringWriter out = new StringWriter();
+        CaptureServer captureServer = BasicCaptureServer.builder()
+                .streamHar(new CharSink() {
+                    @Override
+                    public Writer openStream() {
+                        return out;
+                    }
+                }).build();
+        try (ServerSocket occupant = new ServerSocket(0)) {
+            try {
+                captureServer.start(new HarCaptureMonitor(), occupant.getLocalPort()).close();
+                fail("start should throw");
+            } catch (RuntimeException expected) {
+            }
+        }
+        JsonObject log = new JsonParser().parse(out.toString()).getAsJsonObject().getAsJsonObject("log");
+        assertEquals("num entries", 0, log.getAsJsonArray("entries").size());
+    }
+
+    @Test(timeout = 10000L)
+    public void streamingCaptureServer_clientAbortsMidResponse() throws Exception {
+        StringWriter out = new StringWriter();
+        CaptureServer captureServer = BasicCaptureServer.builder()
+                .streamHar(new CharSink() {
+                    @Override
+                    public Writer openStream() {
+                        return out;
+                    }
+                }).build();
+        CountDownLatch stopOrigin = new CountDownLatch(1);
+        String url;
+        try (ServerSocket origin = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            url = "http://127.0.0.1:" + origin.getLocalPort() + "/partial";
+            Thread originThread = new Thread(() -> {
+                try (Socket socket = origin.accept()) {
+                    BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), US_ASCII));
+                    //noinspection StatementWithEmptyBody
+                    for (String line = reader.readLine(); line != null && !line.isEmpty(); line = reader.readLine()) {
+                    }
+                    OutputStream os = socket.getOutputStream();
+                    os.write(("HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\nContent-Length: 100000\r\n\r\npartial").getBytes(US_ASCII));
+                    os.flush();
+                    stopOrigin.await();
+                } catch (IOException | InterruptedException ignore) {
+                }
+            });
+            originThread.setDaemon(true);
+            originThread.start();
+            try {
+                try (CaptureServerControl captureCtrl = captureServer.start(new HarCaptureMonitor())) {
+                    try (Socket client = new Socket(InetAddress.getLoopbackAddress(), captureCtrl.getPort())) {
+                        client.getOutputStream().write(("GET " + url + " HTTP/1.1\r\nHost: 127.0.0.1:" + origin.getLocalPort() + "\r\n\r\n").getBytes(US_ASCII));
+                        client.getOutputStream().flush();
+                        String received = readUntil(client.getInputStream(), "partial");
+                        assertTrue("response started: " + received, received.endsWith("partial"));
+                    }
+                }
+            } finally {
+                stopOrigin.countDown();
+            }
+        }
+        JsonObject log = new JsonParser().parse(out.toString()).getAsJsonObject().getAsJsonObject("log");
+        JsonArray entries = log.getAsJsonArray("entries");
+        assertEquals("num entries", 1, entries.size());
+        JsonObject entry = entries.get(0).getAsJsonObject();
+        assertEquals("url", url, entry.getAsJsonObject("request").get("url").getAsString());
+    }
+
+    private static String readUntil(InputStream in, String suffix) throws IOException {
+        StringBuilder received = new StringBuilder();
+        int b;
+        while (received.indexOf(suffix) < 0 && (b = in.read()) != -1) {
+            received.append((char) b);
+        }
+        return received.toString();
+    }
+
+    static HarEntry buildEntry(String url, int status) {
+        HarEntry entry = new HarEntry("Page 0");
+        entry.setStartedDateTime(new Date());
+        entry.setRequest(new HarRequest("GET", url, "HTTP/1.1"));
+        entry.setResponse(new HarResponse(status, "Whatever", "HTTP/1.1"));
+        return entry;
+    }
+}
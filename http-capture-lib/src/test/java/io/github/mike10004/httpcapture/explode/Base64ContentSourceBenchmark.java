@@ -0,0 +1,57 @@
+package io.github.mike10004.httpcapture.explode;
+
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.CharSource;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Benchmark that compares decoding base64 content to a file through a decoding stream,
+ * as previously done by {@link HarExporter}, with decoding in blocks straight to a file
+ * channel. Run the main method, optionally with the payload size in megabytes as the
+ * argument; this is not a unit test.
+ */
+public class Base64ContentSourceBenchmark {
+
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int MEASURED_ROUNDS = 10;
+
+    private interface Decoder {
+        long decode(String text, File file) throws IOException;
+    }
+
+    private static double measure(String name, Decoder decoder, String text, File file) throws IOException {
+        long sink = 0;
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            sink += decoder.decode(text, file);
+        }
+        long bytes = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            bytes += decoder.decode(text, file);
+        }
+        long elapsed = System.nanoTime() - start;
+        double megabytesPerSecond = bytes / (1024d * 1024d) / (elapsed / 1e9);
+        System.out.format("%-16s %8.1f MB/s (checksum %d)%n", name, megabytesPerSecond, sink);
+        return megabytesPerSecond;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        byte[] data = new byte[megabytes * 1024 * 1024];
+        new Random(1).nextBytes(data);
+        String text = BaseEncoding.base64().encode(data);
+        File file = File.createTempFile("base64-benchmark", ".bin");
+        try {
+            System.out.format("%d MB decoded payload%n", megabytes);
+            measure("channel blocks", (t, f) -> new Base64ContentSource(t).writeTo(f.toPath()), text, file);
+            measure("decoding stream", (t, f) -> BaseEncoding.base64().decodingSource(CharSource.wrap(t)).copyTo(Files.asByteSink(f)), text, file);
+        } finally {
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package io.github.mike10004.httpcapture.explode;
+
+import com.google.common.io.BaseEncoding;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class Base64ContentSourceTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void writeTo() throws Exception {
+        Random random = new Random(Base64ContentSourceTest.class.hashCode());
+        for (int length : new int[]{0, 1, 2, 3, 4, 5, 11, 12, 13, 100, 1000}) {
+            byte[] data = new byte[length];
+            random.nextBytes(data);
+            String text = BaseEncoding.base64().encode(data);
+            // block sizes smaller than, equal to, and larger than the text
+            for (int blockChars : new int[]{4, 8, 16, Base64ContentSource.DEFAULT_BLOCK_CHARS}) {
+                File file = temporaryFolder.newFile();
+                long count = new Base64ContentSource(text, blockChars).writeTo(file.toPath());
+                assertEquals("count for length " + length + " block " + blockChars, length, count);
+                assertArrayEquals("content for length " + length + " block " + blockChars, data, Files.readAllBytes(file.toPath()));
+            }
+            assertArrayEquals("stream content for length " + length, data, new Base64ContentSource(text).read());
+        }
+    }
+
+    @Test
+    public void sizeIfKnown() throws Exception {
+        Random random = new Random(Base64ContentSourceTest.class.hashCode());
+        for (int length : new int[]{0, 1, 2, 3, 4, 5, 100}) {
+            byte[] data = new byte[length];
+            random.nextBytes(data);
+            assertEquals("padded " + length, Long.valueOf(length), new Base64ContentSource(BaseEncoding.base64().encode(data)).sizeIfKnown().get());
+            assertEquals("unpadded " + length, Long.valueOf(length), new Base64ContentSource(BaseEncoding.base64().omitPadding().encode(data)).sizeIfKnown().get());
+        }
+        assertFalse("invalid length", new Base64ContentSource("AAAAA").sizeIfKnown().isPresent());
+    }
+
+    @Test(expected = IOException.class)
+    public void writeTo_invalid() throws Exception {
+        new Base64ContentSource("AAAA!AAA", 4).writeTo(temporaryFolder.newFile().toPath());
+    }
+}
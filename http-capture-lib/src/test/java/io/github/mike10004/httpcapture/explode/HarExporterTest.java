@@ -1,14 +1,31 @@
 package io.github.mike10004.httpcapture.explode;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.ByteSource;
+import com.google.common.io.CharSource;
 import com.google.common.io.Files;
+import io.github.mike10004.httpcapture.BodyStore;
+import io.github.mike10004.httpcapture.EnhancedHarContent;
+import io.github.mike10004.httpcapture.ParallelGzipOutputStream;
 import io.github.mike10004.httpcapture.testing.HarTestCase;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public class HarExporterTest {
 
@@ -24,4 +41,103 @@ public class HarExporterTest {
         exploder.export(Files.asCharSource(harFile, StandardCharsets.UTF_8), outputRoot);
         testCase.checkExport(outputRoot);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void explode_storedContent() throws Exception {
+        BodyStore bodyStore = BodyStore.inDirectory(temporaryFolder.newFolder().toPath());
+        String contentHash = bodyStore.put(ByteSource.wrap("stored body".getBytes(StandardCharsets.UTF_8)));
+        String har = "{\"log\": {\"entries\": [{\"request\": {\"method\": \"GET\", \"url\": \"http://example.com/x\"}, "
+                + "\"response\": {\"status\": 200, \"statusText\": \"OK\", \"content\": {\"size\": 11, \"mimeType\": \"text/plain\", \"_contentHash\": \"" + contentHash + "\"}}}]}}";
+        Path outputRoot = temporaryFolder.newFolder().toPath();
+        new HarExporter(bodyStore).export(CharSource.wrap(har), outputRoot);
+        File dataFile = outputRoot.resolve("log").resolve("entries").resolve("0-GET-example.com_x").resolve("200-OK").toFile();
+        assertEquals("content", "stored body", Files.asCharSource(dataFile, StandardCharsets.UTF_8).read());
+    }
+
+    @Test
+    public void explode_gzip() throws Exception {
+        HarExporter exploder = new HarExporter();
+        HarTestCase testCase = new HarTestCase("/example-captured.har");
+        File harFile = testCase.getPathname(temporaryFolder.getRoot().toPath());
+        File gzipFile = temporaryFolder.newFile("example-captured.har.gz");
+        try (OutputStream out = new ParallelGzipOutputStream(new FileOutputStream(gzipFile), Deflater.BEST_SPEED, 4096, 2)) {
+            Files.copy(harFile, out);
+        }
+        Path outputRoot = temporaryFolder.newFolder().toPath();
+        exploder.export(Files.asByteSource(gzipFile), StandardCharsets.UTF_8, outputRoot);
+        testCase.checkExport(outputRoot);
+    }
+
+    @Test
+    public void explode_skipsFieldsAroundEntries() throws Exception {
+        String har = "{\"log\": {\"version\": \"1.2\", \"pages\": [{\"id\": \"page_0\", \"pageTimings\": {}}], \"entries\": ["
+                + "{\"request\": {\"method\": \"GET\", \"url\": \"http://example.com/a\"}, \"response\": {\"status\": 200, \"statusText\": \"OK\", \"content\": {\"text\": \"first\"}}},"
+                + "{\"request\": {\"method\": \"GET\"}},"
+                + "{\"request\": {\"method\": \"GET\", \"url\": \"http://example.com/b\"}, \"response\": {\"status\": 404, \"statusText\": \"Missing\", \"content\": {\"text\": \"third\"}}}"
+                + "], \"comment\": \"trailing\"}, \"extra\": [1, 2, 3]}";
+        Path outputRoot = temporaryFolder.newFolder().toPath();
+        new HarExporter().export(CharSource.wrap(har), outputRoot);
+        Path entriesRoot = outputRoot.resolve("log").resolve("entries");
+        assertEquals("first", Files.asCharSource(entriesRoot.resolve("0-GET-example.com_a").resolve("200-OK").toFile(), StandardCharsets.UTF_8).read());
+        assertEquals("third", Files.asCharSource(entriesRoot.resolve("2-GET-example.com_b").resolve("404-Missing").toFile(), StandardCharsets.UTF_8).read());
+        assertEquals("num entry dirs", 2, entriesRoot.toFile().list().length);
+    }
+
+    @Test
+    public void explode_parallel() throws Exception {
+        HarTestCase testCase = new HarTestCase("/example-captured.har");
+        File harFile = testCase.getPathname(temporaryFolder.getRoot().toPath());
+        Path serialRoot = temporaryFolder.newFolder().toPath(), parallelRoot = temporaryFolder.newFolder().toPath();
+        ExportSummary serial = new HarExporter().export(Files.asCharSource(harFile, StandardCharsets.UTF_8), serialRoot);
+        ExportSummary parallel = new HarExporter(null, 4).export(Files.asCharSource(harFile, StandardCharsets.UTF_8), parallelRoot);
+        testCase.checkExport(parallelRoot);
+        assertEquals("entry count", serial.getEntryCount(), parallel.getEntryCount());
+        assertEquals("byte count", serial.getByteCount(), parallel.getByteCount());
+        String[] serialDirs = serialRoot.resolve("log").resolve("entries").toFile().list();
+        String[] parallelDirs = parallelRoot.resolve("log").resolve("entries").toFile().list();
+        Arrays.sort(serialDirs);
+        Arrays.sort(parallelDirs);
+        assertArrayEquals("entry directories", serialDirs, parallelDirs);
+    }
+
+    @Test
+    public void explode_base64() throws Exception {
+        Random random = new Random(HarExporterTest.class.hashCode());
+        byte[] first = new byte[100_000], second = new byte[1001], third = new byte[2002];
+        random.nextBytes(first);
+        random.nextBytes(second);
+        random.nextBytes(third);
+        String har = "{\"log\": {\"entries\": ["
+                + base64Entry("a", "\"encoding\": \"base64\", \"text\": \"" + BaseEncoding.base64().encode(first) + "\"") + ","
+                + base64Entry("b", "\"encoding\": \"base64\", \"text\": \"" + BaseEncoding.base64().omitPadding().encode(second) + "\"") + ","
+                + base64Entry("c", "\"text\": \"" + BaseEncoding.base64().encode(third) + "\", \"encoding\": \"base64\"")
+                + "]}}";
+        Path outputRoot = temporaryFolder.newFolder().toPath();
+        new HarExporter().export(CharSource.wrap(har), outputRoot);
+        Path entriesRoot = outputRoot.resolve("log").resolve("entries");
+        assertArrayEquals("encoding before text", first, Files.toByteArray(entriesRoot.resolve("0-GET-example.com_a").resolve("200-OK").toFile()));
+        assertArrayEquals("unpadded", second, Files.toByteArray(entriesRoot.resolve("1-GET-example.com_b").resolve("200-OK").toFile()));
+        assertArrayEquals("encoding after text", third, Files.toByteArray(entriesRoot.resolve("2-GET-example.com_c").resolve("200-OK").toFile()));
+        assertArrayEquals("files in output root", new String[]{"log"}, outputRoot.toFile().list());
+    }
+
+    private static String base64Entry(String path, String contentFields) {
+        return "{\"request\": {\"method\": \"GET\", \"url\": \"http://example.com/" + path + "\"}, "
+                + "\"response\": {\"status\": 200, \"statusText\": \"OK\", \"content\": {\"mimeType\": \"application/octet-stream\", " + contentFields + "}}}";
+    }
+
+    @Test(expected = IOException.class)
+    public void explode_truncated() throws Exception {
+        String har = "{\"log\": {\"entries\": [" + base64Entry("a", "\"text\": \"hello\"");
+        new HarExporter().export(CharSource.wrap(har), temporaryFolder.newFolder().toPath());
+    }
+
+    @Test
+    public void capturedContent_encodingBeforeText() throws Exception {
+        EnhancedHarContent content = new EnhancedHarContent();
+        content.setText("AAAA");
+        content.setEncoding("base64");
+        String json = new ObjectMapper().writeValueAsString(content);
+        assertTrue("encoding before text in " + json, json.indexOf("\"encoding\"") < json.indexOf("\"text\""));
+    }
+}
@@ -0,0 +1,106 @@
+package io.github.mike10004.httpcapture.explode;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteSource;
+import com.google.common.io.CharSource;
+import com.google.common.io.Files;
+import io.github.mike10004.httpcapture.testing.HarTestCase;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PackReaderTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void readEntries() throws Exception {
+        String har = "{\"log\": {\"entries\": ["
+                + "{\"request\": {\"method\": \"GET\", \"url\": \"http://example.com/a\"}, \"response\": {\"status\": 200, \"statusText\": \"OK\", \"content\": {\"text\": \"first\"}}},"
+                + "{\"request\": {\"method\": \"GET\"}},"
+                + "{\"request\": {\"method\": \"POST\", \"url\": \"http://example.com/b\"}, \"response\": {\"status\": 404, \"statusText\": \"Missing\", \"content\": {\"text\": \"dGhpcmQ=\", \"encoding\": \"base64\"}}},"
+                + "{\"request\": {\"method\": \"GET\"}}"
+                + "]}}";
+        Path outputRoot = temporaryFolder.newFolder().toPath();
+        ExportSummary summary = new HarExporter().exportToPack(CharSource.wrap(har), outputRoot);
+        assertEquals("exported", 2, summary.getEntryCount());
+        assertEquals("bytes", "first".length() + "third".length(), summary.getByteCount());
+        try (PackReader reader = PackReader.open(outputRoot)) {
+            assertEquals("entry count", 4, reader.getEntryCount());
+            PackReader.PackEntry first = reader.getEntry(0);
+            assertNotNull(first);
+            assertEquals("method", "GET", first.getMethod());
+            assertEquals("url", "http://example.com/a", first.getUrl());
+            assertEquals("status", 200, first.getStatus());
+            assertEquals("body", "first", first.getBody().asCharSource(StandardCharsets.UTF_8).read());
+            assertNull("not exported", reader.getEntry(1));
+            assertNull("trailing entry not exported", reader.getEntry(3));
+            PackReader.PackEntry third = reader.findEntry("http://example.com/b");
+            assertNotNull(third);
+            assertEquals("index", 2, third.getIndex());
+            assertEquals("method", "POST", third.getMethod());
+            assertEquals("status", 404, third.getStatus());
+            assertEquals("body", "third", third.getBody().asCharSource(StandardCharsets.UTF_8).read());
+            assertNull("absent url", reader.findEntry("http://example.com/c"));
+        }
+    }
+
+    @Test
+    public void open_invalidEntryCount() throws Exception {
+        Path packRoot = temporaryFolder.newFolder().toPath();
+        try (PackWriter writer = new PackWriter(packRoot)) {
+            writer.finish(0);
+        }
+        File indexFile = packRoot.resolve(PackWriter.INDEX_FILENAME).toFile();
+        try (RandomAccessFile index = new RandomAccessFile(indexFile, "rw")) {
+            index.seek(PackWriter.HEADER_SIZE - 8);
+            index.writeLong(Long.MAX_VALUE / 2);
+        }
+        try {
+            PackReader.open(packRoot).close();
+            fail("should have thrown");
+        } catch (IOException e) {
+            assertTrue("message: " + e.getMessage(), e.getMessage().contains("invalid entry count"));
+        }
+    }
+
+    @Test
+    public void readEntries_parallel() throws Exception {
+        HarTestCase testCase = new HarTestCase("/example-captured.har");
+        File harFile = testCase.getPathname(temporaryFolder.getRoot().toPath());
+        Path dirRoot = temporaryFolder.newFolder().toPath(), packRoot = temporaryFolder.newFolder().toPath();
+        new HarExporter().export(Files.asCharSource(harFile, StandardCharsets.UTF_8), dirRoot);
+        ExportSummary summary = new HarExporter(null, 4).exportToPack(Files.asCharSource(harFile, StandardCharsets.UTF_8), packRoot);
+        Path entriesRoot = dirRoot.resolve("log").resolve("entries");
+        int checked = 0;
+        try (PackReader reader = PackReader.open(packRoot)) {
+            for (int i = 0; i < reader.getEntryCount(); i++) {
+                PackReader.PackEntry entry = reader.getEntry(i);
+                if (entry != null) {
+                    String dirName = new HarExporter.CachedEntry(entry.getMethod(), entry.getUrl(), entry.getStatus(), "", ByteSource.empty()).constructDirectoryName(i);
+                    File entryDir = entriesRoot.resolve(dirName).toFile();
+                    assertEquals("url of " + entryDir, Files.asCharSource(new File(entryDir, "url.txt"), StandardCharsets.UTF_8).read(), entry.getUrl());
+                    File[] dataFiles = entryDir.listFiles((dir, name) -> !"url.txt".equals(name));
+                    assertNotNull(dataFiles);
+                    assertEquals("data files in " + entryDir, 1, dataFiles.length);
+                    assertEquals("body of " + entryDir, Files.asByteSource(dataFiles[0]).hash(Hashing.sha256()), entry.getBody().hash(Hashing.sha256()));
+                    checked++;
+                }
+            }
+        }
+        assertEquals("entries checked", summary.getEntryCount(), checked);
+    }
+}